@@ -0,0 +1,126 @@
+package com.simonscholz.monitoring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.simonscholz.monitoring.EventLoopMonitorThread.Parameters;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+
+/**
+ * Measures a stack sample of the monitoring thread against live threads. Half
+ * of the threads idle in a thread pool and are filtered as noninteresting, the
+ * other half wait in application code at varying stack depths. The UI thread
+ * waits at a depth typical for a freeze in an Eclipse application.
+ * <p>
+ * The sample captures the UI thread only, as the first samples of a freeze do,
+ * all interesting threads, as the later samples do, or the threads selected by
+ * the targeted thread capture.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaptureThreadStacksBenchmark {
+	private static final int UI_THREAD_DEPTH = 120;
+
+	@Param({ "50", "500", "5000" })
+	int threads;
+
+	@Param({ "UI_THREAD", "ALL_THREADS", "TARGETED" })
+	String capture;
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final List<Thread> applicationThreads = new ArrayList<>();
+	private ExecutorService pool;
+	private EventLoopMonitorThread monitor;
+
+	@Setup(Level.Trial)
+	public void setUp() throws InterruptedException {
+		int poolSize = threads / 2;
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 1, TimeUnit.HOURS,
+				new LinkedBlockingQueue<>());
+		executor.prestartAllCoreThreads();
+		pool = executor;
+
+		int count = threads - poolSize;
+		CountDownLatch started = new CountDownLatch(count);
+		Thread uiThread = null;
+		for (int i = 0; i < count; i++) {
+			int depth = i == 0 ? UI_THREAD_DEPTH : 10 + i % 40;
+			Thread thread = new Thread(() -> {
+				started.countDown();
+				descend(depth);
+			}, i == 0 ? "main" : "Worker-" + i); //$NON-NLS-1$ //$NON-NLS-2$
+			thread.setDaemon(true);
+			thread.start();
+			applicationThreads.add(thread);
+			if (i == 0) {
+				uiThread = thread;
+			}
+		}
+		started.await();
+		// Give the threads time to reach the bottom of their stacks.
+		Thread.sleep(200);
+
+		Parameters args = new Parameters();
+		args.longEventWarningThreshold = 500;
+		args.longEventErrorThreshold = 2000;
+		args.deadlockThreshold = 300000;
+		args.maxStackSamples = 3;
+		args.uiThreadFilter = ""; //$NON-NLS-1$
+		// Idle threads park in jdk.internal.misc.Unsafe on Java 9 and later.
+		args.noninterestingThreadFilter = FilterHandlerBenchmark.NONINTERESTING_THREAD_FILTER + ",jdk.internal.*"; //$NON-NLS-1$
+		args.targetedThreadCapture = "TARGETED".equals(capture); //$NON-NLS-1$
+		args.threadCaptureAllowList = "Worker-1*"; //$NON-NLS-1$
+		monitor = new EventLoopMonitorThread(args, uiThread.getId(), new FreezeMonitorStatistics());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		release.countDown();
+		pool.shutdownNow();
+		for (Thread thread : applicationThreads) {
+			thread.join();
+		}
+		pool.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	@Benchmark
+	public ThreadSnapshot[] captureThreadStacks() {
+		return monitor.captureStackSample(!"UI_THREAD".equals(capture)); //$NON-NLS-1$
+	}
+
+	private void descend(int depth) {
+		if (depth > 0) {
+			descend(depth - 1);
+			return;
+		}
+		try {
+			release.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
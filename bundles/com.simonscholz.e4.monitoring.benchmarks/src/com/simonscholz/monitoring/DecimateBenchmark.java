@@ -0,0 +1,51 @@
+package com.simonscholz.monitoring;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.simonscholz.services.monitoring.StackSample;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+
+/**
+ * Measures the reduction of the stack samples of a freeze to the number of
+ * logged samples. The buffer of a freeze holds twice the logged samples, and
+ * long freezes are decimated whenever the buffer is full.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DecimateBenchmark {
+	@Param({ "3", "10", "50" })
+	int maxLoggedSamples;
+
+	private StackSample[] samples;
+
+	@Setup
+	public void setUp() {
+		samples = new StackSample[2 * maxLoggedSamples];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = new StackSample(i, i, new ThreadSnapshot[0]);
+		}
+	}
+
+	@Benchmark
+	public StackSample decimate() {
+		// Decimating only moves references, repeating it on the same array costs the same.
+		EventLoopMonitorThread.decimate(samples, samples.length, maxLoggedSamples);
+		return samples[maxLoggedSamples - 1];
+	}
+}
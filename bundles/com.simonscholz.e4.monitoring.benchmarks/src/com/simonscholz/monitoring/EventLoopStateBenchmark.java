@@ -0,0 +1,100 @@
+package com.simonscholz.monitoring;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.simonscholz.monitoring.EventLoopMonitorThread.Parameters;
+
+/**
+ * Measures the overhead the event loop monitor adds to the UI thread for every
+ * dispatched event. The monitoring thread is not started, so the UI thread
+ * never has to wake it up, as in the common case of events shorter than the
+ * sample interval.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EventLoopStateBenchmark {
+	@Param({ "false", "true" })
+	boolean monotonicClock;
+
+	@Param({ "false", "true" })
+	boolean latencyHistograms;
+
+	private EventLoopMonitorThread monitor;
+	private final Event preEvent = event(SWT.PreEvent, SWT.MouseMove);
+	private final Event postEvent = event(SWT.PostEvent, SWT.MouseMove);
+	private final Event preExternalEvent = event(SWT.PreExternalEventDispatch, 0);
+	private final Event postExternalEvent = event(SWT.PostExternalEventDispatch, 0);
+
+	@Setup
+	public void setUp() {
+		Parameters args = new Parameters();
+		args.longEventWarningThreshold = 500;
+		args.longEventErrorThreshold = 2000;
+		args.deadlockThreshold = 300000;
+		args.maxStackSamples = 3;
+		args.monotonicClock = monotonicClock;
+		args.dispatchLatencyHistogramsEnabled = latencyHistograms;
+		args.uiThreadFilter = ""; //$NON-NLS-1$
+		args.noninterestingThreadFilter = ""; //$NON-NLS-1$
+		monitor = new EventLoopMonitorThread(args, Thread.currentThread().getId(), new FreezeMonitorStatistics());
+	}
+
+	/**
+	 * A top level event, measured per {@link SWT#PreEvent PreEvent} and
+	 * {@link SWT#PostEvent PostEvent}.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(2)
+	public void dispatch() {
+		monitor.handleEvent(preEvent);
+		monitor.handleEvent(postEvent);
+	}
+
+	/**
+	 * An event with a nested event, as sent while a dialog is opened.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(4)
+	public void nestedDispatch() {
+		monitor.handleEvent(preEvent);
+		monitor.handleEvent(preEvent);
+		monitor.handleEvent(postEvent);
+		monitor.handleEvent(postEvent);
+	}
+
+	/**
+	 * Sleeping in the external event loop of the operating system.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(2)
+	public void externalDispatch() {
+		monitor.handleEvent(preExternalEvent);
+		monitor.handleEvent(postExternalEvent);
+	}
+
+	private static Event event(int type, int detail) {
+		Event event = new Event();
+		event.type = type;
+		event.detail = detail;
+		return event;
+	}
+}
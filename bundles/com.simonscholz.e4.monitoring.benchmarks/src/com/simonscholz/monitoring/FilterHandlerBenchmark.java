@@ -0,0 +1,133 @@
+package com.simonscholz.monitoring;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the matching of stack frames against the filters of the monitor,
+ * with the default filter of noninteresting threads and with a UI thread
+ * filter as configured by a product. The {@code Regex} variants measure the
+ * former matching with one regular expression per filter as the baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FilterHandlerBenchmark {
+	/** The default of {@code PreferenceConstants.NONINTERESTING_THREAD_FILTER}. */
+	static final String NONINTERESTING_THREAD_FILTER = "java.*" //$NON-NLS-1$
+			+ ",sun.*" //$NON-NLS-1$
+			+ ",org.eclipse.core.internal.jobs.WorkerPool.sleep" //$NON-NLS-1$
+			+ ",org.eclipse.core.internal.jobs.WorkerPool.startJob" //$NON-NLS-1$
+			+ ",org.eclipse.core.internal.jobs.Worker.run" //$NON-NLS-1$
+			+ ",org.eclipse.osgi.framework.eventmgr.EventManager$EventThread.getNextEvent" //$NON-NLS-1$
+			+ ",org.eclipse.osgi.framework.eventmgr.EventManager$EventThread.run" //$NON-NLS-1$
+			+ ",org.eclipse.equinox.internal.util.impl.tpt.timer.TimerImpl.run" //$NON-NLS-1$
+			+ ",org.eclipse.equinox.internal.util.impl.tpt.threadpool.Executor.run"; //$NON-NLS-1$
+	/** Known freezes a product does not want to hear about, exact and with wildcards. */
+	static final String UI_THREAD_FILTER = "org.eclipse.swt.internal.gtk.OS.gtk_dialog_run" //$NON-NLS-1$
+			+ ",org.eclipse.e4.ui.workbench.addons.dndaddon.DnDManager.startDrag" //$NON-NLS-1$
+			+ ",org.eclipse.swt.dnd.DragSource.drag" //$NON-NLS-1$
+			+ ",org.eclipse.jface.dialogs.ProgressMonitorDialog.run" //$NON-NLS-1$
+			+ ",org.eclipse.ui.internal.progress.ProgressMonitorFocusJobDialog.*" //$NON-NLS-1$
+			+ ",org.eclipse.jdt.internal.ui.text.java.*Proposal*.apply" //$NON-NLS-1$
+			+ ",org.eclipse.ui.internal.ide.application.DelayedEventsProcessor.*" //$NON-NLS-1$
+			+ ",com.example.app.*.refresh?"; //$NON-NLS-1$
+
+	@Param({ "NONINTERESTING_THREAD_FILTER", "UI_THREAD_FILTER" })
+	String filter;
+
+	private FilterHandler filterHandler;
+	private RegexFilterHandler regexFilterHandler;
+	private StackTraceElement[] frames;
+	private StackTraceElement[] idleWorkerStack;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		String filterText = "UI_THREAD_FILTER".equals(filter) ? UI_THREAD_FILTER : NONINTERESTING_THREAD_FILTER; //$NON-NLS-1$
+		filterHandler = new FilterHandler(filterText);
+		regexFilterHandler = new RegexFilterHandler(filterText);
+		frames = new StackTraceElement[] { //
+				frame("org.eclipse.swt.internal.gtk.OS", "_g_main_context_iteration"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("org.eclipse.swt.widgets.Display", "readAndDispatch"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("org.eclipse.swt.widgets.EventTable", "sendEvent"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("org.eclipse.swt.widgets.Widget", "sendEvent"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("org.eclipse.jface.viewers.StructuredViewer", "refresh"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("org.eclipse.jface.viewers.AbstractTreeViewer", "internalRefresh"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("org.eclipse.jdt.internal.ui.text.java.LazyJavaCompletionProposal", "apply"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("org.eclipse.ui.internal.progress.ProgressMonitorFocusJobDialog", "open"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("org.eclipse.e4.ui.internal.workbench.swt.PartRenderingEngine$5", "run"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("org.eclipse.core.internal.jobs.Worker", "run"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("org.eclipse.core.internal.jobs.WorkerPool", "sleep"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("com.example.app.ui.ProjectView", "refresh1"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("com.example.app.model.Index", "lookup"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("java.lang.Object", "wait"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("java.util.concurrent.ThreadPoolExecutor", "runWorker"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("sun.nio.ch.EPollArrayWrapper", "epollWait"), //$NON-NLS-1$ //$NON-NLS-2$
+		};
+		idleWorkerStack = new StackTraceElement[] { //
+				frame("java.lang.Object", "wait"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("org.eclipse.core.internal.jobs.WorkerPool", "sleep"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("org.eclipse.core.internal.jobs.WorkerPool", "startJob"), //$NON-NLS-1$ //$NON-NLS-2$
+				frame("org.eclipse.core.internal.jobs.Worker", "run"), //$NON-NLS-1$ //$NON-NLS-2$
+		};
+	}
+
+	/**
+	 * Matches a single frame, cycling through frames that match and frames that
+	 * don't.
+	 */
+	@Benchmark
+	public boolean matchesFilter() {
+		StackTraceElement frame = frames[next];
+		next = next + 1 == frames.length ? 0 : next + 1;
+		return filterHandler.matchesFilter(frame);
+	}
+
+	/**
+	 * Checks whether a thread is interesting, the verdict for the stack is cached
+	 * after the first call.
+	 */
+	@Benchmark
+	public boolean matchesAllFrames() {
+		return filterHandler.matchesAllFrames(idleWorkerStack);
+	}
+
+	/**
+	 * Matches a single frame like {@link #matchesFilter()} with the former
+	 * matching.
+	 */
+	@Benchmark
+	public boolean matchesFilterRegex() {
+		StackTraceElement frame = frames[next];
+		next = next + 1 == frames.length ? 0 : next + 1;
+		return regexFilterHandler.matchesFilter(frame);
+	}
+
+	/**
+	 * Checks whether a thread is interesting like {@link #matchesAllFrames()} with
+	 * the former matching, which had no cache.
+	 */
+	@Benchmark
+	public boolean matchesAllFramesRegex() {
+		return regexFilterHandler.matchesAllFrames(idleWorkerStack);
+	}
+
+	private static StackTraceElement frame(String className, String methodName) {
+		return new StackTraceElement(className, methodName, null, -1);
+	}
+}
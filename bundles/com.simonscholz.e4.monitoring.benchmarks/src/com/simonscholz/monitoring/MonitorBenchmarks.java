@@ -0,0 +1,33 @@
+package com.simonscholz.monitoring;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Runs the benchmarks of the freeze monitor with the command line of JMH,
+ * {@code -h} lists its options. Unless specified otherwise with {@code -rf} and
+ * {@code -rff}, the results are written as JSON to {@code jmh-result.json}, so
+ * they can be compared between builds.
+ */
+public final class MonitorBenchmarks {
+	private MonitorBenchmarks() {
+	}
+
+	public static void main(String[] args) throws RunnerException, IOException {
+		List<String> arguments = new ArrayList<>(Arrays.asList(args));
+		if (!arguments.contains("-rf")) { //$NON-NLS-1$
+			arguments.add("-rf"); //$NON-NLS-1$
+			arguments.add("json"); //$NON-NLS-1$
+		}
+		if (!arguments.contains("-rff")) { //$NON-NLS-1$
+			arguments.add("-rff"); //$NON-NLS-1$
+			arguments.add("jmh-result.json"); //$NON-NLS-1$
+		}
+		Main.main(arguments.toArray(new String[arguments.size()]));
+	}
+}
@@ -0,0 +1,171 @@
+package com.simonscholz.monitoring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The matching of {@link FilterHandler} before the filters were compiled into
+ * a single automaton, kept as the baseline of {@link FilterHandlerBenchmark}.
+ * Every filter with wildcards is a regular expression of its own, the frame is
+ * matched against each of them in turn and then looked up among the exact
+ * filters by binary search.
+ * <p>
+ * <strong>This class is not thread safe.</strong>
+ * </p>
+ */
+final class RegexFilterHandler {
+	/** Reusable object used to avoid object creation in filtering methods. */
+	private final CompoundName compoundName = new CompoundName();
+	private final String[] filterClassNames;
+	private final String[] filterMethodNames;
+	private final Pattern[] filterPatterns;
+
+	/**
+	 * Groups the class name and method name defined in the filter.
+	 */
+	private static final class StackFrame implements Comparable<StackFrame> {
+		final String className;
+		final String methodName;
+
+		StackFrame(String className, String methodName) {
+			this.className = className;
+			this.methodName = methodName;
+		}
+
+		@Override
+		public int compareTo(StackFrame other) {
+			int c = methodName.compareTo(other.methodName);
+			if (c != 0) {
+				return c;
+			}
+			return className.compareTo(other.className);
+		}
+	}
+
+	/**
+	 * The fully qualified name of a method without concatenating its class and
+	 * method name.
+	 */
+	private static final class CompoundName implements CharSequence {
+		private String first = ""; //$NON-NLS-1$
+		private String last = ""; //$NON-NLS-1$
+
+		void reset(String first, String last) {
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		public int length() {
+			return first.length() + 1 + last.length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			int firstLen = first.length();
+			if (index < firstLen) {
+				return first.charAt(index);
+			} else if (index == firstLen) {
+				return '.';
+			} else {
+				return last.charAt(index - firstLen - 1);
+			}
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return first + '.' + last;
+		}
+	}
+
+	/**
+	 * @param commaSeparatedMethods comma separated fully qualified method names to
+	 *                              filter on, which may contain wildcard
+	 *                              characters '*' and '?'
+	 */
+	RegexFilterHandler(String commaSeparatedMethods) {
+		String[] filters = commaSeparatedMethods.split(","); //$NON-NLS-1$
+		List<StackFrame> stackFrames = new ArrayList<>(filters.length);
+		List<Pattern> stackPatterns = new ArrayList<>(filters.length);
+		for (String filter : filters) {
+			if (containsWildcards(filter)) {
+				stackPatterns.add(FilterHandler.createPattern(filter));
+			} else {
+				int lastDot = filter.lastIndexOf('.');
+				stackFrames.add(lastDot >= 0 ? new StackFrame(filter.substring(0, lastDot), filter.substring(lastDot + 1))
+						: new StackFrame("", filter)); //$NON-NLS-1$
+			}
+		}
+		Collections.sort(stackFrames);
+		filterClassNames = new String[stackFrames.size()];
+		filterMethodNames = new String[stackFrames.size()];
+		for (int i = 0; i < filterClassNames.length; i++) {
+			filterClassNames[i] = stackFrames.get(i).className;
+			filterMethodNames[i] = stackFrames.get(i).methodName;
+		}
+		filterPatterns = stackPatterns.toArray(new Pattern[stackPatterns.size()]);
+	}
+
+	/**
+	 * Checks whether the given stack frame matches the filter.
+	 */
+	boolean matchesFilter(StackTraceElement stackFrame) {
+		String className = stackFrame.getClassName();
+		String methodName = stackFrame.getMethodName();
+		if (filterPatterns.length != 0) {
+			compoundName.reset(className, methodName);
+			for (Pattern pattern : filterPatterns) {
+				if (pattern.matcher(compoundName).matches()) {
+					return true;
+				}
+			}
+		}
+		int low = 0;
+		int high = filterMethodNames.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int c = methodName.compareTo(filterMethodNames[mid]);
+			if (c == 0) {
+				c = className.compareTo(filterClassNames[mid]);
+			}
+			if (c == 0) {
+				return true;
+			} else if (c < 0) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether all frames of the stack match the filter, without caching
+	 * the verdict.
+	 */
+	boolean matchesAllFrames(StackTraceElement[] stackTrace) {
+		for (StackTraceElement frame : stackTrace) {
+			if (!matchesFilter(frame)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean containsWildcards(String pattern) {
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c != '.' && !Character.isJavaIdentifierPart(c)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
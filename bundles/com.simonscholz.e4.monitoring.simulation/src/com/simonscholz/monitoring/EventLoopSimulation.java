@@ -0,0 +1,334 @@
+package com.simonscholz.monitoring;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.simonscholz.monitoring.EventLoopMonitorThread.Parameters;
+import com.simonscholz.services.monitoring.StackSample;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Runs the event loop monitor against a scripted UI thread on a virtual clock
+ * and compares the freezes it reports with the freezes actually contained in
+ * the script. Hours of UI activity are simulated in seconds, which allows to
+ * evaluate changes of the thresholds and of the sampling without a display.
+ * <p>
+ * The script is either generated by a {@link SyntheticWorkload} or replayed
+ * from a recording in the format of {@link UiEventScript#parse(BufferedReader)}.
+ * The report lists, as {@code key=value} lines:
+ * </p>
+ * <ul>
+ * <li>the freezes in the script, and how many of them the monitor reported,
+ * missed or filtered, and the reports matching no freeze of the script;</li>
+ * <li>the expected and the actual reports of potential deadlocks;</li>
+ * <li>the error of the reported durations and the number of stack samples,
+ * including samples not showing the stack scripted for the freeze;</li>
+ * <li>the CPU time of the monitoring thread per simulated hour, as modeled by
+ * {@link SimulatedThreadMXBean}, and the CPU time the simulation actually
+ * used.</li>
+ * </ul>
+ * <p>
+ * Everything but the measured CPU time and duration of the simulation is
+ * deterministic for a given script, seed and configuration.
+ * </p>
+ */
+public final class EventLoopSimulation {
+	private static final String USAGE = "Options, all of them optional:\n" //$NON-NLS-1$
+			+ "  --hours=<n>                  simulated hours of the synthetic workload, default 1\n" //$NON-NLS-1$
+			+ "  --seed=<n>                   seed of the synthetic workload and the oversleeping, default 1\n" //$NON-NLS-1$
+			+ "  --replay=<file>              replays a recorded script instead of the synthetic workload\n" //$NON-NLS-1$
+			+ "  --freezes-per-hour=<n>       long events of the synthetic workload per hour, default 120\n" //$NON-NLS-1$
+			+ "  --freeze-median-millis=<n>   median freeze duration of the synthetic workload, default 800\n" //$NON-NLS-1$
+			+ "  --warning-millis=<n>         warning threshold, default 500\n" //$NON-NLS-1$
+			+ "  --warning-micros=<n>         warning threshold in microseconds, takes precedence if set\n" //$NON-NLS-1$
+			+ "  --error-millis=<n>           error threshold, default 2000\n" //$NON-NLS-1$
+			+ "  --deadlock-millis=<n>        deadlock reporting threshold, default 300000\n" //$NON-NLS-1$
+			+ "  --max-samples=<n>            maximum stack samples per freeze, default 3\n" //$NON-NLS-1$
+			+ "  --monotonic=<true|false>     measures with the monotonic clock, default false\n" //$NON-NLS-1$
+			+ "  --targeted=<true|false>      uses the targeted thread capture, default false\n" //$NON-NLS-1$
+			+ "  --budget-percent=<n>         CPU budget of the monitoring thread, default 1\n" //$NON-NLS-1$
+			+ "  --ui-filter=<filter>         UI thread filter, default none\n" //$NON-NLS-1$
+			+ "  --threads=<n>                threads besides the UI thread, default 50\n" //$NON-NLS-1$
+			+ "  --oversleep-micros=<n>       maximum random oversleeping of the monitor, default 0\n" //$NON-NLS-1$
+			+ "  --cycle-cost-nanos=<n>       modeled CPU time of a polling cycle, default 20000\n" //$NON-NLS-1$
+			+ "  --thread-cost-nanos=<n>      modeled CPU time of capturing a thread, default 5000\n" //$NON-NLS-1$
+			+ "  --frame-cost-nanos=<n>       modeled CPU time of capturing a frame, default 200"; //$NON-NLS-1$
+	private static final double NANOS_PER_HOUR = TimeUnit.HOURS.toNanos(1);
+	private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/** The seed of the oversleeping of the monitor. */
+	long seed = 1;
+	/** Number of threads besides the UI thread. */
+	int backgroundThreads = 50;
+	/** Maximum random oversleeping of the monitor in nanoseconds. */
+	long maxOversleep;
+	/** Modeled CPU time of a polling cycle in nanoseconds. */
+	long cycleCost = 20_000;
+	/** Modeled CPU time of capturing a thread in nanoseconds. */
+	long threadCost = 5_000;
+	/** Modeled CPU time of capturing a stack frame in nanoseconds. */
+	long frameCost = 200;
+
+	/**
+	 * The outcome of a simulation.
+	 */
+	static final class Result {
+		double simulatedHours;
+		int trueFreezes;
+		int detectedFreezes;
+		int missedFreezes;
+		int falsePositives;
+		long filteredFreezes;
+		int expectedDeadlockReports;
+		int deadlockReports;
+		double meanDurationErrorMillis;
+		double maxDurationErrorMillis;
+		long loggedSamples;
+		long wrongStackSamples;
+		long capturedSamples;
+		long starvationCycles;
+		long capturedThreads;
+		long capturedFrames;
+		double modeledCpuMillis;
+		double measuredCpuMillis;
+		double simulationSeconds;
+
+		/**
+		 * Writes the result as {@code key=value} lines.
+		 */
+		void print(PrintStream out) {
+			out.println(String.format(Locale.ROOT, "simulated.hours=%.3f", simulatedHours)); //$NON-NLS-1$
+			out.println("freezes.true=" + trueFreezes); //$NON-NLS-1$
+			out.println("freezes.detected=" + detectedFreezes); //$NON-NLS-1$
+			out.println("freezes.missed=" + missedFreezes); //$NON-NLS-1$
+			out.println("freezes.filtered=" + filteredFreezes); //$NON-NLS-1$
+			out.println("freezes.false.positives=" + falsePositives); //$NON-NLS-1$
+			out.println(String.format(Locale.ROOT, "detection.rate=%.4f", //$NON-NLS-1$
+					trueFreezes == 0 ? 1.0 : (double) detectedFreezes / trueFreezes));
+			out.println("deadlocks.expected=" + expectedDeadlockReports); //$NON-NLS-1$
+			out.println("deadlocks.reported=" + deadlockReports); //$NON-NLS-1$
+			out.println(String.format(Locale.ROOT, "duration.error.mean.ms=%.3f", meanDurationErrorMillis)); //$NON-NLS-1$
+			out.println(String.format(Locale.ROOT, "duration.error.max.ms=%.3f", maxDurationErrorMillis)); //$NON-NLS-1$
+			out.println(String.format(Locale.ROOT, "samples.logged.per.freeze=%.2f", //$NON-NLS-1$
+					detectedFreezes == 0 ? 0.0 : (double) loggedSamples / detectedFreezes));
+			out.println("samples.wrong.stack=" + wrongStackSamples); //$NON-NLS-1$
+			out.println(String.format(Locale.ROOT, "samples.captured.per.hour=%.1f", capturedSamples / simulatedHours)); //$NON-NLS-1$
+			out.println(String.format(Locale.ROOT, "threads.captured.per.hour=%.1f", capturedThreads / simulatedHours)); //$NON-NLS-1$
+			out.println(String.format(Locale.ROOT, "frames.captured.per.hour=%.1f", capturedFrames / simulatedHours)); //$NON-NLS-1$
+			out.println("starvation.cycles=" + starvationCycles); //$NON-NLS-1$
+			out.println(String.format(Locale.ROOT, "cpu.modeled.ms.per.hour=%.3f", modeledCpuMillis / simulatedHours)); //$NON-NLS-1$
+			out.println(String.format(Locale.ROOT, "cpu.measured.ms.per.hour=%.3f", measuredCpuMillis / simulatedHours)); //$NON-NLS-1$
+			out.println(String.format(Locale.ROOT, "simulation.seconds=%.3f", simulationSeconds)); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Runs the monitor against the given script.
+	 *
+	 * @param args   parameters of the monitor
+	 * @param script the activity of the UI thread
+	 * @return the outcome
+	 * @throws IllegalArgumentException if the parameter values are invalid
+	 * @throws InterruptedException     if interrupted while waiting for the
+	 *                                  reported freezes
+	 */
+	Result simulate(Parameters args, UiEventScript script) throws IllegalArgumentException, InterruptedException {
+		FreezeMonitorStatistics statistics = new FreezeMonitorStatistics();
+		SimulatedThreadMXBean threadMXBean = new SimulatedThreadMXBean(SimulatedMonitorThread.UI_THREAD_ID,
+				backgroundThreads, cycleCost, threadCost, frameCost);
+		GroundTruth groundTruth = new GroundTruth(args.getWarningThresholdNanos());
+		SimulatedMonitorThread monitor = new SimulatedMonitorThread(args, statistics, script, threadMXBean,
+				groundTruth, seed, maxOversleep);
+		List<UiFreezeEvent> events = Collections.synchronizedList(new ArrayList<>());
+		monitor.addConsumer(events::add);
+
+		ThreadMXBean vm = ManagementFactory.getThreadMXBean();
+		boolean cpuTimeMeasured = vm.isCurrentThreadCpuTimeSupported() && vm.isThreadCpuTimeEnabled();
+		long cpuStart = cpuTimeMeasured ? vm.getCurrentThreadCpuTime() : 0;
+		long start = System.nanoTime();
+		monitor.run();
+		long cpuEnd = cpuTimeMeasured ? vm.getCurrentThreadCpuTime() : 0;
+		Result result = new Result();
+		result.simulationSeconds = (System.nanoTime() - start) / 1e9;
+
+		// The consumers run on their own threads.
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (events.size() < statistics.getFreezesLogged() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+
+		result.simulatedHours = Math.max(monitor.getVirtualTime(), 1) / NANOS_PER_HOUR;
+		result.trueFreezes = groundTruth.getFreezes().size();
+		long deadlockThreshold = TimeUnit.MILLISECONDS.toNanos(args.deadlockThreshold);
+		for (GroundTruth.Freeze freeze : groundTruth.getFreezes()) {
+			if (freeze.duration >= deadlockThreshold) {
+				result.expectedDeadlockReports++;
+			}
+		}
+		GroundTruth.Freeze unfinished = groundTruth.getSegment();
+		if (unfinished != null && monitor.getVirtualTime() - unfinished.startTime >= deadlockThreshold) {
+			result.expectedDeadlockReports++;
+		}
+
+		Set<GroundTruth.Freeze> detected = Collections.newSetFromMap(new IdentityHashMap<>());
+		double totalDurationError = 0;
+		synchronized (events) {
+			for (UiFreezeEvent event : events) {
+				GroundTruth.Freeze freeze = groundTruth.find(event.getStartNanoTime(), event.getTotalDurationNanos());
+				if (event.isStillRunning()) {
+					result.deadlockReports++;
+					continue;
+				}
+				if (freeze == null || !detected.add(freeze)) {
+					result.falsePositives++;
+					continue;
+				}
+				double error = Math.abs(event.getTotalDurationNanos() - freeze.duration) / NANOS_PER_MILLI;
+				totalDurationError += error;
+				result.maxDurationErrorMillis = Math.max(result.maxDurationErrorMillis, error);
+				for (StackSample sample : event.getStackTraceSamples()) {
+					result.loggedSamples++;
+					ThreadSnapshot uiThread = sample.getThreadSnapshots()[0];
+					if (uiThread.getThreadId() != SimulatedMonitorThread.UI_THREAD_ID
+							|| !freeze.showsScriptedStack(uiThread)) {
+						result.wrongStackSamples++;
+					}
+				}
+			}
+		}
+		result.detectedFreezes = detected.size();
+		result.missedFreezes = result.trueFreezes - result.detectedFreezes;
+		result.filteredFreezes = statistics.getFreezesFiltered();
+		result.meanDurationErrorMillis = detected.isEmpty() ? 0 : totalDurationError / detected.size();
+		result.capturedSamples = statistics.getSamplesCaptured();
+		result.starvationCycles = statistics.getStarvationCycles();
+		result.capturedThreads = threadMXBean.getCapturedThreads();
+		result.capturedFrames = threadMXBean.getCapturedFrames();
+		result.modeledCpuMillis = threadMXBean.getCpuTime() / NANOS_PER_MILLI;
+		result.measuredCpuMillis = (cpuEnd - cpuStart) / NANOS_PER_MILLI;
+		return result;
+	}
+
+	/**
+	 * Runs a simulation configured by the command line options and prints its
+	 * result to the standard output.
+	 */
+	public static void main(String[] arguments) throws IOException, InterruptedException {
+		Parameters args = new Parameters();
+		args.longEventWarningThreshold = 500;
+		args.longEventErrorThreshold = 2000;
+		args.deadlockThreshold = 300000;
+		args.maxStackSamples = 3;
+		args.logToErrorLog = false;
+		args.uiThreadFilter = ""; //$NON-NLS-1$
+		args.noninterestingThreadFilter = "java.*,sun.*"; //$NON-NLS-1$
+		// The simulation runs much faster than the consumer may take the events.
+		args.dispatchQueueCapacity = 1 << 16;
+		// The pauses of the real collector do not relate to the virtual clock.
+		args.gcCorrelationEnabled = false;
+		EventLoopSimulation simulation = new EventLoopSimulation();
+		SyntheticWorkload workload = new SyntheticWorkload();
+		double hours = 1;
+		String replay = null;
+		try {
+			for (String argument : arguments) {
+				int equals = argument.indexOf('=');
+				if (!argument.startsWith("--") || equals < 0) { //$NON-NLS-1$
+					throw new IllegalArgumentException("Invalid option: " + argument); //$NON-NLS-1$
+				}
+				String value = argument.substring(equals + 1);
+				switch (argument.substring(2, equals)) {
+				case "hours": //$NON-NLS-1$
+					hours = Double.parseDouble(value);
+					break;
+				case "seed": //$NON-NLS-1$
+					simulation.seed = Long.parseLong(value);
+					break;
+				case "replay": //$NON-NLS-1$
+					replay = value;
+					break;
+				case "freezes-per-hour": //$NON-NLS-1$
+					workload.freezesPerHour = Double.parseDouble(value);
+					break;
+				case "freeze-median-millis": //$NON-NLS-1$
+					workload.freezeMedianMillis = Long.parseLong(value);
+					break;
+				case "warning-millis": //$NON-NLS-1$
+					args.longEventWarningThreshold = Integer.parseInt(value);
+					break;
+				case "warning-micros": //$NON-NLS-1$
+					args.longEventWarningThresholdMicros = Integer.parseInt(value);
+					break;
+				case "error-millis": //$NON-NLS-1$
+					args.longEventErrorThreshold = Integer.parseInt(value);
+					break;
+				case "deadlock-millis": //$NON-NLS-1$
+					args.deadlockThreshold = Long.parseLong(value);
+					break;
+				case "max-samples": //$NON-NLS-1$
+					args.maxStackSamples = Integer.parseInt(value);
+					break;
+				case "monotonic": //$NON-NLS-1$
+					args.monotonicClock = Boolean.parseBoolean(value);
+					break;
+				case "targeted": //$NON-NLS-1$
+					args.targetedThreadCapture = Boolean.parseBoolean(value);
+					break;
+				case "budget-percent": //$NON-NLS-1$
+					args.monitorOverheadBudgetPercent = Integer.parseInt(value);
+					break;
+				case "ui-filter": //$NON-NLS-1$
+					args.uiThreadFilter = value;
+					break;
+				case "threads": //$NON-NLS-1$
+					simulation.backgroundThreads = Integer.parseInt(value);
+					break;
+				case "oversleep-micros": //$NON-NLS-1$
+					simulation.maxOversleep = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(value));
+					break;
+				case "cycle-cost-nanos": //$NON-NLS-1$
+					simulation.cycleCost = Long.parseLong(value);
+					break;
+				case "thread-cost-nanos": //$NON-NLS-1$
+					simulation.threadCost = Long.parseLong(value);
+					break;
+				case "frame-cost-nanos": //$NON-NLS-1$
+					simulation.frameCost = Long.parseLong(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + argument); //$NON-NLS-1$
+				}
+			}
+			args.checkParameters();
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		UiEventScript script;
+		if (replay != null) {
+			try (BufferedReader reader = Files.newBufferedReader(Paths.get(replay), StandardCharsets.UTF_8)) {
+				script = UiEventScript.parse(reader);
+			}
+		} else {
+			script = workload.generate(simulation.seed, (long) (hours * NANOS_PER_HOUR), TimeUnit.NANOSECONDS);
+		}
+		simulation.simulate(args, script).print(System.out);
+	}
+}
@@ -0,0 +1,172 @@
+package com.simonscholz.monitoring;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.swt.SWT;
+
+import com.simonscholz.monitoring.UiEventScript.Step;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+
+/**
+ * Finds the freezes in a script independently of the monitor, following the
+ * nesting semantics documented in {@code EventLoopMonitorThread.EventLoopState}:
+ * the UI thread is busy from a {@link SWT#PreEvent PreEvent} until the next
+ * transition, and from a {@link SWT#PostEvent PostEvent} or
+ * {@link SWT#PostExternalEventDispatch PostExternalEventDispatch} until the
+ * next transition if it is still inside an event. A busy segment lasting at
+ * least the warning threshold in virtual time is a freeze.
+ */
+final class GroundTruth {
+	/**
+	 * A busy segment of the UI thread.
+	 */
+	static final class Freeze {
+		/** The virtual time of the start in nanoseconds. */
+		final long startTime;
+		/** The time stamp of the start on the clock of the monitor. */
+		final long startNanoTimestamp;
+		/** The duration in nanoseconds, final once the segment has ended. */
+		long duration;
+		/** The stacks shown by the UI thread during the segment. */
+		final List<StackTraceElement[]> stacks = new ArrayList<>(2);
+
+		Freeze(long startTime, long startNanoTimestamp, StackTraceElement[] stack) {
+			this.startTime = startTime;
+			this.startNanoTimestamp = startNanoTimestamp;
+			stacks.add(stack);
+		}
+
+		/**
+		 * Returns {@code true} if the given snapshot of the UI thread shows one of
+		 * the stacks of the segment, or the top part of one if it was truncated.
+		 */
+		boolean showsScriptedStack(ThreadSnapshot uiThread) {
+			for (StackTraceElement[] stack : stacks) {
+				int depth = uiThread.getStackDepth();
+				if (depth > stack.length) {
+					continue;
+				}
+				boolean matches = true;
+				for (int i = 0; i < depth && matches; i++) {
+					matches = stack[i].equals(uiThread.getFrame(i));
+				}
+				if (matches) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private final long threshold;
+	private final List<Freeze> freezes = new ArrayList<>();
+	private final Map<Long, List<Freeze>> freezesByStart = new HashMap<>();
+	private int nestingLevel;
+	private final List<Integer> nestingLevelStack = new ArrayList<>();
+	private StackTraceElement[] stack = UiEventScript.IDLE_STACK;
+	private Freeze segment;
+
+	/**
+	 * @param threshold the warning threshold in nanoseconds
+	 */
+	GroundTruth(long threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Applies a step of the script.
+	 *
+	 * @param step          the step
+	 * @param time          the virtual time in nanoseconds
+	 * @param nanoTimestamp the time on the clock of the monitor
+	 */
+	void step(Step step, long time, long nanoTimestamp) {
+		switch (step.type) {
+		case UiEventScript.STACK:
+			stack = step.stack;
+			if (segment != null && !segment.stacks.contains(stack)) {
+				segment.stacks.add(stack);
+			}
+			break;
+		case SWT.PreEvent:
+			if (indicatesResponsiveUi(step.detail)) {
+				nestingLevel++;
+				transition(true, time, nanoTimestamp);
+			}
+			break;
+		case SWT.PostEvent:
+			if (indicatesResponsiveUi(step.detail)) {
+				nestingLevel = Math.max(nestingLevel - 1, 0);
+				transition(nestingLevel > 0, time, nanoTimestamp);
+			}
+			break;
+		case SWT.PreExternalEventDispatch:
+			nestingLevelStack.add(nestingLevel);
+			nestingLevel = 0;
+			transition(false, time, nanoTimestamp);
+			break;
+		case SWT.PostExternalEventDispatch:
+			nestingLevel = nestingLevelStack.isEmpty() ? 0 : nestingLevelStack.remove(nestingLevelStack.size() - 1);
+			// A busy segment never spans an external event loop.
+			transition(nestingLevel > 0, time, nanoTimestamp);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void transition(boolean busy, long time, long nanoTimestamp) {
+		if (segment != null) {
+			segment.duration = time - segment.startTime;
+			if (segment.duration >= threshold) {
+				freezes.add(segment);
+				freezesByStart.computeIfAbsent(segment.startNanoTimestamp, k -> new ArrayList<>(1)).add(segment);
+			}
+		}
+		segment = busy ? new Freeze(time, nanoTimestamp, stack) : null;
+	}
+
+	private static boolean indicatesResponsiveUi(int eventType) {
+		return eventType != SWT.Skin && eventType != SWT.MeasureItem && eventType != SWT.Dispose;
+	}
+
+	/**
+	 * Returns the freezes that have ended.
+	 */
+	List<Freeze> getFreezes() {
+		return freezes;
+	}
+
+	/**
+	 * Returns the busy segment in progress, or {@code null} if the UI thread is
+	 * idle.
+	 */
+	Freeze getSegment() {
+		return segment;
+	}
+
+	/**
+	 * Returns the ended freeze or the segment in progress that started at the
+	 * given time stamp and whose duration is closest to the given one, or
+	 * {@code null} if there is none. With the wall clock several segments may
+	 * start within the same millisecond.
+	 */
+	Freeze find(long startNanoTimestamp, long duration) {
+		Freeze best = null;
+		List<Freeze> candidates = freezesByStart.get(startNanoTimestamp);
+		if (candidates != null) {
+			for (Freeze freeze : candidates) {
+				if (best == null || Math.abs(freeze.duration - duration) < Math.abs(best.duration - duration)) {
+					best = freeze;
+				}
+			}
+		}
+		if (best == null && segment != null && segment.startNanoTimestamp == startNanoTimestamp) {
+			best = segment;
+		}
+		return best;
+	}
+}
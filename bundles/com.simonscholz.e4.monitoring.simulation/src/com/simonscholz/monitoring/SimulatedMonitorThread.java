@@ -0,0 +1,128 @@
+package com.simonscholz.monitoring;
+
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.widgets.Event;
+
+import com.simonscholz.monitoring.UiEventScript.Step;
+
+/**
+ * An event loop monitor running on a virtual clock. Instead of sleeping, the
+ * monitor advances the clock and replays the steps of the script that are due
+ * in the meantime, at their exact virtual times: the SWT events are passed to
+ * the event loop state of the monitor and the stacks are shown by the UI thread
+ * of a {@link SimulatedThreadMXBean}. The monitor never runs concurrently with
+ * the scripted UI thread, so a simulation is deterministic and runs as fast as
+ * the monitor can process the script.
+ * <p>
+ * {@link #run()} is called directly on the simulating thread, it returns when
+ * the script is exhausted.
+ * </p>
+ */
+final class SimulatedMonitorThread extends EventLoopMonitorThread {
+	/** The id of the simulated UI thread, far from the ids of real threads. */
+	static final long UI_THREAD_ID = 1_000_000_000L;
+	/** The wall clock time of the start of the simulation, January 1, 2026 UTC. */
+	static final long EPOCH_MILLIS = 1767225600000L;
+
+	private final List<Step> steps;
+	private final SimulatedThreadMXBean threadMXBean;
+	private final GroundTruth groundTruth;
+	private final boolean monotonicClock;
+	private final Random random;
+	private final long maxOversleep;
+	private int nextStep;
+	private long clock;
+
+	/**
+	 * @param args         parameters of the monitor
+	 * @param statistics   the counters of the monitor
+	 * @param script       the activity of the UI thread
+	 * @param threadMXBean the source of the stacks, with a UI thread of id
+	 *                     {@link #UI_THREAD_ID}
+	 * @param groundTruth  receives the steps of the script as well
+	 * @param seed         the seed of the oversleeping
+	 * @param maxOversleep the maximum time in nanoseconds the monitor sleeps longer
+	 *                     than requested, chosen at random for every sleep
+	 */
+	SimulatedMonitorThread(Parameters args, FreezeMonitorStatistics statistics, UiEventScript script,
+			SimulatedThreadMXBean threadMXBean, GroundTruth groundTruth, long seed, long maxOversleep) {
+		super(args, UI_THREAD_ID, statistics);
+		this.steps = script.getSteps();
+		this.threadMXBean = threadMXBean;
+		this.groundTruth = groundTruth;
+		this.monotonicClock = args.monotonicClock;
+		this.random = new Random(seed);
+		this.maxOversleep = maxOversleep;
+	}
+
+	/**
+	 * Returns the virtual time in nanoseconds since the start of the simulation.
+	 */
+	long getVirtualTime() {
+		return clock;
+	}
+
+	@Override
+	protected long getTimestamp() {
+		return EPOCH_MILLIS + TimeUnit.NANOSECONDS.toMillis(clock);
+	}
+
+	@Override
+	protected long getNanoTimestamp() {
+		// Keeps the monotonic time stamps positive since zero denotes the idle state.
+		return monotonicClock ? clock + 1 : TimeUnit.MILLISECONDS.toNanos(getTimestamp());
+	}
+
+	@Override
+	long getMonotonicNanoTime() {
+		return clock;
+	}
+
+	@Override
+	ThreadMXBean getThreadMXBean() {
+		return threadMXBean.getProxy();
+	}
+
+	@Override
+	protected void sleepForNanos(long nanoseconds) {
+		if (nanoseconds > 0) {
+			long oversleep = maxOversleep > 0 ? (long) (random.nextDouble() * maxOversleep) : 0;
+			advanceTo(clock + nanoseconds + oversleep);
+		}
+		if (nextStep == steps.size()) {
+			// Finishes the current polling cycle, which publishes the last freeze.
+			shutdown();
+		}
+	}
+
+	@Override
+	void park() {
+		if (nextStep < steps.size()) {
+			// Nothing happens until the UI thread becomes busy again.
+			advanceTo(steps.get(nextStep).time);
+		} else {
+			shutdown();
+		}
+	}
+
+	private void advanceTo(long time) {
+		while (nextStep < steps.size() && steps.get(nextStep).time <= time) {
+			Step step = steps.get(nextStep++);
+			clock = Math.max(clock, step.time);
+			groundTruth.step(step, clock, getNanoTimestamp());
+			if (step.type == UiEventScript.STACK) {
+				threadMXBean.setUiStack(step.stack);
+			} else {
+				Event event = new Event();
+				event.type = step.type;
+				event.detail = step.detail;
+				handleEvent(event);
+			}
+		}
+		clock = Math.max(clock, time);
+	}
+}
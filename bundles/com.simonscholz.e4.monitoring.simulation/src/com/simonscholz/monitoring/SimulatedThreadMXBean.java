@@ -0,0 +1,225 @@
+package com.simonscholz.monitoring;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import com.simonscholz.services.monitoring.FrameDictionary;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+
+/**
+ * Answers the calls of the event loop monitor to its {@link ThreadMXBean} from
+ * a script instead of the running virtual machine: the UI thread shows the
+ * stack set by {@link #setUiStack(StackTraceElement[])}, and a fixed number of
+ * background threads idle in a thread pool or work on application code.
+ * <p>
+ * The CPU time of the monitoring thread is modeled as a fixed cost per polling
+ * cycle plus a cost per captured thread and per captured frame, since the real
+ * CPU time of a simulation running many times faster than real time says
+ * nothing about the cost in a real application. The monitor reads the CPU time
+ * once per polling cycle, which is when the cost of the cycle is charged.
+ * </p>
+ * <p>
+ * Lock usage and contention monitoring are reported as unsupported, the
+ * scripted threads never hold locks.
+ * </p>
+ */
+final class SimulatedThreadMXBean implements InvocationHandler {
+	private static final LockInfo[] NO_LOCKS = new LockInfo[0];
+	private static final int[] NO_DEPTHS = new int[0];
+	private static final StackTraceElement[] POOL_STACK = UiEventScript.frames("sun.misc.Unsafe.park", //$NON-NLS-1$
+			"java.util.concurrent.locks.LockSupport.parkNanos", //$NON-NLS-1$
+			"java.util.concurrent.LinkedBlockingQueue.poll", //$NON-NLS-1$
+			"java.util.concurrent.ThreadPoolExecutor.getTask", //$NON-NLS-1$
+			"java.util.concurrent.ThreadPoolExecutor.runWorker", //$NON-NLS-1$
+			"java.util.concurrent.ThreadPoolExecutor$Worker.run", //$NON-NLS-1$
+			"java.lang.Thread.run"); //$NON-NLS-1$
+	private static final StackTraceElement[] WORKER_STACK = UiEventScript.frames("java.util.zip.Inflater.inflateBytes", //$NON-NLS-1$
+			"java.util.zip.Inflater.inflate", //$NON-NLS-1$
+			"com.example.app.Indexer.readEntry", //$NON-NLS-1$
+			"com.example.app.Indexer.index", //$NON-NLS-1$
+			"org.eclipse.core.internal.jobs.Worker.run"); //$NON-NLS-1$
+
+	private final long uiThreadId;
+	private final FrameDictionary dictionary = new FrameDictionary();
+	private final ThreadInfo[] backgroundThreads;
+	private final long cycleCost;
+	private final long threadCost;
+	private final long frameCost;
+	private final ThreadMXBean proxy;
+
+	private StackTraceElement[] uiStack = UiEventScript.IDLE_STACK;
+	private ThreadInfo uiThread;
+	private long pendingCost;
+	private long cpuTime;
+	private long capturedThreads;
+	private long capturedFrames;
+
+	/**
+	 * @param uiThreadId        the id of the UI thread
+	 * @param backgroundThreads the number of threads besides the UI thread, every
+	 *                          fourth of them is running
+	 * @param cycleCost         the CPU time of a polling cycle in nanoseconds
+	 * @param threadCost        the CPU time of capturing a thread in nanoseconds
+	 * @param frameCost         the CPU time of capturing a stack frame in
+	 *                          nanoseconds
+	 */
+	SimulatedThreadMXBean(long uiThreadId, int backgroundThreads, long cycleCost, long threadCost, long frameCost) {
+		this.uiThreadId = uiThreadId;
+		this.backgroundThreads = new ThreadInfo[backgroundThreads];
+		for (int i = 0; i < backgroundThreads; i++) {
+			boolean running = i % 4 == 3;
+			// Thread ids are unique and never reused, keep clear of the UI thread.
+			this.backgroundThreads[i] = threadInfo(uiThreadId + 1 + i,
+					(running ? "Worker-" : "Pool-") + i, //$NON-NLS-1$ //$NON-NLS-2$
+					running ? Thread.State.RUNNABLE : Thread.State.TIMED_WAITING,
+					running ? WORKER_STACK : POOL_STACK);
+		}
+		this.cycleCost = cycleCost;
+		this.threadCost = threadCost;
+		this.frameCost = frameCost;
+		proxy = (ThreadMXBean) Proxy.newProxyInstance(ThreadMXBean.class.getClassLoader(),
+				new Class<?>[] { ThreadMXBean.class }, this);
+	}
+
+	/**
+	 * Returns the bean to pass to the monitor.
+	 */
+	ThreadMXBean getProxy() {
+		return proxy;
+	}
+
+	/**
+	 * Changes the stack of the UI thread, top frame first.
+	 */
+	void setUiStack(StackTraceElement[] stack) {
+		if (stack != uiStack) {
+			uiStack = stack;
+			uiThread = null;
+		}
+	}
+
+	/**
+	 * Returns the modeled CPU time of the monitoring thread in nanoseconds.
+	 */
+	long getCpuTime() {
+		return cpuTime + pendingCost;
+	}
+
+	/**
+	 * Returns the number of threads captured so far.
+	 */
+	long getCapturedThreads() {
+		return capturedThreads;
+	}
+
+	/**
+	 * Returns the number of stack frames captured so far.
+	 */
+	long getCapturedFrames() {
+		return capturedFrames;
+	}
+
+	@Override
+	public Object invoke(Object target, Method method, Object[] args) {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		switch (method.getName()) {
+		case "getThreadInfo": //$NON-NLS-1$
+			int maxDepth = parameterTypes.length == 2 && parameterTypes[1] == int.class ? (Integer) args[1]
+					: parameterTypes.length == 4 ? (Integer) args[3] : parameterTypes.length == 1 ? 0 : Integer.MAX_VALUE;
+			if (parameterTypes[0] == long.class) {
+				return charge(getThreadInfo((Long) args[0], maxDepth));
+			}
+			long[] ids = (long[]) args[0];
+			ThreadInfo[] infos = new ThreadInfo[ids.length];
+			for (int i = 0; i < ids.length; i++) {
+				infos[i] = charge(getThreadInfo(ids[i], maxDepth));
+			}
+			return infos;
+		case "dumpAllThreads": //$NON-NLS-1$
+			int dumpDepth = parameterTypes.length == 3 ? (Integer) args[2] : Integer.MAX_VALUE;
+			ThreadInfo[] all = new ThreadInfo[backgroundThreads.length + 1];
+			all[0] = charge(getThreadInfo(uiThreadId, dumpDepth));
+			for (int i = 0; i < backgroundThreads.length; i++) {
+				all[i + 1] = charge(getThreadInfo(backgroundThreads[i].getThreadId(), dumpDepth));
+			}
+			return all;
+		case "getAllThreadIds": //$NON-NLS-1$
+			long[] allIds = new long[backgroundThreads.length + 1];
+			allIds[0] = uiThreadId;
+			for (int i = 0; i < backgroundThreads.length; i++) {
+				allIds[i + 1] = backgroundThreads[i].getThreadId();
+			}
+			return allIds;
+		case "getThreadCount": //$NON-NLS-1$
+		case "getPeakThreadCount": //$NON-NLS-1$
+			return backgroundThreads.length + 1;
+		case "getCurrentThreadCpuTime": //$NON-NLS-1$
+		case "getCurrentThreadUserTime": //$NON-NLS-1$
+			cpuTime += pendingCost + cycleCost;
+			pendingCost = 0;
+			return cpuTime;
+		case "isCurrentThreadCpuTimeSupported": //$NON-NLS-1$
+		case "isThreadCpuTimeSupported": //$NON-NLS-1$
+		case "isThreadCpuTimeEnabled": //$NON-NLS-1$
+			return Boolean.TRUE;
+		case "isObjectMonitorUsageSupported": //$NON-NLS-1$
+		case "isSynchronizerUsageSupported": //$NON-NLS-1$
+		case "isThreadContentionMonitoringSupported": //$NON-NLS-1$
+		case "isThreadContentionMonitoringEnabled": //$NON-NLS-1$
+			return Boolean.FALSE;
+		case "findDeadlockedThreads": //$NON-NLS-1$
+		case "findMonitorDeadlockedThreads": //$NON-NLS-1$
+			return null;
+		case "hashCode": //$NON-NLS-1$
+			return System.identityHashCode(target);
+		case "equals": //$NON-NLS-1$
+			return target == args[0];
+		case "toString": //$NON-NLS-1$
+			return "SimulatedThreadMXBean"; //$NON-NLS-1$
+		default:
+			throw new UnsupportedOperationException(method.toString());
+		}
+	}
+
+	private ThreadInfo getThreadInfo(long threadId, int maxDepth) {
+		ThreadInfo info;
+		if (threadId == uiThreadId) {
+			if (uiThread == null) {
+				uiThread = threadInfo(uiThreadId, "main", Thread.State.RUNNABLE, uiStack); //$NON-NLS-1$
+			}
+			info = uiThread;
+		} else {
+			int index = (int) (threadId - uiThreadId - 1);
+			if (index < 0 || index >= backgroundThreads.length) {
+				return null;
+			}
+			info = backgroundThreads[index];
+		}
+		StackTraceElement[] stack = info.getStackTrace();
+		if (stack.length <= maxDepth) {
+			return info;
+		}
+		return threadInfo(info.getThreadId(), info.getThreadName(), info.getThreadState(),
+				Arrays.copyOf(stack, maxDepth));
+	}
+
+	private ThreadInfo charge(ThreadInfo info) {
+		if (info != null) {
+			int frames = info.getStackTrace().length;
+			capturedThreads++;
+			capturedFrames += frames;
+			pendingCost += threadCost + frames * frameCost;
+		}
+		return info;
+	}
+
+	private ThreadInfo threadInfo(long threadId, String name, Thread.State state, StackTraceElement[] stack) {
+		return new ThreadSnapshot(threadId, name, state, null, -1, null, false, false, 0, -1, 0, -1, dictionary,
+				dictionary.intern(stack), NO_LOCKS, NO_DEPTHS, NO_LOCKS, 0, 0).toThreadInfo();
+	}
+}
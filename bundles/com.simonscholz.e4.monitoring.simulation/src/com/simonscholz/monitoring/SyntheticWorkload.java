@@ -0,0 +1,106 @@
+package com.simonscholz.monitoring;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.SWT;
+
+/**
+ * Generates the script of a UI thread that sleeps in its event loop between
+ * bursts of short events, now and then freezes in a long event and opens modal
+ * dialogs running a nested event loop. The same seed always generates the same
+ * script. An instance is not thread safe.
+ */
+final class SyntheticWorkload {
+	private static final int[] EVENT_TYPES = { SWT.Paint, SWT.Paint, SWT.Paint, SWT.MouseMove, SWT.MouseMove,
+			SWT.MouseDown, SWT.MouseUp, SWT.KeyDown, SWT.KeyUp, SWT.Selection, SWT.Resize, SWT.FocusIn,
+			// Not indicating a responsive UI, ignored by the monitor.
+			SWT.MeasureItem, SWT.Skin };
+	private static final String[] DISPATCH_FRAMES = { "org.eclipse.swt.widgets.EventTable.sendEvent", //$NON-NLS-1$
+			"org.eclipse.swt.widgets.Widget.sendEvent", //$NON-NLS-1$
+			"org.eclipse.swt.widgets.Display.runDeferredEvents", //$NON-NLS-1$
+			"org.eclipse.swt.widgets.Display.readAndDispatch", //$NON-NLS-1$
+			"org.eclipse.e4.ui.internal.workbench.swt.PartRenderingEngine$5.run", //$NON-NLS-1$
+			"org.eclipse.core.databinding.observable.Realm.runWithDefault", //$NON-NLS-1$
+			"org.eclipse.ui.internal.Workbench.createAndRunWorkbench", //$NON-NLS-1$
+			"org.eclipse.equinox.launcher.Main.main" }; //$NON-NLS-1$
+	private static final int BUSY_STACK_COUNT = 16;
+
+	/** Mean number of event bursts per second while the user is active. */
+	double burstsPerSecond = 5;
+	/** Maximum number of events dispatched in a burst without sleeping. */
+	int maxEventsPerBurst = 4;
+	/** Median duration of an ordinary event in microseconds. */
+	long eventMedianMicros = 300;
+	/** Mean number of long events per hour, those exceeding the warning threshold are freezes. */
+	double freezesPerHour = 120;
+	/** Median duration of a freeze in milliseconds. */
+	long freezeMedianMillis = 800;
+	/** Probability of an event opening a modal dialog with a nested event loop. */
+	double dialogProbability = 0.002;
+
+	private Random random;
+	private final StackTraceElement[][] busyStacks = new StackTraceElement[BUSY_STACK_COUNT][];
+
+	/**
+	 * Generates a script covering at least the given duration.
+	 *
+	 * @param seed     the seed of the random numbers
+	 * @param duration the minimal duration of the script
+	 * @param unit     the unit of the duration
+	 * @return the script
+	 */
+	UiEventScript generate(long seed, long duration, TimeUnit unit) {
+		random = new Random(seed);
+		for (int i = 0; i < BUSY_STACK_COUNT; i++) {
+			String[] methods = new String[3 + random.nextInt(40) + DISPATCH_FRAMES.length];
+			int applicationFrames = methods.length - DISPATCH_FRAMES.length;
+			for (int depth = 0; depth < applicationFrames; depth++) {
+				methods[depth] = "com.example.app.Component" + (i * 7 + depth) % 23 + ".step" + depth; //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			System.arraycopy(DISPATCH_FRAMES, 0, methods, applicationFrames, DISPATCH_FRAMES.length);
+			busyStacks[i] = UiEventScript.frames(methods);
+		}
+
+		long end = unit.toNanos(duration);
+		double freezeProbability = freezesPerHour / (burstsPerSecond * 3600 * (1 + maxEventsPerBurst) / 2);
+		UiEventScript script = new UiEventScript().stack(UiEventScript.IDLE_STACK);
+		while (script.getTime() < end) {
+			script.sleep(exponential(TimeUnit.SECONDS.toNanos(1) / burstsPerSecond), TimeUnit.NANOSECONDS);
+			for (int i = 1 + random.nextInt(maxEventsPerBurst); i > 0; i--) {
+				dispatch(script, freezeProbability, true);
+			}
+		}
+		return script;
+	}
+
+	private void dispatch(UiEventScript script, double freezeProbability, boolean mayOpenDialog) {
+		int eventType = EVENT_TYPES[random.nextInt(EVENT_TYPES.length)];
+		long busy = random.nextDouble() < freezeProbability
+				? logNormal(TimeUnit.MILLISECONDS.toNanos(freezeMedianMillis))
+				: logNormal(TimeUnit.MICROSECONDS.toNanos(eventMedianMicros));
+		StackTraceElement[] stack = busyStacks[random.nextInt(BUSY_STACK_COUNT)];
+		if (!mayOpenDialog || random.nextDouble() >= dialogProbability) {
+			script.dispatch(eventType, busy, TimeUnit.NANOSECONDS, stack);
+			return;
+		}
+
+		// Prepares the dialog, runs its event loop until it is closed and processes the result.
+		script.preEvent(eventType).stack(stack).advance(busy / 2, TimeUnit.NANOSECONDS);
+		for (int i = 1 + random.nextInt(10); i > 0; i--) {
+			script.stack(UiEventScript.IDLE_STACK)
+					.sleep(exponential(TimeUnit.SECONDS.toNanos(1) / burstsPerSecond), TimeUnit.NANOSECONDS);
+			dispatch(script, freezeProbability, false);
+		}
+		script.stack(stack).advance(busy - busy / 2, TimeUnit.NANOSECONDS).stack(UiEventScript.IDLE_STACK)
+				.postEvent(eventType);
+	}
+
+	private long exponential(double mean) {
+		return (long) (-mean * Math.log(1 - random.nextDouble()));
+	}
+
+	private long logNormal(long median) {
+		return (long) (median * Math.exp(random.nextGaussian()));
+	}
+}
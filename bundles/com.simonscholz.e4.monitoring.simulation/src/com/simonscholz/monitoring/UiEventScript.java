@@ -0,0 +1,215 @@
+package com.simonscholz.monitoring;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.SWT;
+
+/**
+ * The scripted activity of a simulated UI thread: the SWT events it sends to
+ * the event loop monitor and the stacks it shows in between, on a virtual time
+ * line in nanoseconds starting at zero.
+ * <p>
+ * A script is built step by step, each step happening at the current time of
+ * the builder, which only moves forward with {@link #advance(long, TimeUnit)}.
+ * Scripts can also be {@link #parse(BufferedReader) read} from a recording in
+ * the following text format, one step per line:
+ * </p>
+ *
+ * <pre>
+ * # comment
+ * &lt;microseconds&gt; PreEvent|PostEvent [&lt;SWT event type&gt;]
+ * &lt;microseconds&gt; PreExternalEventDispatch|PostExternalEventDispatch
+ * &lt;microseconds&gt; Stack &lt;class.method&gt; [&lt;class.method&gt; ...]
+ * </pre>
+ * <p>
+ * The times are absolute and must not decrease. The frames of a stack are
+ * listed top frame first.
+ * </p>
+ */
+final class UiEventScript {
+	/** The pseudo event type of a step that only changes the stack of the UI thread. */
+	static final int STACK = SWT.None;
+
+	/** The stack of a UI thread sleeping in its event loop. */
+	static final StackTraceElement[] IDLE_STACK = frames("org.eclipse.swt.internal.gtk.OS._g_main_context_iteration", //$NON-NLS-1$
+			"org.eclipse.swt.widgets.Display.sleep", //$NON-NLS-1$
+			"org.eclipse.e4.ui.internal.workbench.swt.PartRenderingEngine$5.run", //$NON-NLS-1$
+			"org.eclipse.core.databinding.observable.Realm.runWithDefault", //$NON-NLS-1$
+			"org.eclipse.ui.internal.Workbench.createAndRunWorkbench", //$NON-NLS-1$
+			"org.eclipse.equinox.launcher.Main.main"); //$NON-NLS-1$
+
+	/**
+	 * A step of the script.
+	 */
+	static final class Step {
+		final long time;
+		final int type;
+		final int detail;
+		final StackTraceElement[] stack;
+
+		Step(long time, int type, int detail, StackTraceElement[] stack) {
+			this.time = time;
+			this.type = type;
+			this.detail = detail;
+			this.stack = stack;
+		}
+	}
+
+	private final List<Step> steps = new ArrayList<>();
+	private long time;
+
+	/**
+	 * Returns the current time of the builder in nanoseconds.
+	 */
+	long getTime() {
+		return time;
+	}
+
+	/**
+	 * Moves the current time of the builder forward.
+	 */
+	UiEventScript advance(long duration, TimeUnit unit) {
+		if (duration < 0) {
+			throw new IllegalArgumentException("Negative duration: " + duration); //$NON-NLS-1$
+		}
+		time += unit.toNanos(duration);
+		return this;
+	}
+
+	/**
+	 * Starts dispatching an event of the given SWT event type.
+	 */
+	UiEventScript preEvent(int eventType) {
+		return add(SWT.PreEvent, eventType, null);
+	}
+
+	/**
+	 * Finishes dispatching an event of the given SWT event type.
+	 */
+	UiEventScript postEvent(int eventType) {
+		return add(SWT.PostEvent, eventType, null);
+	}
+
+	/**
+	 * Enters an external event loop, for example to sleep in the operating system.
+	 */
+	UiEventScript preExternalDispatch() {
+		return add(SWT.PreExternalEventDispatch, 0, null);
+	}
+
+	/**
+	 * Leaves an external event loop.
+	 */
+	UiEventScript postExternalDispatch() {
+		return add(SWT.PostExternalEventDispatch, 0, null);
+	}
+
+	/**
+	 * Changes the stack of the UI thread, top frame first.
+	 */
+	UiEventScript stack(StackTraceElement... stack) {
+		return add(STACK, 0, stack);
+	}
+
+	/**
+	 * Dispatches an event of the given type that keeps the UI thread busy with
+	 * the given stack for the given duration, and returns to the idle stack.
+	 */
+	UiEventScript dispatch(int eventType, long duration, TimeUnit unit, StackTraceElement... stack) {
+		return preEvent(eventType).stack(stack).advance(duration, unit).stack(IDLE_STACK).postEvent(eventType);
+	}
+
+	/**
+	 * Sleeps in the external event loop of the operating system for the given
+	 * duration.
+	 */
+	UiEventScript sleep(long duration, TimeUnit unit) {
+		return preExternalDispatch().advance(duration, unit).postExternalDispatch();
+	}
+
+	/**
+	 * Returns the steps in the order of their times.
+	 */
+	List<Step> getSteps() {
+		return steps;
+	}
+
+	private UiEventScript add(int type, int detail, StackTraceElement[] stack) {
+		steps.add(new Step(time, type, detail, stack));
+		return this;
+	}
+
+	/**
+	 * Reads a recorded script.
+	 *
+	 * @param reader the recording in the format described in the class comment
+	 * @return the script
+	 * @throws IOException if the recording cannot be read or is invalid
+	 */
+	static UiEventScript parse(BufferedReader reader) throws IOException {
+		UiEventScript script = new UiEventScript();
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) { //$NON-NLS-1$
+				continue;
+			}
+			String[] tokens = line.split("\\s+"); //$NON-NLS-1$
+			try {
+				long stepTime = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(tokens[0]));
+				if (tokens.length < 2 || stepTime < script.time) {
+					throw new IllegalArgumentException("Missing step or time going backwards"); //$NON-NLS-1$
+				}
+				script.time = stepTime;
+				switch (tokens[1]) {
+				case "PreEvent": //$NON-NLS-1$
+					script.preEvent(tokens.length > 2 ? Integer.parseInt(tokens[2]) : SWT.None);
+					break;
+				case "PostEvent": //$NON-NLS-1$
+					script.postEvent(tokens.length > 2 ? Integer.parseInt(tokens[2]) : SWT.None);
+					break;
+				case "PreExternalEventDispatch": //$NON-NLS-1$
+					script.preExternalDispatch();
+					break;
+				case "PostExternalEventDispatch": //$NON-NLS-1$
+					script.postExternalDispatch();
+					break;
+				case "Stack": //$NON-NLS-1$
+					script.stack(frames(Arrays.copyOfRange(tokens, 2, tokens.length)));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown step " + tokens[1]); //$NON-NLS-1$
+				}
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid step in line " + lineNumber + ": " + e.getMessage(), e); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		return script;
+	}
+
+	/**
+	 * Creates stack frames from fully qualified method names.
+	 */
+	static StackTraceElement[] frames(String... methods) {
+		StackTraceElement[] frames = new StackTraceElement[methods.length];
+		for (int i = 0; i < methods.length; i++) {
+			int dot = methods[i].lastIndexOf('.');
+			if (dot <= 0) {
+				throw new IllegalArgumentException("Not a fully qualified method name: " + methods[i]); //$NON-NLS-1$
+			}
+			String className = methods[i].substring(0, dot);
+			String simpleName = className.substring(className.lastIndexOf('.') + 1);
+			int inner = simpleName.indexOf('$');
+			String fileName = (inner < 0 ? simpleName : simpleName.substring(0, inner)) + ".java"; //$NON-NLS-1$
+			frames[i] = new StackTraceElement(className, methods[i].substring(dot + 1), fileName, -1);
+		}
+		return frames;
+	}
+}
@@ -0,0 +1,53 @@
+package com.simonscholz.monitoring;
+
+import java.util.Map;
+
+/**
+ * Reads typed values from the configuration properties of a declarative
+ * services component. Values may be given as numbers or as strings.
+ */
+final class ComponentProperties {
+	private final Map<String, ?> properties;
+
+	ComponentProperties(Map<String, ?> properties) {
+		this.properties = properties;
+	}
+
+	String getString(String key, String defaultValue) {
+		Object value = properties.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		String string = value.toString().trim();
+		return string.isEmpty() ? defaultValue : string;
+	}
+
+	int getInt(String key, int defaultValue) {
+		return (int) getLong(key, defaultValue);
+	}
+
+	long getLong(String key, long defaultValue) {
+		Object value = properties.get(key);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		String string = getString(key, null);
+		if (string == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(string);
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	boolean getBoolean(String key, boolean defaultValue) {
+		Object value = properties.get(key);
+		if (value instanceof Boolean) {
+			return (Boolean) value;
+		}
+		String string = getString(key, null);
+		return string == null ? defaultValue : Boolean.parseBoolean(string);
+	}
+}
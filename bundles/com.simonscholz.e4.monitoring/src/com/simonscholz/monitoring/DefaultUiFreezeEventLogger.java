@@ -1,10 +1,11 @@
 package com.simonscholz.monitoring;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.management.LockInfo;
-import java.lang.management.ThreadInfo;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.function.Consumer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.core.runtime.ILog;
 import org.eclipse.core.runtime.IStatus;
@@ -15,17 +16,33 @@ import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.FrameworkUtil;
 
+import com.simonscholz.services.monitoring.BlockingChain;
+import com.simonscholz.services.monitoring.GcActivity;
+import com.simonscholz.services.monitoring.MonitorOverhead;
+import com.simonscholz.services.monitoring.MonitorOverhead.Throttle;
 import com.simonscholz.services.monitoring.PreferenceConstants;
 import com.simonscholz.services.monitoring.StackSample;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+import com.simonscholz.services.monitoring.UiFreezeRenderer;
 import com.simonscholz.services.monitoring.UiFreezeEvent;
 
 /**
- * Writes {@link UiFreezeEvent}s to the Eclipse error log.
+ * Writes {@link UiFreezeEvent}s to the Eclipse error log. The summaries of
+ * repeated freezes are written once their interval has passed, even if no
+ * further freeze arrives, and all pending summaries are written at shutdown.
  */
-public class DefaultUiFreezeEventLogger implements Consumer<UiFreezeEvent> {
-	private final SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss.SSS"); //$NON-NLS-1$
-	private final long longEventErrorThresholdMillis;
+public class DefaultUiFreezeEventLogger implements FreezeEventDispatcher.PeriodicConsumer {
+	/** How often due summaries are looked for while no freezes arrive. */
+	private static final long SUMMARY_CHECK_INTERVAL_MILLIS = 1000;
+
+	// Accessed only by the thread delivering the events.
+	private final UiFreezeRenderer renderer = new UiFreezeRenderer();
+	private final StringBuilder textBuilder = new StringBuilder();
+	private volatile long longEventErrorThresholdMillis;
+	private volatile long repeatedFreezeSummaryIntervalMillis;
 	private ILog log;
+	private final RepeatedFreezeTracker repeatedFreezes = new RepeatedFreezeTracker();
+	private final List<RepeatedFreezeTracker.Summary> dueSummaries = new ArrayList<>();
 
 	private static class StackTrace extends Throwable {
 		private static final long serialVersionUID = -2829405667536819137L;
@@ -48,11 +65,45 @@ public class DefaultUiFreezeEventLogger implements Consumer<UiFreezeEvent> {
 	}
 
 	public DefaultUiFreezeEventLogger(long longEventErrorThresholdMillis) {
+		this(longEventErrorThresholdMillis, 0);
+	}
+
+	/**
+	 * Creates a logger that logs a repeated freeze in full only once per summary
+	 * interval and summarizes the repeats.
+	 *
+	 * @param longEventErrorThresholdMillis       the duration from which events are
+	 *                                            logged as errors
+	 * @param repeatedFreezeSummaryIntervalMillis the summary interval, 0 to log
+	 *                                            every freeze in full
+	 * @see RepeatedFreezeTracker
+	 */
+	public DefaultUiFreezeEventLogger(long longEventErrorThresholdMillis, long repeatedFreezeSummaryIntervalMillis) {
 		this.longEventErrorThresholdMillis = longEventErrorThresholdMillis;
+		this.repeatedFreezeSummaryIntervalMillis = repeatedFreezeSummaryIntervalMillis;
 		Bundle bundle = FrameworkUtil.getBundle(getClass());
 		log = Platform.getLog(bundle);
 	}
 
+	/**
+	 * Changes the duration from which events are logged as errors.
+	 *
+	 * @param longEventErrorThresholdMillis the new threshold in milliseconds
+	 */
+	void setLongEventErrorThreshold(long longEventErrorThresholdMillis) {
+		this.longEventErrorThresholdMillis = longEventErrorThresholdMillis;
+	}
+
+	/**
+	 * Changes the interval in which a repeated freeze is logged in full only once.
+	 *
+	 * @param repeatedFreezeSummaryIntervalMillis the new interval in milliseconds,
+	 *                                            0 to log every freeze in full
+	 */
+	void setRepeatedFreezeSummaryInterval(long repeatedFreezeSummaryIntervalMillis) {
+		this.repeatedFreezeSummaryIntervalMillis = repeatedFreezeSummaryIntervalMillis;
+	}
+
 	/**
 	 * Converts the given {@link UiFreezeEvent} into a {@link MultiStatus} and writes it to the log.
 	 *
@@ -60,15 +111,26 @@ public class DefaultUiFreezeEventLogger implements Consumer<UiFreezeEvent> {
 	 */
 	@Override
 	public void accept(UiFreezeEvent event) {
-		long lastTimestamp = event.getStartTimestamp();
-		String startTime = dateFormat.format(new Date(lastTimestamp));
+		long summaryInterval = repeatedFreezeSummaryIntervalMillis;
+		if (summaryInterval > 0) {
+			long now = System.currentTimeMillis();
+			boolean logInFull = repeatedFreezes.record(event, now, summaryInterval);
+			repeatedFreezes.collectDueSummaries(now, summaryInterval, dueSummaries);
+			logDueSummaries();
+			if (!logInFull) {
+				return;
+			}
+		}
+
+		long lastNanoTime = event.getStartNanoTime();
+		String startTime = formatTimeOfDay(event.getStartTimestamp());
 
 		String template = event.isStillRunning()
 				? Messages.DefaultUiFreezeEventLogger_ui_freeze_ongoing_header_2
 				: Messages.DefaultUiFreezeEventLogger_ui_freeze_finished_header_2;
 		long duration = event.getTotalDuration();
 		String format = duration >= 100000 ? "%.0f" : duration >= 10 ? "%.2g" : "%.1g"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-		String header = NLS.bind(template, String.format(format, duration / 1000.0), startTime);
+		String header = NLS.bind(template, String.format(format, event.getTotalDurationNanos() / 1e9), startTime);
 
 		StackSample[] stackTraceSamples = event.getStackTraceSamples();
 		if (stackTraceSamples.length == 0 && (event.isStarvedAwake() || event.isStarvedAsleep())) {
@@ -81,24 +143,46 @@ public class DefaultUiFreezeEventLogger implements Consumer<UiFreezeEvent> {
 			header += note;
 		}
 
+		BlockingChain blockingChain = event.getBlockingChain();
+		if (blockingChain != null) {
+			header += NLS.bind(blockingChain.isDeadlock() ? Messages.DefaultUiFreezeEventLogger_deadlock_chain_1
+					: Messages.DefaultUiFreezeEventLogger_blocking_chain_1, formatBlockingChain(blockingChain));
+		}
+
+		MonitorOverhead overhead = event.getMonitorOverhead();
+		if (overhead != null) {
+			String cpuTime = String.format("%.1f", overhead.getCpuTimeNanos() / 1e6); //$NON-NLS-1$
+			header += overhead.getThrottle() == Throttle.NONE
+					? NLS.bind(Messages.DefaultUiFreezeEventLogger_monitor_overhead_1, cpuTime)
+					: NLS.bind(Messages.DefaultUiFreezeEventLogger_monitor_overhead_throttled_2, cpuTime,
+							overhead.getThrottle());
+		}
+
+		GcActivity gcActivity = event.getGcActivity();
+		if (gcActivity != null && gcActivity.getPauseCount() != 0) {
+			String pauseTime = String.format("%.1f", gcActivity.getPauseNanos() / 1e6); //$NON-NLS-1$
+			header += NLS.bind(event.isMostlyGcPause() ? Messages.DefaultUiFreezeEventLogger_gc_pauses_mostly_4
+					: Messages.DefaultUiFreezeEventLogger_gc_pauses_4, new Object[] { gcActivity.getPauseCount(),
+							pauseTime, gcActivity.getHeapUsedBefore() >> 20, gcActivity.getHeapUsedAfter() >> 20 });
+		}
+
 		int severity = duration >= longEventErrorThresholdMillis ?
 				IStatus.ERROR : IStatus.WARNING;
 		MultiStatus loggedEvent =
 				new SeverityMultiStatus(severity, PreferenceConstants.PLUGIN_ID, header, null);
 
 		for (StackSample sample : stackTraceSamples) {
-			double deltaInSeconds = (sample.getTimestamp() - lastTimestamp) / 1000.0;
-			ThreadInfo[] threads = sample.getStackTraces();
+			ThreadSnapshot[] threads = sample.getThreadSnapshots();
 
 			// The first thread is guaranteed to be the display thread.
 			Throwable stackTrace = new StackTrace(threads[0].getStackTrace());
 			String traceText = NLS.bind(
 					Messages.DefaultUiFreezeEventLogger_sample_header_2,
-					dateFormat.format(sample.getTimestamp()),
-					String.format("%.3f", deltaInSeconds)); //$NON-NLS-1$
+					formatTimeOfDay(sample.getTimestamp()),
+					formatSeconds(sample.getNanoTime() - lastNanoTime));
 			MultiStatus traceStatus = new SeverityMultiStatus(IStatus.INFO,
 					PreferenceConstants.PLUGIN_ID,
-					String.format("%s\n%s", traceText, createThreadMessage(threads[0])), //$NON-NLS-1$
+					traceText + '\n' + createThreadMessage(threads[0]),
 					stackTrace);
 			loggedEvent.add(traceStatus);
 
@@ -106,13 +190,77 @@ public class DefaultUiFreezeEventLogger implements Consumer<UiFreezeEvent> {
 				traceStatus.add(createThreadStatus(threads[j]));
 			}
 
-			lastTimestamp = sample.getTimestamp();
+			lastNanoTime = sample.getNanoTime();
 		}
 		
 		log.log(loggedEvent);
 	}
 
-	private static IStatus createThreadStatus(ThreadInfo thread) {
+	@Override
+	public long getTickIntervalNanos() {
+		long summaryInterval = repeatedFreezeSummaryIntervalMillis;
+		return summaryInterval > 0
+				? TimeUnit.MILLISECONDS.toNanos(Math.min(summaryInterval, SUMMARY_CHECK_INTERVAL_MILLIS))
+				: 0;
+	}
+
+	/**
+	 * Writes the summaries of repeated freezes whose interval has passed, or all
+	 * pending summaries if the logger is finished.
+	 */
+	@Override
+	public void tick(boolean finished) {
+		long now = System.currentTimeMillis();
+		if (finished) {
+			repeatedFreezes.collectAllSummaries(now, dueSummaries);
+		} else {
+			long summaryInterval = repeatedFreezeSummaryIntervalMillis;
+			if (summaryInterval <= 0) {
+				return;
+			}
+			repeatedFreezes.collectDueSummaries(now, summaryInterval, dueSummaries);
+		}
+		logDueSummaries();
+	}
+
+	private void logDueSummaries() {
+		for (RepeatedFreezeTracker.Summary summary : dueSummaries) {
+			logSummary(summary);
+		}
+		dueSummaries.clear();
+	}
+
+	private void logSummary(RepeatedFreezeTracker.Summary summary) {
+		int severity = TimeUnit.NANOSECONDS.toMillis(summary.maxDurationNanos) >= longEventErrorThresholdMillis
+				? IStatus.ERROR : IStatus.WARNING;
+		String message = NLS.bind(Messages.DefaultUiFreezeEventLogger_repeated_freezes_5,
+				new Object[] { summary.count, formatTimeOfDay(summary.sinceMillis),
+						formatSeconds(summary.totalDurationNanos), formatSeconds(summary.maxDurationNanos),
+						summary.topFrame });
+		log.log(new Status(severity, PreferenceConstants.PLUGIN_ID, message));
+	}
+
+	private String formatTimeOfDay(long millis) {
+		textBuilder.setLength(0);
+		try {
+			renderer.appendTimeOfDay(millis, textBuilder);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // Not thrown by StringBuilder.
+		}
+		return textBuilder.toString();
+	}
+
+	private String formatSeconds(long nanos) {
+		textBuilder.setLength(0);
+		try {
+			renderer.appendDecimal(nanos, TimeUnit.SECONDS.toNanos(1), 3, textBuilder);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // Not thrown by StringBuilder.
+		}
+		return textBuilder.toString();
+	}
+
+	private static IStatus createThreadStatus(ThreadSnapshot thread) {
 		Throwable stackTrace = new StackTrace(thread.getStackTrace());
 		StringBuilder threadText = createThreadMessage(thread);
 		String lockName = thread.getLockName();
@@ -140,7 +288,20 @@ public class DefaultUiFreezeEventLogger implements Consumer<UiFreezeEvent> {
 				stackTrace);
 	}
 
-	private static StringBuilder createThreadMessage(ThreadInfo thread) {
+	private static String formatBlockingChain(BlockingChain chain) {
+		StringBuilder buf = new StringBuilder();
+		for (BlockingChain.Link link : chain.getLinks()) {
+			buf.append(NLS.bind(Messages.DefaultUiFreezeEventLogger_blocking_chain_thread_2, link.getThreadName(),
+					link.getThreadId()));
+			if (link.getWaitingFor() != null) {
+				buf.append(NLS.bind(Messages.DefaultUiFreezeEventLogger_blocking_chain_lock_1,
+						getClassAndHashCode(link.getWaitingFor())));
+			}
+		}
+		return buf.toString();
+	}
+
+	private static StringBuilder createThreadMessage(ThreadSnapshot thread) {
 		String threadDetails = NLS.bind(
 				Messages.DefaultUiFreezeEventLogger_thread_details,
 				thread.getThreadId(), thread.getThreadState());
@@ -148,6 +309,13 @@ public class DefaultUiFreezeEventLogger implements Consumer<UiFreezeEvent> {
 		StringBuilder threadText = new StringBuilder(NLS.bind(
 				Messages.DefaultUiFreezeEventLogger_thread_header_2,
 				thread.getThreadName(), threadDetails));
+		if (thread.getElidedFrameCount() == ThreadSnapshot.UNKNOWN_FRAME_COUNT) {
+			threadText.append(NLS.bind(Messages.DefaultUiFreezeEventLogger_cut_frames_1,
+					thread.getElidedFrameIndex()));
+		} else if (thread.getElidedFrameCount() != 0) {
+			threadText.append(NLS.bind(Messages.DefaultUiFreezeEventLogger_elided_frames_2,
+					thread.getElidedFrameCount(), thread.getElidedFrameIndex()));
+		}
 
 		return threadText;
 	}
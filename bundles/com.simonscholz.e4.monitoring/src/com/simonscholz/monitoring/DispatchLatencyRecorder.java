@@ -0,0 +1,110 @@
+package com.simonscholz.monitoring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.simonscholz.services.monitoring.DispatchLatencyStats;
+
+/**
+ * Records the duration of every SWT event dispatch in a {@link LatencyHistogram}
+ * per event type.
+ * <p>
+ * The UI thread reports each {@code SWT.PreEvent} and {@code SWT.PostEvent}.
+ * The recorder keeps its own stack of the dispatches in progress, independent
+ * of the nesting level tracking of the freeze detection, which is reset on
+ * external event dispatch. A histogram is allocated the first time an event
+ * type is seen, afterwards recording allocates nothing.
+ * </p>
+ */
+final class DispatchLatencyRecorder {
+	/** Event types are small constants in {@code SWT}, larger values are ignored. */
+	private static final int MAX_EVENT_TYPES = 128;
+	private static final double[] PERCENTILES = { 50, 90, 99 };
+
+	private final AtomicReferenceArray<LatencyHistogram> histograms = new AtomicReferenceArray<>(MAX_EVENT_TYPES);
+
+	// Accessed only by the UI thread.
+	private final int[] dispatchTypes = new int[64];
+	private final long[] dispatchStarts = new long[64];
+	private int depth;
+	private int overflowDepth;
+
+	/**
+	 * Called on the UI thread for a {@code SWT.PreEvent}.
+	 *
+	 * @param eventType the type of the dispatched event
+	 * @param currTime  the current time in nanoseconds
+	 */
+	void preEvent(int eventType, long currTime) {
+		if (depth == dispatchTypes.length) {
+			overflowDepth++; // Too deeply nested, the duration is not recorded.
+			return;
+		}
+		dispatchTypes[depth] = eventType;
+		dispatchStarts[depth] = currTime;
+		depth++;
+	}
+
+	/**
+	 * Called on the UI thread for a {@code SWT.PostEvent}.
+	 *
+	 * @param eventType the type of the dispatched event
+	 * @param currTime  the current time in nanoseconds
+	 */
+	void postEvent(int eventType, long currTime) {
+		if (overflowDepth > 0) {
+			overflowDepth--;
+			return;
+		}
+		if (depth == 0) {
+			return; // The dispatch started before the recorder was registered.
+		}
+		if (dispatchTypes[depth - 1] != eventType) {
+			// Unbalanced events, start over rather than recording wrong durations.
+			depth = 0;
+			return;
+		}
+		depth--;
+		if (eventType < 0 || eventType >= MAX_EVENT_TYPES) {
+			return;
+		}
+		LatencyHistogram histogram = histograms.get(eventType);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			histograms.set(eventType, histogram);
+		}
+		histogram.record(currTime - dispatchStarts[depth]);
+	}
+
+	/**
+	 * Returns the statistics of the given event type, or {@code null} if no
+	 * dispatch of the type was recorded. May be called by any thread.
+	 */
+	DispatchLatencyStats getStats(int eventType) {
+		if (eventType < 0 || eventType >= MAX_EVENT_TYPES) {
+			return null;
+		}
+		LatencyHistogram histogram = histograms.get(eventType);
+		if (histogram == null || histogram.isEmpty()) {
+			return null;
+		}
+		long[] values = histogram.getPercentiles(PERCENTILES);
+		return new DispatchLatencyStats(eventType, values[0], values[1], values[2], values[3], values[4]);
+	}
+
+	/**
+	 * Returns the statistics of all event types with recorded dispatches, ordered
+	 * by event type. May be called by any thread.
+	 */
+	DispatchLatencyStats[] getStats() {
+		List<DispatchLatencyStats> stats = new ArrayList<>();
+		for (int eventType = 0; eventType < MAX_EVENT_TYPES; eventType++) {
+			DispatchLatencyStats typeStats = getStats(eventType);
+			if (typeStats != null) {
+				stats.add(typeStats);
+			}
+		}
+		return stats.toArray(new DispatchLatencyStats[stats.size()]);
+	}
+}
@@ -0,0 +1,91 @@
+package com.simonscholz.monitoring;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue used to hand elements from the monitoring thread
+ * over to a dispatch worker.
+ * <p>
+ * The queue supports a single producer. Elements may be removed by the
+ * consumer and, in order to evict the oldest element on overflow, by the
+ * producer as well. Removal is therefore done with a compare-and-set on the
+ * head index while insertion only needs an ordered write of the tail index.
+ * </p>
+ *
+ * @param <E> the type of the queued elements
+ */
+class EventHandoffQueue<E> {
+	private final AtomicReferenceArray<E> slots;
+	private final int mask;
+	/** Index of the next element to be removed. */
+	private final AtomicLong head = new AtomicLong();
+	/** Index of the next free slot. Written only by the producer. */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Creates a queue with at least the given capacity. The capacity is rounded up
+	 * to the next power of two.
+	 *
+	 * @param capacity the minimal number of elements the queue can hold
+	 */
+	EventHandoffQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 1));
+		if (size < capacity) {
+			size <<= 1;
+		}
+		slots = new AtomicReferenceArray<>(size);
+		mask = size - 1;
+	}
+
+	/**
+	 * Returns the number of elements the queue can hold.
+	 */
+	int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Inserts the given element if there is room for it. Must only be called by
+	 * the producer thread.
+	 *
+	 * @return {@code true} if the element was added, {@code false} if the queue was
+	 *         full
+	 */
+	boolean offer(E element) {
+		long t = tail.get();
+		if (t - head.get() > mask) {
+			return false;
+		}
+		slots.set((int) t & mask, element);
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Removes and returns the oldest element, or returns {@code null} if the queue
+	 * is empty. May be called by both the consumer and the producer.
+	 */
+	E poll() {
+		while (true) {
+			long h = head.get();
+			if (h >= tail.get()) {
+				return null;
+			}
+			int index = (int) h & mask;
+			E element = slots.get(index);
+			if (head.compareAndSet(h, h + 1)) {
+				// The producer may already have reused the slot, only clear our own element.
+				slots.compareAndSet(index, element, null);
+				return element;
+			}
+		}
+	}
+
+	/**
+	 * Returns {@code true} if the queue contains no elements.
+	 */
+	boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+}
@@ -3,15 +3,20 @@ package com.simonscholz.monitoring;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.UnaryOperator;
 
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.ILog;
@@ -30,8 +35,16 @@ import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 
+import com.simonscholz.services.monitoring.BlockingChain;
+import com.simonscholz.services.monitoring.DispatchLatencyStats;
+import com.simonscholz.services.monitoring.FrameDictionary;
+import com.simonscholz.services.monitoring.GcActivity;
+import com.simonscholz.services.monitoring.HotMethodProfile;
+import com.simonscholz.services.monitoring.MonitorOverhead;
+import com.simonscholz.services.monitoring.MonitorOverhead.Throttle;
 import com.simonscholz.services.monitoring.PreferenceConstants;
 import com.simonscholz.services.monitoring.StackSample;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
 import com.simonscholz.services.monitoring.UiFreezeConsumer;
 import com.simonscholz.services.monitoring.UiFreezeEvent;
 
@@ -41,14 +54,27 @@ import com.simonscholz.services.monitoring.UiFreezeEvent;
  * logs the long events to the error log.
  */
 public class EventLoopMonitorThread extends Thread {
-	private static final int EVENT_HISTORY_SIZE = 100;
+	private static final int EVENT_HISTORY_SIZE = 128;
 	private static final String NEW_LINE_AND_BULLET = "\n* "; //$NON-NLS-1$
 	private static final String TRACE_EVENT_MONITOR = "/debug/event_monitor"; //$NON-NLS-1$
 	private static final String TRACE_PREFIX = "Event Loop Monitor"; //$NON-NLS-1$
+	private static final long MIN_SLEEP = TimeUnit.MICROSECONDS.toNanos(50);
 	private static final Tracer tracer = Tracer.create(TRACE_PREFIX,
 			PreferenceConstants.PLUGIN_ID + TRACE_EVENT_MONITOR);
 
-	/* NOTE: All time-related values in this class are in milliseconds. */
+	/** The lowest warning threshold in nanoseconds when measuring with the wall clock. */
+	private static final long MIN_WALL_CLOCK_WARNING_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(3);
+	/** The lowest warning threshold in nanoseconds when measuring with the monotonic clock. */
+	private static final long MIN_MONOTONIC_WARNING_THRESHOLD = TimeUnit.MICROSECONDS.toNanos(100);
+	/** The lowest tolerated oversleeping in nanoseconds before starvation is assumed. */
+	private static final long MIN_STARVATION_TOLERANCE = TimeUnit.MILLISECONDS.toNanos(2);
+	private static final Method DUMP_ALL_THREADS_WITH_DEPTH = findDumpAllThreadsWithDepth();
+
+	/*
+	 * NOTE: All time-related values in this class are in nanoseconds on the clock
+	 * returned by getNanoTimestamp(), unless stated otherwise. Wall clock time is
+	 * only used for reporting.
+	 */
 
 	/**
 	 * Helper object for passing preference-based arguments by name to the
@@ -57,16 +83,31 @@ public class EventLoopMonitorThread extends Thread {
 	 */
 	public static class Parameters {
 		/**
-		 * Events that took longer than the specified duration are logged as warnings.
+		 * Events that took longer than the specified duration in milliseconds are
+		 * logged as warnings.
 		 */
 		public int longEventWarningThreshold;
-		/** Events that took longer than the specified duration are logged as errors. */
+		/**
+		 * Events that took longer than the specified duration in microseconds are
+		 * logged as warnings. Takes precedence over {@link #longEventWarningThreshold}
+		 * if positive.
+		 */
+		public int longEventWarningThresholdMicros;
+		/**
+		 * Events that took longer than the specified duration in milliseconds are
+		 * logged as errors.
+		 */
 		public int longEventErrorThreshold;
 		/**
-		 * Events that took longer than the specified duration are reported as deadlocks
-		 * without waiting for the event to finish.
+		 * Events that took longer than the specified duration in milliseconds are
+		 * reported as deadlocks without waiting for the event to finish.
 		 */
 		public long deadlockThreshold;
+		/**
+		 * If true, durations are measured with {@link System#nanoTime()} instead of
+		 * the wall clock.
+		 */
+		public boolean monotonicClock;
 		/** Maximum number of stack samples to log */
 		public int maxStackSamples;
 		/** If true, log freeze events to the Eclipse error log on the local machine. */
@@ -77,6 +118,52 @@ public class EventLoopMonitorThread extends Thread {
 		 * @see org.eclipse.ui.monitoring.PreferenceConstants#NONINTERESTING_THREAD_FILTER
 		 */
 		public String noninterestingThreadFilter;
+		/** Maximum number of events waiting to be processed by a single freeze consumer. */
+		public int dispatchQueueCapacity = 16;
+		/** Decides which event is dropped when the queue of a freeze consumer is full. */
+		public FreezeEventDispatcher.OverflowPolicy dispatchOverflowPolicy =
+				FreezeEventDispatcher.OverflowPolicy.DROP_OLDEST;
+		/** If true, the UI thread is sampled continuously while it dispatches events. */
+		public boolean profilingEnabled;
+		/** Number of continuous profiling samples per second. */
+		public int profilingSampleRate = 20;
+		/** Maximum number of methods in the hot method histogram. */
+		public int profilingMaxMethods = 256;
+		/** Maximum share of the busy time of the UI thread in percent spent on profiling. */
+		public int profilingOverheadBudgetPercent = 1;
+		/** If true, the duration of every event dispatch is recorded per event type. */
+		public boolean dispatchLatencyHistogramsEnabled;
+		/**
+		 * If true, only the UI thread, the owners of the locks it waits for and the
+		 * threads matching {@link #threadCaptureAllowList} are captured instead of all
+		 * threads.
+		 */
+		public boolean targetedThreadCapture;
+		/** Comma separated names of threads captured by the targeted thread capture. */
+		public String threadCaptureAllowList = ""; //$NON-NLS-1$
+		/** Maximum number of stack frames kept of the UI thread, deeper stacks are truncated. */
+		public int uiThreadMaxStackDepth = 1024;
+		/**
+		 * Maximum number of stack frames kept of the threads other than the UI
+		 * thread, deeper stacks are truncated. The targeted thread capture and, on
+		 * Java 10 and later, the dump of all threads walk no more frames of these
+		 * threads than {@link #stackBottomFrames} requires.
+		 */
+		public int threadCaptureMaxDepth = 64;
+		/**
+		 * Number of frames kept at the bottom of a truncated stack, the remaining
+		 * frames are taken from the top. With 0 no more frames are walked than are
+		 * kept. Otherwise the stacks are walked up to twice their maximum depth, which
+		 * doubles the bounded capture cost of deep stacks. The bottom frames of a
+		 * stack deeper than that are not captured, its top frames are kept only.
+		 */
+		public int stackBottomFrames = 16;
+		/** Maximum CPU time of the monitoring thread in percent of one core. */
+		public int monitorOverheadBudgetPercent = 1;
+		/** Interval in which a repeated freeze is logged in full only once, 0 to log all repeats. */
+		public long repeatedFreezeSummaryInterval = 60000;
+		/** If true, the garbage collection pauses overlapping a freeze are attached to it. */
+		public boolean gcCorrelationEnabled = true;
 
 		/**
 		 * Checks if the values of parameters for UI responsiveness monitoring are
@@ -87,14 +174,15 @@ public class EventLoopMonitorThread extends Thread {
 		 */
 		public void checkParameters() throws IllegalArgumentException {
 			StringBuilder problems = new StringBuilder();
-			if (longEventWarningThreshold <= 0) {
-				problems.append(NEW_LINE_AND_BULLET + NLS
-						.bind(Messages.EventLoopMonitorThread_warning_threshold_error_1, longEventWarningThreshold));
+			if (longEventWarningThresholdMicros < 0
+					|| (longEventWarningThresholdMicros == 0 && longEventWarningThreshold <= 0)) {
+				problems.append(NEW_LINE_AND_BULLET + NLS.bind(Messages.EventLoopMonitorThread_warning_threshold_error_1,
+						formatWarningThreshold()));
 			}
-			if (longEventErrorThreshold < longEventWarningThreshold) {
+			if (TimeUnit.MILLISECONDS.toNanos(longEventErrorThreshold) < getWarningThresholdNanos()) {
 				problems.append(
 						NEW_LINE_AND_BULLET + NLS.bind(Messages.EventLoopMonitorThread_error_threshold_too_low_error_2,
-								longEventErrorThreshold, longEventWarningThreshold));
+								longEventErrorThreshold + "ms", formatWarningThreshold())); //$NON-NLS-1$
 			}
 			if (deadlockThreshold <= 0) {
 				problems.append(NEW_LINE_AND_BULLET
@@ -104,12 +192,133 @@ public class EventLoopMonitorThread extends Thread {
 						+ NLS.bind(Messages.EventLoopMonitorThread_deadlock_threshold_too_low_error_2,
 								deadlockThreshold, longEventErrorThreshold));
 			}
+			if (dispatchQueueCapacity <= 0) {
+				problems.append(NEW_LINE_AND_BULLET + NLS
+						.bind(Messages.EventLoopMonitorThread_dispatch_queue_capacity_error_1, dispatchQueueCapacity));
+			}
+			if (monitorOverheadBudgetPercent <= 0 || monitorOverheadBudgetPercent > 100) {
+				problems.append(NEW_LINE_AND_BULLET + NLS.bind(
+						Messages.EventLoopMonitorThread_monitor_overhead_budget_error_1, monitorOverheadBudgetPercent));
+			}
+			if (repeatedFreezeSummaryInterval < 0) {
+				problems.append(NEW_LINE_AND_BULLET + NLS.bind(
+						Messages.EventLoopMonitorThread_repeated_freeze_summary_interval_error_1,
+						repeatedFreezeSummaryInterval));
+			}
+			if (uiThreadMaxStackDepth <= 0) {
+				problems.append(NEW_LINE_AND_BULLET
+						+ NLS.bind(Messages.EventLoopMonitorThread_ui_thread_stack_depth_error_1, uiThreadMaxStackDepth));
+			}
+			if (threadCaptureMaxDepth <= 0) {
+				problems.append(NEW_LINE_AND_BULLET
+						+ NLS.bind(Messages.EventLoopMonitorThread_thread_capture_depth_error_1, threadCaptureMaxDepth));
+			}
+			if (stackBottomFrames < 0 || stackBottomFrames >= uiThreadMaxStackDepth
+					|| stackBottomFrames >= threadCaptureMaxDepth) {
+				problems.append(NEW_LINE_AND_BULLET
+						+ NLS.bind(Messages.EventLoopMonitorThread_stack_bottom_frames_error_1, stackBottomFrames));
+			}
+			if (profilingEnabled) {
+				if (profilingSampleRate <= 0 || profilingSampleRate > 1000) {
+					problems.append(NEW_LINE_AND_BULLET
+							+ NLS.bind(Messages.EventLoopMonitorThread_profiling_sample_rate_error_1, profilingSampleRate));
+				}
+				if (profilingMaxMethods <= 0) {
+					problems.append(NEW_LINE_AND_BULLET
+							+ NLS.bind(Messages.EventLoopMonitorThread_profiling_max_methods_error_1, profilingMaxMethods));
+				}
+				if (profilingOverheadBudgetPercent <= 0 || profilingOverheadBudgetPercent > 100) {
+					problems.append(NEW_LINE_AND_BULLET + NLS.bind(
+							Messages.EventLoopMonitorThread_profiling_overhead_budget_error_1,
+							profilingOverheadBudgetPercent));
+				}
+			}
 
 			if (problems.length() != 0) {
 				throw new IllegalArgumentException(
 						NLS.bind(Messages.EventLoopMonitorThread_invalid_argument_error_1, problems.toString()));
 			}
 		}
+
+		/**
+		 * Returns the warning threshold in nanoseconds.
+		 */
+		long getWarningThresholdNanos() {
+			return longEventWarningThresholdMicros > 0
+					? TimeUnit.MICROSECONDS.toNanos(longEventWarningThresholdMicros)
+					: TimeUnit.MILLISECONDS.toNanos(longEventWarningThreshold);
+		}
+
+		/**
+		 * Returns the warning threshold that is checked, with its unit.
+		 */
+		private String formatWarningThreshold() {
+			return longEventWarningThresholdMicros != 0 ? longEventWarningThresholdMicros + "us" //$NON-NLS-1$
+					: longEventWarningThreshold + "ms"; //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Immutable snapshot of the parameters that can be changed while the thread
+	 * is running, with durations in nanoseconds. Replaced as a whole by
+	 * {@link EventLoopMonitorThread#updateParameters(Parameters)} and read once per
+	 * polling cycle, so a cycle never sees a mix of old and new values. The
+	 * filters are used only by the monitoring thread.
+	 */
+	private static final class Settings {
+		final long longEventWarningThreshold;
+		final long longEventErrorThreshold;
+		final long deadlockThreshold;
+		final long starvationTolerance;
+		final long sampleInterval;
+		final long pollingNyquistDelay;
+		final long allThreadsSampleInterval;
+		final int maxLoggedStackSamples;
+		final int overheadBudgetPercent;
+		final long repeatedFreezeSummaryInterval;
+		final int uiThreadMaxStackDepth;
+		final int threadMaxStackDepth;
+		final int stackBottomFrames;
+		/** The number of frames walked to keep {@link #uiThreadMaxStackDepth} frames. */
+		final int uiThreadWalkDepth;
+		/** The number of frames walked to keep {@link #threadMaxStackDepth} frames. */
+		final int threadWalkDepth;
+		final FilterHandler uiThreadFilter;
+		final FilterHandler noninterestingThreadFilter;
+
+		Settings(Parameters args, boolean monotonicClock, boolean targetedThreadCapture) {
+			longEventWarningThreshold = Math.max(args.getWarningThresholdNanos(),
+					monotonicClock ? MIN_MONOTONIC_WARNING_THRESHOLD : MIN_WALL_CLOCK_WARNING_THRESHOLD);
+			longEventErrorThreshold = Math.max(TimeUnit.MILLISECONDS.toNanos(args.longEventErrorThreshold),
+					longEventWarningThreshold);
+			maxLoggedStackSamples = Math.max(args.maxStackSamples, 0);
+			sampleInterval = longEventWarningThreshold * 2 / 3;
+			pollingNyquistDelay = sampleInterval / 2;
+			// The targeted capture is cheap enough to include the other threads from the first sample on.
+			allThreadsSampleInterval = targetedThreadCapture ? sampleInterval : longEventErrorThreshold * 2 / 3;
+			deadlockThreshold = TimeUnit.MILLISECONDS.toNanos(args.deadlockThreshold);
+			// Sleeping has millisecond granularity, sub-millisecond thresholds must not be mistaken for starvation.
+			starvationTolerance = monotonicClock ? Math.max(longEventWarningThreshold / 2, MIN_STARVATION_TOLERANCE)
+					: longEventWarningThreshold / 2;
+			overheadBudgetPercent = args.monitorOverheadBudgetPercent;
+			repeatedFreezeSummaryInterval = args.repeatedFreezeSummaryInterval;
+			uiThreadMaxStackDepth = args.uiThreadMaxStackDepth;
+			threadMaxStackDepth = args.threadCaptureMaxDepth;
+			stackBottomFrames = args.stackBottomFrames;
+			uiThreadWalkDepth = getWalkDepth(uiThreadMaxStackDepth, stackBottomFrames);
+			threadWalkDepth = getWalkDepth(threadMaxStackDepth, stackBottomFrames);
+			uiThreadFilter = new FilterHandler(args.uiThreadFilter);
+			noninterestingThreadFilter = new FilterHandler(args.noninterestingThreadFilter);
+		}
+
+		/**
+		 * Returns the depth a stack is walked to. The bottom frames of a stack are
+		 * only found by walking past the frames that are kept, which is limited to
+		 * as many frames again.
+		 */
+		private static int getWalkDepth(int maxDepth, int bottomFrames) {
+			return bottomFrames == 0 ? maxDepth : maxDepth + Math.min(maxDepth, Integer.MAX_VALUE - maxDepth);
+		}
 	}
 
 	/**
@@ -132,6 +341,12 @@ public class EventLoopMonitorThread extends Thread {
 		private int[] nestingLevelStack = new int[64];
 		private int nestingLevelStackSize;
 
+		private final MonitoredDisplay monitored;
+
+		EventLoopState(MonitoredDisplay monitored) {
+			this.monitored = monitored;
+		}
+
 		@Override
 		public void handleEvent(Event event) {
 			/*
@@ -157,19 +372,28 @@ public class EventLoopMonitorThread extends Thread {
 			 * eventStartOrResumeTime field is set to zero when the thread is in an external
 			 * event loop so that deadlock logging can be avoided for this case.
 			 */
+			long currTime;
 			switch (event.type) {
 			case SWT.PreEvent:
+				currTime = getNanoTimestamp();
+				if (monitored.dispatchLatencyRecorder != null) {
+					monitored.dispatchLatencyRecorder.preEvent(event.detail, currTime);
+				}
 				if (!doesEventIndicateResponsiveUI(event.detail)) {
 					break; // Ignore events that may be produced during a UI freeze.
 				}
 				nestingLevel++;
-				if (eventHistory != null) {
-					eventHistory.recordEvent(event.type, event.detail, nestingLevel);
+				if (monitored.eventHistory != null) {
+					monitored.eventHistory.recordEvent(event.type, event.detail, nestingLevel);
 				}
 				// Log a long interval, start the timer.
-				handleEventTransition(true, true);
+				monitored.handleEventTransition(true, true, currTime);
 				break;
 			case SWT.PostEvent:
+				currTime = getNanoTimestamp();
+				if (monitored.dispatchLatencyRecorder != null) {
+					monitored.dispatchLatencyRecorder.postEvent(event.detail, currTime);
+				}
 				if (!doesEventIndicateResponsiveUI(event.detail)) {
 					break; // Ignore events that may be produced during a UI freeze.
 				}
@@ -178,27 +402,27 @@ public class EventLoopMonitorThread extends Thread {
 					// started listening to SWT events.
 					nestingLevel = 0;
 				}
-				if (eventHistory != null) {
-					eventHistory.recordEvent(event.type, event.detail, nestingLevel);
+				if (monitored.eventHistory != null) {
+					monitored.eventHistory.recordEvent(event.type, event.detail, nestingLevel);
 				}
 				// Log a long interval, start the timer if inside another event.
-				handleEventTransition(true, nestingLevel > 0);
+				monitored.handleEventTransition(true, nestingLevel > 0, currTime);
 				break;
 			case SWT.PreExternalEventDispatch:
 				saveAndResetNestingLevel();
-				if (eventHistory != null) {
-					eventHistory.recordEvent(event.type, event.detail, nestingLevel);
+				if (monitored.eventHistory != null) {
+					monitored.eventHistory.recordEvent(event.type, event.detail, nestingLevel);
 				}
 				// Log a long interval, stop the timer.
-				handleEventTransition(true, false);
+				monitored.handleEventTransition(true, false, getNanoTimestamp());
 				break;
 			case SWT.PostExternalEventDispatch:
 				restoreNestingLevel();
-				if (eventHistory != null) {
-					eventHistory.recordEvent(event.type, event.detail, nestingLevel);
+				if (monitored.eventHistory != null) {
+					monitored.eventHistory.recordEvent(event.type, event.detail, nestingLevel);
 				}
 				// Don't log a long interval, start the timer if inside another event.
-				handleEventTransition(false, nestingLevel > 0);
+				monitored.handleEventTransition(false, nestingLevel > 0, getNanoTimestamp());
 				break;
 			default:
 				break;
@@ -232,7 +456,11 @@ public class EventLoopMonitorThread extends Thread {
 						NLS.bind(Messages.EventLoopMonitorThread_max_event_loop_depth_exceeded_1,
 								nestingLevelStack.length),
 						null));
-				shutdown();
+				if (monitored == primaryDisplay) {
+					shutdown();
+				} else {
+					removeDisplay(monitored.display);
+				}
 			}
 		}
 
@@ -250,50 +478,99 @@ public class EventLoopMonitorThread extends Thread {
 
 	/**
 	 * Circular buffer recording SWT events. Used for tracing.
+	 * <p>
+	 * The buffer has a single writer, the UI thread, which records events without
+	 * locking or allocating. The monitoring thread reads the buffer concurrently
+	 * and uses the sequence counters to discard entries that were overwritten
+	 * while it was reading them.
+	 * </p>
+	 * <p>
+	 * The UI thread claims an entry before writing it, and writes its fields with
+	 * ordered stores, so the claim becomes visible no later than any of the new
+	 * field values. The monitoring thread reads the fields with volatile loads. A
+	 * field value of an overwriting event thus implies that the claim of that
+	 * event is seen when the claimed counter is re-read.
+	 * </p>
 	 */
 	private static class EventHistory {
-		private static final SimpleDateFormat TIME_FORMAT = new SimpleDateFormat("HH:mm:ss.SSS"); //$NON-NLS-1$
+		private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS"); //$NON-NLS-1$
+		private final Date date = new Date();
 
-		private static class EventInfo {
-			long timestamp;
-			int eventType;
-			int detail;
-			int nestingLevel;
-		}
+		private final AtomicLongArray timestamps;
+		private final AtomicIntegerArray eventTypes;
+		private final AtomicIntegerArray details;
+		private final AtomicIntegerArray nestingLevels;
+		private final int capacity;
+		private final int mask;
 
-		private final EventInfo[] buffer;
-		private int start; // Index of the first recorded event.
-		private int size; // Number of recorded events.
+		/**
+		 * The number of events whose writing has begun. Claimed by the UI thread
+		 * before the entry of an event is overwritten.
+		 */
+		private final AtomicLong claimed = new AtomicLong();
+		/**
+		 * The number of events recorded so far. Published by the UI thread after an
+		 * event has been completely written.
+		 */
+		private final AtomicLong published = new AtomicLong();
+		// Accessed only by the UI thread.
+		private long nextSequence;
+		// Accessed only by the monitoring thread.
+		private long extractedSequence;
 
+		/**
+		 * @param capacity the number of recorded events, must be a power of two
+		 */
 		EventHistory(int capacity) {
-			buffer = new EventInfo[capacity];
-			for (int i = 0; i < capacity; i++) {
-				buffer[i] = new EventInfo();
-			}
+			Assert.isLegal(Integer.bitCount(capacity) == 1);
+			timestamps = new AtomicLongArray(capacity);
+			eventTypes = new AtomicIntegerArray(capacity);
+			details = new AtomicIntegerArray(capacity);
+			nestingLevels = new AtomicIntegerArray(capacity);
+			this.capacity = capacity;
+			mask = capacity - 1;
 		}
 
-		synchronized void recordEvent(int eventType, int detail, int nestingLevel) {
-			int j = (start + size) % buffer.length;
-			EventInfo event = buffer[j];
-			event.timestamp = System.currentTimeMillis();
-			event.eventType = eventType;
-			event.detail = detail;
-			event.nestingLevel = nestingLevel;
-			if (size < buffer.length) {
-				size++;
-			} else if (++start >= buffer.length) {
-				start = 0;
-			}
+		// Called on the UI thread.
+		void recordEvent(int eventType, int detail, int nestingLevel) {
+			long sequence = nextSequence++;
+			int i = (int) sequence & mask;
+			claimed.lazySet(sequence + 1);
+			// Ordered stores, none of them may become visible before the claim.
+			timestamps.lazySet(i, System.currentTimeMillis());
+			eventTypes.lazySet(i, eventType);
+			details.lazySet(i, detail);
+			nestingLevels.lazySet(i, nestingLevel);
+			published.lazySet(sequence + 1);
 		}
 
-		synchronized String extractAndClear() {
+		// Called on the monitoring thread.
+		String extractAndClear() {
+			long end = published.get();
+			long begin = Math.max(extractedSequence, end - capacity);
+			int count = (int) (end - begin);
+			long[] eventTimestamps = new long[count];
+			int[] eventTypeValues = new int[count];
+			int[] detailValues = new int[count];
+			int[] nestingLevelValues = new int[count];
+			for (int k = 0; k < count; k++) {
+				int i = (int) (begin + k) & mask;
+				eventTimestamps[k] = timestamps.get(i);
+				eventTypeValues[k] = eventTypes.get(i);
+				detailValues[k] = details.get(i);
+				nestingLevelValues[k] = nestingLevels.get(i);
+			}
+			extractedSequence = end;
+			// Drop the entries the UI thread may have overwritten while they were copied.
+			long overwritten = claimed.get() - capacity;
+			int first = (int) Math.max(0, Math.min(count, overwritten - begin));
+
 			StringBuilder buf = new StringBuilder();
-			for (int i = 0; i < size; i++) {
-				int j = (start + i) % buffer.length;
-				EventInfo eventInfo = buffer[j];
-				buf.append(TIME_FORMAT.format(new Date(eventInfo.timestamp)));
+			for (int k = first; k < count; k++) {
+				date.setTime(eventTimestamps[k]);
+				buf.append(timeFormat.format(date));
 				buf.append(": "); //$NON-NLS-1$
-				switch (eventInfo.eventType) {
+				switch (eventTypeValues[k]) {
 				case SWT.PreEvent:
 					buf.append("PreEvent"); //$NON-NLS-1$
 					break;
@@ -308,201 +585,106 @@ public class EventLoopMonitorThread extends Thread {
 					break;
 				default:
 					buf.append("Event "); //$NON-NLS-1$
-					buf.append(eventInfo.eventType);
+					buf.append(eventTypeValues[k]);
 				}
 				buf.append(' ');
-				buf.append(eventInfo.detail);
+				buf.append(detailValues[k]);
 				buf.append(" nesting level: "); //$NON-NLS-1$
-				buf.append(eventInfo.nestingLevel);
+				buf.append(nestingLevelValues[k]);
 				buf.append('\n');
 			}
-			size = 0;
 			return buf.toString();
 		}
 	}
 
-	// Accessed only by the UI thread. */
-	private final EventLoopState eventLoopState = new EventLoopState();
-
-	/*
-	 * Tracks when the current event was started, or if the event has nested {@link
-	 * Event#sendEvent} calls, then the time when the most recent nested call
-	 * returns and the current event is resumed.
-	 *
-	 * Accessed by both the UI and the monitoring thread. Updated by the UI thread
-	 * and read by the polling thread. Changing this in the UI thread causes the
-	 * polling thread to reset its stalled event state. The UI thread sets this
-	 * value to zero to indicate a sleep state and to a positive value to represent
-	 * a dispatched state.
-	 */
-	private volatile long eventStartOrResumeTime;
-
-	// Accessed by both the UI and monitoring threads.
-	private final int longEventWarningThreshold;
-	private final AtomicBoolean cancelled = new AtomicBoolean(false);
-	private final AtomicReference<LongEventInfo> eventToPublish = new AtomicReference<LongEventInfo>(null);
-
-	// Accessed only by the monitoring thread.
-	private List<? extends Consumer<UiFreezeEvent>> externalLoggers;
-	private DefaultUiFreezeEventLogger defaultLogger;
-	private final Display display;
-	private final FilterHandler uiThreadFilter;
-	private final FilterHandler noninterestingThreadFilter;
-	private final int longEventErrorThreshold;
-	private final long sampleInterval;
-	private final long allThreadsSampleInterval;
-	private final int maxStackSamples;
-	private final int maxLoggedStackSamples;
-	private final long deadlockThreshold;
-	private final long uiThreadId;
-	private final Object sleepMonitor;
-	private final boolean logToErrorLog;
-	private EventHistory eventHistory;
-	private ThreadMXBean threadMXBean;
-	private boolean dumpLockedMonitors;
-	private boolean dumpLockedSynchronizers;
-	private long monitoringThreadId;
-
 	/**
-	 * Initializes the static state of the monitoring thread.
-	 *
-	 * @param args parameters derived from preferences
-	 * @throws IllegalArgumentException if monitoring thread cannot be initialized
-	 *                                  due to an error
+	 * A display monitored by this thread. Holds the state of the event loop of
+	 * the display, which is written by its UI thread, and the state of the
+	 * stalled event being sampled, which is accessed only by the monitoring
+	 * thread.
 	 */
-	public EventLoopMonitorThread(Parameters args, Display display) throws IllegalArgumentException {
-		super("Event Loop Monitor"); //$NON-NLS-1$
-
-		if (tracer != null) {
-			eventHistory = new EventHistory(EVENT_HISTORY_SIZE);
-		}
+	private final class MonitoredDisplay {
+		private final Display display;
+		private final long uiThreadId;
 
-		Assert.isNotNull(args);
-
-		args.checkParameters();
+		// Accessed only by the UI thread.
+		private final EventLoopState eventLoopState = new EventLoopState(this);
 
-		setDaemon(true);
-		setPriority(NORM_PRIORITY + 1);
-		this.display = display;
-		uiThreadId = this.display.getThread().getId();
-		longEventWarningThreshold = Math.max(args.longEventWarningThreshold, 3);
-		longEventErrorThreshold = Math.max(args.longEventErrorThreshold, longEventWarningThreshold);
-		maxLoggedStackSamples = Math.max(args.maxStackSamples, 0);
-		maxStackSamples = 2 * maxLoggedStackSamples;
-		sampleInterval = longEventWarningThreshold * 2 / 3;
-		allThreadsSampleInterval = longEventErrorThreshold * 2 / 3;
-		deadlockThreshold = args.deadlockThreshold;
-		logToErrorLog = args.logToErrorLog;
-		uiThreadFilter = new FilterHandler(args.uiThreadFilter);
-		noninterestingThreadFilter = new FilterHandler(args.noninterestingThreadFilter);
-		sleepMonitor = new Object();
-	}
-
-	/**
-	 * Shuts down the monitoring thread. Must be called on the display thread.
-	 */
-	public void shutdown() throws SWTException {
-		cancelled.set(true);
-		if (!display.isDisposed()) {
-			display.removeListener(SWT.PreEvent, eventLoopState);
-			display.removeListener(SWT.PostEvent, eventLoopState);
-			display.removeListener(SWT.PreExternalEventDispatch, eventLoopState);
-			display.removeListener(SWT.PostExternalEventDispatch, eventLoopState);
-		}
-		wakeUp();
-	}
-
-	/**
-	 * For testing only.
-	 */
-	final void handleEvent(Event event) {
-		eventLoopState.handleEvent(event);
-	}
-
-	// Called on the UI thread!
-	private void handleEventTransition(boolean attemptToLogLongDelay, boolean startEventTimer) {
 		/*
-		 * On transition between events or sleeping/wake up, we need to reset the delay
-		 * tracking state and possibly publish a long delay message. Updating
-		 * eventStartOrResumeTime causes the polling thread to reset its stack traces,
-		 * so it should always be changed *after* the event is published. The
-		 * indeterminacy of threading may cause the polling thread to see both changes
-		 * or only the (first) eventToPublish change, but the only difference is a small
-		 * window where, if an additional stack trace was scheduled to be sampled, a
-		 * bogus stack trace sample will be appended to the end of the samples. This
-		 * bogus sample is removed before logging.
+		 * Tracks when the current event was started, or if the event has nested {@link
+		 * Event#sendEvent} calls, then the time when the most recent nested call
+		 * returns and the current event is resumed.
+		 *
+		 * Accessed by both the UI and the monitoring thread. Updated by the UI thread
+		 * and read by the polling thread. Changing this in the UI thread causes the
+		 * polling thread to reset its stalled event state. The UI thread sets this
+		 * value to zero to indicate a sleep state and to a positive value to represent
+		 * a dispatched state.
 		 */
-		long currTime = getTimestamp();
-		if (attemptToLogLongDelay) {
-			long startTime = eventStartOrResumeTime;
-			if (startTime != 0) {
-				int duration = (int) (currTime - startTime);
-				if (duration >= longEventWarningThreshold) {
-					LongEventInfo info = new LongEventInfo(startTime, duration);
-					eventToPublish.set(info);
-					wakeUp();
-				}
-			}
-		}
-		eventStartOrResumeTime = startEventTimer ? currTime : 0;
-	}
-
-	@Override
-	public void run() {
-		if (logToErrorLog) {
-			defaultLogger = new DefaultUiFreezeEventLogger(longEventErrorThreshold);
-		}
-
-		Bundle bundle = FrameworkUtil.getBundle(getClass());
-		try {
-			loadLoggerServices(bundle);
-		} catch (InvalidSyntaxException e) {
-			ILog log = Platform.getLog(bundle);
-			log.log(new Status(IStatus.ERROR, bundle.getSymbolicName(), e.getMessage(), e));
+		private volatile long eventStartOrResumeTime;
+		private final AtomicReference<LongEventInfo> eventToPublish = new AtomicReference<LongEventInfo>(null);
+		// Written by the UI thread, read by the monitoring thread for tracing.
+		private final EventHistory eventHistory;
+		// Written by the UI thread, read by clients of the freeze monitor service.
+		private final DispatchLatencyRecorder dispatchLatencyRecorder;
+		// Created by the monitoring thread, read by clients of the freeze monitor service.
+		private volatile UiThreadProfiler profiler;
+
+		// Accessed only by the monitoring thread.
+		private boolean started;
+		private TargetedThreadCapture targetedCapture;
+		private boolean resetStalledEventState = true;
+		private long deadlockTimerStart;
+		private long pollingDelay; // Immediately updated by resetStalledEventState.
+		private long grabStackSampleAt; // Immediately updated by resetStalledEventState.
+		private long lastEventStartOrResumeTime; // Immediately updated by resetStalledEventState.
+		private long currEventStartOrResumeTime;
+		// Sized when the stalled event state is reset, so a freeze keeps its samples when the settings change.
+		private StackSample[] stackSamples = new StackSample[2 * settings.maxLoggedStackSamples];
+		private int numSamples;
+		// Shared by the stack samples of a single freeze.
+		private FrameDictionary frameDictionary = new FrameDictionary();
+		private boolean starvedAwake;
+		private boolean starvedAsleep;
+		// The CPU time of the monitoring thread when the freeze was first observed.
+		private long cpuTimeAtStart;
+		private Throttle strongestThrottle;
+		private boolean dumpAllThreads;
+		// Set if a stack sample is due in the current polling cycle.
+		private boolean sampleDue;
+
+		MonitoredDisplay(Display display, long uiThreadId) {
+			this.display = display;
+			this.uiThreadId = uiThreadId;
+			eventHistory = tracer != null ? new EventHistory(EVENT_HISTORY_SIZE) : null;
+			dispatchLatencyRecorder = dispatchLatencyHistogramsEnabled ? new DispatchLatencyRecorder() : null;
 		}
 
-		if (!logToErrorLog && (externalLoggers == null || externalLoggers.isEmpty())) {
-			ILog log = Platform.getLog(bundle);
-			log.log(new Status(IStatus.WARNING, bundle.getSymbolicName(),
-					Messages.EventLoopMonitorThread_logging_disabled_error));
+		/**
+		 * Creates the state that needs the monitoring thread. Called on the
+		 * monitoring thread before the display is polled for the first time.
+		 */
+		private void start() {
+			started = true;
+			if (targetedThreadCapture) {
+				targetedCapture = new TargetedThreadCapture(threadMXBean, uiThreadId, monitoringThreadId,
+						threadCaptureAllowList, dumpLockedMonitors, dumpLockedSynchronizers);
+			}
+			if (profilingSampleInterval > 0) {
+				profiler = new UiThreadProfiler(threadMXBean, uiThreadId, profilingSampleInterval, profilingMaxMethods,
+						profilingOverheadBudgetPercent);
+			}
 		}
 
-		monitoringThreadId = Thread.currentThread().getId();
-		threadMXBean = ManagementFactory.getThreadMXBean();
-		dumpLockedMonitors = threadMXBean.isObjectMonitorUsageSupported();
-		dumpLockedSynchronizers = threadMXBean.isSynchronizerUsageSupported();
-		boolean contentionMonitoringSupported = threadMXBean.isThreadContentionMonitoringSupported();
-
-		/*
-		 * If this event loop starts in the middle of a UI freeze, it will succeed in
-		 * capturing the portion of that UI freeze that it sees.
+		/**
+		 * Prepares the next polling cycle. Called on the monitoring thread.
 		 *
-		 * Our timer resolution is, at best, 1 millisecond so we can never try to catch
-		 * events of a duration less than that.
+		 * @return the time to sleep before the display needs to be polled again
 		 */
-		boolean resetStalledEventState = true;
-
-		long deadlockTimerStart = 0;
-
-		final long pollingNyquistDelay = sampleInterval / 2;
-		long pollingDelay = 0; // Immediately updated by resetStalledEventState.
-		long grabStackSampleAt = 0; // Immediately updated by resetStalledEventState.
-		long lastEventStartOrResumeTime = 0; // Immediately updated by resetStalledEventState.
-
-		StackSample[] stackSamples = new StackSample[maxStackSamples];
-		int numSamples = 0;
-
-		boolean starvedAwake = false;
-		boolean starvedAsleep = false;
-
-		boolean dumpAllThreads = false;
-
-		// Register for events
-		display.asyncExec(() -> registerDisplayListeners());
-
-		long currTime = getTimestamp();
-
-		while (!cancelled.get()) {
+		long prepare(long currTime, Settings current) {
+			if (!started) {
+				start();
+			}
 			long sleepFor;
 			if (resetStalledEventState) {
 				long eventTime = eventStartOrResumeTime;
@@ -510,54 +692,71 @@ public class EventLoopMonitorThread extends Thread {
 				if (eventTime == 0) {
 					eventTime = currTime;
 				}
-				grabStackSampleAt = eventTime + sampleInterval;
+				grabStackSampleAt = eventTime + current.sampleInterval;
+				if (numSamples != 0) {
+					frameDictionary = new FrameDictionary();
+				}
 				numSamples = 0;
+				if (stackSamples.length != 2 * current.maxLoggedStackSamples) {
+					stackSamples = new StackSample[2 * current.maxLoggedStackSamples];
+				}
 				starvedAwake = false;
 				starvedAsleep = false;
-				if (dumpAllThreads) {
-					// Stop capturing stacks of all threads.
-					dumpAllThreads = false;
-					if (contentionMonitoringSupported) {
-						threadMXBean.setThreadContentionMonitoringEnabled(false);
-					}
-				}
-				pollingDelay = sampleInterval;
-				sleepFor = pollingNyquistDelay;
+				cpuTimeAtStart = samplingThrottle.getCpuTime();
+				strongestThrottle = samplingThrottle.getThrottle();
+				// Stop capturing stacks of all threads.
+				dumpAllThreads = false;
+				pollingDelay = current.sampleInterval;
+				sleepFor = current.pollingNyquistDelay;
 				resetStalledEventState = false;
 			} else if (lastEventStartOrResumeTime == 0) {
-				sleepFor = pollingNyquistDelay;
+				sleepFor = current.pollingNyquistDelay;
 			} else {
-				sleepFor = Math.min(pollingNyquistDelay, Math.max(1, grabStackSampleAt - currTime));
+				sleepFor = Math.min(current.pollingNyquistDelay, Math.max(MIN_SLEEP, grabStackSampleAt - currTime));
+			}
+			UiThreadProfiler uiThreadProfiler = profiler;
+			if (uiThreadProfiler != null && uiThreadProfiler.getNextSampleTime() != 0) {
+				// Wake up for the next profiling sample while the UI thread is busy.
+				sleepFor = Math.min(sleepFor, Math.max(MIN_SLEEP, uiThreadProfiler.getNextSampleTime() - currTime));
 			}
 
 			// Allow the discarded stack samples to be garbage collected.
 			for (int i = numSamples; i < stackSamples.length && stackSamples[i] != null; i++) {
 				stackSamples[i] = null;
 			}
+			return sleepFor;
+		}
 
-			// This is the top of the polling loop.
-			long sleepAt = getTimestamp();
-
-			/*
-			 * Check for starvation outside of sleeping. If we sleep or process much longer
-			 * than expected (e.g. > threshold/2 longer), then the polling thread has been
-			 * starved and it's very likely that the UI thread has been as well. Starvation
-			 * freezes do not have useful information, so don't log them.
-			 */
-			long awakeDuration = currTime - sleepAt;
-			boolean starvedAwakeCurrentCycle = awakeDuration > (sleepFor + longEventWarningThreshold / 2);
+		/**
+		 * Checks the event loop after sleeping, reports a potential deadlock and
+		 * decides whether a stack sample is due. Called on the monitoring thread.
+		 */
+		void poll(long currTime, Settings current, boolean starvedAwakeCurrentCycle,
+				boolean starvedAsleepCurrentCycle) {
+			int maxStackSamples = stackSamples.length;
+			int maxLoggedStackSamples = maxStackSamples / 2;
+			sampleDue = false;
+			currEventStartOrResumeTime = eventStartOrResumeTime;
 			if (starvedAwakeCurrentCycle) {
 				starvedAwake = true;
 			}
-			sleepForMillis(sleepFor);
-			currTime = getTimestamp();
-			long currEventStartOrResumeTime = eventStartOrResumeTime;
-			long sleepDuration = currTime - sleepAt;
-			boolean starvedAsleepCurrentCycle = sleepDuration > (sleepFor + longEventWarningThreshold / 2);
 			if (starvedAsleepCurrentCycle) {
 				starvedAsleep = true;
 			}
 			boolean starved = starvedAsleepCurrentCycle || starvedAwakeCurrentCycle;
+			if (samplingThrottle.getThrottle().compareTo(strongestThrottle) > 0) {
+				strongestThrottle = samplingThrottle.getThrottle();
+			}
+
+			UiThreadProfiler uiThreadProfiler = profiler;
+			if (uiThreadProfiler != null) {
+				// Never sample while the UI thread sleeps or waits in an external event loop.
+				if (currEventStartOrResumeTime != 0) {
+					uiThreadProfiler.busy(currTime);
+				} else {
+					uiThreadProfiler.idle();
+				}
+			}
 
 			/*
 			 * If after sleeping we see that a new event has been dispatched, mark that we
@@ -566,39 +765,30 @@ public class EventLoopMonitorThread extends Thread {
 			 */
 			if (lastEventStartOrResumeTime != currEventStartOrResumeTime || starved) {
 				resetStalledEventState = true;
-				if (tracer != null && starved) {
-					if (starvedAwakeCurrentCycle) {
-						tracer.trace(String.format(
-								"Starvation detected! Polling loop took a significant amount of threshold: %dms", //$NON-NLS-1$
-								awakeDuration));
-					}
-
-					if (starvedAsleepCurrentCycle) {
-						tracer.trace(String.format(
-								"Starvation detected! Expected to sleep for %dms but actually slept for %dms", //$NON-NLS-1$
-								sleepFor, sleepDuration));
-					}
-				}
 			} else if (lastEventStartOrResumeTime != 0) {
-				if (!dumpAllThreads && currTime >= lastEventStartOrResumeTime + allThreadsSampleInterval) {
+				if (!dumpAllThreads && currTime >= lastEventStartOrResumeTime + current.allThreadsSampleInterval) {
 					// Start capturing stacks of all threads.
 					dumpAllThreads = true;
-					if (contentionMonitoringSupported) {
-						threadMXBean.setThreadContentionMonitoringEnabled(true);
+					if (targetedCapture != null) {
+						targetedCapture.refreshAllowList();
 					}
 				}
 
 				if (deadlockTimerStart != 0) {
 					long totalDuration = currTime - deadlockTimerStart;
-					if (totalDuration >= deadlockThreshold) {
+					if (totalDuration >= current.deadlockThreshold) {
 						if (numSamples > maxLoggedStackSamples) {
 							decimate(stackSamples, numSamples, maxLoggedStackSamples);
 							numSamples = maxLoggedStackSamples;
 						}
-						if (uiThreadFilter.shouldLogEvent(stackSamples, numSamples, uiThreadId)) {
-							logEvent(new UiFreezeEvent(deadlockTimerStart, totalDuration,
-									Arrays.copyOf(stackSamples, numSamples), true, starvedAwake, starvedAsleep));
+						if (current.uiThreadFilter.shouldLogEvent(stackSamples, numSamples, uiThreadId)) {
+							logEvent(this, new UiFreezeEvent(toWallClockMillis(deadlockTimerStart), deadlockTimerStart,
+									totalDuration, Arrays.copyOf(stackSamples, numSamples), true, starvedAwake,
+									starvedAsleep, resolveBlockingChain(), getOverhead(), null),
+									getGcActivityCompletion(deadlockTimerStart, totalDuration));
 							deadlockTimerStart = 0; // Don't log potential deadlock more than once.
+						} else {
+							statistics.freezeFiltered();
 						}
 					}
 				}
@@ -609,16 +799,32 @@ public class EventLoopMonitorThread extends Thread {
 						numSamples = maxStackSamples / 2;
 						decimate(stackSamples, maxStackSamples, numSamples);
 					}
-
-					ThreadInfo[] threadStacks = captureThreadStacks(dumpAllThreads);
-					stackSamples[numSamples++] = new StackSample(getTimestamp(), threadStacks);
-					if (numSamples == maxStackSamples) {
-						pollingDelay *= 2; // Reduce polling frequency.
-					}
-					grabStackSampleAt += pollingDelay;
+					sampleDue = true;
 				}
 			}
+		}
 
+		/**
+		 * Adds the stack sample captured for this polling cycle. Called on the
+		 * monitoring thread.
+		 */
+		void addSample(ThreadSnapshot[] threadStacks) {
+			long sampleTime = getNanoTimestamp();
+			stackSamples[numSamples++] = new StackSample(toWallClockMillis(sampleTime), sampleTime, threadStacks);
+			statistics.sampleCaptured();
+			if (numSamples == stackSamples.length) {
+				pollingDelay *= 2; // Reduce polling frequency.
+			}
+			// Take samples less often while the monitoring thread exceeds its overhead budget.
+			grabStackSampleAt += pollingDelay * samplingThrottle.getSampleIntervalFactor();
+		}
+
+		/**
+		 * Publishes the stalled event if it has finished and ends the polling cycle.
+		 * Called on the monitoring thread.
+		 */
+		void publishFinishedEvent(Settings current) {
+			int maxLoggedStackSamples = stackSamples.length / 2;
 			// If a stalled event has finished, publish it and mark that the information
 			// should
 			// be reset.
@@ -626,12 +832,12 @@ public class EventLoopMonitorThread extends Thread {
 			if (eventSnapshot != null) {
 				long eventEnd = eventSnapshot.start + eventSnapshot.duration;
 				// Remove stack samples collected after the end of the event.
-				while (numSamples > 0 && eventEnd <= stackSamples[numSamples - 1].getTimestamp()) {
+				while (numSamples > 0 && eventEnd <= stackSamples[numSamples - 1].getNanoTime()) {
 					--numSamples;
 				}
 				if (numSamples > maxLoggedStackSamples) {
 					// Remove the last stack sample if it is too close to the end of the event.
-					if (eventEnd - stackSamples[numSamples - 1].getTimestamp() < sampleInterval) {
+					if (eventEnd - stackSamples[numSamples - 1].getNanoTime() < current.sampleInterval) {
 						--numSamples;
 					}
 				}
@@ -641,9 +847,13 @@ public class EventLoopMonitorThread extends Thread {
 					numSamples = maxLoggedStackSamples;
 				}
 
-				if (uiThreadFilter.shouldLogEvent(stackSamples, numSamples, uiThreadId)) {
-					logEvent(new UiFreezeEvent(eventSnapshot.start, eventSnapshot.duration,
-							Arrays.copyOf(stackSamples, numSamples), false, starvedAwake, starvedAsleep));
+				if (current.uiThreadFilter.shouldLogEvent(stackSamples, numSamples, uiThreadId)) {
+					logEvent(this, new UiFreezeEvent(toWallClockMillis(eventSnapshot.start), eventSnapshot.start,
+							eventSnapshot.duration, Arrays.copyOf(stackSamples, numSamples), false, starvedAwake,
+							starvedAsleep, resolveBlockingChain(), getOverhead(), null),
+							getGcActivityCompletion(eventSnapshot.start, eventSnapshot.duration));
+				} else {
+					statistics.freezeFiltered();
 				}
 
 				resetStalledEventState = true;
@@ -651,6 +861,514 @@ public class EventLoopMonitorThread extends Thread {
 
 			lastEventStartOrResumeTime = currEventStartOrResumeTime;
 		}
+
+		/**
+		 * Returns the cost of the monitoring thread since the freeze was first
+		 * observed.
+		 */
+		private MonitorOverhead getOverhead() {
+			return new MonitorOverhead(samplingThrottle.getCpuTime() - cpuTimeAtStart, strongestThrottle);
+		}
+
+		/**
+		 * Returns the completion attaching the garbage collection pauses overlapping
+		 * the freeze starting at the given time stamp, or {@code null} if they are
+		 * not recorded. The completion runs on a dispatcher thread, where it may wait
+		 * for the notifications of the last pauses.
+		 */
+		private UnaryOperator<UiFreezeEvent> getGcActivityCompletion(long start, long duration) {
+			GcPauseRecorder recorder = gcPauseRecorder;
+			if (recorder == null) {
+				return null;
+			}
+			// The pauses are recorded on the monotonic clock.
+			long offset = getMonotonicNanoTime() - getNanoTimestamp();
+			long from = start + offset;
+			long to = start + duration + offset;
+			return event -> {
+				UiFreezeEvent completed = withGcActivity(event, recorder.awaitActivity(from, to));
+				statistics.gcActivityResolved(completed);
+				return completed;
+			};
+		}
+
+		/**
+		 * Resolves the chain of threads the UI thread was waiting for in the last
+		 * stack sample.
+		 */
+		private BlockingChain resolveBlockingChain() {
+			if (numSamples == 0) {
+				return null;
+			}
+			return new WaitForGraph(stackSamples[numSamples - 1].getThreadSnapshots()).resolveChain(uiThreadId,
+					threadMXBean);
+		}
+
+		// Called on the UI thread!
+		private void handleEventTransition(boolean attemptToLogLongDelay, boolean startEventTimer, long currTime) {
+			/*
+			 * On transition between events or sleeping/wake up, we need to reset the delay
+			 * tracking state and possibly publish a long delay message. Updating
+			 * eventStartOrResumeTime causes the polling thread to reset its stack traces,
+			 * so it should always be changed *after* the event is published. The
+			 * indeterminacy of threading may cause the polling thread to see both changes
+			 * or only the (first) eventToPublish change, but the only difference is a small
+			 * window where, if an additional stack trace was scheduled to be sampled, a
+			 * bogus stack trace sample will be appended to the end of the samples. This
+			 * bogus sample is removed before logging.
+			 */
+			if (attemptToLogLongDelay) {
+				long startTime = eventStartOrResumeTime;
+				if (startTime != 0) {
+					long duration = currTime - startTime;
+					if (duration >= settings.longEventWarningThreshold) {
+						LongEventInfo info = new LongEventInfo(startTime, duration);
+						eventToPublish.set(info);
+						wakeUp();
+					}
+				}
+			}
+			eventStartOrResumeTime = startEventTimer ? currTime : 0;
+			// Read after the write of eventStartOrResumeTime, pairs with parkUntilBusy().
+			if (startEventTimer && parkedWhileIdle) {
+				wakeUp();
+			}
+		}
+	}
+
+	// Accessed by both the UI and monitoring threads.
+	private volatile Settings settings;
+	private final boolean monotonicClock;
+	private final long nanoClockOrigin;
+	private final AtomicBoolean cancelled = new AtomicBoolean(false);
+	/*
+	 * Set by the monitoring thread while it is parked without a timeout because all
+	 * UI threads are idle. A UI thread unparks it when it starts dispatching again.
+	 */
+	private volatile boolean parkedWhileIdle;
+	/*
+	 * The monitored displays, replaced as a whole when a display is added or
+	 * removed. The display the thread was created for comes first.
+	 */
+	private volatile MonitoredDisplay[] displays;
+	private final Object displaysLock = new Object();
+	private final MonitoredDisplay primaryDisplay;
+
+	// Accessed only by the monitoring thread.
+	private final FreezeEventDispatcher dispatcher;
+	private final FreezeMonitorStatistics statistics;
+	private final boolean logToErrorLog;
+	private DefaultUiFreezeEventLogger defaultLogger;
+	private final long profilingSampleInterval;
+	private final int profilingMaxMethods;
+	private final int profilingOverheadBudgetPercent;
+	private final boolean dispatchLatencyHistogramsEnabled;
+	private ThreadMXBean threadMXBean;
+	private SamplingThrottle samplingThrottle;
+	private boolean dumpLockedMonitors;
+	private boolean dumpLockedSynchronizers;
+	private long monitoringThreadId;
+	private final boolean targetedThreadCapture;
+	private final String threadCaptureAllowList;
+	private final boolean gcCorrelationEnabled;
+	private GcPauseRecorder gcPauseRecorder;
+
+	/**
+	 * Initializes the static state of the monitoring thread.
+	 *
+	 * @param args    parameters derived from preferences
+	 * @param display the display to monitor, more displays can be added with
+	 *                {@link #addDisplay(Display)}
+	 * @throws IllegalArgumentException if monitoring thread cannot be initialized
+	 *                                  due to an error
+	 */
+	public EventLoopMonitorThread(Parameters args, Display display) throws IllegalArgumentException {
+		this(args, display, new FreezeMonitorStatistics());
+	}
+
+	/**
+	 * Initializes the static state of the monitoring thread, which maintains the
+	 * given counters.
+	 *
+	 * @param args       parameters derived from preferences
+	 * @param display    the display to monitor
+	 * @param statistics the counters, shared by subsequent monitoring threads
+	 * @throws IllegalArgumentException if monitoring thread cannot be initialized
+	 *                                  due to an error
+	 */
+	EventLoopMonitorThread(Parameters args, Display display, FreezeMonitorStatistics statistics)
+			throws IllegalArgumentException {
+		this(args, display, display.getThread().getId(), statistics);
+	}
+
+	/**
+	 * For testing only. Initializes a monitoring thread for a UI thread without a
+	 * display. Its events are passed to {@link #handleEvent(Event)} and its stacks
+	 * are taken from {@link #getThreadMXBean()}.
+	 *
+	 * @param args       parameters derived from preferences
+	 * @param uiThreadId the id of the simulated UI thread
+	 * @param statistics the counters
+	 * @throws IllegalArgumentException if the parameter values are invalid
+	 */
+	// VisibleForTesting
+	EventLoopMonitorThread(Parameters args, long uiThreadId, FreezeMonitorStatistics statistics)
+			throws IllegalArgumentException {
+		this(args, null, uiThreadId, statistics);
+	}
+
+	private EventLoopMonitorThread(Parameters args, Display display, long uiThreadId,
+			FreezeMonitorStatistics statistics) throws IllegalArgumentException {
+		super("Event Loop Monitor"); //$NON-NLS-1$
+
+		Assert.isNotNull(args);
+
+		args.checkParameters();
+
+		setDaemon(true);
+		setPriority(NORM_PRIORITY + 1);
+		monotonicClock = args.monotonicClock;
+		// Keeps the monotonic time stamps positive since zero denotes the idle state.
+		nanoClockOrigin = System.nanoTime() - 1;
+		targetedThreadCapture = args.targetedThreadCapture;
+		threadCaptureAllowList = args.threadCaptureAllowList == null ? "" : args.threadCaptureAllowList; //$NON-NLS-1$
+		settings = new Settings(args, monotonicClock, targetedThreadCapture);
+		logToErrorLog = args.logToErrorLog;
+		profilingSampleInterval = args.profilingEnabled ? TimeUnit.SECONDS.toNanos(1) / args.profilingSampleRate : 0;
+		profilingMaxMethods = args.profilingMaxMethods;
+		profilingOverheadBudgetPercent = args.profilingOverheadBudgetPercent;
+		dispatchLatencyHistogramsEnabled = args.dispatchLatencyHistogramsEnabled;
+		gcCorrelationEnabled = args.gcCorrelationEnabled;
+		this.statistics = statistics;
+		dispatcher = new FreezeEventDispatcher(args.dispatchQueueCapacity, args.dispatchOverflowPolicy,
+				TimeUnit.NANOSECONDS.toMillis(settings.longEventWarningThreshold), statistics);
+		primaryDisplay = new MonitoredDisplay(display, uiThreadId);
+		displays = new MonitoredDisplay[] { primaryDisplay };
+	}
+
+	/**
+	 * Changes the thresholds, the number and depth of stack samples and the
+	 * filters of the running thread without restarting it. The new values take
+	 * effect on the next polling cycle; a freeze in progress keeps its stack
+	 * samples. The clock, the dispatching of events, profiling, latency
+	 * recording, the garbage collection correlation and the thread capture mode
+	 * cannot be changed this way and are taken from the parameters the thread was
+	 * created with. May be called on any thread.
+	 *
+	 * @param args parameters derived from preferences
+	 * @throws IllegalArgumentException if the parameter values are invalid, the
+	 *                                  current values remain in effect then
+	 */
+	public void updateParameters(Parameters args) throws IllegalArgumentException {
+		Assert.isNotNull(args);
+		args.checkParameters();
+		settings = new Settings(args, monotonicClock, targetedThreadCapture);
+		wakeUp();
+	}
+
+	/**
+	 * Adds a display to the displays monitored by this thread. The UI threads of
+	 * all displays are sampled by this single thread, so the monitoring overhead
+	 * does not grow with the number of displays. May be called on any thread.
+	 *
+	 * @param display the display to monitor
+	 */
+	public void addDisplay(Display display) {
+		MonitoredDisplay monitored;
+		synchronized (displaysLock) {
+			MonitoredDisplay[] current = displays;
+			for (MonitoredDisplay existing : current) {
+				if (existing.display == display) {
+					return;
+				}
+			}
+			monitored = new MonitoredDisplay(display, display.getThread().getId());
+			MonitoredDisplay[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = monitored;
+			displays = updated;
+		}
+		display.asyncExec(() -> registerDisplayListeners(monitored));
+		wakeUp();
+	}
+
+	/**
+	 * Stops monitoring the given display, for example because it is about to be
+	 * disposed. The display the thread was created for cannot be removed, the
+	 * thread has to be {@link #shutdown() shut down} instead. May be called on any
+	 * thread.
+	 *
+	 * @param display the display to stop monitoring
+	 */
+	public void removeDisplay(Display display) {
+		MonitoredDisplay removed = null;
+		synchronized (displaysLock) {
+			MonitoredDisplay[] current = displays;
+			for (int i = 1; i < current.length; i++) {
+				if (current[i].display == display) {
+					removed = current[i];
+					MonitoredDisplay[] updated = new MonitoredDisplay[current.length - 1];
+					System.arraycopy(current, 0, updated, 0, i);
+					System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+					displays = updated;
+					break;
+				}
+			}
+		}
+		if (removed != null) {
+			removeDisplayListeners(removed);
+		}
+	}
+
+	/**
+	 * Shuts down the monitoring thread. Should be called on the thread of the
+	 * display the monitoring thread was created for; the listeners of other
+	 * displays are removed asynchronously on their threads.
+	 */
+	public void shutdown() throws SWTException {
+		cancelled.set(true);
+		for (MonitoredDisplay monitored : displays) {
+			removeDisplayListeners(monitored);
+		}
+		wakeUp();
+	}
+
+	/**
+	 * Returns the hot method histogram of the continuous profiling mode for the
+	 * display the thread was created for, or {@code null} if profiling is disabled
+	 * or the thread has not started yet.
+	 */
+	public HotMethodProfile getHotMethodProfile() {
+		UiThreadProfiler currentProfiler = primaryDisplay.profiler;
+		return currentProfiler == null ? null : currentProfiler.getProfile();
+	}
+
+	/**
+	 * Returns the dispatch latency statistics of all event types seen so far on
+	 * the display the thread was created for, or {@code null} if recording of
+	 * dispatch latencies is disabled.
+	 */
+	public DispatchLatencyStats[] getDispatchLatencyStats() {
+		DispatchLatencyRecorder recorder = primaryDisplay.dispatchLatencyRecorder;
+		return recorder == null ? null : recorder.getStats();
+	}
+
+	/**
+	 * Returns the dispatch latency statistics of the given event type on the
+	 * display the thread was created for, or {@code null} if recording is disabled
+	 * or no event of the type was seen.
+	 */
+	public DispatchLatencyStats getDispatchLatencyStats(int eventType) {
+		DispatchLatencyRecorder recorder = primaryDisplay.dispatchLatencyRecorder;
+		return recorder == null ? null : recorder.getStats(eventType);
+	}
+
+	/**
+	 * For testing only. Handles the event as if it was sent by the display the
+	 * thread was created for.
+	 */
+	final void handleEvent(Event event) {
+		primaryDisplay.eventLoopState.handleEvent(event);
+	}
+
+	/**
+	 * For testing only. Registers a consumer in addition to the consumer services,
+	 * which are only found when running in an OSGi framework. Must be called
+	 * before the thread is started.
+	 */
+	// VisibleForTesting
+	final void addConsumer(UiFreezeConsumer consumer) {
+		dispatcher.addConsumer(consumer);
+	}
+
+	/**
+	 * For testing only. Captures the stacks of the display the thread was created
+	 * for on the calling thread, the way a stack sample of a freeze is captured,
+	 * and returns them instead of adding them to a freeze. The calling thread is
+	 * treated as the monitoring thread and must not change between calls. Must not
+	 * be called once the thread is started.
+	 *
+	 * @param allThreads {@code true} to capture the interesting threads like a
+	 *                   sample of a long freeze, {@code false} to capture only
+	 *                   the UI thread
+	 * @return the captured threads, the UI thread first, or {@code null} if the UI
+	 *         thread has terminated
+	 */
+	final ThreadSnapshot[] captureStackSample(boolean allThreads) {
+		if (threadMXBean == null) {
+			monitoringThreadId = Thread.currentThread().getId();
+			threadMXBean = getThreadMXBean();
+			dumpLockedMonitors = threadMXBean.isObjectMonitorUsageSupported();
+			dumpLockedSynchronizers = threadMXBean.isSynchronizerUsageSupported();
+			samplingThrottle = new SamplingThrottle(threadMXBean, this::getMonotonicNanoTime);
+			primaryDisplay.start();
+			if (primaryDisplay.targetedCapture != null) {
+				primaryDisplay.targetedCapture.refreshAllowList();
+			}
+		}
+		MonitoredDisplay[] monitoredDisplays = { primaryDisplay };
+		primaryDisplay.numSamples = 0;
+		primaryDisplay.sampleDue = true;
+		primaryDisplay.dumpAllThreads = allThreads;
+		captureThreadStacks(monitoredDisplays, settings);
+		primaryDisplay.sampleDue = false;
+		return primaryDisplay.numSamples == 0 ? null : primaryDisplay.stackSamples[0].getThreadSnapshots();
+	}
+
+	@Override
+	public void run() {
+		Settings current = settings;
+		if (logToErrorLog) {
+			defaultLogger = new DefaultUiFreezeEventLogger(
+					TimeUnit.NANOSECONDS.toMillis(current.longEventErrorThreshold),
+					current.repeatedFreezeSummaryInterval);
+			dispatcher.addConsumer(defaultLogger);
+		}
+
+		Bundle bundle = FrameworkUtil.getBundle(getClass());
+		// Outside of an OSGi framework, for example in a simulation, there are no services.
+		if (bundle != null) {
+			try {
+				loadLoggerServices(bundle);
+			} catch (InvalidSyntaxException e) {
+				ILog log = Platform.getLog(bundle);
+				log.log(new Status(IStatus.ERROR, bundle.getSymbolicName(), e.getMessage(), e));
+			}
+
+			if (dispatcher.hasNoConsumers()) {
+				ILog log = Platform.getLog(bundle);
+				log.log(new Status(IStatus.WARNING, bundle.getSymbolicName(),
+						Messages.EventLoopMonitorThread_logging_disabled_error));
+			}
+		}
+
+		monitoringThreadId = Thread.currentThread().getId();
+		threadMXBean = getThreadMXBean();
+		dumpLockedMonitors = threadMXBean.isObjectMonitorUsageSupported();
+		dumpLockedSynchronizers = threadMXBean.isSynchronizerUsageSupported();
+		samplingThrottle = new SamplingThrottle(threadMXBean, this::getMonotonicNanoTime);
+		boolean contentionMonitoringSupported = threadMXBean.isThreadContentionMonitoringSupported();
+		boolean contentionMonitoringEnabled = false;
+		if (gcCorrelationEnabled) {
+			gcPauseRecorder = new GcPauseRecorder(this::getMonotonicNanoTime);
+			if (!gcPauseRecorder.start()) {
+				gcPauseRecorder = null;
+			}
+		}
+
+		/*
+		 * If this event loop starts in the middle of a UI freeze, it will succeed in
+		 * capturing the portion of that UI freeze that it sees.
+		 *
+		 * With the wall clock our timer resolution is, at best, 1 millisecond so we can
+		 * never try to catch events of a duration less than that. The monotonic clock
+		 * allows sub-millisecond thresholds.
+		 *
+		 * Every display keeps the state of its stalled event. A polling cycle first
+		 * prepares all displays, sleeps as long as the most urgent display allows,
+		 * polls all displays, captures the due stack samples of all displays together
+		 * and finally publishes the finished events.
+		 */
+
+		// Register for events
+		if (primaryDisplay.display != null) {
+			primaryDisplay.display.asyncExec(() -> registerDisplayListeners(primaryDisplay));
+		}
+
+		long currTime = getNanoTimestamp();
+
+		while (!cancelled.get()) {
+			if (current != settings) {
+				// The parameters were updated, the new values apply from this cycle on.
+				current = settings;
+				if (defaultLogger != null) {
+					defaultLogger.setLongEventErrorThreshold(
+							TimeUnit.NANOSECONDS.toMillis(current.longEventErrorThreshold));
+					defaultLogger.setRepeatedFreezeSummaryInterval(current.repeatedFreezeSummaryInterval);
+				}
+			}
+			MonitoredDisplay[] monitoredDisplays = displays;
+			long sleepFor = current.pollingNyquistDelay;
+			boolean idle = true;
+			for (MonitoredDisplay monitored : monitoredDisplays) {
+				sleepFor = Math.min(sleepFor, monitored.prepare(currTime, current));
+				idle &= monitored.lastEventStartOrResumeTime == 0;
+			}
+
+			// This is the top of the polling loop.
+			long sleepAt = getNanoTimestamp();
+
+			/*
+			 * Check for starvation outside of sleeping. If we sleep or process much longer
+			 * than expected (e.g. > threshold/2 longer), then the polling thread has been
+			 * starved and it's very likely that the UI thread has been as well. Starvation
+			 * freezes do not have useful information, so don't log them.
+			 */
+			long awakeDuration = currTime - sleepAt;
+			boolean starvedAwakeCurrentCycle = awakeDuration > (sleepFor + current.starvationTolerance);
+			boolean parked = false;
+			if (idle) {
+				// Nothing to sample while all UI threads are idle, wait until one is busy again.
+				parked = parkUntilBusy();
+			} else {
+				sleepForNanos(sleepFor);
+			}
+			currTime = getNanoTimestamp();
+			samplingThrottle.workStarted();
+			long sleepDuration = currTime - sleepAt;
+			// The duration of parking without a timeout says nothing about starvation.
+			boolean starvedAsleepCurrentCycle = !parked && sleepDuration > (sleepFor + current.starvationTolerance);
+			if (starvedAwakeCurrentCycle || starvedAsleepCurrentCycle) {
+				statistics.starvationCycle();
+			}
+
+			if (tracer != null) {
+				if (starvedAwakeCurrentCycle) {
+					tracer.trace(String.format(
+							"Starvation detected! Polling loop took a significant amount of threshold: %dus", //$NON-NLS-1$
+							TimeUnit.NANOSECONDS.toMicros(awakeDuration)));
+				}
+
+				if (starvedAsleepCurrentCycle) {
+					tracer.trace(String.format(
+							"Starvation detected! Expected to sleep for %dus but actually slept for %dus", //$NON-NLS-1$
+							TimeUnit.NANOSECONDS.toMicros(sleepFor), TimeUnit.NANOSECONDS.toMicros(sleepDuration)));
+				}
+			}
+
+			boolean captureAllThreads = false;
+			for (MonitoredDisplay monitored : monitoredDisplays) {
+				monitored.poll(currTime, current, starvedAwakeCurrentCycle, starvedAsleepCurrentCycle);
+				captureAllThreads |= monitored.dumpAllThreads;
+			}
+			captureAllThreads &= !samplingThrottle.isUiThreadOnly();
+			if (contentionMonitoringSupported && captureAllThreads != contentionMonitoringEnabled) {
+				// Measure the contention while stacks of all threads are captured for any display.
+				contentionMonitoringEnabled = captureAllThreads;
+				threadMXBean.setThreadContentionMonitoringEnabled(contentionMonitoringEnabled);
+			}
+
+			captureThreadStacks(monitoredDisplays, current);
+			samplingThrottle.workFinished(current.overheadBudgetPercent);
+
+			for (MonitoredDisplay monitored : monitoredDisplays) {
+				monitored.publishFinishedEvent(current);
+			}
+		}
+
+		if (gcPauseRecorder != null) {
+			gcPauseRecorder.stop();
+		}
+		dispatcher.shutdown();
+		if (tracer != null) {
+			tracer.trace("Dispatched %d events, %d deliveries dropped, %d deliveries late", //$NON-NLS-1$
+					dispatcher.getDispatchedCount(), dispatcher.getDroppedCount(), dispatcher.getLateCount());
+			for (MonitoredDisplay monitored : displays) {
+				UiThreadProfiler uiThreadProfiler = monitored.profiler;
+				if (uiThreadProfiler != null) {
+					tracer.trace("Profile of thread " + monitored.uiThreadId + ": " + uiThreadProfiler.getProfile()); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+		}
 	}
 
 	private void loadLoggerServices(Bundle bundle) throws InvalidSyntaxException {
@@ -658,88 +1376,317 @@ public class EventLoopMonitorThread extends Thread {
 		Collection<ServiceReference<UiFreezeConsumer>> serviceReferences = context
 				.getServiceReferences(UiFreezeConsumer.class, null);
 
-		externalLoggers = serviceReferences.stream().map(context::getService).collect(Collectors.toList());
+		for (ServiceReference<UiFreezeConsumer> reference : serviceReferences) {
+			UiFreezeConsumer consumer = context.getService(reference);
+			if (consumer != null) {
+				dispatcher.addConsumer(consumer);
+			}
+		}
 	}
 
-	private void logEvent(UiFreezeEvent event) {
+	private void logEvent(MonitoredDisplay monitored, UiFreezeEvent event, UnaryOperator<UiFreezeEvent> completion) {
 		if (tracer != null) {
-			tracer.trace("Logging " + event + "Prior events:\n" + eventHistory.extractAndClear()); //$NON-NLS-1$//$NON-NLS-2$
+			tracer.trace("Logging " + event + "Prior events:\n" + monitored.eventHistory.extractAndClear()); //$NON-NLS-1$//$NON-NLS-2$
 		}
 
-		if (logToErrorLog) {
-			defaultLogger.accept(event);
+		// Consumers and the completion run on their own threads and cannot delay the next stack sample.
+		dispatcher.dispatch(event, completion);
+		statistics.freezeLogged(event);
+	}
+
+	private static UiFreezeEvent withGcActivity(UiFreezeEvent event, GcActivity gcActivity) {
+		return new UiFreezeEvent(event.getStartTimestamp(), event.getStartNanoTime(), event.getTotalDurationNanos(),
+				event.getStackTraceSamples(), event.isStillRunning(), event.isStarvedAwake(), event.isStarvedAsleep(),
+				event.getBlockingChain(), event.getMonitorOverhead(), gcActivity);
+	}
+
+	/**
+	 * Captures the due stack samples of the given displays and converts them to
+	 * compact snapshots interning their frames into the dictionary of the
+	 * respective display. The UI threads of all displays sampling only their UI
+	 * thread are captured with a single call, and the displays capturing all
+	 * interesting threads share a single dump of all threads. The targeted
+	 * capture follows the lock owners of every UI thread separately. No stack is
+	 * walked deeper than needed for its configured maximum depth, deeper stacks
+	 * are truncated.
+	 */
+	private void captureThreadStacks(MonitoredDisplay[] monitoredDisplays, Settings current) {
+		int dueCount = 0;
+		for (MonitoredDisplay monitored : monitoredDisplays) {
+			if (monitored.sampleDue) {
+				dueCount++;
+			}
 		}
-		
-		if(externalLoggers != null) {
-			externalLoggers.forEach(exLog -> exLog.accept(event));
+		if (dueCount == 0) {
+			return;
+		}
+		long captureStart = System.nanoTime();
+		boolean uiThreadOnly = samplingThrottle.isUiThreadOnly();
+		long[] uiThreadIds = new long[dueCount];
+		int uiThreadCount = 0;
+		boolean dumpAllThreads = false;
+		for (MonitoredDisplay monitored : monitoredDisplays) {
+			if (monitored.sampleDue) {
+				if (!monitored.dumpAllThreads || uiThreadOnly) {
+					uiThreadIds[uiThreadCount++] = monitored.uiThreadId;
+				} else if (monitored.targetedCapture == null) {
+					dumpAllThreads = true;
+				}
+			}
 		}
-	}
 
-	private ThreadInfo[] captureThreadStacks(boolean dumpAllThreads) {
+		// ThreadMXBean returns the top of a stack only, the bottom frames need a deeper walk.
+		int uiThreadDepth = Math.min(current.uiThreadWalkDepth, samplingThrottle.getMaxStackDepth());
+		ThreadInfo[] uiThreads = uiThreadCount == 0 ? null
+				: threadMXBean.getThreadInfo(Arrays.copyOf(uiThreadIds, uiThreadCount), uiThreadDepth);
+		ThreadInfo[] allThreads = null;
+		boolean[] interesting = null;
+		// A single dump serves the UI threads and the other threads.
+		int dumpDepth = Math.max(uiThreadDepth, current.threadWalkDepth);
 		if (dumpAllThreads) {
-			ThreadInfo[] threadStacks = threadMXBean.dumpAllThreads(dumpLockedMonitors, dumpLockedSynchronizers);
-			// Remove the info for the monitoring thread.
-			int index = 0;
-			for (int i = 0; i < threadStacks.length; i++) {
-				ThreadInfo thread = threadStacks[i];
-				long threadId = thread.getThreadId();
+			allThreads = dumpAllThreads(dumpDepth);
+			if (allThreads == null) {
+				allThreads = threadMXBean.dumpAllThreads(dumpLockedMonitors, dumpLockedSynchronizers);
+				dumpDepth = Integer.MAX_VALUE;
+			}
+			// Filter once for all displays. The UI threads are added regardless of the filter.
+			interesting = new boolean[allThreads.length];
+			for (int i = 0; i < allThreads.length; i++) {
 				// Skip the stack trace of the event loop monitoring thread.
-				if (threadId != monitoringThreadId) {
-					if (threadId == uiThreadId) {
-						// Swap the UI thread to first slot in the array if it is not there already.
-						if (index != 0) {
-							thread = threadStacks[0];
-							threadStacks[0] = threadStacks[i];
-						}
-					} else if (!isInteresting(thread)) {
-						continue; // Skip the non-interesting thread.
-					}
-					threadStacks[index++] = thread;
+				interesting[i] = allThreads[i].getThreadId() != monitoringThreadId
+						&& isInteresting(allThreads[i], current.noninterestingThreadFilter);
+			}
+		}
+
+		int uiThreadIndex = 0;
+		for (MonitoredDisplay monitored : monitoredDisplays) {
+			if (!monitored.sampleDue) {
+				continue;
+			}
+			ThreadInfo[] threadStacks;
+			int capturedUiThreadDepth = uiThreadDepth;
+			int capturedThreadDepth = current.threadWalkDepth;
+			if (!monitored.dumpAllThreads || uiThreadOnly) {
+				ThreadInfo uiThread = uiThreads[uiThreadIndex++];
+				if (uiThread == null) {
+					continue; // The UI thread has terminated.
+				}
+				threadStacks = new ThreadInfo[] { uiThread };
+			} else if (monitored.targetedCapture != null) {
+				threadStacks = monitored.targetedCapture.capture(uiThreadDepth, current.threadWalkDepth);
+			} else {
+				threadStacks = selectThreads(allThreads, interesting, monitored.uiThreadId);
+				if (threadStacks == null) {
+					continue; // The UI thread has terminated.
+				}
+				capturedUiThreadDepth = dumpDepth;
+				capturedThreadDepth = dumpDepth;
+			}
+
+			// Drop the ThreadInfos right away, they duplicate frames that are already in the dictionary.
+			ThreadSnapshot[] snapshots = new ThreadSnapshot[threadStacks.length];
+			for (int i = 0; i < threadStacks.length; i++) {
+				if (threadStacks[i].getThreadId() == monitored.uiThreadId) {
+					snapshots[i] = ThreadSnapshot.of(threadStacks[i], monitored.frameDictionary, capturedUiThreadDepth,
+							current.uiThreadMaxStackDepth, current.stackBottomFrames);
+				} else {
+					snapshots[i] = ThreadSnapshot.of(threadStacks[i], monitored.frameDictionary, capturedThreadDepth,
+							current.threadMaxStackDepth, current.stackBottomFrames);
 				}
 			}
-			return Arrays.copyOf(threadStacks, index);
-		} else {
-			return new ThreadInfo[] { threadMXBean.getThreadInfo(uiThreadId, Integer.MAX_VALUE) };
+			monitored.addSample(snapshots);
 		}
+		statistics.stacksCaptured(System.nanoTime() - captureStart);
 	}
 
 	/**
-	 * A thread is considered interesting if its stack trace includes at least one
-	 * frame not matching any of the methods in {@link #noninterestingThreadFilter}.
+	 * Selects the given UI thread and the interesting threads from a dump of all
+	 * threads. The UI thread comes first.
+	 *
+	 * @return the selected threads, or {@code null} if the UI thread is not part
+	 *         of the dump
 	 */
-	private boolean isInteresting(ThreadInfo thread) {
-		for (StackTraceElement element : thread.getStackTrace()) {
-			if (!noninterestingThreadFilter.matchesFilter(element)) {
-				return true;
+	private static ThreadInfo[] selectThreads(ThreadInfo[] allThreads, boolean[] interesting, long uiThreadId) {
+		ThreadInfo[] threadStacks = new ThreadInfo[allThreads.length];
+		int count = 1;
+		for (int i = 0; i < allThreads.length; i++) {
+			ThreadInfo thread = allThreads[i];
+			if (thread.getThreadId() == uiThreadId) {
+				threadStacks[0] = thread;
+			} else if (interesting[i]) {
+				threadStacks[count++] = thread;
 			}
 		}
-		return false;
+		return threadStacks[0] == null ? null : Arrays.copyOf(threadStacks, count);
 	}
 
+	/**
+	 * Dumps all threads with the given maximum stack depth.
+	 *
+	 * @return the threads, or {@code null} if the virtual machine or the
+	 *         {@link ThreadMXBean} does not support a maximum depth
+	 */
+	private ThreadInfo[] dumpAllThreads(int maxDepth) {
+		if (DUMP_ALL_THREADS_WITH_DEPTH != null) {
+			try {
+				return (ThreadInfo[]) DUMP_ALL_THREADS_WITH_DEPTH.invoke(threadMXBean, dumpLockedMonitors,
+						dumpLockedSynchronizers, maxDepth);
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				// Fall back to the variant without a maximum depth.
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns {@code ThreadMXBean.dumpAllThreads(boolean, boolean, int)}, which
+	 * exists since Java 10, or {@code null}.
+	 */
+	private static Method findDumpAllThreadsWithDepth() {
+		try {
+			return ThreadMXBean.class.getMethod("dumpAllThreads", boolean.class, boolean.class, int.class); //$NON-NLS-1$
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A thread is considered interesting if its stack trace includes at least one
+	 * frame not matching any of the methods in the noninteresting thread filter.
+	 */
+	private static boolean isInteresting(ThreadInfo thread, FilterHandler noninterestingThreadFilter) {
+		return !noninterestingThreadFilter.matchesAllFrames(thread.getStackTrace());
+	}
+
+	/**
+	 * Returns the wall clock time in milliseconds since January 1, 1970 UTC.
+	 */
 	// VisibleForTesting
 	protected long getTimestamp() {
 		return System.currentTimeMillis();
 	}
 
+	/**
+	 * Returns the time in nanoseconds used for measuring durations. Depending on
+	 * the configuration this is either a monotonic clock or the wall clock. The
+	 * returned value is always positive.
+	 */
 	// VisibleForTesting
-	protected void sleepForMillis(long milliseconds) {
-		if (milliseconds > 0) {
-			try {
-				synchronized (sleepMonitor) {
-					// Spurious wake ups are OK; they will just burn a few extra CPU cycles.
-					sleepMonitor.wait(milliseconds);
+	protected long getNanoTimestamp() {
+		if (monotonicClock) {
+			return System.nanoTime() - nanoClockOrigin;
+		}
+		return TimeUnit.MILLISECONDS.toNanos(getTimestamp());
+	}
+
+	/**
+	 * Returns the monotonic time in nanoseconds used to measure the overhead of
+	 * the monitoring thread, regardless of the clock used for durations.
+	 */
+	// VisibleForTesting
+	long getMonotonicNanoTime() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Returns the source of the stack traces and the CPU time of the monitoring
+	 * thread. Called once on the monitoring thread when it starts.
+	 */
+	// VisibleForTesting
+	ThreadMXBean getThreadMXBean() {
+		return ManagementFactory.getThreadMXBean();
+	}
+
+	/**
+	 * Converts a time stamp returned by {@link #getNanoTimestamp()} to wall clock
+	 * time in milliseconds since January 1, 1970 UTC.
+	 */
+	private long toWallClockMillis(long nanoTimestamp) {
+		if (monotonicClock) {
+			return getTimestamp() - TimeUnit.NANOSECONDS.toMillis(getNanoTimestamp() - nanoTimestamp);
+		}
+		return TimeUnit.NANOSECONDS.toMillis(nanoTimestamp);
+	}
+
+	// VisibleForTesting
+	protected void sleepForNanos(long nanoseconds) {
+		if (nanoseconds > 0) {
+			// Spurious wake ups are OK; they will just burn a few extra CPU cycles.
+			LockSupport.parkNanos(this, nanoseconds);
+			// An interrupt wakes up the thread, clear it so the next park blocks again.
+			Thread.interrupted();
+		}
+	}
+
+	/**
+	 * Parks the monitoring thread without a timeout until a UI thread starts
+	 * dispatching an event, an event is published or the thread is shut down.
+	 *
+	 * @return {@code true} if the thread was parked, {@code false} if it returned
+	 *         immediately
+	 */
+	private boolean parkUntilBusy() {
+		parkedWhileIdle = true;
+		try {
+			// Checked after setting the flag, so a concurrent transition always unparks us.
+			if (cancelled.get()) {
+				return false;
+			}
+			for (MonitoredDisplay monitored : displays) {
+				if (monitored.eventStartOrResumeTime != 0 || monitored.eventToPublish.get() != null) {
+					return false;
 				}
-			} catch (InterruptedException e) {
-				// Wake up.
 			}
+			park();
+			return true;
+		} finally {
+			parkedWhileIdle = false;
+		}
+	}
+
+	/**
+	 * Parks the monitoring thread until it is woken up.
+	 */
+	// VisibleForTesting
+	void park() {
+		LockSupport.park(this);
+		// An interrupt wakes up the thread, clear it so the next park blocks again.
+		Thread.interrupted();
+	}
+
+	// Called on the thread of the display.
+	private void registerDisplayListeners(MonitoredDisplay monitored) {
+		Display display = monitored.display;
+		if (cancelled.get() || display.isDisposed() || !Arrays.asList(displays).contains(monitored)) {
+			return; // Removed before the listeners could be added.
 		}
+		display.addListener(SWT.PreEvent, monitored.eventLoopState);
+		display.addListener(SWT.PostEvent, monitored.eventLoopState);
+		display.addListener(SWT.PreExternalEventDispatch, monitored.eventLoopState);
+		display.addListener(SWT.PostExternalEventDispatch, monitored.eventLoopState);
 	}
 
-	private void registerDisplayListeners() {
-		display.addListener(SWT.PreEvent, eventLoopState);
-		display.addListener(SWT.PostEvent, eventLoopState);
-		display.addListener(SWT.PreExternalEventDispatch, eventLoopState);
-		display.addListener(SWT.PostExternalEventDispatch, eventLoopState);
+	/**
+	 * Removes the listeners from the display, right away if called on the thread
+	 * of the display, otherwise asynchronously on that thread.
+	 */
+	private static void removeDisplayListeners(MonitoredDisplay monitored) {
+		Display display = monitored.display;
+		try {
+			if (display == null || display.isDisposed()) {
+				return;
+			}
+			if (display.getThread() != Thread.currentThread()) {
+				display.asyncExec(() -> removeDisplayListeners(monitored));
+				return;
+			}
+			display.removeListener(SWT.PreEvent, monitored.eventLoopState);
+			display.removeListener(SWT.PostEvent, monitored.eventLoopState);
+			display.removeListener(SWT.PreExternalEventDispatch, monitored.eventLoopState);
+			display.removeListener(SWT.PostExternalEventDispatch, monitored.eventLoopState);
+		} catch (SWTException e) {
+			// The display was disposed concurrently, together with its listeners.
+		}
 	}
 
 	/**
@@ -751,7 +1698,8 @@ public class EventLoopMonitorThread extends Thread {
 	 * @param fromSize the number of samples to choose from in the array
 	 * @param toSize   the number of samples to select
 	 */
-	private static void decimate(StackSample[] samples, int fromSize, int toSize) {
+	// VisibleForTesting
+	static void decimate(StackSample[] samples, int fromSize, int toSize) {
 		for (int i = 0; i < toSize; ++i) {
 			int j = ((i + 1) * fromSize - 1) / toSize;
 			samples[i] = samples[j];
@@ -759,8 +1707,6 @@ public class EventLoopMonitorThread extends Thread {
 	}
 
 	private void wakeUp() {
-		synchronized (sleepMonitor) {
-			sleepMonitor.notify();
-		}
+		LockSupport.unpark(this);
 	}
 }
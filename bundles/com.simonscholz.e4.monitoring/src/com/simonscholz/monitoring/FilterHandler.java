@@ -1,28 +1,28 @@
 package com.simonscholz.monitoring;
 
-import java.lang.management.ThreadInfo;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
-import org.eclipse.core.runtime.Assert;
-
 import com.simonscholz.services.monitoring.StackSample;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
 import com.simonscholz.services.monitoring.UiFreezeEvent;
 
 /**
  * Checks if the {@link UiFreezeEvent} matches any defined filters.
  * <p>
- * <strong>This class is not thread safe.<strong>
+ * <strong>This class is not thread safe.</strong>
  * </p>
  */
 public class FilterHandler {
 	private static final String DOUBLE_BACKSLASH = "\\\\"; //$NON-NLS-1$
-
-	/** Reusable object used to avoid object creation in filtering methods. */
-	private final CompoundName compoundName = new CompoundName("", ""); //$NON-NLS-1$//$NON-NLS-2$
+	/** The number of cached verdicts on stack traces. */
+	private static final int VERDICT_CACHE_SIZE = 1024;
+	/** Seeds of the fingerprints, which tell the questions asked about a stack apart. */
+	private static final long ANY_FRAME_SEED = 1;
+	private static final long ALL_FRAMES_SEED = 2;
 
 	/**
 	 * Groups the class name and method name defined in the filter.
@@ -46,61 +46,10 @@ public class FilterHandler {
 		}
 	}
 
-	private static class CompoundName implements CharSequence {
-		private String first;
-		private String last;
-
-		CompoundName(String first, String last) {
-			Assert.isNotNull(first);
-			Assert.isNotNull(last);
-			this.first = first;
-			this.last = last;
-		}
-
-		void reset(String first, String last) {
-			Assert.isNotNull(first);
-			Assert.isNotNull(last);
-			this.first = first;
-			this.last = last;
-		}
-
-		@Override
-		public int length() {
-			return first.length() + 1 + last.length();
-		}
-
-		@Override
-		public char charAt(int index) {
-			int firstLen = first.length();
-			if (index < firstLen) {
-				return first.charAt(index);
-			} else if (index == firstLen) {
-				return '.';
-			} else {
-				return last.charAt(index - firstLen - 1);
-			}
-		}
-
-		@Override
-		public CharSequence subSequence(int start, int end) {
-			int lastOffset = first.length() + 1; // Offset of the last name in the sequence.
-			if (end < lastOffset) {
-				return first.subSequence(start, end);
-			} else if (start < lastOffset) {
-				return new CompoundName(first.substring(start), last.substring(0, end - lastOffset));
-			} else {
-				return last.subSequence(start - lastOffset, end - lastOffset);
-			}
-		}
-
-		@Override
-		public String toString() {
-			return first + '.' + last;
-		}
-	}
-
 	private final StackFrame[] filterFrames;
-	private final Pattern[] filterPatterns;
+	/** Matches all filters containing wildcards, {@code null} if there are none. */
+	private final GlobMatcher filterMatcher;
+	private final StackVerdictCache verdictCache = new StackVerdictCache(VERDICT_CACHE_SIZE);
 
 	/**
 	 * Creates the filter.
@@ -113,11 +62,10 @@ public class FilterHandler {
 		String[] filters = commaSeparatedMethods.split(","); //$NON-NLS-1$
 
 		List<StackFrame> stackFrames = new ArrayList<StackFrame>(filters.length);
-		List<Pattern> stackPatterns = new ArrayList<Pattern>(filters.length);
+		List<String> stackGlobs = new ArrayList<String>(filters.length);
 		for (String filter : filters) {
 			if (containsWildcards(filter)) {
-				Pattern pattern = createPattern(filter);
-				stackPatterns.add(pattern);
+				stackGlobs.add(filter);
 			} else {
 				int lastDot = filter.lastIndexOf('.');
 				stackFrames
@@ -128,7 +76,8 @@ public class FilterHandler {
 
 		Collections.sort(stackFrames);
 		filterFrames = stackFrames.toArray(new StackFrame[stackFrames.size()]);
-		filterPatterns = stackPatterns.toArray(new Pattern[stackPatterns.size()]);
+		filterMatcher = stackGlobs.isEmpty() ? null
+				: new GlobMatcher(stackGlobs.toArray(new String[stackGlobs.size()]));
 	}
 
 	/**
@@ -142,9 +91,9 @@ public class FilterHandler {
 	 * @param displayThreadId the ID of the display thread
 	 */
 	public boolean shouldLogEvent(StackSample[] stackSamples, int numSamples, long displayThreadId) {
-		if (filterFrames.length != 0 || filterPatterns.length != 0) {
+		if (filterFrames.length != 0 || filterMatcher != null) {
 			for (int i = 0; i < numSamples; i++) {
-				if (hasFilteredTraces(stackSamples[i].getStackTraces(), displayThreadId)) {
+				if (hasFilteredTraces(stackSamples[i].getThreadSnapshots(), displayThreadId)) {
 					return false;
 				}
 			}
@@ -156,15 +105,28 @@ public class FilterHandler {
 	 * Checks if the stack trace of the display thread contains any frame that
 	 * matches the filter.
 	 */
-	private boolean hasFilteredTraces(ThreadInfo[] stackTraces, long displayThreadId) {
-		for (ThreadInfo threadInfo : stackTraces) {
-			if (threadInfo.getThreadId() == displayThreadId) {
-				for (StackTraceElement element : threadInfo.getStackTrace()) {
-					if (matchesFilter(element)) {
-						return true;
+	private boolean hasFilteredTraces(ThreadSnapshot[] stackTraces, long displayThreadId) {
+		for (ThreadSnapshot thread : stackTraces) {
+			if (thread.getThreadId() == displayThreadId) {
+				int depth = thread.getStackDepth();
+				long fingerprint = StackVerdictCache.start(ANY_FRAME_SEED, depth);
+				for (int i = 0; i < depth; i++) {
+					fingerprint = StackVerdictCache.add(fingerprint, thread.getFrame(i));
+				}
+				fingerprint = StackVerdictCache.finish(fingerprint);
+				if (verdictCache.contains(fingerprint)) {
+					return verdictCache.get(fingerprint);
+				}
+
+				boolean verdict = false;
+				for (int i = 0; i < depth; i++) {
+					if (matchesFilter(thread.getFrame(i))) {
+						verdict = true;
+						break;
 					}
 				}
-				return false;
+				verdictCache.put(fingerprint, verdict);
+				return verdict;
 			}
 		}
 
@@ -173,20 +135,41 @@ public class FilterHandler {
 		return false;
 	}
 
+	/**
+	 * Checks whether all frames of the given stack trace match the filter. The
+	 * verdict is cached per stack shape, so repeated stacks of idle threads are
+	 * checked with a single hash.
+	 */
+	boolean matchesAllFrames(StackTraceElement[] stackTrace) {
+		long fingerprint = StackVerdictCache.start(ALL_FRAMES_SEED, stackTrace.length);
+		for (StackTraceElement frame : stackTrace) {
+			fingerprint = StackVerdictCache.add(fingerprint, frame);
+		}
+		fingerprint = StackVerdictCache.finish(fingerprint);
+		if (verdictCache.contains(fingerprint)) {
+			return verdictCache.get(fingerprint);
+		}
+
+		boolean verdict = true;
+		for (StackTraceElement frame : stackTrace) {
+			if (!matchesFilter(frame)) {
+				verdict = false;
+				break;
+			}
+		}
+		verdictCache.put(fingerprint, verdict);
+		return verdict;
+	}
+
 	/**
 	 * Checks whether the given stack frame matches the filter.
 	 */
 	boolean matchesFilter(StackTraceElement stackFrame) {
 		String className = stackFrame.getClassName();
 		String methodName = stackFrame.getMethodName();
-		if (filterPatterns.length != 0) {
-			// Match against patterns in filterPatterns.
-			compoundName.reset(className, methodName);
-			for (Pattern pattern : filterPatterns) {
-				if (pattern.matcher(compoundName).matches()) {
-					return true;
-				}
-			}
+		// Match against all wildcard filters at once.
+		if (filterMatcher != null && filterMatcher.matches(className, methodName)) {
+			return true;
 		}
 		// Binary search in filterFrames.
 		int low = 0;
@@ -226,7 +209,7 @@ public class FilterHandler {
 	 * @return the equivalent regular expression pattern
 	 * @throws PatternSyntaxException if compilation of the regular expression fails
 	 */
-	private static Pattern createPattern(String pattern) throws PatternSyntaxException {
+	static Pattern createPattern(String pattern) throws PatternSyntaxException {
 		int len = pattern.length();
 		StringBuilder buf = new StringBuilder(len * 2);
 		boolean isEscaped = false;
@@ -0,0 +1,232 @@
+package com.simonscholz.monitoring;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+
+import com.simonscholz.services.monitoring.FlameGraphExporter;
+import com.simonscholz.services.monitoring.StackSample;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+import com.simonscholz.services.monitoring.UiFreezeConsumer;
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Merges the display thread stacks of all UI freezes into a collapsed stack
+ * counter map and writes it to files that can be loaded into flame graph
+ * tools. Every stack sample is weighted with the milliseconds that passed
+ * since the previous sample of the freeze, so the counts approximate the
+ * frozen time spent in each stack.
+ * <p>
+ * The component is only active if its configuration exists. Supported
+ * properties:
+ * </p>
+ * <ul>
+ * <li>{@code output.directory} - the directory the files are written to,
+ * defaults to the temporary directory</li>
+ * <li>{@code max.stacks} - the maximum number of distinct stacks kept in
+ * memory, further stacks are counted as {@value #OTHER_STACK}</li>
+ * <li>{@code rotation.interval.minutes} - the length of a rotation period, each
+ * period is written to its own file</li>
+ * <li>{@code max.files} - the number of period files that are kept</li>
+ * </ul>
+ */
+@Component(configurationPid = FlameGraphFreezeConsumer.PID, configurationPolicy = ConfigurationPolicy.REQUIRE,
+		service = { UiFreezeConsumer.class, FlameGraphExporter.class })
+public class FlameGraphFreezeConsumer implements UiFreezeConsumer, FlameGraphExporter {
+	static final String PID = "com.simonscholz.monitoring.flamegraph"; //$NON-NLS-1$
+	private static final String FILE_PREFIX = "ui-freezes-"; //$NON-NLS-1$
+	private static final String FILE_SUFFIX = ".folded"; //$NON-NLS-1$
+	/**
+	 * Matches the names of the period files, but not the temporary files they are
+	 * written to, which have a random number in place of the time stamp.
+	 */
+	private static final Pattern PERIOD_FILE_NAME = Pattern
+			.compile(Pattern.quote(FILE_PREFIX) + "\\d{8}-\\d{6}" + Pattern.quote(FILE_SUFFIX)); //$NON-NLS-1$
+	private static final String OTHER_STACK = "[other]"; //$NON-NLS-1$
+	private static final String ELIDED_FRAMES = "[elided frames]"; //$NON-NLS-1$
+
+	private final Map<String, long[]> counts = new HashMap<>();
+	private final StringBuilder stackBuilder = new StringBuilder();
+	private final SimpleDateFormat fileNameFormat = new SimpleDateFormat("yyyyMMdd-HHmmss"); //$NON-NLS-1$
+	private File outputDirectory;
+	private int maxStacks;
+	private int maxFiles;
+	private ScheduledExecutorService rotationExecutor;
+	private File currentFile;
+	private long lastFreezeStart;
+	private long lastCountedSampleTime;
+
+	@Activate
+	void activate(Map<String, Object> properties) {
+		ComponentProperties config = new ComponentProperties(properties);
+		outputDirectory = new File(
+				config.getString("output.directory", System.getProperty("java.io.tmpdir"))); //$NON-NLS-1$ //$NON-NLS-2$
+		maxStacks = Math.max(1, config.getInt("max.stacks", 10000)); //$NON-NLS-1$
+		maxFiles = Math.max(1, config.getInt("max.files", 24)); //$NON-NLS-1$
+		long rotationMinutes = config.getLong("rotation.interval.minutes", 60); //$NON-NLS-1$
+
+		synchronized (this) {
+			currentFile = newPeriodFile();
+		}
+		if (rotationMinutes > 0) {
+			rotationExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "Flame Graph Rotation"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			});
+			rotationExecutor.scheduleAtFixedRate(this::rotate, rotationMinutes, rotationMinutes, TimeUnit.MINUTES);
+		}
+	}
+
+	@Deactivate
+	void deactivate() {
+		if (rotationExecutor != null) {
+			rotationExecutor.shutdownNow();
+			rotationExecutor = null;
+		}
+		try {
+			dumpFoldedStacks();
+		} catch (IOException e) {
+			logError(e);
+		}
+	}
+
+	@Override
+	public synchronized void accept(UiFreezeEvent event) {
+		long previousSampleTime = event.getStartNanoTime();
+		if (previousSampleTime == lastFreezeStart) {
+			// A freeze reported while still running is reported again when it ends.
+			previousSampleTime = lastCountedSampleTime;
+		}
+
+		for (StackSample sample : event.getStackTraceSamples()) {
+			if (sample.getNanoTime() <= previousSampleTime) {
+				continue;
+			}
+			ThreadSnapshot[] threads = sample.getThreadSnapshots();
+			if (threads.length != 0) {
+				// The first thread is guaranteed to be the display thread.
+				long weight = Math.max(1, TimeUnit.NANOSECONDS.toMillis(sample.getNanoTime() - previousSampleTime));
+				addStack(threads[0], weight);
+			}
+			previousSampleTime = sample.getNanoTime();
+		}
+
+		lastFreezeStart = event.getStartNanoTime();
+		lastCountedSampleTime = previousSampleTime;
+	}
+
+	private void addStack(ThreadSnapshot thread, long weight) {
+		stackBuilder.setLength(0);
+		if (thread.getElidedFrameCount() == ThreadSnapshot.UNKNOWN_FRAME_COUNT) {
+			// The bottom of the stack was not captured.
+			stackBuilder.append(ELIDED_FRAMES);
+		}
+		// The collapsed format lists the frames from the root to the leaf.
+		for (int i = thread.getStackDepth(); --i >= 0;) {
+			StackTraceElement frame = thread.getFrame(i);
+			if (stackBuilder.length() != 0) {
+				stackBuilder.append(';');
+			}
+			stackBuilder.append(frame.getClassName()).append('.').append(frame.getMethodName());
+			if (thread.getElidedFrameCount() > 0 && i == thread.getElidedFrameIndex()) {
+				// Without the count, truncated stacks sharing their bottom frames are merged.
+				stackBuilder.append(';').append(ELIDED_FRAMES);
+			}
+		}
+		String stack = stackBuilder.toString();
+
+		long[] count = counts.get(stack);
+		if (count == null) {
+			if (counts.size() >= maxStacks) {
+				stack = OTHER_STACK;
+				count = counts.get(stack);
+			}
+			if (count == null) {
+				count = new long[1];
+				counts.put(stack, count);
+			}
+		}
+		count[0] += weight;
+	}
+
+	@Override
+	public synchronized File dumpFoldedStacks() throws IOException {
+		File tempFile = File.createTempFile(FILE_PREFIX, FILE_SUFFIX, outputDirectory);
+		try (Writer writer = new BufferedWriter(
+				new OutputStreamWriter(Files.newOutputStream(tempFile.toPath()), StandardCharsets.UTF_8))) {
+			for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+				writer.write(entry.getKey());
+				writer.write(' ');
+				writer.write(Long.toString(entry.getValue()[0]));
+				writer.write('\n');
+			}
+		} catch (IOException e) {
+			Files.deleteIfExists(tempFile.toPath());
+			throw e;
+		}
+		Files.move(tempFile.toPath(), currentFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return currentFile;
+	}
+
+	private synchronized void rotate() {
+		try {
+			dumpFoldedStacks();
+		} catch (IOException e) {
+			logError(e);
+		}
+		counts.clear();
+		currentFile = newPeriodFile();
+		deleteOldFiles();
+	}
+
+	private File newPeriodFile() {
+		return new File(outputDirectory, FILE_PREFIX + fileNameFormat.format(new Date()) + FILE_SUFFIX);
+	}
+
+	private void deleteOldFiles() {
+		File[] files = outputDirectory.listFiles(
+				(dir, name) -> PERIOD_FILE_NAME.matcher(name).matches());
+		if (files == null || files.length <= maxFiles) {
+			return;
+		}
+		// The time stamp in the file names makes the alphabetical order chronological.
+		Arrays.sort(files);
+		for (int i = 0; i < files.length - maxFiles; i++) {
+			if (!files[i].delete()) {
+				logError(new IOException(files[i].getPath()));
+			}
+		}
+	}
+
+	private void logError(Exception e) {
+		Bundle bundle = FrameworkUtil.getBundle(getClass());
+		ILog log = Platform.getLog(bundle);
+		log.log(new Status(IStatus.ERROR, bundle.getSymbolicName(), e.getMessage(), e));
+	}
+}
@@ -0,0 +1,322 @@
+package com.simonscholz.monitoring;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.osgi.util.NLS;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Hands {@link UiFreezeEvent}s over from the monitoring thread to the
+ * consumers. Every consumer is served by its own worker thread with its own
+ * bounded queue, so a slow consumer neither delays the monitoring thread nor
+ * the other consumers.
+ * <p>
+ * {@link #dispatch(UiFreezeEvent)} never blocks. If the queue of a consumer is
+ * full, an event is dropped according to the configured
+ * {@link OverflowPolicy}.
+ * </p>
+ * <p>
+ * A {@link PeriodicConsumer} is additionally called while its queue is empty
+ * and once more after the last event at shutdown.
+ * </p>
+ * <p>
+ * An event may be dispatched together with a completion, which adds data that
+ * becomes available only shortly after the freeze. The completion runs once, on
+ * the worker thread delivering the event first, so waiting for the data never
+ * delays the monitoring thread.
+ * </p>
+ */
+public class FreezeEventDispatcher {
+	/**
+	 * Determines which event is discarded when the queue of a consumer is full.
+	 */
+	public enum OverflowPolicy {
+		/** Discards the event that is being dispatched. */
+		DROP_NEWEST,
+		/** Discards the oldest queued event to make room for the new one. */
+		DROP_OLDEST;
+
+		/**
+		 * Returns the policy for the given preference value, or {@code defaultPolicy}
+		 * if the value does not denote a policy.
+		 */
+		public static OverflowPolicy fromPreference(String value, OverflowPolicy defaultPolicy) {
+			for (OverflowPolicy policy : values()) {
+				if (policy.name().equalsIgnoreCase(value)) {
+					return policy;
+				}
+			}
+			return defaultPolicy;
+		}
+	}
+
+	/**
+	 * A consumer that aggregates events and reports the aggregates also when no
+	 * further events arrive. All methods are called on the worker thread of the
+	 * consumer.
+	 */
+	interface PeriodicConsumer extends Consumer<UiFreezeEvent> {
+		/**
+		 * Returns the interval of the calls to {@link #tick(boolean)} in nanoseconds,
+		 * 0 for no periodic calls.
+		 */
+		long getTickIntervalNanos();
+
+		/**
+		 * Called periodically while no events are queued and after the last event at
+		 * shutdown.
+		 *
+		 * @param finished {@code true} for the call at shutdown
+		 */
+		void tick(boolean finished);
+	}
+
+	/** A queued event together with the time it was queued at. */
+	private static class Envelope {
+		final long queuedAtNanos;
+		// Guarded by this.
+		private UiFreezeEvent event;
+		private UnaryOperator<UiFreezeEvent> completion;
+
+		Envelope(UiFreezeEvent event, UnaryOperator<UiFreezeEvent> completion, long queuedAtNanos) {
+			this.event = event;
+			this.completion = completion;
+			this.queuedAtNanos = queuedAtNanos;
+		}
+
+		/**
+		 * Returns the event, completing it first if it has not been completed yet.
+		 * Called on the worker threads.
+		 */
+		synchronized UiFreezeEvent getEvent() {
+			if (completion != null) {
+				event = completion.apply(event);
+				completion = null;
+			}
+			return event;
+		}
+	}
+
+	private class Worker extends Thread {
+		private final Consumer<UiFreezeEvent> consumer;
+		private final EventHandoffQueue<Envelope> queue;
+		private volatile boolean disabled;
+
+		Worker(Consumer<UiFreezeEvent> consumer) {
+			super("Event Loop Monitor Dispatcher - " + consumer.getClass().getSimpleName()); //$NON-NLS-1$
+			this.consumer = consumer;
+			this.queue = new EventHandoffQueue<>(queueCapacity);
+			setDaemon(true);
+		}
+
+		// Called on the monitoring thread.
+		void enqueue(Envelope envelope) {
+			if (disabled) {
+				return;
+			}
+			if (!queue.offer(envelope)) {
+				droppedCount.incrementAndGet();
+				if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+					return;
+				}
+				queue.poll();
+				if (!queue.offer(envelope)) {
+					return; // The worker is still draining, the event is dropped anyway.
+				}
+			}
+			LockSupport.unpark(this);
+		}
+
+		@Override
+		public void run() {
+			PeriodicConsumer periodic = consumer instanceof PeriodicConsumer ? (PeriodicConsumer) consumer : null;
+			long lastTick = System.nanoTime();
+			while (!disabled) {
+				Envelope envelope = queue.poll();
+				if (envelope == null) {
+					if (shutdown) {
+						if (periodic != null) {
+							tick(periodic, true);
+						}
+						return;
+					}
+					long tickInterval = periodic == null ? 0 : periodic.getTickIntervalNanos();
+					if (tickInterval <= 0) {
+						LockSupport.park(this);
+						continue;
+					}
+					long now = System.nanoTime();
+					if (now - lastTick >= tickInterval) {
+						tick(periodic, false);
+						lastTick = now;
+					} else {
+						LockSupport.parkNanos(this, lastTick + tickInterval - now);
+					}
+					continue;
+				}
+
+				long queuedFor = System.nanoTime() - envelope.queuedAtNanos;
+				if (queuedFor > lateThresholdNanos) {
+					lateCount.incrementAndGet();
+				}
+				statistics.consumerDispatched(queuedFor);
+
+				try {
+					consumer.accept(envelope.getEvent());
+					deliveredCount.incrementAndGet();
+				} catch (RuntimeException | LinkageError e) {
+					disable(e);
+				}
+			}
+		}
+
+		private void tick(PeriodicConsumer periodic, boolean finished) {
+			try {
+				periodic.tick(finished);
+			} catch (RuntimeException | LinkageError e) {
+				disable(e);
+			}
+		}
+
+		private void disable(Throwable e) {
+			disabled = true;
+			Bundle bundle = FrameworkUtil.getBundle(getClass());
+			ILog log = Platform.getLog(bundle);
+			log.log(new Status(IStatus.ERROR, bundle.getSymbolicName(),
+					NLS.bind(Messages.EventLoopMonitorThread_external_exception_error_1,
+							consumer.getClass().getName()),
+					e));
+		}
+	}
+
+	private final int queueCapacity;
+	private final OverflowPolicy overflowPolicy;
+	private final long lateThresholdNanos;
+	private final FreezeMonitorStatistics statistics;
+	private final List<Worker> workers = new CopyOnWriteArrayList<>();
+	private final AtomicLong dispatchedCount = new AtomicLong();
+	private final AtomicLong deliveredCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong lateCount = new AtomicLong();
+	private volatile boolean shutdown;
+
+	/**
+	 * Creates a dispatcher.
+	 *
+	 * @param queueCapacity       the maximum number of events waiting for a single
+	 *                            consumer
+	 * @param overflowPolicy      decides which event is dropped when a queue is
+	 *                            full
+	 * @param lateThresholdMillis events that waited longer than this for their
+	 *                            consumer are counted as late
+	 */
+	public FreezeEventDispatcher(int queueCapacity, OverflowPolicy overflowPolicy, long lateThresholdMillis) {
+		this(queueCapacity, overflowPolicy, lateThresholdMillis, new FreezeMonitorStatistics());
+	}
+
+	/**
+	 * Creates a dispatcher recording the time events wait for their consumers in
+	 * the given statistics.
+	 */
+	FreezeEventDispatcher(int queueCapacity, OverflowPolicy overflowPolicy, long lateThresholdMillis,
+			FreezeMonitorStatistics statistics) {
+		this.queueCapacity = queueCapacity;
+		this.overflowPolicy = overflowPolicy;
+		this.lateThresholdNanos = TimeUnit.MILLISECONDS.toNanos(lateThresholdMillis);
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Registers a consumer and starts its worker thread.
+	 */
+	public void addConsumer(Consumer<UiFreezeEvent> consumer) {
+		Worker worker = new Worker(consumer);
+		workers.add(worker);
+		worker.start();
+	}
+
+	/**
+	 * Returns {@code true} if no consumers are registered.
+	 */
+	public boolean hasNoConsumers() {
+		return workers.isEmpty();
+	}
+
+	/**
+	 * Queues the event for all consumers. Never blocks.
+	 */
+	public void dispatch(UiFreezeEvent event) {
+		dispatch(event, null);
+	}
+
+	/**
+	 * Queues the event for all consumers, to be completed by the given function
+	 * before it is delivered. Never blocks. The completion is not run if there
+	 * are no consumers.
+	 *
+	 * @param event      the event
+	 * @param completion returns the completed event, or {@code null} if the
+	 *                   event is complete
+	 */
+	void dispatch(UiFreezeEvent event, UnaryOperator<UiFreezeEvent> completion) {
+		Envelope envelope = new Envelope(event, completion, System.nanoTime());
+		dispatchedCount.incrementAndGet();
+		for (Worker worker : workers) {
+			worker.enqueue(envelope);
+		}
+	}
+
+	/**
+	 * Stops the worker threads after they delivered the events that are already
+	 * queued and called the {@link PeriodicConsumer}s a last time.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		for (Worker worker : workers) {
+			LockSupport.unpark(worker);
+		}
+	}
+
+	/**
+	 * Returns the number of events passed to {@link #dispatch(UiFreezeEvent)}.
+	 */
+	public long getDispatchedCount() {
+		return dispatchedCount.get();
+	}
+
+	/**
+	 * Returns the number of successful deliveries to consumers.
+	 */
+	public long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	/**
+	 * Returns the number of deliveries that were dropped because the queue of a
+	 * consumer was full.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Returns the number of deliveries that waited longer than the late threshold
+	 * for their consumer.
+	 */
+	public long getLateCount() {
+		return lateCount.get();
+	}
+}
@@ -0,0 +1,77 @@
+package com.simonscholz.monitoring;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+
+import com.simonscholz.services.monitoring.UiFreezeConsumer;
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+import com.simonscholz.services.monitoring.journal.FreezeJournalReader;
+import com.simonscholz.services.monitoring.journal.FreezeJournalWriter;
+
+/**
+ * Writes all UI freezes to a memory-mapped binary journal, which is much
+ * cheaper than formatting them for the error log. The journal can be read back
+ * with {@link FreezeJournalReader}.
+ * <p>
+ * The component is only active if its configuration exists. Supported
+ * properties:
+ * </p>
+ * <ul>
+ * <li>{@code directory} - the directory of the journal files, defaults to
+ * {@code ui-freeze-journal} in the temporary directory</li>
+ * <li>{@code file.size.kb} - the size of a journal file in kilobytes</li>
+ * <li>{@code max.files} - the number of journal files that are kept</li>
+ * </ul>
+ */
+@Component(configurationPid = FreezeJournalConsumer.PID, configurationPolicy = ConfigurationPolicy.REQUIRE)
+public class FreezeJournalConsumer implements UiFreezeConsumer {
+	static final String PID = "com.simonscholz.monitoring.journal"; //$NON-NLS-1$
+
+	private FreezeJournalWriter writer;
+
+	@Activate
+	void activate(Map<String, Object> properties) {
+		ComponentProperties config = new ComponentProperties(properties);
+		File directory = new File(config.getString("directory", //$NON-NLS-1$
+				new File(System.getProperty("java.io.tmpdir"), "ui-freeze-journal").getPath())); //$NON-NLS-1$ //$NON-NLS-2$
+		int fileSize = (int) Math.min(Integer.MAX_VALUE, config.getLong("file.size.kb", 4096) * 1024); //$NON-NLS-1$
+		int maxFiles = config.getInt("max.files", 8); //$NON-NLS-1$
+		synchronized (this) {
+			writer = new FreezeJournalWriter(directory, fileSize, maxFiles);
+		}
+	}
+
+	@Deactivate
+	synchronized void deactivate() {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	@Override
+	public synchronized void accept(UiFreezeEvent event) {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.append(event);
+		} catch (IOException e) {
+			Bundle bundle = FrameworkUtil.getBundle(getClass());
+			ILog log = Platform.getLog(bundle);
+			log.log(new Status(IStatus.ERROR, bundle.getSymbolicName(), e.getMessage(), e));
+		}
+	}
+}
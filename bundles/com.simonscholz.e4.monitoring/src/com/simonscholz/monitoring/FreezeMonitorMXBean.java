@@ -0,0 +1,83 @@
+package com.simonscholz.monitoring;
+
+/**
+ * Management interface of the counters of the UI freeze monitor, registered
+ * with the platform MBean server as {@value FreezeMonitorStatistics#OBJECT_NAME}
+ * while the monitoring service is active. All values are cumulative since the
+ * service was activated and survive restarts of the monitoring thread.
+ */
+public interface FreezeMonitorMXBean {
+	/**
+	 * Returns the number of UI freezes passed to the consumers, including
+	 * reports of potential deadlocks.
+	 */
+	long getFreezesLogged();
+
+	/**
+	 * Returns the number of UI freezes that were not logged because of the UI
+	 * thread filter.
+	 */
+	long getFreezesFiltered();
+
+	/**
+	 * Returns the number of potential deadlocks reported while the UI thread was
+	 * still blocked.
+	 */
+	long getDeadlocksReported();
+
+	/**
+	 * Returns the number of polling cycles in which the monitoring thread was
+	 * starved.
+	 */
+	long getStarvationCycles();
+
+	/**
+	 * Returns the number of stack samples captured during UI freezes.
+	 */
+	long getSamplesCaptured();
+
+	/**
+	 * Returns the total duration of the finished UI freezes that were logged in
+	 * milliseconds.
+	 */
+	long getTotalFrozenMillis();
+
+	/**
+	 * Returns the number of finished UI freezes that were logged and spent at
+	 * least half of their duration in garbage collection pauses.
+	 */
+	long getGcFreezes();
+
+	/**
+	 * Returns the total time of the garbage collection pauses within the finished
+	 * UI freezes that were logged in milliseconds.
+	 */
+	long getTotalGcPauseMillis();
+
+	/**
+	 * Returns the number of polling cycles that captured thread stacks.
+	 */
+	long getStackCaptures();
+
+	/**
+	 * Returns the total time spent capturing thread stacks in microseconds.
+	 */
+	long getStackCaptureMicros();
+
+	/**
+	 * Returns the number of UI freezes delivered to a consumer.
+	 */
+	long getConsumerDispatches();
+
+	/**
+	 * Returns the total time UI freezes waited in the queues of their consumers
+	 * in microseconds.
+	 */
+	long getConsumerDispatchLatencyMicros();
+
+	/**
+	 * Returns the longest time a UI freeze waited in the queue of its consumer in
+	 * microseconds.
+	 */
+	long getMaxConsumerDispatchLatencyMicros();
+}
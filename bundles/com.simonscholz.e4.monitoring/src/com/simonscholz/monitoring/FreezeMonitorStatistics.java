@@ -0,0 +1,202 @@
+package com.simonscholz.monitoring;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.osgi.util.NLS;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * The counters of the UI freeze monitor. The counters are updated by the
+ * monitoring thread and the dispatcher threads without contention and are read
+ * through {@link FreezeMonitorMXBean}, for example by a JMX agent.
+ */
+final class FreezeMonitorStatistics implements FreezeMonitorMXBean {
+	static final String OBJECT_NAME = "com.simonscholz.monitoring:type=FreezeMonitor"; //$NON-NLS-1$
+
+	private final LongAdder freezesLogged = new LongAdder();
+	private final LongAdder freezesFiltered = new LongAdder();
+	private final LongAdder deadlocksReported = new LongAdder();
+	private final LongAdder starvationCycles = new LongAdder();
+	private final LongAdder samplesCaptured = new LongAdder();
+	private final LongAdder frozenNanos = new LongAdder();
+	private final LongAdder gcFreezes = new LongAdder();
+	private final LongAdder gcPauseNanos = new LongAdder();
+	private final LongAdder stackCaptures = new LongAdder();
+	private final LongAdder stackCaptureNanos = new LongAdder();
+	private final LongAdder consumerDispatches = new LongAdder();
+	private final LongAdder consumerDispatchLatencyNanos = new LongAdder();
+	private final LongAccumulator maxConsumerDispatchLatencyNanos = new LongAccumulator(Math::max, 0);
+	private ObjectName registeredName;
+
+	/**
+	 * Registers the counters with the platform MBean server. Failing to register
+	 * is logged as a warning, the counters are maintained anyway.
+	 */
+	synchronized void register() {
+		if (registeredName != null) {
+			return;
+		}
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			registeredName = name;
+		} catch (JMException | SecurityException e) {
+			// E.g. the bundle of a second framework in the same VM owns the name.
+			logRegistrationProblem(e);
+		}
+	}
+
+	/**
+	 * Removes the counters from the platform MBean server.
+	 */
+	synchronized void unregister() {
+		if (registeredName == null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(registeredName);
+		} catch (InstanceNotFoundException e) {
+			// Already unregistered by someone else.
+		} catch (JMException | SecurityException e) {
+			logRegistrationProblem(e);
+		}
+		registeredName = null;
+	}
+
+	private void logRegistrationProblem(Exception e) {
+		Bundle bundle = FrameworkUtil.getBundle(getClass());
+		ILog log = Platform.getLog(bundle);
+		log.log(new Status(IStatus.WARNING, bundle.getSymbolicName(),
+				NLS.bind(Messages.FreezeMonitorStatistics_registration_error_1, OBJECT_NAME), e));
+	}
+
+	/**
+	 * Counts an event passed to the consumers.
+	 */
+	void freezeLogged(UiFreezeEvent event) {
+		freezesLogged.increment();
+		if (event.isStillRunning()) {
+			deadlocksReported.increment();
+		} else {
+			// A freeze reported as a potential deadlock is logged again when it ends.
+			frozenNanos.add(event.getTotalDurationNanos());
+		}
+	}
+
+	/**
+	 * Counts the garbage collection pauses of a logged event, once they have been
+	 * attached to it. Called on a dispatcher thread.
+	 */
+	void gcActivityResolved(UiFreezeEvent event) {
+		if (!event.isStillRunning() && event.getGcActivity() != null) {
+			gcPauseNanos.add(event.getGcActivity().getPauseNanos());
+			if (event.isMostlyGcPause()) {
+				gcFreezes.increment();
+			}
+		}
+	}
+
+	void freezeFiltered() {
+		freezesFiltered.increment();
+	}
+
+	void starvationCycle() {
+		starvationCycles.increment();
+	}
+
+	void sampleCaptured() {
+		samplesCaptured.increment();
+	}
+
+	void stacksCaptured(long durationNanos) {
+		stackCaptures.increment();
+		stackCaptureNanos.add(durationNanos);
+	}
+
+	void consumerDispatched(long latencyNanos) {
+		consumerDispatches.increment();
+		consumerDispatchLatencyNanos.add(latencyNanos);
+		maxConsumerDispatchLatencyNanos.accumulate(latencyNanos);
+	}
+
+	@Override
+	public long getFreezesLogged() {
+		return freezesLogged.sum();
+	}
+
+	@Override
+	public long getFreezesFiltered() {
+		return freezesFiltered.sum();
+	}
+
+	@Override
+	public long getDeadlocksReported() {
+		return deadlocksReported.sum();
+	}
+
+	@Override
+	public long getStarvationCycles() {
+		return starvationCycles.sum();
+	}
+
+	@Override
+	public long getSamplesCaptured() {
+		return samplesCaptured.sum();
+	}
+
+	@Override
+	public long getTotalFrozenMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(frozenNanos.sum());
+	}
+
+	@Override
+	public long getGcFreezes() {
+		return gcFreezes.sum();
+	}
+
+	@Override
+	public long getTotalGcPauseMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(gcPauseNanos.sum());
+	}
+
+	@Override
+	public long getStackCaptures() {
+		return stackCaptures.sum();
+	}
+
+	@Override
+	public long getStackCaptureMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(stackCaptureNanos.sum());
+	}
+
+	@Override
+	public long getConsumerDispatches() {
+		return consumerDispatches.sum();
+	}
+
+	@Override
+	public long getConsumerDispatchLatencyMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(consumerDispatchLatencyNanos.sum());
+	}
+
+	@Override
+	public long getMaxConsumerDispatchLatencyMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(maxConsumerDispatchLatencyNanos.get());
+	}
+}
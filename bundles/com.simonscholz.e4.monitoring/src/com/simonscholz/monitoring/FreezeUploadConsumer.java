@@ -0,0 +1,374 @@
+package com.simonscholz.monitoring;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.osgi.util.NLS;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+
+import com.simonscholz.services.monitoring.UiFreezeConsumer;
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+import com.simonscholz.services.monitoring.serialization.BinaryFreezeEventReader;
+import com.simonscholz.services.monitoring.serialization.BinaryFreezeEventWriter;
+
+/**
+ * Collects UI freezes in batches and uploads them to a central collector over
+ * HTTP, so that the freezes of many installations can be analyzed in one place.
+ * <p>
+ * A batch is closed when it reaches its maximum number of events or size, or
+ * when its oldest event reaches the maximum delay. Closed batches are written
+ * to a spool directory in the binary format of {@link BinaryFreezeEventWriter},
+ * compressed with gzip, and uploaded oldest first from there. Each batch is
+ * sent as the body of a {@code POST} request with the content type
+ * {@value #CONTENT_TYPE} and the content encoding {@code gzip}, and can be read
+ * back with a {@link BinaryFreezeEventReader}. A batch is deleted once the
+ * collector accepts it with a 2xx status or rejects it with a 4xx status other
+ * than 408 and 429. If the collector is unreachable, times out, or answers with
+ * any other status, the batch stays in the spool and the upload is retried with
+ * an exponentially growing, randomized delay. Redirects are not followed, they
+ * are retried like server errors, since a moved collector must not cost the
+ * spooled batches. Batches spooled before a restart are uploaded after the next
+ * activation.
+ * </p>
+ * <p>
+ * The disk space of the spool directory and the number of bytes uploaded per
+ * hour are bounded. When the spool exceeds its budget, the oldest batches are
+ * discarded. When the upload budget of the current hour is exhausted, the
+ * remaining batches wait for the next hour. A freeze reported while still
+ * running is uploaded again when it ends.
+ * </p>
+ * <p>
+ * The component is only active if its configuration exists. Supported
+ * properties:
+ * </p>
+ * <ul>
+ * <li>{@code collector.url} - the HTTP or HTTPS URL the batches are posted to,
+ * required</li>
+ * <li>{@code spool.directory} - the directory of the spooled batches, defaults
+ * to {@code ui-freeze-spool} in the temporary directory</li>
+ * <li>{@code spool.max.size.kb} - the disk budget of the spool directory in
+ * kilobytes</li>
+ * <li>{@code batch.max.events} - the maximum number of events of a batch</li>
+ * <li>{@code batch.max.size.kb} - the maximum uncompressed size of a batch in
+ * kilobytes</li>
+ * <li>{@code batch.max.delay.seconds} - the maximum time an event waits for its
+ * batch to be closed</li>
+ * <li>{@code upload.max.kb.per.hour} - the number of compressed kilobytes that
+ * may be uploaded per hour</li>
+ * <li>{@code retry.initial.delay.seconds} - the delay of the first retry after
+ * a failed upload</li>
+ * <li>{@code retry.max.delay.seconds} - the maximum delay between retries</li>
+ * <li>{@code timeout.seconds} - the connect and read timeout of an upload</li>
+ * </ul>
+ */
+@Component(configurationPid = FreezeUploadConsumer.PID, configurationPolicy = ConfigurationPolicy.REQUIRE)
+public class FreezeUploadConsumer implements UiFreezeConsumer {
+	static final String PID = "com.simonscholz.monitoring.upload"; //$NON-NLS-1$
+	static final String CONTENT_TYPE = "application/x-ui-freeze-events"; //$NON-NLS-1$
+	private static final String FILE_PREFIX = "batch-"; //$NON-NLS-1$
+	private static final String FILE_SUFFIX = ".uib.gz"; //$NON-NLS-1$
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+	private static final long UPLOAD_BUDGET_PERIOD_NANOS = TimeUnit.HOURS.toNanos(1);
+
+	// Guarded by this.
+	private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+	private BinaryFreezeEventWriter batchWriter;
+	private int batchEventCount;
+	private long batchGeneration;
+	private long fileSequence;
+	private boolean uploadScheduled;
+	private ScheduledExecutorService uploadExecutor;
+
+	private URL collectorUrl;
+	private File spoolDirectory;
+	private long maxSpoolBytes;
+	private int maxBatchEvents;
+	private long maxBatchBytes;
+	private long maxBatchDelayMillis;
+	private long maxUploadBytesPerHour;
+	private long initialRetryDelayMillis;
+	private long maxRetryDelayMillis;
+	private int timeoutMillis;
+
+	// Accessed only by the upload thread.
+	private long retryDelayMillis;
+	private long retryNotBefore;
+	private long uploadBudgetPeriodStart;
+	private long uploadedInPeriod;
+
+	@Activate
+	void activate(Map<String, Object> properties) {
+		ComponentProperties config = new ComponentProperties(properties);
+		String url = config.getString("collector.url", null); //$NON-NLS-1$
+		try {
+			collectorUrl = new URL(url);
+			if (!"http".equals(collectorUrl.getProtocol()) && !"https".equals(collectorUrl.getProtocol())) { //$NON-NLS-1$ //$NON-NLS-2$
+				throw new MalformedURLException(url);
+			}
+		} catch (MalformedURLException e) {
+			log(IStatus.ERROR, NLS.bind(Messages.FreezeUploadConsumer_invalid_url_error_1, url), e);
+			return;
+		}
+		spoolDirectory = new File(config.getString("spool.directory", //$NON-NLS-1$
+				new File(System.getProperty("java.io.tmpdir"), "ui-freeze-spool").getPath())); //$NON-NLS-1$ //$NON-NLS-2$
+		maxSpoolBytes = Math.max(1, config.getLong("spool.max.size.kb", 10240)) * 1024; //$NON-NLS-1$
+		maxBatchEvents = Math.max(1, config.getInt("batch.max.events", 100)); //$NON-NLS-1$
+		maxBatchBytes = Math.max(1, config.getLong("batch.max.size.kb", 1024)) * 1024; //$NON-NLS-1$
+		maxBatchDelayMillis = TimeUnit.SECONDS.toMillis(Math.max(1, config.getLong("batch.max.delay.seconds", 300))); //$NON-NLS-1$
+		maxUploadBytesPerHour = Math.max(1, config.getLong("upload.max.kb.per.hour", 2048)) * 1024; //$NON-NLS-1$
+		initialRetryDelayMillis = TimeUnit.SECONDS.toMillis(Math.max(1, config.getLong("retry.initial.delay.seconds", 60))); //$NON-NLS-1$
+		maxRetryDelayMillis = Math.max(initialRetryDelayMillis,
+				TimeUnit.SECONDS.toMillis(config.getLong("retry.max.delay.seconds", 3600))); //$NON-NLS-1$
+		timeoutMillis = (int) TimeUnit.SECONDS.toMillis(Math.max(1, config.getInt("timeout.seconds", 30))); //$NON-NLS-1$
+		retryDelayMillis = initialRetryDelayMillis;
+		retryNotBefore = System.nanoTime();
+		uploadBudgetPeriodStart = retryNotBefore;
+		uploadedInPeriod = 0;
+
+		if (!spoolDirectory.isDirectory() && !spoolDirectory.mkdirs()) {
+			log(IStatus.ERROR, spoolDirectory.getPath(), new IOException(spoolDirectory.getPath()));
+			return;
+		}
+		// Temporary files are left behind by a crash while a batch was spooled.
+		File[] tempFiles = spoolDirectory.listFiles((dir, name) -> name.endsWith(TEMP_SUFFIX));
+		if (tempFiles != null) {
+			for (File file : tempFiles) {
+				file.delete();
+			}
+		}
+
+		synchronized (this) {
+			uploadExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "UI Freeze Uploader"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			});
+			enforceSpoolBudget();
+			scheduleUpload(0);
+		}
+	}
+
+	@Deactivate
+	synchronized void deactivate() {
+		if (uploadExecutor == null) {
+			return;
+		}
+		// The open batch is uploaded after the next activation.
+		closeBatch();
+		uploadExecutor.shutdownNow();
+		uploadExecutor = null;
+		uploadScheduled = false;
+	}
+
+	@Override
+	public synchronized void accept(UiFreezeEvent event) {
+		if (uploadExecutor == null) {
+			return;
+		}
+		try {
+			if (batchWriter == null) {
+				batchWriter = new BinaryFreezeEventWriter(batch);
+				long generation = batchGeneration;
+				uploadExecutor.schedule(() -> closeBatch(generation), maxBatchDelayMillis, TimeUnit.MILLISECONDS);
+			}
+			batchWriter.write(event);
+		} catch (IOException e) {
+			// Not thrown by ByteArrayOutputStream.
+			log(IStatus.ERROR, e.getMessage(), e);
+		}
+		batchEventCount++;
+		if (batchEventCount >= maxBatchEvents || batch.size() >= maxBatchBytes) {
+			closeBatch();
+		}
+	}
+
+	private synchronized void closeBatch(long generation) {
+		if (generation == batchGeneration && uploadExecutor != null) {
+			closeBatch();
+		}
+	}
+
+	/**
+	 * Writes the open batch to the spool directory and schedules its upload.
+	 */
+	private synchronized void closeBatch() {
+		if (batchWriter == null) {
+			return;
+		}
+		File file = new File(spoolDirectory,
+				String.format("%s%013d-%06d%s", FILE_PREFIX, System.currentTimeMillis(), fileSequence++ % 1000000, //$NON-NLS-1$
+						FILE_SUFFIX));
+		File tempFile = new File(spoolDirectory, file.getName() + TEMP_SUFFIX);
+		try {
+			try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempFile.toPath()))) {
+				batch.writeTo(out);
+			}
+			// The batch becomes visible to the uploader only once it is complete.
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			tempFile.delete();
+			log(IStatus.ERROR, e.getMessage(), e);
+		} finally {
+			batch.reset();
+			batchWriter = null;
+			batchEventCount = 0;
+			batchGeneration++;
+		}
+		enforceSpoolBudget();
+		scheduleUpload(0);
+	}
+
+	/**
+	 * Discards the oldest spooled batches while the spool exceeds its budget.
+	 */
+	private synchronized void enforceSpoolBudget() {
+		File[] files = listSpooledBatches();
+		long size = 0;
+		for (File file : files) {
+			size += file.length();
+		}
+		for (int i = 0; i < files.length && size > maxSpoolBytes; i++) {
+			long length = files[i].length();
+			if (files[i].delete()) {
+				log(IStatus.WARNING, NLS.bind(Messages.FreezeUploadConsumer_spool_budget_exceeded_1, files[i].getName()),
+						null);
+			}
+			size -= length;
+		}
+	}
+
+	private synchronized void scheduleUpload(long delayMillis) {
+		if (uploadExecutor != null && !uploadScheduled) {
+			uploadScheduled = true;
+			uploadExecutor.schedule(this::uploadSpooledBatches, delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Uploads the spooled batches, oldest first, until the spool is empty, an
+	 * upload fails or the upload budget is exhausted. Runs on the upload thread.
+	 */
+	private void uploadSpooledBatches() {
+		synchronized (this) {
+			uploadScheduled = false;
+		}
+		for (File file : listSpooledBatches()) {
+			long now = System.nanoTime();
+			if (now - retryNotBefore < 0) {
+				scheduleUpload(TimeUnit.NANOSECONDS.toMillis(retryNotBefore - now) + 1);
+				return;
+			}
+			if (now - uploadBudgetPeriodStart >= UPLOAD_BUDGET_PERIOD_NANOS) {
+				uploadBudgetPeriodStart = now;
+				uploadedInPeriod = 0;
+			}
+			long length = file.length();
+			// A batch larger than the whole budget is sent at the start of a period.
+			if (uploadedInPeriod != 0 && uploadedInPeriod + length > maxUploadBytesPerHour) {
+				long periodEnd = uploadBudgetPeriodStart + UPLOAD_BUDGET_PERIOD_NANOS;
+				scheduleUpload(TimeUnit.NANOSECONDS.toMillis(periodEnd - now) + 1);
+				return;
+			}
+
+			int status;
+			try {
+				status = upload(file);
+			} catch (NoSuchFileException e) {
+				continue; // Discarded to stay within the disk budget.
+			} catch (IOException e) {
+				// The collector is unreachable, keep the batch.
+				status = -1;
+			}
+			boolean accepted = status >= 200 && status < 300;
+			boolean rejected = status >= 400 && status < 500 && status != 408 && status != 429;
+			if (!accepted && !rejected) {
+				// A spread out delay keeps many clients from retrying at the same time.
+				long delay = ThreadLocalRandom.current().nextLong(retryDelayMillis / 2, retryDelayMillis + 1);
+				retryDelayMillis = Math.min(maxRetryDelayMillis, retryDelayMillis * 2);
+				retryNotBefore = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+				scheduleUpload(delay);
+				return;
+			}
+			uploadedInPeriod += length;
+			retryDelayMillis = initialRetryDelayMillis;
+			if (rejected) {
+				log(IStatus.WARNING, NLS.bind(Messages.FreezeUploadConsumer_batch_rejected_2, status, file.getName()),
+						null);
+			}
+			file.delete();
+		}
+	}
+
+	/**
+	 * Posts the batch to the collector.
+	 *
+	 * @return the HTTP status of the response
+	 */
+	private int upload(File file) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) collectorUrl.openConnection();
+		connection.setRequestMethod("POST"); //$NON-NLS-1$
+		connection.setInstanceFollowRedirects(false);
+		connection.setDoOutput(true);
+		connection.setConnectTimeout(timeoutMillis);
+		connection.setReadTimeout(timeoutMillis);
+		connection.setFixedLengthStreamingMode(file.length());
+		connection.setRequestProperty("Content-Type", CONTENT_TYPE); //$NON-NLS-1$
+		connection.setRequestProperty("Content-Encoding", "gzip"); //$NON-NLS-1$ //$NON-NLS-2$
+		try (OutputStream out = connection.getOutputStream()) {
+			Files.copy(file.toPath(), out);
+		}
+		int status = connection.getResponseCode();
+		// Read the response to the end, so that the connection can be reused.
+		try (InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+			if (in != null) {
+				byte[] buffer = new byte[1024];
+				while (in.read(buffer) >= 0) {
+					// Discard the response.
+				}
+			}
+		}
+		return status;
+	}
+
+	private File[] listSpooledBatches() {
+		File[] files = spoolDirectory.listFiles(
+				(dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+		if (files == null) {
+			return new File[0];
+		}
+		// The time stamp in the file names makes the alphabetical order chronological.
+		Arrays.sort(files);
+		return files;
+	}
+
+	void log(int severity, String message, Throwable exception) {
+		Bundle bundle = FrameworkUtil.getBundle(getClass());
+		ILog log = Platform.getLog(bundle);
+		log.log(new Status(severity, bundle.getSymbolicName(), message, exception));
+	}
+}
@@ -0,0 +1,248 @@
+package com.simonscholz.monitoring;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.RuntimeMXBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import com.simonscholz.services.monitoring.GcActivity;
+
+/**
+ * Records the recent garbage collection pauses of the virtual machine in a
+ * ring, so the pauses overlapping a UI freeze can be looked up when the freeze
+ * is logged.
+ * <p>
+ * The pauses are reported by the notifications of the
+ * {@link GarbageCollectorMXBean}s, which HotSpot and OpenJ9 send after every
+ * collection. The notifications are read as {@link CompositeData}, so no
+ * {@code com.sun.management} classes are needed. Collectors reporting
+ * concurrent cycles rather than pauses are ignored, their cycles do not stop
+ * the UI thread.
+ * </p>
+ * <p>
+ * The notifications carry the start and end of a collection as the uptime of
+ * the virtual machine in milliseconds. They are converted to the clock of the
+ * recorder when the notification arrives, which is shortly after the end of
+ * the collection. A pause just before the end of a freeze may thus not be
+ * recorded yet when the freeze is logged, {@link #awaitActivity(long, long)}
+ * waits up to {@link #NOTIFICATION_DELAY_NANOS} for its notification. It is
+ * called by the dispatcher of the freeze, never by the monitoring thread. A
+ * pause notified even later is not counted for the freeze.
+ * </p>
+ * <p>
+ * The ring is written by the thread delivering the notifications and read by
+ * the dispatcher threads, all synchronized on the recorder.
+ * </p>
+ */
+final class GcPauseRecorder implements NotificationListener {
+	/** {@code GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION} */
+	static final String GC_NOTIFICATION = "com.sun.management.gc.notification"; //$NON-NLS-1$
+	/** The number of recorded pauses, enough for minutes of frequent young collections. */
+	static final int CAPACITY = 1024;
+	/** How long the notification of a pause is awaited after the end of a freeze. */
+	static final long NOTIFICATION_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final List<NotificationEmitter> emitters = new ArrayList<>();
+	private final RuntimeMXBean runtime;
+	private final MemoryMXBean memory;
+	private final Set<String> heapPools = new HashSet<>();
+	private final LongSupplier clock;
+
+	// Guarded by this.
+	private final long[] starts = new long[CAPACITY];
+	private final long[] ends = new long[CAPACITY];
+	private final long[] heapUsedBefore = new long[CAPACITY];
+	private final long[] heapUsedAfter = new long[CAPACITY];
+	private int next;
+	private int count;
+
+	/**
+	 * @param clock the monotonic time in nanoseconds the pauses are recorded in
+	 */
+	GcPauseRecorder(LongSupplier clock) {
+		this.clock = clock;
+		runtime = ManagementFactory.getRuntimeMXBean();
+		memory = ManagementFactory.getMemoryMXBean();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heapPools.add(pool.getName());
+			}
+		}
+	}
+
+	/**
+	 * Subscribes to the notifications of the garbage collectors.
+	 *
+	 * @return {@code false} if no garbage collector sends notifications
+	 */
+	boolean start() {
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (collector instanceof NotificationEmitter && !isConcurrent(collector.getName())) {
+				NotificationEmitter emitter = (NotificationEmitter) collector;
+				emitter.addNotificationListener(this, null, null);
+				emitters.add(emitter);
+			}
+		}
+		return !emitters.isEmpty();
+	}
+
+	/**
+	 * Unsubscribes from the notifications of the garbage collectors.
+	 */
+	void stop() {
+		for (NotificationEmitter emitter : emitters) {
+			try {
+				emitter.removeNotificationListener(this);
+			} catch (ListenerNotFoundException e) {
+				// Already removed.
+			}
+		}
+		emitters.clear();
+	}
+
+	@Override
+	public void handleNotification(Notification notification, Object handback) {
+		if (!GC_NOTIFICATION.equals(notification.getType())
+				|| !(notification.getUserData() instanceof CompositeData)) {
+			return;
+		}
+		CompositeData info = (CompositeData) notification.getUserData();
+		CompositeData gcInfo = (CompositeData) info.get("gcInfo"); //$NON-NLS-1$
+		long receivedAt = clock.getAsLong();
+		long uptime = runtime.getUptime();
+		long start = receivedAt - TimeUnit.MILLISECONDS.toNanos(uptime - (Long) gcInfo.get("startTime")); //$NON-NLS-1$
+		long end = receivedAt - TimeUnit.MILLISECONDS.toNanos(uptime - (Long) gcInfo.get("endTime")); //$NON-NLS-1$
+		long before = heapUsed((TabularData) gcInfo.get("memoryUsageBeforeGc")); //$NON-NLS-1$
+		long after = heapUsed((TabularData) gcInfo.get("memoryUsageAfterGc")); //$NON-NLS-1$
+		record(start, Math.max(start, end), before, after);
+	}
+
+	/**
+	 * Adds a pause to the ring, replacing the oldest pause once the ring is full.
+	 */
+	// VisibleForTesting
+	synchronized void record(long start, long end, long before, long after) {
+		starts[next] = start;
+		ends[next] = end;
+		heapUsedBefore[next] = before;
+		heapUsedAfter[next] = after;
+		next = (next + 1) % CAPACITY;
+		if (count < CAPACITY) {
+			count++;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Returns the pauses overlapping the given interval on the clock of the
+	 * recorder. Only the parts of the pauses within the interval are counted. If
+	 * the interval has just ended, first waits briefly for the notifications of
+	 * the pauses at its end.
+	 *
+	 * @param from the start of the interval in nanoseconds
+	 * @param to   the end of the interval in nanoseconds
+	 */
+	synchronized GcActivity awaitActivity(long from, long to) {
+		awaitNotifications(to);
+		return getActivity(from, to);
+	}
+
+	/**
+	 * Returns the pauses overlapping the given interval on the clock of the
+	 * recorder, as far as they are recorded. Only the parts of the pauses within
+	 * the interval are counted.
+	 *
+	 * @param from the start of the interval in nanoseconds
+	 * @param to   the end of the interval in nanoseconds
+	 */
+	// VisibleForTesting
+	synchronized GcActivity getActivity(long from, long to) {
+		int pauseCount = 0;
+		long pauseNanos = 0;
+		long before = -1;
+		long after = -1;
+		long firstStart = Long.MAX_VALUE;
+		long lastEnd = Long.MIN_VALUE;
+		for (int i = 0; i < count; i++) {
+			// Collectors may report overlapping pauses out of order, look at all of them.
+			if (starts[i] < to && ends[i] > from) {
+				pauseCount++;
+				pauseNanos += Math.min(ends[i], to) - Math.max(starts[i], from);
+				if (starts[i] < firstStart) {
+					firstStart = starts[i];
+					before = heapUsedBefore[i];
+				}
+				if (ends[i] > lastEnd) {
+					lastEnd = ends[i];
+					after = heapUsedAfter[i];
+				}
+			}
+		}
+		// Pauses of concurrently running collectors may overlap each other.
+		pauseNanos = Math.min(pauseNanos, to - from);
+		return new GcActivity(pauseCount, pauseNanos, before, after, memory.getHeapMemoryUsage().getMax());
+	}
+
+	/**
+	 * Waits until {@link #NOTIFICATION_DELAY_NANOS} have passed since the given
+	 * time, or until a pause reaching the given time is recorded.
+	 */
+	private void awaitNotifications(long to) {
+		long remaining = Math.min(to + NOTIFICATION_DELAY_NANOS - clock.getAsLong(), NOTIFICATION_DELAY_NANOS);
+		// Bound the wait by the system clock, the clock of the recorder may be simulated.
+		long deadline = System.nanoTime() + remaining;
+		while (remaining > 0 && !hasPauseEndingAfter(to)) {
+			try {
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			remaining = deadline - System.nanoTime();
+		}
+	}
+
+	private boolean hasPauseEndingAfter(long time) {
+		for (int i = 0; i < count; i++) {
+			if (ends[i] >= time) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private long heapUsed(TabularData memoryUsage) {
+		long used = 0;
+		for (Object row : memoryUsage.values()) {
+			CompositeData entry = (CompositeData) row;
+			if (heapPools.contains(entry.get("key"))) { //$NON-NLS-1$
+				used += (Long) ((CompositeData) entry.get("value")).get("used"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * Returns {@code true} for the collectors of ZGC and Shenandoah that report
+	 * their concurrent cycles rather than their pauses. "G1 Concurrent GC" is kept,
+	 * it reports the Remark and Cleanup pauses of G1 since Java 20.
+	 */
+	private static boolean isConcurrent(String collectorName) {
+		return collectorName.endsWith(" Cycles"); //$NON-NLS-1$
+	}
+}
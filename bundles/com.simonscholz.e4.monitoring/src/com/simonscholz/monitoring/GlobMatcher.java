@@ -0,0 +1,330 @@
+package com.simonscholz.monitoring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches a character sequence against a set of glob patterns in a single pass.
+ * <p>
+ * The patterns are matched by one deterministic automaton, so the cost of a
+ * match depends on the length of the input only, not on the number of
+ * patterns. The patterns follow the syntax of
+ * {@link FilterHandler#createPattern(String)}: '*' matches any sequence of
+ * characters, '?' matches any single character and '\' escapes '*', '?' and
+ * '\'. Like the '.' of a regular expression, wildcards do not match line
+ * terminators.
+ * </p>
+ * <p>
+ * The states of the automaton are built on demand while matching, since the
+ * number of states may grow exponentially with the number of '*' wildcards,
+ * while only few of them are ever reached by real class and method names. Once
+ * the states reached so far are known, matching does not allocate. If the
+ * automaton exceeds {@link #MAX_STATES}, the built states are discarded and
+ * built again as needed.
+ * </p>
+ * <p>
+ * <strong>This class is not thread safe.</strong>
+ * </p>
+ */
+final class GlobMatcher {
+	/** Limits the size of the automaton. */
+	static final int MAX_STATES = 4096;
+
+	private static final int DEAD = -1;
+	private static final int UNKNOWN = -2;
+	/** Marks a wildcard in the token array of a glob. */
+	private static final int ANY_CHAR = -1;
+	private static final int ANY_SEQUENCE = -2;
+
+	/** The tokens of the globs, see {@link #tokenize(String)}. */
+	private final int[][] tokens;
+	/**
+	 * The first position of every glob in the nondeterministic automaton. The
+	 * positions are numbered consecutively across the globs, a glob of k tokens
+	 * having k + 1 positions.
+	 */
+	private final int[] offsets;
+	private final BitSet startPositions;
+
+	/** Character classes of the ASCII characters, indexed by character. */
+	private final int[] asciiClasses;
+	/** Sorted non-ASCII characters with a class other than 0. */
+	private final char[] otherChars;
+	/** Character classes of {@link #otherChars}. */
+	private final int[] otherClasses;
+	/** The character of every class, -1 for classes 0 and 1. */
+	private final int[] classChars;
+	private final boolean[] lineTerminators;
+	private final int numClasses;
+
+	/** The positions of the nondeterministic automaton making up every state. */
+	private final List<BitSet> states = new ArrayList<>();
+	private final Map<BitSet, Integer> stateIds = new HashMap<>();
+	/** The next state, indexed by {@code state * numClasses + characterClass}. */
+	private int[] transitions;
+	private boolean[] accepting;
+
+	/**
+	 * Creates a matcher for the given glob patterns.
+	 *
+	 * @param globs the glob patterns
+	 */
+	GlobMatcher(String[] globs) {
+		tokens = new int[globs.length][];
+		offsets = new int[globs.length + 1];
+		for (int i = 0; i < globs.length; i++) {
+			tokens[i] = tokenize(globs[i]);
+			offsets[i + 1] = offsets[i] + tokens[i].length + 1;
+		}
+
+		// Class 0 is the class of the characters not occurring in the patterns,
+		// class 1 of the line terminators not occurring in the patterns. Every
+		// character occurring in the patterns gets a class of its own.
+		asciiClasses = new int[128];
+		asciiClasses['\n'] = 1;
+		asciiClasses['\r'] = 1;
+		Map<Character, Integer> otherClassMap = new HashMap<>();
+		otherClassMap.put('\u0085', 1);
+		otherClassMap.put('\u2028', 1);
+		otherClassMap.put('\u2029', 1);
+		int classCount = 2;
+		for (int[] globTokens : tokens) {
+			for (int token : globTokens) {
+				if (token < 0) {
+					continue;
+				}
+				char c = (char) token;
+				if (c < 128) {
+					if (asciiClasses[c] <= 1) {
+						asciiClasses[c] = classCount++;
+					}
+				} else {
+					Integer cls = otherClassMap.get(c);
+					if (cls == null || cls == 1) {
+						otherClassMap.put(c, classCount++);
+					}
+				}
+			}
+		}
+		numClasses = classCount;
+		otherChars = new char[otherClassMap.size()];
+		int n = 0;
+		for (char c : otherClassMap.keySet()) {
+			otherChars[n++] = c;
+		}
+		Arrays.sort(otherChars);
+		otherClasses = new int[otherChars.length];
+		for (int i = 0; i < otherChars.length; i++) {
+			otherClasses[i] = otherClassMap.get(otherChars[i]);
+		}
+		classChars = new int[numClasses];
+		Arrays.fill(classChars, -1);
+		lineTerminators = new boolean[numClasses];
+		lineTerminators[1] = true;
+		for (int c = 0; c < 128; c++) {
+			if (asciiClasses[c] > 1) {
+				classChars[asciiClasses[c]] = c;
+				lineTerminators[asciiClasses[c]] = isLineTerminator((char) c);
+			}
+		}
+		for (int i = 0; i < otherChars.length; i++) {
+			if (otherClasses[i] > 1) {
+				classChars[otherClasses[i]] = otherChars[i];
+				lineTerminators[otherClasses[i]] = isLineTerminator(otherChars[i]);
+			}
+		}
+
+		startPositions = new BitSet(offsets[globs.length]);
+		for (int i = 0; i < globs.length; i++) {
+			addPosition(startPositions, tokens[i], offsets[i], 0);
+		}
+		transitions = new int[16 * numClasses];
+		accepting = new boolean[16];
+		reset();
+	}
+
+	/**
+	 * Returns {@code true} if the entire character sequence matches any of the
+	 * patterns.
+	 */
+	boolean matches(CharSequence input) {
+		int state = 0;
+		for (int i = 0, len = input.length(); i < len; i++) {
+			state = step(state, input.charAt(i));
+			if (state == DEAD) {
+				return false;
+			}
+		}
+		return accepting[state];
+	}
+
+	/**
+	 * Returns {@code true} if {@code first + '.' + last} matches any of the
+	 * patterns.
+	 */
+	boolean matches(String first, String last) {
+		int state = 0;
+		for (int i = 0, len = first.length(); i < len; i++) {
+			state = step(state, first.charAt(i));
+			if (state == DEAD) {
+				return false;
+			}
+		}
+		state = step(state, '.');
+		if (state == DEAD) {
+			return false;
+		}
+		for (int i = 0, len = last.length(); i < len; i++) {
+			state = step(state, last.charAt(i));
+			if (state == DEAD) {
+				return false;
+			}
+		}
+		return accepting[state];
+	}
+
+	private int step(int state, char c) {
+		int cls = classOf(c);
+		int next = transitions[state * numClasses + cls];
+		return next != UNKNOWN ? next : buildTransition(state, cls);
+	}
+
+	private int classOf(char c) {
+		if (c < 128) {
+			return asciiClasses[c];
+		}
+		int index = Arrays.binarySearch(otherChars, c);
+		return index >= 0 ? otherClasses[index] : 0;
+	}
+
+	/**
+	 * Computes the state following the given state on a character of the given
+	 * class.
+	 */
+	private int buildTransition(int state, int cls) {
+		BitSet positions = states.get(state);
+		BitSet next = new BitSet(offsets[tokens.length]);
+		int glob = 0;
+		for (int p = positions.nextSetBit(0); p >= 0; p = positions.nextSetBit(p + 1)) {
+			while (p >= offsets[glob + 1]) {
+				glob++;
+			}
+			int[] globTokens = tokens[glob];
+			int index = p - offsets[glob];
+			if (index == globTokens.length) {
+				continue;
+			}
+			int token = globTokens[index];
+			if (token == ANY_SEQUENCE) {
+				if (!lineTerminators[cls]) {
+					addPosition(next, globTokens, offsets[glob], index);
+				}
+			} else if (token == ANY_CHAR ? !lineTerminators[cls] : token == classChars[cls]) {
+				addPosition(next, globTokens, offsets[glob], index + 1);
+			}
+		}
+		if (next.isEmpty()) {
+			transitions[state * numClasses + cls] = DEAD;
+			return DEAD;
+		}
+		Integer nextState = stateIds.get(next);
+		if (nextState != null) {
+			transitions[state * numClasses + cls] = nextState;
+			return nextState;
+		}
+		if (states.size() == MAX_STATES) {
+			// Start over. The caller continues from the returned state.
+			reset();
+			return addState(next);
+		}
+		int id = addState(next);
+		transitions[state * numClasses + cls] = id;
+		return id;
+	}
+
+	/**
+	 * Discards all states but the start state.
+	 */
+	private void reset() {
+		states.clear();
+		stateIds.clear();
+		Arrays.fill(transitions, UNKNOWN);
+		addState(startPositions);
+	}
+
+	private int addState(BitSet positions) {
+		int id = states.size();
+		states.add(positions);
+		stateIds.put(positions, id);
+		if ((id + 1) * numClasses > transitions.length) {
+			int oldLength = transitions.length;
+			transitions = Arrays.copyOf(transitions, oldLength * 2);
+			Arrays.fill(transitions, oldLength, transitions.length, UNKNOWN);
+			accepting = Arrays.copyOf(accepting, accepting.length * 2);
+		}
+		boolean accept = false;
+		for (int i = 0; i < tokens.length; i++) {
+			if (positions.get(offsets[i] + tokens[i].length)) {
+				accept = true;
+				break;
+			}
+		}
+		accepting[id] = accept;
+		return id;
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	/**
+	 * Adds the given position and, since '*' matches the empty sequence, the
+	 * positions following it while they are preceded by '*'.
+	 */
+	private static void addPosition(BitSet positions, int[] tokens, int offset, int index) {
+		positions.set(offset + index);
+		while (index < tokens.length && tokens[index] == ANY_SEQUENCE) {
+			index++;
+			positions.set(offset + index);
+		}
+	}
+
+	/**
+	 * Splits a glob pattern into literal characters, {@link #ANY_CHAR} and
+	 * {@link #ANY_SEQUENCE}. An escaped character other than '*', '?' and '\'
+	 * stands for a backslash followed by the character, as in
+	 * {@link FilterHandler#createPattern(String)}.
+	 */
+	private static int[] tokenize(String glob) {
+		int len = glob.length();
+		int[] tokens = new int[len + 1];
+		int n = 0;
+		boolean isEscaped = false;
+		for (int i = 0; i < len; i++) {
+			char c = glob.charAt(i);
+			if (isEscaped) {
+				if (c != '*' && c != '?' && c != '\\') {
+					tokens[n++] = '\\';
+				}
+				tokens[n++] = c;
+				isEscaped = false;
+			} else if (c == '\\') {
+				isEscaped = true;
+			} else if (c == '*') {
+				tokens[n++] = ANY_SEQUENCE;
+			} else if (c == '?') {
+				tokens[n++] = ANY_CHAR;
+			} else {
+				tokens[n++] = c;
+			}
+		}
+		if (isEscaped) {
+			tokens[n++] = '\\';
+		}
+		return Arrays.copyOf(tokens, n);
+	}
+}
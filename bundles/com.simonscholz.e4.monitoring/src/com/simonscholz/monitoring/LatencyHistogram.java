@@ -0,0 +1,102 @@
+package com.simonscholz.monitoring;
+
+/**
+ * Log-linear histogram of durations in the style of HdrHistogram. Values are
+ * recorded in microseconds. Each power of two range is split into
+ * {@value #SUB_BUCKETS} linear sub-buckets, so the relative error of a value
+ * read back from the histogram is below 12.5%.
+ * <p>
+ * The histogram has a single writer that records values without allocating or
+ * locking. Readers may take snapshots concurrently; a snapshot may miss values
+ * recorded while it is taken.
+ * </p>
+ */
+final class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** Values below this limit are counted in buckets of width one. */
+	private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+	/** Longer values are clamped, about 12 days in microseconds. */
+	private static final long MAX_VALUE = (1L << 40) - 1;
+	private static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+	private final long[] counts = new long[BUCKET_COUNT];
+	private long max;
+	/* Written by the writer after the buckets, read first by the readers. */
+	private volatile long totalCount;
+
+	/**
+	 * Records a duration. Must only be called by the writer thread.
+	 *
+	 * @param nanos the duration in nanoseconds
+	 */
+	void record(long nanos) {
+		long micros = Math.min(Math.max(nanos / 1000, 0), MAX_VALUE);
+		counts[indexOf(micros)]++;
+		if (micros > max) {
+			max = micros;
+		}
+		totalCount = totalCount + 1;
+	}
+
+	/**
+	 * Returns {@code true} if no value was recorded yet.
+	 */
+	boolean isEmpty() {
+		return totalCount == 0;
+	}
+
+	/**
+	 * Returns the number of recorded values followed by the values in nanoseconds
+	 * at the given percentiles and the maximum value in nanoseconds.
+	 *
+	 * @param percentiles the percentiles between 0 and 100 in ascending order
+	 */
+	long[] getPercentiles(double... percentiles) {
+		long[] result = new long[percentiles.length + 2];
+		if (totalCount == 0) {
+			return result;
+		}
+		long[] snapshot = counts.clone();
+		long maxValue = max;
+		long total = 0;
+		for (long count : snapshot) {
+			total += count;
+		}
+		result[0] = total;
+		result[result.length - 1] = maxValue * 1000;
+
+		int index = 0;
+		long cumulative = 0;
+		for (int i = 0; i < percentiles.length; i++) {
+			long target = Math.max(1, (long) Math.ceil(percentiles[i] / 100 * total));
+			while (index < snapshot.length - 1 && cumulative + snapshot[index] < target) {
+				cumulative += snapshot[index++];
+			}
+			result[i + 1] = Math.min(highestValueOf(index), maxValue) * 1000;
+		}
+		return result;
+	}
+
+	private static int indexOf(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR_LIMIT + (magnitude - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the highest value counted in the bucket with the given index.
+	 */
+	private static long highestValueOf(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int magnitude = (index - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+		int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+		int shift = magnitude - SUB_BUCKET_BITS;
+		return ((long) (SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+	}
+}
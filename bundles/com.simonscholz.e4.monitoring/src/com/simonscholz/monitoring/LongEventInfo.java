@@ -5,22 +5,22 @@ package com.simonscholz.monitoring;
  */
 public class LongEventInfo {
 	/**
-	 * The start time of the first event, in milliseconds since 00:00 of 1 January 1970 UTC.
+	 * The start time of the first event, in nanoseconds on the clock of the monitoring thread.
 	 *
-	 * @see System#currentTimeMillis
+	 * @see EventLoopMonitorThread#getNanoTimestamp()
 	 */
 	public final long start;
 
 	/**
-	 * The total duration of all events, in milliseconds
+	 * The total duration of all events, in nanoseconds
 	 */
 	public final long duration;
 
 	/**
 	 * Constructs an event snapshot object from a contiguous range of events.
 	 *
-	 * @param start the start timestamp in milliseconds since 00:00 of 1 Jan 1970
-	 * @param duration the duration of the captured events, in milliseconds
+	 * @param start the start timestamp in nanoseconds on the clock of the monitoring thread
+	 * @param duration the duration of the captured events, in nanoseconds
 	 */
 	public LongEventInfo(long start, long duration) {
 		this.start = start;
@@ -17,7 +17,18 @@ package com.simonscholz.monitoring;
 import org.eclipse.osgi.util.NLS;
 
 final class Messages extends NLS {
+	public static String DefaultUiFreezeEventLogger_blocking_chain_1;
+	public static String DefaultUiFreezeEventLogger_blocking_chain_lock_1;
+	public static String DefaultUiFreezeEventLogger_blocking_chain_thread_2;
+	public static String DefaultUiFreezeEventLogger_cut_frames_1;
+	public static String DefaultUiFreezeEventLogger_deadlock_chain_1;
+	public static String DefaultUiFreezeEventLogger_elided_frames_2;
+	public static String DefaultUiFreezeEventLogger_gc_pauses_4;
+	public static String DefaultUiFreezeEventLogger_gc_pauses_mostly_4;
 	public static String DefaultUiFreezeEventLogger_holding_1;
+	public static String DefaultUiFreezeEventLogger_monitor_overhead_1;
+	public static String DefaultUiFreezeEventLogger_monitor_overhead_throttled_2;
+	public static String DefaultUiFreezeEventLogger_repeated_freezes_5;
 	public static String DefaultUiFreezeEventLogger_sample_header_2;
 	public static String DefaultUiFreezeEventLogger_stack_trace_header;
 	public static String DefaultUiFreezeEventLogger_starved_awake_and_asleep;
@@ -31,17 +42,31 @@ final class Messages extends NLS {
 	public static String DefaultUiFreezeEventLogger_waiting_for_with_lock_owner_3;
 	public static String EventLoopMonitorThread_deadlock_error_1;
 	public static String EventLoopMonitorThread_deadlock_threshold_too_low_error_2;
+	public static String EventLoopMonitorThread_dispatch_queue_capacity_error_1;
 	public static String EventLoopMonitorThread_display_was_null;
 	public static String EventLoopMonitorThread_error_threshold_too_low_error_2;
 	public static String EventLoopMonitorThread_external_exception_error_1;
 	public static String EventLoopMonitorThread_invalid_argument_error_1;
 	public static String EventLoopMonitorThread_invalid_logger_type_error_4;
 	public static String EventLoopMonitorThread_logging_disabled_error;
+	public static String EventLoopMonitorThread_monitor_overhead_budget_error_1;
+	public static String EventLoopMonitorThread_profiling_max_methods_error_1;
+	public static String EventLoopMonitorThread_profiling_overhead_budget_error_1;
+	public static String EventLoopMonitorThread_profiling_sample_rate_error_1;
+	public static String EventLoopMonitorThread_repeated_freeze_summary_interval_error_1;
+	public static String EventLoopMonitorThread_stack_bottom_frames_error_1;
+	public static String EventLoopMonitorThread_thread_capture_depth_error_1;
+	public static String EventLoopMonitorThread_ui_thread_stack_depth_error_1;
 	public static String EventLoopMonitorThread_warning_threshold_error_1;
 	public static String EventLoopMonitorThread_max_event_loop_depth_exceeded_1;
 	public static String EventLoopMonitorThread_workbench_was_null;
 	public static String FilterHandler_missing_thread_error;
+	public static String FreezeMonitorStatistics_registration_error_1;
+	public static String FreezeUploadConsumer_batch_rejected_2;
+	public static String FreezeUploadConsumer_invalid_url_error_1;
+	public static String FreezeUploadConsumer_spool_budget_exceeded_1;
 	public static String MonitoringStartup_initialization_error;
+	public static String MonitoringStartup_update_error;
 
 	private Messages() {
 		// Do not instantiate.
@@ -1,5 +1,8 @@
 package com.simonscholz.monitoring;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 import org.eclipse.core.runtime.ILog;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
@@ -9,10 +12,14 @@ import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.swt.widgets.Display;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.FrameworkUtil;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 
 import com.simonscholz.monitoring.EventLoopMonitorThread.Parameters;
+import com.simonscholz.services.monitoring.DispatchLatencyStats;
 import com.simonscholz.services.monitoring.FreezeMonitorService;
+import com.simonscholz.services.monitoring.HotMethodProfile;
 import com.simonscholz.services.monitoring.PreferenceConstants;
 
 /**
@@ -25,6 +32,22 @@ public class MonitoringSerivceImpl implements FreezeMonitorService {
 	private IEclipsePreferences eclipsePreferences;
 	private EventLoopMonitorThread monitoringThread;
 	private boolean monitorThreadRestartInProgress;
+	/** Set if a changed preference cannot be adopted by the running monitoring thread. */
+	private boolean monitorThreadRestartRequired;
+	/** The displays monitored in addition to the display of the monitoring thread. */
+	private final Set<Display> additionalDisplays = new LinkedHashSet<>();
+	/** The counters of all monitoring threads started by this service. */
+	private final FreezeMonitorStatistics statistics = new FreezeMonitorStatistics();
+
+	@Activate
+	void activate() {
+		statistics.register();
+	}
+
+	@Deactivate
+	void deactivate() {
+		statistics.unregister();
+	}
 
 	/**
 	 * Creates and starts a new monitoring thread.
@@ -34,7 +57,7 @@ public class MonitoringSerivceImpl implements FreezeMonitorService {
 		EventLoopMonitorThread temporaryThread = null;
 
 		try {
-			temporaryThread = new EventLoopMonitorThread(args, display);
+			temporaryThread = new EventLoopMonitorThread(args, display, statistics);
 		} catch (IllegalArgumentException e) {
 			Bundle bundle = FrameworkUtil.getBundle(getClass());
 			ILog log = Platform.getLog(bundle);
@@ -43,6 +66,15 @@ public class MonitoringSerivceImpl implements FreezeMonitorService {
 		}
 
 		monitoringThread = temporaryThread;
+		if (monitoringThread != null) {
+			synchronized (this) {
+				for (Display additionalDisplay : additionalDisplays) {
+					if (additionalDisplay != display && !additionalDisplay.isDisposed()) {
+						monitoringThread.addDisplay(additionalDisplay);
+					}
+				}
+			}
+		}
 		// Final setup and start asynchronously on the display thread.
 		display.asyncExec(() -> {
 			// If we're still running when display gets disposed, shutdown the thread.
@@ -69,29 +101,50 @@ public class MonitoringSerivceImpl implements FreezeMonitorService {
 		this.eclipsePreferences = eclipsePreferences;
 		eclipsePreferences.addPreferenceChangeListener(event -> {
 			String key = event.getKey();
-			restartMonitoringThread(PreferenceConstants.MONITORING_ENABLED.equals(event.getKey())
-					&& Boolean.TRUE.equals(event.getNewValue()), display, key);
+			restartMonitoringThread(eclipsePreferences.getBoolean(PreferenceConstants.MONITORING_ENABLED, false),
+					display, key);
 		});
 		restartMonitoringThread(
 				eclipsePreferences.getBoolean(PreferenceConstants.MONITORING_ENABLED, false),
 				display, PreferenceConstants.MONITORING_ENABLED);
 	}
 
+	@Override
+	public synchronized void addDisplay(Display display) {
+		if (!additionalDisplays.add(display)) {
+			return;
+		}
+		// Stop monitoring the display when it is disposed.
+		display.asyncExec(() -> display.disposeExec(() -> removeDisplay(display)));
+		if (monitoringThread != null) {
+			monitoringThread.addDisplay(display);
+		}
+	}
+
+	private synchronized void removeDisplay(Display display) {
+		additionalDisplays.remove(display);
+		if (monitoringThread != null) {
+			monitoringThread.removeDisplay(display);
+		}
+	}
+
 	private void restartMonitoringThread(boolean isMonitoringEnabled, Display display, String key) {
 		if (!isPreferenceChangeRelevant(key)) {
 			return;
 		}
 
 		synchronized (this) {
+			if (!isPreferenceChangeLive(key)) {
+				monitorThreadRestartRequired = true;
+			}
 			if (monitorThreadRestartInProgress) {
 				return;
 			}
 
 			monitorThreadRestartInProgress = true;
 
-			// Schedule the event to restart the thread after all preferences have had
-			// enough time
-			// to propagate.
+			// Schedule the event to restart or update the thread after all preferences
+			// have had enough time to propagate.
 			display.asyncExec(() -> refreshMonitoringThread(display, isMonitoringEnabled));
 		}
 	}
@@ -134,13 +187,45 @@ public class MonitoringSerivceImpl implements FreezeMonitorService {
 
 		args.longEventWarningThreshold = eclipsePreferences
 				.getInt(PreferenceConstants.LONG_EVENT_WARNING_THRESHOLD_MILLIS, 500);
+		args.longEventWarningThresholdMicros = eclipsePreferences
+				.getInt(PreferenceConstants.LONG_EVENT_WARNING_THRESHOLD_MICROS, 0);
 		args.longEventErrorThreshold = eclipsePreferences.getInt(PreferenceConstants.LONG_EVENT_ERROR_THRESHOLD_MILLIS,
 				2000);
+		args.monotonicClock = eclipsePreferences.getBoolean(PreferenceConstants.MONOTONIC_CLOCK, false);
 		args.deadlockThreshold = eclipsePreferences.getInt(PreferenceConstants.DEADLOCK_REPORTING_THRESHOLD_MILLIS,
 				300000);
 		args.maxStackSamples = eclipsePreferences.getInt(PreferenceConstants.MAX_STACK_SAMPLES, 3);
+		args.dispatchQueueCapacity = eclipsePreferences.getInt(PreferenceConstants.DISPATCH_QUEUE_CAPACITY,
+				args.dispatchQueueCapacity);
+		args.dispatchOverflowPolicy = FreezeEventDispatcher.OverflowPolicy.fromPreference(
+				eclipsePreferences.get(PreferenceConstants.DISPATCH_OVERFLOW_POLICY, null),
+				args.dispatchOverflowPolicy);
+		args.profilingEnabled = eclipsePreferences.getBoolean(PreferenceConstants.PROFILING_ENABLED, false);
+		args.profilingSampleRate = eclipsePreferences.getInt(PreferenceConstants.PROFILING_SAMPLE_RATE,
+				args.profilingSampleRate);
+		args.profilingMaxMethods = eclipsePreferences.getInt(PreferenceConstants.PROFILING_MAX_METHODS,
+				args.profilingMaxMethods);
+		args.profilingOverheadBudgetPercent = eclipsePreferences
+				.getInt(PreferenceConstants.PROFILING_OVERHEAD_BUDGET_PERCENT, args.profilingOverheadBudgetPercent);
+		args.monitorOverheadBudgetPercent = eclipsePreferences
+				.getInt(PreferenceConstants.MONITOR_OVERHEAD_BUDGET_PERCENT, args.monitorOverheadBudgetPercent);
+		args.dispatchLatencyHistogramsEnabled = eclipsePreferences
+				.getBoolean(PreferenceConstants.DISPATCH_LATENCY_HISTOGRAMS_ENABLED, false);
+		args.targetedThreadCapture = eclipsePreferences.getBoolean(PreferenceConstants.TARGETED_THREAD_CAPTURE, false);
+		args.threadCaptureAllowList = eclipsePreferences.get(PreferenceConstants.THREAD_CAPTURE_ALLOW_LIST,
+				args.threadCaptureAllowList);
+		args.threadCaptureMaxDepth = eclipsePreferences.getInt(PreferenceConstants.THREAD_CAPTURE_MAX_DEPTH,
+				args.threadCaptureMaxDepth);
+		args.uiThreadMaxStackDepth = eclipsePreferences.getInt(PreferenceConstants.UI_THREAD_MAX_STACK_DEPTH,
+				args.uiThreadMaxStackDepth);
+		args.stackBottomFrames = eclipsePreferences.getInt(PreferenceConstants.STACK_BOTTOM_FRAMES,
+				args.stackBottomFrames);
+		args.gcCorrelationEnabled = eclipsePreferences.getBoolean(PreferenceConstants.GC_CORRELATION_ENABLED,
+				args.gcCorrelationEnabled);
 		args.uiThreadFilter = eclipsePreferences.get(PreferenceConstants.UI_THREAD_FILTER, "");
 		args.logToErrorLog = eclipsePreferences.getBoolean(PreferenceConstants.LOG_TO_ERROR_LOG, true);
+		args.repeatedFreezeSummaryInterval = eclipsePreferences.getLong(
+				PreferenceConstants.REPEATED_FREEZE_SUMMARY_INTERVAL_MILLIS, args.repeatedFreezeSummaryInterval);
 		args.noninterestingThreadFilter = eclipsePreferences.get(PreferenceConstants.NONINTERESTING_THREAD_FILTER,
 				"java.*" //$NON-NLS-1$
 						+ ",sun.*" //$NON-NLS-1$
@@ -160,17 +245,86 @@ public class MonitoringSerivceImpl implements FreezeMonitorService {
 
 		args.longEventWarningThreshold = preferenceStore
 				.getInt(PreferenceConstants.LONG_EVENT_WARNING_THRESHOLD_MILLIS);
+		args.longEventWarningThresholdMicros = preferenceStore
+				.getInt(PreferenceConstants.LONG_EVENT_WARNING_THRESHOLD_MICROS);
 		args.longEventErrorThreshold = preferenceStore.getInt(PreferenceConstants.LONG_EVENT_ERROR_THRESHOLD_MILLIS);
+		args.monotonicClock = preferenceStore.getBoolean(PreferenceConstants.MONOTONIC_CLOCK);
 		args.deadlockThreshold = preferenceStore.getInt(PreferenceConstants.DEADLOCK_REPORTING_THRESHOLD_MILLIS);
 		args.maxStackSamples = preferenceStore.getInt(PreferenceConstants.MAX_STACK_SAMPLES);
 		args.uiThreadFilter = preferenceStore.getString(PreferenceConstants.UI_THREAD_FILTER);
 		args.noninterestingThreadFilter = preferenceStore.getString(PreferenceConstants.NONINTERESTING_THREAD_FILTER);
 		args.logToErrorLog = preferenceStore.getBoolean(PreferenceConstants.LOG_TO_ERROR_LOG);
+		if (preferenceStore.contains(PreferenceConstants.REPEATED_FREEZE_SUMMARY_INTERVAL_MILLIS)) {
+			args.repeatedFreezeSummaryInterval = preferenceStore
+					.getLong(PreferenceConstants.REPEATED_FREEZE_SUMMARY_INTERVAL_MILLIS);
+		}
+		if (preferenceStore.contains(PreferenceConstants.DISPATCH_QUEUE_CAPACITY)) {
+			args.dispatchQueueCapacity = preferenceStore.getInt(PreferenceConstants.DISPATCH_QUEUE_CAPACITY);
+		}
+		args.dispatchOverflowPolicy = FreezeEventDispatcher.OverflowPolicy.fromPreference(
+				preferenceStore.getString(PreferenceConstants.DISPATCH_OVERFLOW_POLICY), args.dispatchOverflowPolicy);
+		args.profilingEnabled = preferenceStore.getBoolean(PreferenceConstants.PROFILING_ENABLED);
+		args.dispatchLatencyHistogramsEnabled = preferenceStore
+				.getBoolean(PreferenceConstants.DISPATCH_LATENCY_HISTOGRAMS_ENABLED);
+		args.targetedThreadCapture = preferenceStore.getBoolean(PreferenceConstants.TARGETED_THREAD_CAPTURE);
+		args.threadCaptureAllowList = preferenceStore.getString(PreferenceConstants.THREAD_CAPTURE_ALLOW_LIST);
+		if (preferenceStore.contains(PreferenceConstants.THREAD_CAPTURE_MAX_DEPTH)) {
+			args.threadCaptureMaxDepth = preferenceStore.getInt(PreferenceConstants.THREAD_CAPTURE_MAX_DEPTH);
+		}
+		if (preferenceStore.contains(PreferenceConstants.UI_THREAD_MAX_STACK_DEPTH)) {
+			args.uiThreadMaxStackDepth = preferenceStore.getInt(PreferenceConstants.UI_THREAD_MAX_STACK_DEPTH);
+		}
+		if (preferenceStore.contains(PreferenceConstants.STACK_BOTTOM_FRAMES)) {
+			args.stackBottomFrames = preferenceStore.getInt(PreferenceConstants.STACK_BOTTOM_FRAMES);
+		}
+		if (preferenceStore.contains(PreferenceConstants.PROFILING_SAMPLE_RATE)) {
+			args.profilingSampleRate = preferenceStore.getInt(PreferenceConstants.PROFILING_SAMPLE_RATE);
+		}
+		if (preferenceStore.contains(PreferenceConstants.PROFILING_MAX_METHODS)) {
+			args.profilingMaxMethods = preferenceStore.getInt(PreferenceConstants.PROFILING_MAX_METHODS);
+		}
+		if (preferenceStore.contains(PreferenceConstants.PROFILING_OVERHEAD_BUDGET_PERCENT)) {
+			args.profilingOverheadBudgetPercent = preferenceStore
+					.getInt(PreferenceConstants.PROFILING_OVERHEAD_BUDGET_PERCENT);
+		}
+		if (preferenceStore.contains(PreferenceConstants.MONITOR_OVERHEAD_BUDGET_PERCENT)) {
+			args.monitorOverheadBudgetPercent = preferenceStore
+					.getInt(PreferenceConstants.MONITOR_OVERHEAD_BUDGET_PERCENT);
+		}
+		if (preferenceStore.contains(PreferenceConstants.GC_CORRELATION_ENABLED)) {
+			args.gcCorrelationEnabled = preferenceStore.getBoolean(PreferenceConstants.GC_CORRELATION_ENABLED);
+		}
 
 		return args;
 	}
 
+	@Override
+	public synchronized HotMethodProfile getHotMethodProfile() {
+		EventLoopMonitorThread thread = monitoringThread;
+		return thread == null ? null : thread.getHotMethodProfile();
+	}
+
+	@Override
+	public synchronized DispatchLatencyStats[] getDispatchLatencyStats() {
+		EventLoopMonitorThread thread = monitoringThread;
+		return thread == null ? null : thread.getDispatchLatencyStats();
+	}
+
+	@Override
+	public synchronized DispatchLatencyStats getDispatchLatencyStats(int eventType) {
+		EventLoopMonitorThread thread = monitoringThread;
+		return thread == null ? null : thread.getDispatchLatencyStats(eventType);
+	}
+
 	private synchronized void refreshMonitoringThread(Display display, boolean isMonitoringEnabled) {
+		if (!monitorThreadRestartRequired && monitoringThread != null) {
+			// Only preferences the running thread can adopt have changed, keep the freeze in progress.
+			monitorThreadRestartInProgress = false;
+			updateMonitoringThread();
+			return;
+		}
+		monitorThreadRestartRequired = false;
+
 		if (monitoringThread != null) {
 			monitoringThread.shutdown();
 			monitoringThread = null;
@@ -182,13 +336,61 @@ public class MonitoringSerivceImpl implements FreezeMonitorService {
 		}
 	}
 
+	private void updateMonitoringThread() {
+		try {
+			monitoringThread.updateParameters(loadPreferences());
+		} catch (IllegalArgumentException e) {
+			Bundle bundle = FrameworkUtil.getBundle(getClass());
+			ILog log = Platform.getLog(bundle);
+			log.log(new Status(IStatus.ERROR, bundle.getSymbolicName(), Messages.MonitoringStartup_update_error, e));
+		}
+	}
+
+	/**
+	 * Returns {@code true} if a change of the preference is adopted by the running
+	 * monitoring thread without restarting it.
+	 *
+	 * @see EventLoopMonitorThread#updateParameters(Parameters)
+	 */
+	private boolean isPreferenceChangeLive(String key) {
+		return key.equals(PreferenceConstants.DEADLOCK_REPORTING_THRESHOLD_MILLIS)
+				|| key.equals(PreferenceConstants.LONG_EVENT_ERROR_THRESHOLD_MILLIS)
+				|| key.equals(PreferenceConstants.LONG_EVENT_WARNING_THRESHOLD_MILLIS)
+				|| key.equals(PreferenceConstants.LONG_EVENT_WARNING_THRESHOLD_MICROS)
+				|| key.equals(PreferenceConstants.MAX_STACK_SAMPLES)
+				|| key.equals(PreferenceConstants.UI_THREAD_MAX_STACK_DEPTH)
+				|| key.equals(PreferenceConstants.THREAD_CAPTURE_MAX_DEPTH)
+				|| key.equals(PreferenceConstants.STACK_BOTTOM_FRAMES)
+				|| key.equals(PreferenceConstants.MONITOR_OVERHEAD_BUDGET_PERCENT)
+				|| key.equals(PreferenceConstants.REPEATED_FREEZE_SUMMARY_INTERVAL_MILLIS)
+				|| key.equals(PreferenceConstants.UI_THREAD_FILTER)
+				|| key.equals(PreferenceConstants.NONINTERESTING_THREAD_FILTER);
+	}
+
 	private boolean isPreferenceChangeRelevant(String key) {
 		return key.equals(PreferenceConstants.MONITORING_ENABLED)
 				|| key.equals(PreferenceConstants.DEADLOCK_REPORTING_THRESHOLD_MILLIS)
 				|| key.equals(PreferenceConstants.LONG_EVENT_ERROR_THRESHOLD_MILLIS)
 				|| key.equals(PreferenceConstants.LONG_EVENT_WARNING_THRESHOLD_MILLIS)
+				|| key.equals(PreferenceConstants.LONG_EVENT_WARNING_THRESHOLD_MICROS)
+				|| key.equals(PreferenceConstants.MONOTONIC_CLOCK)
 				|| key.equals(PreferenceConstants.LOG_TO_ERROR_LOG) || key.equals(PreferenceConstants.MAX_STACK_SAMPLES)
 				|| key.equals(PreferenceConstants.UI_THREAD_FILTER)
-				|| key.equals(PreferenceConstants.NONINTERESTING_THREAD_FILTER);
+				|| key.equals(PreferenceConstants.NONINTERESTING_THREAD_FILTER)
+				|| key.equals(PreferenceConstants.DISPATCH_QUEUE_CAPACITY)
+				|| key.equals(PreferenceConstants.DISPATCH_OVERFLOW_POLICY)
+				|| key.equals(PreferenceConstants.PROFILING_ENABLED)
+				|| key.equals(PreferenceConstants.PROFILING_SAMPLE_RATE)
+				|| key.equals(PreferenceConstants.PROFILING_MAX_METHODS)
+				|| key.equals(PreferenceConstants.PROFILING_OVERHEAD_BUDGET_PERCENT)
+				|| key.equals(PreferenceConstants.MONITOR_OVERHEAD_BUDGET_PERCENT)
+				|| key.equals(PreferenceConstants.REPEATED_FREEZE_SUMMARY_INTERVAL_MILLIS)
+				|| key.equals(PreferenceConstants.DISPATCH_LATENCY_HISTOGRAMS_ENABLED)
+				|| key.equals(PreferenceConstants.TARGETED_THREAD_CAPTURE)
+				|| key.equals(PreferenceConstants.THREAD_CAPTURE_ALLOW_LIST)
+				|| key.equals(PreferenceConstants.THREAD_CAPTURE_MAX_DEPTH)
+				|| key.equals(PreferenceConstants.UI_THREAD_MAX_STACK_DEPTH)
+				|| key.equals(PreferenceConstants.STACK_BOTTOM_FRAMES)
+				|| key.equals(PreferenceConstants.GC_CORRELATION_ENABLED);
 	}
 }
@@ -0,0 +1,188 @@
+package com.simonscholz.monitoring;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.simonscholz.services.monitoring.StackSample;
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Recognizes repeated UI freezes by the signature of the stack of the UI
+ * thread, so that a freeze recurring on every scroll or repaint is logged in
+ * full only once per summary interval.
+ * <p>
+ * The signature consists of the class and method names of the top
+ * {@link #SIGNATURE_FRAMES} application frames of the UI thread in the first
+ * stack sample of the freeze. Frames of the JDK and of SWT are skipped unless
+ * the stack has no other frames, and line numbers are ignored, so freezes in
+ * the same handler share their signature. The most recently seen
+ * {@link #CAPACITY} signatures are remembered.
+ * </p>
+ * <p>
+ * The first freeze of a signature is logged in full. Repeats within the
+ * summary interval are only counted and reported by a {@link Summary} once the
+ * interval has passed, or when the tracker is discarded. A signature whose
+ * interval passed without repeats is logged in full again.
+ * </p>
+ * <p>
+ * <strong>This class is not thread safe.</strong>
+ * </p>
+ */
+final class RepeatedFreezeTracker {
+	/** The number of application frames making up a signature. */
+	static final int SIGNATURE_FRAMES = 8;
+	/** The number of remembered signatures. */
+	static final int CAPACITY = 256;
+	private static final String[] FRAMEWORK_PACKAGES = { "java.", "javax.", "jdk.", "sun.", "com.sun.", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+			"org.eclipse.swt." }; //$NON-NLS-1$
+
+	/**
+	 * The repeats of a signature within a summary interval.
+	 */
+	static final class Summary {
+		final StackTraceElement topFrame;
+		final long sinceMillis;
+		final int count;
+		final long totalDurationNanos;
+		final long maxDurationNanos;
+
+		Summary(StackTraceElement topFrame, long sinceMillis, int count, long totalDurationNanos,
+				long maxDurationNanos) {
+			this.topFrame = topFrame;
+			this.sinceMillis = sinceMillis;
+			this.count = count;
+			this.totalDurationNanos = totalDurationNanos;
+			this.maxDurationNanos = maxDurationNanos;
+		}
+	}
+
+	private static final class Signature {
+		final StackTraceElement topFrame;
+		long intervalStart;
+		int count;
+		long totalDurationNanos;
+		long maxDurationNanos;
+
+		Signature(StackTraceElement topFrame, long intervalStart) {
+			this.topFrame = topFrame;
+			this.intervalStart = intervalStart;
+		}
+
+		Summary summarize(long nowMillis) {
+			Summary summary = new Summary(topFrame, intervalStart, count, totalDurationNanos, maxDurationNanos);
+			intervalStart = nowMillis;
+			count = 0;
+			totalDurationNanos = 0;
+			maxDurationNanos = 0;
+			return summary;
+		}
+	}
+
+	private final List<Summary> evicted = new ArrayList<>();
+	private final Map<String, Signature> signatures = new LinkedHashMap<String, Signature>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Signature> eldest) {
+			if (size() <= CAPACITY) {
+				return false;
+			}
+			if (eldest.getValue().count != 0) {
+				evicted.add(eldest.getValue().summarize(0));
+			}
+			return true;
+		}
+	};
+	private final StringBuilder signatureBuilder = new StringBuilder();
+
+	/**
+	 * Records a freeze.
+	 *
+	 * @param event          the freeze
+	 * @param nowMillis      the current time in milliseconds
+	 * @param intervalMillis the summary interval in milliseconds
+	 * @return {@code true} if the freeze should be logged in full, {@code false}
+	 *         if it is a repeat that is reported by a summary
+	 */
+	boolean record(UiFreezeEvent event, long nowMillis, long intervalMillis) {
+		StackSample[] samples = event.getStackTraceSamples();
+		if (event.isStillRunning() || samples.length == 0) {
+			return true; // Potential deadlocks and starvation are always worth a look.
+		}
+		StackTraceElement[] stack = samples[0].getThreadSnapshots()[0].getStackTrace();
+		int top = firstApplicationFrame(stack);
+		String signature = getSignature(stack, top);
+		Signature entry = signatures.get(signature);
+		if (entry == null || (entry.count == 0 && nowMillis - entry.intervalStart >= intervalMillis)) {
+			signatures.put(signature, new Signature(top < stack.length ? stack[top] : null, nowMillis));
+			return true;
+		}
+		entry.count++;
+		entry.totalDurationNanos += event.getTotalDurationNanos();
+		entry.maxDurationNanos = Math.max(entry.maxDurationNanos, event.getTotalDurationNanos());
+		return false;
+	}
+
+	/**
+	 * Adds the summaries of the signatures whose summary interval has passed with
+	 * repeats to the given list, as well as the summaries of forgotten signatures
+	 * with repeats.
+	 */
+	void collectDueSummaries(long nowMillis, long intervalMillis, List<Summary> summaries) {
+		summaries.addAll(evicted);
+		evicted.clear();
+		for (Signature entry : signatures.values()) {
+			if (entry.count != 0 && nowMillis - entry.intervalStart >= intervalMillis) {
+				summaries.add(entry.summarize(nowMillis));
+			}
+		}
+	}
+
+	/**
+	 * Adds the summaries of all signatures with repeats to the given list,
+	 * regardless of their summary interval. Called when the tracker is
+	 * discarded.
+	 */
+	void collectAllSummaries(long nowMillis, List<Summary> summaries) {
+		summaries.addAll(evicted);
+		evicted.clear();
+		for (Signature entry : signatures.values()) {
+			if (entry.count != 0) {
+				summaries.add(entry.summarize(nowMillis));
+			}
+		}
+	}
+
+	private String getSignature(StackTraceElement[] stack, int top) {
+		StringBuilder buf = signatureBuilder;
+		buf.setLength(0);
+		for (int i = top; i < stack.length && i < top + SIGNATURE_FRAMES; i++) {
+			buf.append(stack[i].getClassName()).append('.').append(stack[i].getMethodName()).append('\n');
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Returns the index of the first frame that is neither in the JDK nor in SWT,
+	 * or 0 if there is no such frame.
+	 */
+	private static int firstApplicationFrame(StackTraceElement[] stack) {
+		for (int i = 0; i < stack.length; i++) {
+			if (!isFrameworkClass(stack[i].getClassName())) {
+				return i;
+			}
+		}
+		return 0;
+	}
+
+	private static boolean isFrameworkClass(String className) {
+		for (String prefix : FRAMEWORK_PACKAGES) {
+			if (className.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,144 @@
+package com.simonscholz.monitoring;
+
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.simonscholz.services.monitoring.MonitorOverhead.Throttle;
+
+/**
+ * Keeps the CPU time of the monitoring thread within a budget by reducing the
+ * work of stack sampling, which grows with the number of threads.
+ * <p>
+ * The CPU time of the monitoring thread is measured once per polling cycle and
+ * compared with the budget over windows of {@link #WINDOW} elapsed time. If a
+ * window exceeds the budget, the throttle is raised by one level: first stack
+ * samples are taken less often, then only the UI threads are captured, finally
+ * their stacks are truncated. A burst of expensive cycles raises the throttle
+ * as soon as it used up the budget of a whole window. The throttle is lowered
+ * by one level after a window that used less than half of the budget.
+ * </p>
+ * <p>
+ * If the virtual machine does not measure thread CPU time, the time the
+ * monitoring thread is awake is used instead, which overestimates the CPU
+ * time.
+ * </p>
+ * <p>
+ * <strong>This class is not thread safe.</strong>
+ * </p>
+ */
+final class SamplingThrottle {
+	/** The time over which the CPU time is compared with the budget. */
+	static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+	/** The factor applied to the sample interval while the sample rate is reduced. */
+	static final int SAMPLE_INTERVAL_FACTOR = 4;
+	/** The maximum number of captured frames while the stack depth is reduced. */
+	static final int REDUCED_STACK_DEPTH = 32;
+	private static final Throttle[] LEVELS = Throttle.values();
+
+	private final ThreadMXBean threadMXBean;
+	private final LongSupplier clock;
+	private final boolean cpuTimeEnabled;
+	private long lastCpuTime;
+	private long workStart;
+	private long windowStart;
+	private long windowCpuTime;
+	private long totalCpuTime;
+	private int level;
+
+	/**
+	 * Must be created on the monitoring thread.
+	 *
+	 * @param threadMXBean measures the CPU time of the monitoring thread
+	 * @param clock        the monotonic time in nanoseconds
+	 */
+	SamplingThrottle(ThreadMXBean threadMXBean, LongSupplier clock) {
+		this.threadMXBean = threadMXBean;
+		this.clock = clock;
+		cpuTimeEnabled = threadMXBean.isCurrentThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled();
+		lastCpuTime = cpuTimeEnabled ? threadMXBean.getCurrentThreadCpuTime() : 0;
+		windowStart = clock.getAsLong();
+	}
+
+	/**
+	 * Called when the monitoring thread wakes up for a polling cycle.
+	 */
+	void workStarted() {
+		workStart = clock.getAsLong();
+	}
+
+	/**
+	 * Called when the monitoring thread has captured the stack samples of a
+	 * polling cycle. Measures the cost of the cycle and adjusts the throttle.
+	 *
+	 * @param budgetPercent the maximum CPU time in percent of one core
+	 */
+	void workFinished(int budgetPercent) {
+		long now = clock.getAsLong();
+		long cost;
+		if (cpuTimeEnabled) {
+			long cpuTime = threadMXBean.getCurrentThreadCpuTime();
+			cost = cpuTime - lastCpuTime;
+			lastCpuTime = cpuTime;
+		} else {
+			cost = now - workStart;
+		}
+		totalCpuTime += cost;
+		windowCpuTime += cost;
+
+		long elapsed = now - windowStart;
+		if (windowCpuTime * 100 > WINDOW * budgetPercent) {
+			// Used up the budget of a whole window, don't wait for the window to end.
+			raise();
+		} else if (elapsed >= WINDOW) {
+			if (windowCpuTime * 100 > elapsed * budgetPercent) {
+				raise();
+			} else if (windowCpuTime * 200 < elapsed * budgetPercent && level > 0) {
+				level--;
+			}
+		} else {
+			return;
+		}
+		windowStart = now;
+		windowCpuTime = 0;
+	}
+
+	private void raise() {
+		if (level < LEVELS.length - 1) {
+			level++;
+		}
+	}
+
+	/**
+	 * Returns the CPU time the monitoring thread spent in the polling cycles
+	 * measured so far, in nanoseconds.
+	 */
+	long getCpuTime() {
+		return totalCpuTime;
+	}
+
+	Throttle getThrottle() {
+		return LEVELS[level];
+	}
+
+	/**
+	 * Returns the factor to apply to the interval between stack samples.
+	 */
+	int getSampleIntervalFactor() {
+		return level >= Throttle.REDUCED_SAMPLE_RATE.ordinal() ? SAMPLE_INTERVAL_FACTOR : 1;
+	}
+
+	/**
+	 * Returns {@code true} if only the stacks of the UI threads may be captured.
+	 */
+	boolean isUiThreadOnly() {
+		return level >= Throttle.UI_THREAD_ONLY.ordinal();
+	}
+
+	/**
+	 * Returns the maximum number of frames to capture of a UI thread.
+	 */
+	int getMaxStackDepth() {
+		return level >= Throttle.REDUCED_STACK_DEPTH.ordinal() ? REDUCED_STACK_DEPTH : Integer.MAX_VALUE;
+	}
+}
@@ -0,0 +1,85 @@
+package com.simonscholz.monitoring;
+
+/**
+ * Bounded cache of the verdicts of a filter on stack traces, keyed by a
+ * fingerprint of the class and method names of the frames and the stack depth.
+ * <p>
+ * Idle threads present the same stack in every sample, so the verdict for
+ * their stacks is computed once and then found with a single hash of the
+ * stack. The cache is direct-mapped: a fingerprint replaces the entry of
+ * another fingerprint mapping to the same slot. Line numbers are not part of
+ * the fingerprint since filters match class and method names only.
+ * </p>
+ * <p>
+ * Two stacks with equal fingerprints share their verdict. With 64-bit
+ * fingerprints this is unlikely enough to accept for diagnostic filtering.
+ * </p>
+ * <p>
+ * <strong>This class is not thread safe.</strong>
+ * </p>
+ */
+final class StackVerdictCache {
+	private static final long EMPTY = 0;
+
+	private final long[] fingerprints;
+	private final boolean[] verdicts;
+	private final int mask;
+
+	/**
+	 * @param capacity the number of cached verdicts, rounded up to a power of two
+	 */
+	StackVerdictCache(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		fingerprints = new long[size];
+		verdicts = new boolean[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Returns the initial fingerprint of a stack of the given depth. The seed
+	 * distinguishes the verdicts of different questions asked about a stack.
+	 */
+	static long start(long seed, int depth) {
+		return seed * 0x9E3779B97F4A7C15L + depth;
+	}
+
+	/**
+	 * Adds a frame to the fingerprint.
+	 */
+	static long add(long fingerprint, StackTraceElement frame) {
+		fingerprint = (fingerprint ^ frame.getClassName().hashCode()) * 0xC2B2AE3D27D4EB4FL;
+		fingerprint = (fingerprint ^ frame.getMethodName().hashCode()) * 0x165667B19E3779F9L;
+		return Long.rotateLeft(fingerprint, 31);
+	}
+
+	/**
+	 * Returns the final fingerprint, which is never 0.
+	 */
+	static long finish(long fingerprint) {
+		fingerprint ^= fingerprint >>> 33;
+		fingerprint *= 0xFF51AFD7ED558CCDL;
+		fingerprint ^= fingerprint >>> 33;
+		return fingerprint == EMPTY ? 1 : fingerprint;
+	}
+
+	/**
+	 * Returns {@code true} if a verdict is cached for the fingerprint.
+	 */
+	boolean contains(long fingerprint) {
+		return fingerprints[(int) fingerprint & mask] == fingerprint;
+	}
+
+	/**
+	 * Returns the cached verdict for the fingerprint. Only valid if
+	 * {@link #contains(long)} returns {@code true}.
+	 */
+	boolean get(long fingerprint) {
+		return verdicts[(int) fingerprint & mask];
+	}
+
+	void put(long fingerprint, boolean verdict) {
+		int index = (int) fingerprint & mask;
+		fingerprints[index] = fingerprint;
+		verdicts[index] = verdict;
+	}
+}
@@ -0,0 +1,180 @@
+package com.simonscholz.monitoring;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Captures the stacks of the threads relevant to a UI freeze without
+ * {@link ThreadMXBean#dumpAllThreads(boolean, boolean) dumping all threads}.
+ * <p>
+ * The UI thread is captured first. If it is blocked on a lock, the owner of the
+ * lock is captured, then the owner of the lock the owner is blocked on, and so
+ * on. Threads whose names match the allow-list are captured as well. All
+ * threads but the UI thread are captured with a bounded stack depth.
+ * </p>
+ * <p>
+ * Only the requested threads are brought to a safepoint and walked, which
+ * keeps the capture cheap in applications with hundreds of threads. On Java 10
+ * and later the held monitors and synchronizers are captured too; on Java 8
+ * {@link ThreadMXBean} offers no way to combine them with a bounded depth.
+ * </p>
+ * <p>
+ * <strong>This class is not thread safe.</strong>
+ * </p>
+ */
+final class TargetedThreadCapture {
+	/** Limits the length of followed lock owner chains, which may be cyclic in a deadlock. */
+	private static final int MAX_LOCK_CHAIN_LENGTH = 16;
+	private static final long[] NO_IDS = new long[0];
+	private static final Method GET_THREAD_INFO_WITH_LOCKS = findGetThreadInfoWithLocks();
+
+	private final ThreadMXBean threadMXBean;
+	private final long uiThreadId;
+	private final long monitoringThreadId;
+	private final Pattern[] allowList;
+	private final boolean lockedMonitors;
+	private final boolean lockedSynchronizers;
+	private long[] allowListedThreadIds = NO_IDS;
+
+	/**
+	 * @param threadMXBean        the bean used to capture the threads
+	 * @param uiThreadId          the id of the UI thread
+	 * @param monitoringThreadId  the id of the monitoring thread, never captured
+	 * @param commaSeparatedNames comma separated names of threads to capture in
+	 *                            addition to the lock owners, may contain wildcard
+	 *                            characters '*' and '?'
+	 * @param lockedMonitors      whether to capture held monitors, if supported
+	 * @param lockedSynchronizers whether to capture held synchronizers, if
+	 *                            supported
+	 */
+	TargetedThreadCapture(ThreadMXBean threadMXBean, long uiThreadId, long monitoringThreadId,
+			String commaSeparatedNames, boolean lockedMonitors, boolean lockedSynchronizers) {
+		this.threadMXBean = threadMXBean;
+		this.uiThreadId = uiThreadId;
+		this.monitoringThreadId = monitoringThreadId;
+		this.lockedMonitors = lockedMonitors;
+		this.lockedSynchronizers = lockedSynchronizers;
+
+		List<Pattern> patterns = new ArrayList<>();
+		for (String name : commaSeparatedNames.split(",")) { //$NON-NLS-1$
+			name = name.trim();
+			if (!name.isEmpty()) {
+				patterns.add(FilterHandler.createPattern(name));
+			}
+		}
+		allowList = patterns.toArray(new Pattern[patterns.size()]);
+	}
+
+	/**
+	 * Resolves the names of the allow-list to thread ids. Walks no stacks, but
+	 * reads the names of all threads, so it is called once per freeze rather than
+	 * for every capture.
+	 */
+	void refreshAllowList() {
+		if (allowList.length == 0) {
+			return;
+		}
+		long[] threadIds = threadMXBean.getAllThreadIds();
+		ThreadInfo[] threads = threadMXBean.getThreadInfo(threadIds, 0);
+		long[] matches = new long[threads.length];
+		int count = 0;
+		for (ThreadInfo thread : threads) {
+			if (thread != null && thread.getThreadId() != uiThreadId && thread.getThreadId() != monitoringThreadId
+					&& isAllowListed(thread.getThreadName())) {
+				matches[count++] = thread.getThreadId();
+			}
+		}
+		allowListedThreadIds = Arrays.copyOf(matches, count);
+	}
+
+	/**
+	 * Captures the UI thread, the owners of the locks it is waiting for and the
+	 * allow-listed threads.
+	 *
+	 * @param uiThreadDepth the maximum stack depth of the UI thread
+	 * @param threadDepth   the maximum stack depth of the other threads
+	 * @return the captured threads, the UI thread first
+	 */
+	ThreadInfo[] capture(int uiThreadDepth, int threadDepth) {
+		Map<Long, ThreadInfo> captured = new LinkedHashMap<>();
+		long[] request = { uiThreadId };
+		int requestDepth = uiThreadDepth;
+		for (int round = 0; request.length != 0 && round <= MAX_LOCK_CHAIN_LENGTH; round++) {
+			long[] next = new long[request.length + (round == 0 ? allowListedThreadIds.length : 0)];
+			int nextCount = 0;
+			for (ThreadInfo thread : getThreadInfo(request, requestDepth)) {
+				if (thread == null) {
+					continue; // The thread has terminated.
+				}
+				captured.put(thread.getThreadId(), thread);
+				long ownerId = thread.getLockOwnerId();
+				if (ownerId != -1 && ownerId != monitoringThreadId && !captured.containsKey(ownerId)
+						&& !contains(next, nextCount, ownerId)) {
+					next[nextCount++] = ownerId;
+				}
+			}
+			if (round == 0) {
+				// The allow-listed threads are fetched together with the owner of the UI thread's lock.
+				for (long threadId : allowListedThreadIds) {
+					if (!captured.containsKey(threadId) && !contains(next, nextCount, threadId)) {
+						next[nextCount++] = threadId;
+					}
+				}
+			}
+			request = Arrays.copyOf(next, nextCount);
+			requestDepth = threadDepth;
+		}
+		return captured.values().toArray(new ThreadInfo[captured.size()]);
+	}
+
+	private ThreadInfo[] getThreadInfo(long[] threadIds, int depth) {
+		if (GET_THREAD_INFO_WITH_LOCKS != null && (lockedMonitors || lockedSynchronizers)) {
+			try {
+				return (ThreadInfo[]) GET_THREAD_INFO_WITH_LOCKS.invoke(threadMXBean, threadIds, lockedMonitors,
+						lockedSynchronizers, depth);
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				// Fall back to the variant without locks.
+			}
+		}
+		return threadMXBean.getThreadInfo(threadIds, depth);
+	}
+
+	private boolean isAllowListed(String threadName) {
+		for (Pattern pattern : allowList) {
+			if (pattern.matcher(threadName).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean contains(long[] array, int length, long value) {
+		for (int i = 0; i < length; i++) {
+			if (array[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns {@code ThreadMXBean.getThreadInfo(long[], boolean, boolean, int)},
+	 * which exists since Java 10, or {@code null}.
+	 */
+	private static Method findGetThreadInfoWithLocks() {
+		try {
+			return ThreadMXBean.class.getMethod("getThreadInfo", long[].class, boolean.class, boolean.class, //$NON-NLS-1$
+					int.class);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.simonscholz.monitoring;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.simonscholz.services.monitoring.HotMethodProfile;
+import com.simonscholz.services.monitoring.HotMethodProfile.HotMethod;
+
+/**
+ * Continuous low rate sampler of the UI thread. The monitoring thread calls
+ * {@link #busy(long)} while the UI thread dispatches events and
+ * {@link #idle()} while it sleeps, so samples are only taken while the UI
+ * thread is busy.
+ * <p>
+ * Each sample reads only the top frame of the UI thread and counts its method
+ * in a bounded histogram. Once the histogram is full, the least sampled method
+ * is replaced, keeping the frequently sampled methods. The time spent taking
+ * samples is measured, and the sample interval is stretched whenever the
+ * average cost of a sample would exceed the overhead budget.
+ * </p>
+ */
+class UiThreadProfiler {
+	private static final class Entry {
+		final String className;
+		final String methodName;
+		long count;
+
+		Entry(String className, String methodName, long count) {
+			this.className = className;
+			this.methodName = methodName;
+			this.count = count;
+		}
+	}
+
+	// Accessed only by the monitoring thread.
+	private final ThreadMXBean threadMXBean;
+	private final long uiThreadId;
+	private final long baseSampleInterval;
+	private final int overheadBudgetPercent;
+	private final int maxMethods;
+	private final StringBuilder keyBuilder = new StringBuilder();
+	private long averageSampleCost;
+	private long lastBusyTime;
+	private long nextSampleTime;
+
+	// Guarded by this, read by clients of the freeze monitor service.
+	private final Map<String, Entry> histogram = new HashMap<>();
+	private long sampleCount;
+	private long busyTime;
+	private long overhead;
+	private long sampleInterval;
+
+	/**
+	 * @param threadMXBean          the bean used to sample the UI thread
+	 * @param uiThreadId            the id of the UI thread
+	 * @param sampleInterval        the interval between samples in nanoseconds
+	 * @param maxMethods            the maximum number of methods in the histogram
+	 * @param overheadBudgetPercent the maximum share of the busy time of the UI
+	 *                              thread spent taking samples
+	 */
+	UiThreadProfiler(ThreadMXBean threadMXBean, long uiThreadId, long sampleInterval, int maxMethods,
+			int overheadBudgetPercent) {
+		this.threadMXBean = threadMXBean;
+		this.uiThreadId = uiThreadId;
+		this.baseSampleInterval = sampleInterval;
+		this.sampleInterval = sampleInterval;
+		this.maxMethods = maxMethods;
+		this.overheadBudgetPercent = overheadBudgetPercent;
+	}
+
+	/**
+	 * Returns the time of the next sample on the clock passed to
+	 * {@link #busy(long)}, or zero if the UI thread was idle when last observed.
+	 */
+	long getNextSampleTime() {
+		return lastBusyTime == 0 ? 0 : nextSampleTime;
+	}
+
+	/**
+	 * Called by the monitoring thread when it observes the UI thread dispatching
+	 * events. Takes a sample if it is due.
+	 *
+	 * @param currTime the current time in nanoseconds, always positive
+	 */
+	void busy(long currTime) {
+		long busyDelta = 0;
+		if (lastBusyTime == 0) {
+			// Wait for a full interval, short bursts of activity are not sampled.
+			nextSampleTime = currTime + sampleInterval;
+		} else {
+			busyDelta = currTime - lastBusyTime;
+		}
+		lastBusyTime = currTime;
+
+		if (currTime < nextSampleTime) {
+			synchronized (this) {
+				busyTime += busyDelta;
+			}
+			return;
+		}
+
+		long sampleStart = System.nanoTime();
+		ThreadInfo info = threadMXBean.getThreadInfo(uiThreadId, 1);
+		String key = null;
+		StackTraceElement frame = null;
+		if (info != null && info.getStackTrace().length != 0) {
+			frame = info.getStackTrace()[0];
+			keyBuilder.setLength(0);
+			key = keyBuilder.append(frame.getClassName()).append('.').append(frame.getMethodName()).toString();
+		}
+		long cost = System.nanoTime() - sampleStart;
+
+		// Exponential moving average, stretch the interval to keep the cost within the budget.
+		averageSampleCost = averageSampleCost == 0 ? cost : averageSampleCost + (cost - averageSampleCost) / 8;
+		long interval = Math.max(baseSampleInterval, averageSampleCost * 100 / overheadBudgetPercent);
+		nextSampleTime = currTime + interval;
+
+		synchronized (this) {
+			busyTime += busyDelta;
+			overhead += cost;
+			sampleInterval = interval;
+			if (key != null) {
+				sampleCount++;
+				count(key, frame);
+			}
+		}
+	}
+
+	/**
+	 * Called by the monitoring thread when it observes the UI thread sleeping.
+	 */
+	void idle() {
+		lastBusyTime = 0;
+	}
+
+	private void count(String key, StackTraceElement frame) {
+		Entry entry = histogram.get(key);
+		if (entry != null) {
+			entry.count++;
+			return;
+		}
+
+		long count = 1;
+		if (histogram.size() >= maxMethods) {
+			// Replace the least sampled method, inheriting its count as upper bound of the error.
+			Entry min = null;
+			for (Entry candidate : histogram.values()) {
+				if (min == null || candidate.count < min.count) {
+					min = candidate;
+				}
+			}
+			histogram.remove(min.className + '.' + min.methodName);
+			count += min.count;
+		}
+		histogram.put(key, new Entry(frame.getClassName(), frame.getMethodName(), count));
+	}
+
+	/**
+	 * Returns a snapshot of the histogram. May be called by any thread.
+	 */
+	synchronized HotMethodProfile getProfile() {
+		HotMethod[] hotMethods = new HotMethod[histogram.size()];
+		int i = 0;
+		for (Entry entry : histogram.values()) {
+			hotMethods[i++] = new HotMethod(entry.className, entry.methodName, entry.count);
+		}
+		Arrays.sort(hotMethods, (a, b) -> Long.compare(b.getSampleCount(), a.getSampleCount()));
+		return new HotMethodProfile(hotMethods, sampleCount, busyTime, overhead, sampleInterval);
+	}
+}
@@ -0,0 +1,136 @@
+package com.simonscholz.monitoring;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.simonscholz.services.monitoring.BlockingChain;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+
+/**
+ * Wait-for graph of the threads of a stack sample. A thread waits for another
+ * thread if it is blocked on or waiting for a lock owned by that thread.
+ * <p>
+ * The owner of a lock is taken from the lock owner reported for the waiting
+ * thread. If none is reported, the monitors and ownable synchronizers held by
+ * the captured threads are searched for the lock.
+ * </p>
+ */
+final class WaitForGraph {
+	/** Limits the length of the resolved chain. */
+	private static final int MAX_CHAIN_LENGTH = 64;
+	private static final long[] NO_IDS = new long[0];
+
+	private final Map<Long, ThreadSnapshot> threads = new HashMap<>();
+	private final Map<String, Long> lockOwners = new HashMap<>();
+
+	WaitForGraph(ThreadSnapshot[] snapshots) {
+		for (ThreadSnapshot thread : snapshots) {
+			threads.put(thread.getThreadId(), thread);
+			for (LockInfo lock : thread.getLockedMonitors()) {
+				lockOwners.put(lockKey(lock), thread.getThreadId());
+			}
+			for (LockInfo lock : thread.getLockedSynchronizers()) {
+				lockOwners.put(lockKey(lock), thread.getThreadId());
+			}
+		}
+	}
+
+	/**
+	 * Resolves the chain of threads the given thread waits for.
+	 *
+	 * @param threadId     the id of the first thread of the chain, usually the UI
+	 *                     thread
+	 * @param threadMXBean the bean asked to confirm a deadlock if the chain is
+	 *                     cyclic
+	 * @return the chain, or {@code null} if the thread does not wait for another
+	 *         thread
+	 */
+	BlockingChain resolveChain(long threadId, ThreadMXBean threadMXBean) {
+		ThreadSnapshot thread = threads.get(threadId);
+		if (thread == null || getOwnerId(thread) == -1) {
+			return null;
+		}
+
+		List<BlockingChain.Link> links = new ArrayList<>();
+		List<Long> chainIds = new ArrayList<>();
+		boolean cyclic = false;
+		while (links.size() < MAX_CHAIN_LENGTH) {
+			long ownerId = getOwnerId(thread);
+			chainIds.add(thread.getThreadId());
+			links.add(new BlockingChain.Link(thread.getThreadId(), thread.getThreadName(), thread,
+					ownerId == -1 ? null : thread.getLockInfo()));
+			if (ownerId == -1) {
+				break;
+			}
+			if (chainIds.contains(ownerId)) {
+				// Close the cycle by repeating the owner.
+				ThreadSnapshot owner = threads.get(ownerId);
+				links.add(new BlockingChain.Link(ownerId, owner.getThreadName(), owner, null));
+				cyclic = true;
+				break;
+			}
+			ThreadSnapshot owner = threads.get(ownerId);
+			if (owner == null) {
+				// The owner was not captured, only its name is known.
+				links.add(new BlockingChain.Link(ownerId, thread.getLockOwnerName(), null, null));
+				break;
+			}
+			thread = owner;
+		}
+
+		long[] deadlockedThreadIds = cyclic ? findDeadlockedThreads(threadMXBean, chainIds) : NO_IDS;
+		return new BlockingChain(links.toArray(new BlockingChain.Link[links.size()]), cyclic, deadlockedThreadIds);
+	}
+
+	/**
+	 * Returns the id of the thread owning the lock the given thread waits for, or
+	 * -1.
+	 */
+	private long getOwnerId(ThreadSnapshot thread) {
+		switch (thread.getThreadState()) {
+		case BLOCKED:
+		case WAITING:
+		case TIMED_WAITING:
+			break;
+		default:
+			return -1;
+		}
+		if (thread.getLockOwnerId() != -1) {
+			return thread.getLockOwnerId();
+		}
+		LockInfo lock = thread.getLockInfo();
+		if (lock == null) {
+			return -1;
+		}
+		Long ownerId = lockOwners.get(lockKey(lock));
+		return ownerId == null || ownerId == thread.getThreadId() ? -1 : ownerId;
+	}
+
+	/**
+	 * Asks the virtual machine which threads of the cyclic chain are deadlocked.
+	 */
+	private static long[] findDeadlockedThreads(ThreadMXBean threadMXBean, List<Long> chainIds) {
+		long[] deadlocked = threadMXBean.isSynchronizerUsageSupported() ? threadMXBean.findDeadlockedThreads()
+				: threadMXBean.findMonitorDeadlockedThreads();
+		if (deadlocked == null) {
+			return NO_IDS;
+		}
+		long[] result = new long[deadlocked.length];
+		int count = 0;
+		for (long threadId : deadlocked) {
+			if (chainIds.contains(threadId)) {
+				result[count++] = threadId;
+			}
+		}
+		return count == result.length ? result : Arrays.copyOf(result, count);
+	}
+
+	private static String lockKey(LockInfo lock) {
+		return lock.getClassName() + '@' + Integer.toHexString(lock.getIdentityHashCode());
+	}
+}
@@ -0,0 +1,154 @@
+package com.simonscholz.services.monitoring;
+
+import java.lang.management.LockInfo;
+
+/**
+ * The chain of threads the UI thread was waiting for at the end of a UI freeze:
+ * the UI thread, the owner of the lock it was waiting for, the owner of the lock
+ * that thread was waiting for, and so on.
+ * <p>
+ * The chain is resolved from the lock owners reported for the captured threads
+ * and from the monitors and synchronizers the captured threads held. If the
+ * chain leads back to one of its threads, the threads are checked for a
+ * deadlock.
+ * </p>
+ *
+ * @noextend This class is not intended to be subclassed by clients.
+ * @since 1.0
+ * @see UiFreezeEvent#getBlockingChain()
+ */
+public class BlockingChain {
+	/**
+	 * A thread of the chain and the lock it waits for.
+	 */
+	public static final class Link {
+		private final long threadId;
+		private final String threadName;
+		private final ThreadSnapshot thread;
+		private final LockInfo waitingFor;
+
+		/**
+		 * @param threadId   the id of the thread
+		 * @param threadName the name of the thread
+		 * @param thread     the captured snapshot of the thread, or {@code null} if
+		 *                   the thread was not captured
+		 * @param waitingFor the lock the thread waits for, or {@code null} for the
+		 *                   last link of the chain
+		 */
+		public Link(long threadId, String threadName, ThreadSnapshot thread, LockInfo waitingFor) {
+			this.threadId = threadId;
+			this.threadName = threadName;
+			this.thread = thread;
+			this.waitingFor = waitingFor;
+		}
+
+		/**
+		 * Returns the id of the thread.
+		 */
+		public long getThreadId() {
+			return threadId;
+		}
+
+		/**
+		 * Returns the name of the thread.
+		 */
+		public String getThreadName() {
+			return threadName;
+		}
+
+		/**
+		 * Returns the captured snapshot of the thread, or {@code null} if the thread
+		 * is known only as the owner of a lock.
+		 */
+		public ThreadSnapshot getThread() {
+			return thread;
+		}
+
+		/**
+		 * Returns the lock the thread waits for, which is owned by the thread of the
+		 * next link, or {@code null} if this is the last link.
+		 */
+		public LockInfo getWaitingFor() {
+			return waitingFor;
+		}
+	}
+
+	private final Link[] links;
+	private final boolean cyclic;
+	private final long[] deadlockedThreadIds;
+
+	/**
+	 * Creates a blocking chain.
+	 *
+	 * @param links               the links starting with the UI thread
+	 * @param cyclic              whether the chain leads back to one of its
+	 *                            threads
+	 * @param deadlockedThreadIds the ids of the threads of the chain confirmed to
+	 *                            be deadlocked, empty if there is no deadlock
+	 */
+	public BlockingChain(Link[] links, boolean cyclic, long[] deadlockedThreadIds) {
+		this.links = links;
+		this.cyclic = cyclic;
+		this.deadlockedThreadIds = deadlockedThreadIds;
+	}
+
+	/**
+	 * Returns the links of the chain, starting with the UI thread. A
+	 * {@link #isCyclic() cyclic} chain ends with the thread closing the cycle, which
+	 * also occurs earlier in the chain.
+	 */
+	public final Link[] getLinks() {
+		return links;
+	}
+
+	/**
+	 * Returns the last link of the chain. Unless the chain is {@link #isCyclic()
+	 * cyclic}, its thread is the root cause of the blocking.
+	 */
+	public final Link getRoot() {
+		return links[links.length - 1];
+	}
+
+	/**
+	 * Returns {@code true} if the chain leads back to one of its threads.
+	 */
+	public final boolean isCyclic() {
+		return cyclic;
+	}
+
+	/**
+	 * Returns {@code true} if threads of the chain are confirmed to be deadlocked.
+	 */
+	public final boolean isDeadlock() {
+		return deadlockedThreadIds.length != 0;
+	}
+
+	/**
+	 * Returns the ids of the threads of the chain that are confirmed to be
+	 * deadlocked.
+	 */
+	public final long[] getDeadlockedThreadIds() {
+		return deadlockedThreadIds;
+	}
+
+	/** For debugging only. */
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		for (Link link : links) {
+			if (buf.length() != 0) {
+				buf.append(" -> "); //$NON-NLS-1$
+			}
+			buf.append('"').append(link.getThreadName()).append("\" Id=").append(link.getThreadId()); //$NON-NLS-1$
+			if (link.getWaitingFor() != null) {
+				buf.append(" waiting for ").append(link.getWaitingFor()); //$NON-NLS-1$
+			}
+		}
+		if (isDeadlock()) {
+			buf.append(" (deadlock)"); //$NON-NLS-1$
+		} else if (cyclic) {
+			buf.append(" (cycle)"); //$NON-NLS-1$
+		}
+		return buf.toString();
+	}
+}
@@ -0,0 +1,93 @@
+package com.simonscholz.services.monitoring;
+
+/**
+ * Distribution of the dispatch durations of a single SWT event type, measured
+ * from {@code SWT.PreEvent} to the matching {@code SWT.PostEvent}. Durations of
+ * nested dispatches are included in the duration of the enclosing dispatch.
+ * <p>
+ * Percentiles are taken from a log-linear histogram and are accurate to about
+ * 12.5% of the value, with a resolution of one microsecond.
+ * </p>
+ *
+ * @noextend This class is not intended to be subclassed by clients.
+ * @since 1.0
+ * @see PreferenceConstants#DISPATCH_LATENCY_HISTOGRAMS_ENABLED
+ */
+public class DispatchLatencyStats {
+	private final int eventType;
+	private final long count;
+	private final long p50Nanos;
+	private final long p90Nanos;
+	private final long p99Nanos;
+	private final long maxNanos;
+
+	/**
+	 * Creates the statistics of an event type.
+	 *
+	 * @param eventType the SWT event type, see {@code org.eclipse.swt.SWT}
+	 * @param count     the number of recorded dispatches
+	 * @param p50Nanos  the median duration in nanoseconds
+	 * @param p90Nanos  the 90th percentile of the durations in nanoseconds
+	 * @param p99Nanos  the 99th percentile of the durations in nanoseconds
+	 * @param maxNanos  the longest duration in nanoseconds
+	 */
+	public DispatchLatencyStats(int eventType, long count, long p50Nanos, long p90Nanos, long p99Nanos,
+			long maxNanos) {
+		this.eventType = eventType;
+		this.count = count;
+		this.p50Nanos = p50Nanos;
+		this.p90Nanos = p90Nanos;
+		this.p99Nanos = p99Nanos;
+		this.maxNanos = maxNanos;
+	}
+
+	/**
+	 * Returns the SWT event type, for example {@code SWT.Paint}.
+	 */
+	public final int getEventType() {
+		return eventType;
+	}
+
+	/**
+	 * Returns the number of recorded dispatches.
+	 */
+	public final long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the median dispatch duration in nanoseconds.
+	 */
+	public final long getP50Nanos() {
+		return p50Nanos;
+	}
+
+	/**
+	 * Returns the 90th percentile of the dispatch durations in nanoseconds.
+	 */
+	public final long getP90Nanos() {
+		return p90Nanos;
+	}
+
+	/**
+	 * Returns the 99th percentile of the dispatch durations in nanoseconds.
+	 */
+	public final long getP99Nanos() {
+		return p99Nanos;
+	}
+
+	/**
+	 * Returns the longest dispatch duration in nanoseconds.
+	 */
+	public final long getMaxNanos() {
+		return maxNanos;
+	}
+
+	/** For debugging only. */
+	@Override
+	public String toString() {
+		return "Event " + eventType + ": count=" + count //$NON-NLS-1$ //$NON-NLS-2$
+				+ " p50=" + p50Nanos / 1000 + "us p90=" + p90Nanos / 1000 //$NON-NLS-1$ //$NON-NLS-2$
+				+ "us p99=" + p99Nanos / 1000 + "us max=" + maxNanos / 1000 + "us"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+}
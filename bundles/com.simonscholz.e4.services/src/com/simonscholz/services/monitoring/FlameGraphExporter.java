@@ -0,0 +1,21 @@
+package com.simonscholz.services.monitoring;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Aggregates the stack samples of the display thread over all UI freezes and
+ * exports them in the collapsed stack format ({@code frame;frame;frame count})
+ * understood by flame graph tools.
+ */
+public interface FlameGraphExporter {
+
+	/**
+	 * Writes the stacks aggregated since the last rotation to the file of the
+	 * current rotation period, replacing previous dumps of the same period.
+	 *
+	 * @return the written file
+	 * @throws IOException if the file cannot be written
+	 */
+	File dumpFoldedStacks() throws IOException;
+}
@@ -0,0 +1,94 @@
+package com.simonscholz.services.monitoring;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns {@link StackTraceElement}s to integer ids, so that stack traces can be
+ * stored as {@code int[]} and frames that occur in many stack samples are kept
+ * only once.
+ * <p>
+ * The dictionary has a single writer, the thread calling {@link #intern}. Other
+ * threads may concurrently look up ids they have obtained from stacks published
+ * by the writer.
+ * </p>
+ *
+ * @noextend This class is not intended to be subclassed by clients.
+ * @since 1.0
+ */
+public class FrameDictionary {
+	private static final int INITIAL_CAPACITY = 256;
+
+	// Accessed only by the writer thread.
+	private final Map<StackTraceElement, Integer> ids = new HashMap<>();
+
+	private volatile StackTraceElement[] frames = new StackTraceElement[INITIAL_CAPACITY];
+	private volatile int size;
+
+	/**
+	 * Returns the id of the given frame, adding it to the dictionary if it is not
+	 * present yet. Must only be called by a single thread.
+	 */
+	public int intern(StackTraceElement frame) {
+		Integer id = ids.get(frame);
+		if (id != null) {
+			return id;
+		}
+		int newId = size;
+		StackTraceElement[] array = frames;
+		if (newId == array.length) {
+			array = Arrays.copyOf(array, array.length * 2);
+			frames = array;
+		}
+		array[newId] = frame;
+		ids.put(frame, newId);
+		size = newId + 1;
+		return newId;
+	}
+
+	/**
+	 * Interns all frames of the given stack trace.
+	 *
+	 * @return the ids of the frames, in the same order as the given stack trace
+	 */
+	public int[] intern(StackTraceElement[] stackTrace) {
+		int[] result = new int[stackTrace.length];
+		for (int i = 0; i < stackTrace.length; i++) {
+			result[i] = intern(stackTrace[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the frame with the given id.
+	 *
+	 * @throws IndexOutOfBoundsException if there is no frame with the given id
+	 */
+	public StackTraceElement getFrame(int id) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException(Integer.toString(id));
+		}
+		return frames[id];
+	}
+
+	/**
+	 * Returns the stack trace denoted by the given frame ids.
+	 */
+	public StackTraceElement[] toStackTrace(int[] frameIds) {
+		StackTraceElement[] array = frames;
+		StackTraceElement[] result = new StackTraceElement[frameIds.length];
+		for (int i = 0; i < frameIds.length; i++) {
+			result[i] = array[frameIds[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of distinct frames in the dictionary. The valid ids range
+	 * from zero to {@code size() - 1}.
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -41,4 +41,49 @@ public interface FreezeMonitorService {
 	 */
 	void setPreferencesAndStartIfNecessary(IEclipsePreferences eclipsePreferences, Display display);
 
+	/**
+	 * Monitors the given display in addition to the display passed when the
+	 * monitoring thread was started, for example in applications with several
+	 * displays. All displays are sampled by the same monitoring thread. The display
+	 * is monitored until it is disposed, also across restarts of the monitoring
+	 * thread caused by preference changes.
+	 * 
+	 * @param display an additional {@link Display} to monitor
+	 */
+	void addDisplay(Display display);
+
+	/**
+	 * Returns the hot method histogram collected by the continuous profiling mode
+	 * since the monitoring thread was started.
+	 * 
+	 * @return the {@link HotMethodProfile}, or {@code null} if profiling is
+	 *         disabled or the monitoring thread is not running
+	 * 
+	 * @see PreferenceConstants#PROFILING_ENABLED
+	 */
+	HotMethodProfile getHotMethodProfile();
+
+	/**
+	 * Returns the dispatch duration percentiles of all SWT event types dispatched
+	 * since the monitoring thread was started.
+	 * 
+	 * @return the {@link DispatchLatencyStats} ordered by event type, or
+	 *         {@code null} if recording is disabled or the monitoring thread is not
+	 *         running
+	 * 
+	 * @see PreferenceConstants#DISPATCH_LATENCY_HISTOGRAMS_ENABLED
+	 */
+	DispatchLatencyStats[] getDispatchLatencyStats();
+
+	/**
+	 * Returns the dispatch duration percentiles of the given SWT event type, for
+	 * example {@code SWT.Paint}.
+	 * 
+	 * @param eventType the SWT event type
+	 * @return the {@link DispatchLatencyStats}, or {@code null} if recording is
+	 *         disabled, the monitoring thread is not running or no event of the
+	 *         type was dispatched
+	 */
+	DispatchLatencyStats getDispatchLatencyStats(int eventType);
+
 }
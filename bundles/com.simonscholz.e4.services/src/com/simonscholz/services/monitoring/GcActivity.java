@@ -0,0 +1,93 @@
+package com.simonscholz.services.monitoring;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The garbage collection pauses that overlapped a UI freeze. The pauses are
+ * reported by the {@link java.lang.management.GarbageCollectorMXBean}s of the
+ * virtual machine and stop all Java threads, the UI thread included.
+ *
+ * @noextend This class is not intended to be subclassed by clients.
+ * @since 1.0
+ * @see UiFreezeEvent#getGcActivity()
+ * @see PreferenceConstants#GC_CORRELATION_ENABLED
+ */
+public class GcActivity {
+	private final int pauseCount;
+	private final long pauseNanos;
+	private final long heapUsedBefore;
+	private final long heapUsedAfter;
+	private final long heapMax;
+
+	/**
+	 * @param pauseCount     the number of pauses overlapping the freeze
+	 * @param pauseNanos     the time of the pauses within the freeze in
+	 *                       nanoseconds
+	 * @param heapUsedBefore the used heap in bytes before the first pause, or -1
+	 *                       if there was no pause
+	 * @param heapUsedAfter  the used heap in bytes after the last pause, or -1 if
+	 *                       there was no pause
+	 * @param heapMax        the maximum size of the heap in bytes, or -1 if
+	 *                       undefined
+	 */
+	public GcActivity(int pauseCount, long pauseNanos, long heapUsedBefore, long heapUsedAfter, long heapMax) {
+		this.pauseCount = pauseCount;
+		this.pauseNanos = pauseNanos;
+		this.heapUsedBefore = heapUsedBefore;
+		this.heapUsedAfter = heapUsedAfter;
+		this.heapMax = heapMax;
+	}
+
+	/**
+	 * Returns the number of garbage collection pauses that overlapped the freeze.
+	 */
+	public final int getPauseCount() {
+		return pauseCount;
+	}
+
+	/**
+	 * Returns the time in nanoseconds the garbage collection pauses took within
+	 * the freeze. Parts of pauses before the start or after the end of the
+	 * freeze are not included.
+	 */
+	public final long getPauseNanos() {
+		return pauseNanos;
+	}
+
+	/**
+	 * Returns the used heap in bytes before the first pause that overlapped the
+	 * freeze, or -1 if no pause overlapped it.
+	 */
+	public final long getHeapUsedBefore() {
+		return heapUsedBefore;
+	}
+
+	/**
+	 * Returns the used heap in bytes after the last pause that overlapped the
+	 * freeze, or -1 if no pause overlapped it. A heap that stays almost full after
+	 * collecting indicates that the application runs out of memory.
+	 */
+	public final long getHeapUsedAfter() {
+		return heapUsedAfter;
+	}
+
+	/**
+	 * Returns the maximum size of the heap in bytes, or -1 if undefined.
+	 */
+	public final long getHeapMax() {
+		return heapMax;
+	}
+
+	/** For debugging only. */
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		buf.append(pauseCount).append(" GC pauses, ") //$NON-NLS-1$
+				.append(TimeUnit.NANOSECONDS.toMicros(pauseNanos)).append("us"); //$NON-NLS-1$
+		if (pauseCount != 0) {
+			buf.append(", heap ").append(heapUsedBefore).append(" -> ").append(heapUsedAfter) //$NON-NLS-1$ //$NON-NLS-2$
+					.append(" of ").append(heapMax).append(" bytes"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return buf.toString();
+	}
+}
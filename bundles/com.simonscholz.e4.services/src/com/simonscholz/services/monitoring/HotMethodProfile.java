@@ -0,0 +1,142 @@
+package com.simonscholz.services.monitoring;
+
+/**
+ * Snapshot of the hot method histogram collected by the continuous profiling
+ * mode of the freeze monitor. The UI thread is sampled at a low rate while it
+ * dispatches events, and each sample counts the method executing on top of the
+ * stack.
+ *
+ * @noextend This class is not intended to be subclassed by clients.
+ * @since 1.0
+ * @see PreferenceConstants#PROFILING_ENABLED
+ */
+public class HotMethodProfile {
+	/**
+	 * A method and the number of samples that found it on top of the UI thread
+	 * stack.
+	 */
+	public static final class HotMethod {
+		private final String className;
+		private final String methodName;
+		private final long sampleCount;
+
+		public HotMethod(String className, String methodName, long sampleCount) {
+			this.className = className;
+			this.methodName = methodName;
+			this.sampleCount = sampleCount;
+		}
+
+		/**
+		 * Returns the fully qualified name of the class declaring the method.
+		 */
+		public String getClassName() {
+			return className;
+		}
+
+		/**
+		 * Returns the name of the method.
+		 */
+		public String getMethodName() {
+			return methodName;
+		}
+
+		/**
+		 * Returns the number of samples of the method. Once the histogram is full,
+		 * rarely seen methods are evicted and the counts of methods taking their place
+		 * may include up to the count of the evicted method.
+		 */
+		public long getSampleCount() {
+			return sampleCount;
+		}
+
+		/** For debugging only. */
+		@Override
+		public String toString() {
+			return className + '.' + methodName + ' ' + sampleCount;
+		}
+	}
+
+	private final HotMethod[] hotMethods;
+	private final long sampleCount;
+	private final long busyTimeNanos;
+	private final long overheadNanos;
+	private final long sampleIntervalNanos;
+
+	/**
+	 * Creates a profile snapshot.
+	 *
+	 * @param hotMethods          the methods, most frequently sampled first
+	 * @param sampleCount         the total number of samples
+	 * @param busyTimeNanos       the time in nanoseconds the UI thread was observed
+	 *                            dispatching events while profiling
+	 * @param overheadNanos       the time in nanoseconds spent taking samples
+	 * @param sampleIntervalNanos the current interval between samples in
+	 *                            nanoseconds
+	 */
+	public HotMethodProfile(HotMethod[] hotMethods, long sampleCount, long busyTimeNanos, long overheadNanos,
+			long sampleIntervalNanos) {
+		this.hotMethods = hotMethods;
+		this.sampleCount = sampleCount;
+		this.busyTimeNanos = busyTimeNanos;
+		this.overheadNanos = overheadNanos;
+		this.sampleIntervalNanos = sampleIntervalNanos;
+	}
+
+	/**
+	 * Returns the sampled methods, most frequently sampled first.
+	 */
+	public final HotMethod[] getHotMethods() {
+		return hotMethods;
+	}
+
+	/**
+	 * Returns the total number of samples, including the samples of methods that
+	 * were evicted from the histogram.
+	 */
+	public final long getSampleCount() {
+		return sampleCount;
+	}
+
+	/**
+	 * Returns the time in nanoseconds the UI thread was observed dispatching
+	 * events while profiling.
+	 */
+	public final long getBusyTimeNanos() {
+		return busyTimeNanos;
+	}
+
+	/**
+	 * Returns the time in nanoseconds the monitoring thread spent taking samples.
+	 */
+	public final long getOverheadNanos() {
+		return overheadNanos;
+	}
+
+	/**
+	 * Returns the overhead of taking samples relative to the busy time of the UI
+	 * thread, between 0 and 1.
+	 */
+	public final double getOverheadRatio() {
+		return busyTimeNanos == 0 ? 0 : Math.min(1, (double) overheadNanos / busyTimeNanos);
+	}
+
+	/**
+	 * Returns the interval between samples in nanoseconds. The interval is longer
+	 * than configured if sampling would otherwise exceed its overhead budget.
+	 */
+	public final long getSampleIntervalNanos() {
+		return sampleIntervalNanos;
+	}
+
+	/** For debugging only. */
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		buf.append(sampleCount).append(" samples in ").append(busyTimeNanos / 1000000).append("ms, overhead ") //$NON-NLS-1$ //$NON-NLS-2$
+				.append(overheadNanos / 1000).append("us"); //$NON-NLS-1$
+		for (HotMethod hotMethod : hotMethods) {
+			buf.append('\n').append(hotMethod);
+		}
+		return buf.toString();
+	}
+}
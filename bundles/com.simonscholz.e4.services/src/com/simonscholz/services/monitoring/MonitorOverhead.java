@@ -0,0 +1,66 @@
+package com.simonscholz.services.monitoring;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of the freeze monitor itself while it observed a UI freeze. The
+ * monitoring thread samples the UI threads of all monitored displays, so the
+ * CPU time covers the work for all displays during the freeze.
+ *
+ * @noextend This class is not intended to be subclassed by clients.
+ * @since 1.0
+ * @see UiFreezeEvent#getMonitorOverhead()
+ * @see PreferenceConstants#MONITOR_OVERHEAD_BUDGET_PERCENT
+ */
+public class MonitorOverhead {
+	/**
+	 * The measures taken by the monitoring thread to stay within its overhead
+	 * budget. Every level includes the measures of the lower levels.
+	 */
+	public enum Throttle {
+		/** Stacks are sampled as configured. */
+		NONE,
+		/** Stack samples are taken less often than configured. */
+		REDUCED_SAMPLE_RATE,
+		/** Only the stacks of the UI threads are captured. */
+		UI_THREAD_ONLY,
+		/** The captured stacks of the UI threads are truncated. */
+		REDUCED_STACK_DEPTH
+	}
+
+	private final long cpuTimeNanos;
+	private final Throttle throttle;
+
+	/**
+	 * @param cpuTimeNanos the CPU time of the monitoring thread in nanoseconds
+	 * @param throttle     the strongest throttling applied during the freeze
+	 */
+	public MonitorOverhead(long cpuTimeNanos, Throttle throttle) {
+		this.cpuTimeNanos = cpuTimeNanos;
+		this.throttle = throttle;
+	}
+
+	/**
+	 * Returns the CPU time the monitoring thread spent while it observed the
+	 * freeze, in nanoseconds. If the virtual machine does not measure thread CPU
+	 * time, this is the time the monitoring thread was busy.
+	 */
+	public final long getCpuTimeNanos() {
+		return cpuTimeNanos;
+	}
+
+	/**
+	 * Returns the strongest throttling the monitoring thread applied while it
+	 * observed the freeze. Unless this is {@link Throttle#NONE}, the stack samples
+	 * of the freeze are less complete than configured.
+	 */
+	public final Throttle getThrottle() {
+		return throttle;
+	}
+
+	/** For debugging only. */
+	@Override
+	public String toString() {
+		return TimeUnit.NANOSECONDS.toMicros(cpuTimeNanos) + "us CPU time, throttle " + throttle; //$NON-NLS-1$
+	}
+}
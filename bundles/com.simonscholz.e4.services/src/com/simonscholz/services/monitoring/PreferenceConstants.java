@@ -19,6 +19,18 @@ public class PreferenceConstants {
 	 * Events that took longer than the specified duration in milliseconds are logged as errors.
 	 */
 	public static final String LONG_EVENT_ERROR_THRESHOLD_MILLIS = "long_event_error_threshold"; //$NON-NLS-1$
+	/**
+	 * Events that took longer than the specified duration in microseconds are logged as warnings.
+	 * Takes precedence over {@link #LONG_EVENT_WARNING_THRESHOLD_MILLIS} if set to a positive
+	 * value. Values below 3 milliseconds require {@link #MONOTONIC_CLOCK}.
+	 */
+	public static final String LONG_EVENT_WARNING_THRESHOLD_MICROS = "long_event_warning_threshold_micros"; //$NON-NLS-1$
+	/**
+	 * If true, durations are measured with the monotonic {@link System#nanoTime()} clock instead
+	 * of the wall clock, which makes the measurements immune to wall clock adjustments and allows
+	 * sub-millisecond thresholds. The wall clock is still used for reported time stamps.
+	 */
+	public static final String MONOTONIC_CLOCK = "monotonic_clock"; //$NON-NLS-1$
 	/**
 	 * Events that took longer than the specified duration are reported as deadlocks without waiting
 	 * for the event to finish.
@@ -32,6 +44,12 @@ public class PreferenceConstants {
 	 * If true, log freeze events to the Eclipse error log.
 	 */
 	public static final String LOG_TO_ERROR_LOG = "log_to_error_log"; //$NON-NLS-1$
+	/**
+	 * Interval in milliseconds in which a UI freeze repeating with the same stack of the UI thread
+	 * is written to the error log in full only once. The repeats are summarized at the end of the
+	 * interval. Zero writes every freeze in full.
+	 */
+	public static final String REPEATED_FREEZE_SUMMARY_INTERVAL_MILLIS = "repeated_freeze_summary_interval"; //$NON-NLS-1$
 	/**
 	 * Comma separated fully qualified method names of stack frames. The names may contain
 	 * '*' and '?' wildcard characters. A UI freeze is not logged if any of the stack traces
@@ -44,6 +62,73 @@ public class PreferenceConstants {
 	 * message if all stack frames of the thread match the filter.
 	 */
 	public static final String NONINTERESTING_THREAD_FILTER = "noninteresting_thread_filter"; //$NON-NLS-1$
+	/**
+	 * Maximum number of UI freeze events waiting to be processed by a single freeze consumer.
+	 */
+	public static final String DISPATCH_QUEUE_CAPACITY = "dispatch_queue_capacity"; //$NON-NLS-1$
+	/**
+	 * Decides which UI freeze event is dropped when the queue of a freeze consumer is full. Either
+	 * {@code drop_oldest} or {@code drop_newest}.
+	 */
+	public static final String DISPATCH_OVERFLOW_POLICY = "dispatch_overflow_policy"; //$NON-NLS-1$
+	/**
+	 * If true, the UI thread is sampled continuously at a low rate while it dispatches events,
+	 * and the methods found on top of its stack are counted in a hot method histogram.
+	 */
+	public static final String PROFILING_ENABLED = "profiling_enabled"; //$NON-NLS-1$
+	/**
+	 * Number of samples per second taken by the continuous profiling mode.
+	 */
+	public static final String PROFILING_SAMPLE_RATE = "profiling_sample_rate"; //$NON-NLS-1$
+	/**
+	 * Maximum number of methods kept in the hot method histogram of the continuous profiling mode.
+	 */
+	public static final String PROFILING_MAX_METHODS = "profiling_max_methods"; //$NON-NLS-1$
+	/**
+	 * Maximum share of the busy time of the UI thread, in percent, that the continuous profiling
+	 * mode may spend taking samples. The sample rate is reduced to stay within the budget.
+	 */
+	public static final String PROFILING_OVERHEAD_BUDGET_PERCENT = "profiling_overhead_budget_percent"; //$NON-NLS-1$
+	/**
+	 * Maximum CPU time of the monitoring thread in percent of one core. Stack samples are taken
+	 * less often, restricted to the UI thread or truncated to stay within the budget.
+	 */
+	public static final String MONITOR_OVERHEAD_BUDGET_PERCENT = "monitor_overhead_budget_percent"; //$NON-NLS-1$
+	/**
+	 * If true, the duration of every SWT event dispatch is recorded in a histogram per event type.
+	 */
+	public static final String DISPATCH_LATENCY_HISTOGRAMS_ENABLED = "dispatch_latency_histograms_enabled"; //$NON-NLS-1$
+	/**
+	 * If true, a long freeze captures only the UI thread, the owners of the locks it is waiting
+	 * for and the threads matching {@link #THREAD_CAPTURE_ALLOW_LIST}, instead of dumping all
+	 * threads. The other threads are then captured from the first stack sample on.
+	 */
+	public static final String TARGETED_THREAD_CAPTURE = "targeted_thread_capture"; //$NON-NLS-1$
+	/**
+	 * Comma separated names of threads captured by {@link #TARGETED_THREAD_CAPTURE}. The names
+	 * may contain '*' and '?' wildcard characters.
+	 */
+	public static final String THREAD_CAPTURE_ALLOW_LIST = "thread_capture_allow_list"; //$NON-NLS-1$
+	/**
+	 * Maximum number of stack frames kept of the threads other than the UI thread. Deeper stacks
+	 * are truncated, and {@link #TARGETED_THREAD_CAPTURE} walks no more frames of these threads.
+	 */
+	public static final String THREAD_CAPTURE_MAX_DEPTH = "thread_capture_max_depth"; //$NON-NLS-1$
+	/**
+	 * Maximum number of stack frames kept of the UI thread. Deeper stacks are truncated.
+	 */
+	public static final String UI_THREAD_MAX_STACK_DEPTH = "ui_thread_max_stack_depth"; //$NON-NLS-1$
+	/**
+	 * Number of frames kept at the bottom of a truncated stack, the remaining frames are taken
+	 * from the top. Keeping frames at the bottom requires walking the whole stack of the UI
+	 * thread, with 0 no more than {@link #UI_THREAD_MAX_STACK_DEPTH} frames are walked.
+	 */
+	public static final String STACK_BOTTOM_FRAMES = "stack_bottom_frames"; //$NON-NLS-1$
+	/**
+	 * If true, the garbage collection pauses of the virtual machine are recorded and every UI
+	 * freeze reports the pauses that overlapped it, see {@link UiFreezeEvent#getGcActivity()}.
+	 */
+	public static final String GC_CORRELATION_ENABLED = "gc_correlation_enabled"; //$NON-NLS-1$
 
 	private PreferenceConstants() {}
 }
@@ -15,16 +15,25 @@
 package com.simonscholz.services.monitoring;
 
 import java.lang.management.ThreadInfo;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A sample of the stack that contains the stack traces and the time stamp.
+ * <p>
+ * Stack traces are kept as {@link ThreadSnapshot}s whose frames are interned in a
+ * {@link FrameDictionary} shared by the samples of a {@link UiFreezeEvent}. The
+ * {@link ThreadInfo}s returned by {@link #getStackTraces()} are recreated on
+ * first access.
+ * </p>
  *
  * @noextend This class is not intended to be subclassed by clients.
  * @since 1.0
  */
 public class StackSample {
 	private final long timestamp;
-	private final ThreadInfo[] traces;
+	private final long nanoTime;
+	private volatile ThreadSnapshot[] threads;
+	private volatile ThreadInfo[] traces;
 
 	/**
 	 * Creates a StackSample.
@@ -35,10 +44,40 @@ public class StackSample {
 	 *     depending on the value of the {@link PreferenceConstants#DUMP_ALL_THREADS} preference
 	 */
 	public StackSample(long timestamp, ThreadInfo[] traces) {
+		this(timestamp, TimeUnit.MILLISECONDS.toNanos(timestamp), traces);
+	}
+
+	/**
+	 * Creates a StackSample with a high resolution time stamp.
+	 *
+	 * @param timestamp time in milliseconds since January 1, 1970 UTC when the thread stacks
+	 *     were sampled
+	 * @param nanoTime time in nanoseconds on the clock of the monitoring thread when the thread
+	 *     stacks were sampled, see {@link UiFreezeEvent#getStartNanoTime()}
+	 * @param traces thread information for either all threads or just the display thread
+	 */
+	public StackSample(long timestamp, long nanoTime, ThreadInfo[] traces) {
 		this.timestamp = timestamp;
+		this.nanoTime = nanoTime;
 		this.traces = traces;
 	}
 
+	/**
+	 * Creates a StackSample from compact thread snapshots.
+	 *
+	 * @param timestamp time in milliseconds since January 1, 1970 UTC when the thread stacks
+	 *     were sampled
+	 * @param nanoTime time in nanoseconds on the clock of the monitoring thread when the thread
+	 *     stacks were sampled, see {@link UiFreezeEvent#getStartNanoTime()}
+	 * @param threads snapshots of either all threads or just the display thread, the display
+	 *     thread first
+	 */
+	public StackSample(long timestamp, long nanoTime, ThreadSnapshot[] threads) {
+		this.timestamp = timestamp;
+		this.nanoTime = nanoTime;
+		this.threads = threads;
+	}
+
 	/**
 	 * Returns the time stamp in milliseconds since January 1, 1970 UTC for this
 	 * {@code StackSample}.
@@ -47,12 +86,61 @@ public class StackSample {
 		return timestamp;
 	}
 
+	/**
+	 * Returns the time in nanoseconds on the clock of the monitoring thread when this
+	 * {@code StackSample} was taken. Only differences to other nanosecond times of the same
+	 * {@link UiFreezeEvent} are meaningful.
+	 */
+	public final long getNanoTime() {
+		return nanoTime;
+	}
+
+	/**
+	 * Returns the compact snapshots of the sampled threads. The display thread is always the
+	 * first in the array. The returned array must not be modified.
+	 */
+	public final ThreadSnapshot[] getThreadSnapshots() {
+		ThreadSnapshot[] result = threads;
+		if (result == null) {
+			ThreadInfo[] infos = traces;
+			FrameDictionary dictionary = new FrameDictionary();
+			result = new ThreadSnapshot[infos.length];
+			for (int i = 0; i < infos.length; i++) {
+				result[i] = ThreadSnapshot.of(infos[i], dictionary);
+			}
+			threads = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the dictionary of the frames of the {@link #getThreadSnapshots() thread
+	 * snapshots}.
+	 */
+	public final FrameDictionary getFrameDictionary() {
+		ThreadSnapshot[] snapshots = getThreadSnapshots();
+		return snapshots.length == 0 ? null : snapshots[0].getFrameDictionary();
+	}
+
 	/**
 	 * Returns an array of {@code ThreadInfo}s for this {@code StackSample}. The display thread is
 	 * always the first in the array.
+	 * <p>
+	 * The {@code ThreadInfo}s are recreated from the {@link #getThreadSnapshots() thread
+	 * snapshots} on the first call, which is expensive. Prefer the snapshots.
+	 * </p>
 	 */
 	public final ThreadInfo[] getStackTraces() {
-		return traces;
+		ThreadInfo[] result = traces;
+		if (result == null) {
+			ThreadSnapshot[] snapshots = threads;
+			result = new ThreadInfo[snapshots.length];
+			for (int i = 0; i < snapshots.length; i++) {
+				result[i] = snapshots[i].toThreadInfo();
+			}
+			traces = result;
+		}
+		return result;
 	}
 
 	/** For debugging only. */
@@ -61,10 +149,11 @@ public class StackSample {
 		StringBuilder buf = new StringBuilder();
 		buf.append("At "); //$NON-NLS-1$
 		buf.append(timestamp);
-		if (traces.length != 0) {
+		ThreadSnapshot[] snapshots = getThreadSnapshots();
+		if (snapshots.length != 0) {
 			buf.append(" threads:\n"); //$NON-NLS-1$
-			for (ThreadInfo threadInfo : traces) {
-				buf.append(threadInfo.toString());
+			for (ThreadSnapshot snapshot : snapshots) {
+				buf.append(snapshot.toString());
 			}
 		}
 		return buf.toString();
@@ -0,0 +1,163 @@
+package com.simonscholz.services.monitoring;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.openmbean.ArrayType;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+/**
+ * Recreates {@link ThreadInfo} objects from {@link ThreadSnapshot}s.
+ * <p>
+ * {@link ThreadInfo} has no public constructor, so the snapshot is converted to
+ * the {@link CompositeData} form used by the platform {@code ThreadMXBean} and
+ * passed to {@link ThreadInfo#from(CompositeData)}. The composite type is taken
+ * from the running VM since its items differ between Java versions. Items that
+ * are not known to the snapshot are filled with neutral values.
+ * </p>
+ */
+final class ThreadInfoFactory {
+	private static CompositeType threadInfoType;
+
+	private ThreadInfoFactory() {
+		// Do not instantiate.
+	}
+
+	static ThreadInfo create(ThreadSnapshot snapshot) {
+		try {
+			CompositeType type = getThreadInfoType();
+			Map<String, Object> values = new HashMap<>();
+			values.put("threadId", snapshot.getThreadId()); //$NON-NLS-1$
+			values.put("threadName", snapshot.getThreadName()); //$NON-NLS-1$
+			values.put("threadState", snapshot.getThreadState().name()); //$NON-NLS-1$
+			values.put("blockedTime", snapshot.getBlockedTime()); //$NON-NLS-1$
+			values.put("blockedCount", snapshot.getBlockedCount()); //$NON-NLS-1$
+			values.put("waitedTime", snapshot.getWaitedTime()); //$NON-NLS-1$
+			values.put("waitedCount", snapshot.getWaitedCount()); //$NON-NLS-1$
+			values.put("lockName", snapshot.getLockName()); //$NON-NLS-1$
+			values.put("lockOwnerId", snapshot.getLockOwnerId()); //$NON-NLS-1$
+			values.put("lockOwnerName", snapshot.getLockOwnerName()); //$NON-NLS-1$
+			values.put("inNative", snapshot.isInNative()); //$NON-NLS-1$
+			values.put("suspended", snapshot.isSuspended()); //$NON-NLS-1$
+
+			LockInfo lock = snapshot.getLockInfo();
+			if (lock != null) {
+				values.put("lockInfo", toLockData(itemType(type, "lockInfo"), lock, -1, null)); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+
+			CompositeType frameType = elementType(type, "stackTrace"); //$NON-NLS-1$
+			CompositeData[] frames = new CompositeData[snapshot.getStackDepth()];
+			for (int i = 0; i < frames.length; i++) {
+				frames[i] = toFrameData(frameType, snapshot.getFrame(i));
+			}
+			values.put("stackTrace", frames); //$NON-NLS-1$
+
+			if (type.containsKey("lockedMonitors")) { //$NON-NLS-1$
+				CompositeType monitorType = elementType(type, "lockedMonitors"); //$NON-NLS-1$
+				LockInfo[] monitors = snapshot.getLockedMonitors();
+				CompositeData[] monitorData = new CompositeData[monitors.length];
+				for (int i = 0; i < monitors.length; i++) {
+					int depth = snapshot.getLockedMonitorDepth(i);
+					StackTraceElement frame = depth >= 0 && depth < frames.length ? snapshot.getFrame(depth) : null;
+					monitorData[i] = toLockData(monitorType, monitors[i], depth, frame);
+				}
+				values.put("lockedMonitors", monitorData); //$NON-NLS-1$
+			}
+
+			if (type.containsKey("lockedSynchronizers")) { //$NON-NLS-1$
+				CompositeType synchronizerType = elementType(type, "lockedSynchronizers"); //$NON-NLS-1$
+				LockInfo[] synchronizers = snapshot.getLockedSynchronizers();
+				CompositeData[] synchronizerData = new CompositeData[synchronizers.length];
+				for (int i = 0; i < synchronizers.length; i++) {
+					synchronizerData[i] = toLockData(synchronizerType, synchronizers[i], -1, null);
+				}
+				values.put("lockedSynchronizers", synchronizerData); //$NON-NLS-1$
+			}
+
+			return ThreadInfo.from(toCompositeData(type, values));
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static synchronized CompositeType getThreadInfoType() throws JMException {
+		if (threadInfoType == null) {
+			CompositeData data = (CompositeData) ManagementFactory.getPlatformMBeanServer().invoke(
+					new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME), "getThreadInfo", //$NON-NLS-1$
+					new Object[] { Thread.currentThread().getId(), 1 },
+					new String[] { long.class.getName(), int.class.getName() });
+			threadInfoType = data.getCompositeType();
+		}
+		return threadInfoType;
+	}
+
+	private static CompositeData toLockData(CompositeType type, LockInfo lock, int depth, StackTraceElement frame)
+			throws OpenDataException {
+		Map<String, Object> values = new HashMap<>();
+		values.put("className", lock.getClassName()); //$NON-NLS-1$
+		values.put("identityHashCode", lock.getIdentityHashCode()); //$NON-NLS-1$
+		values.put("lockedStackDepth", depth); //$NON-NLS-1$
+		if (frame != null && type.containsKey("lockedStackFrame")) { //$NON-NLS-1$
+			values.put("lockedStackFrame", toFrameData(itemType(type, "lockedStackFrame"), frame)); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return toCompositeData(type, values);
+	}
+
+	private static CompositeData toFrameData(CompositeType type, StackTraceElement frame) throws OpenDataException {
+		Map<String, Object> values = new HashMap<>();
+		values.put("className", frame.getClassName()); //$NON-NLS-1$
+		values.put("methodName", frame.getMethodName()); //$NON-NLS-1$
+		values.put("fileName", frame.getFileName()); //$NON-NLS-1$
+		values.put("lineNumber", frame.getLineNumber()); //$NON-NLS-1$
+		values.put("nativeMethod", frame.isNativeMethod()); //$NON-NLS-1$
+		return toCompositeData(type, values);
+	}
+
+	/**
+	 * Creates composite data of the given type. Items of the type without a value
+	 * get a neutral value, values without an item in the type are ignored.
+	 */
+	private static CompositeData toCompositeData(CompositeType type, Map<String, Object> values)
+			throws OpenDataException {
+		Map<String, Object> items = new HashMap<>();
+		for (String key : type.keySet()) {
+			Object value = values.get(key);
+			if (value == null) {
+				value = neutralValue(type.getType(key));
+			}
+			items.put(key, value);
+		}
+		return new CompositeDataSupport(type, items);
+	}
+
+	private static Object neutralValue(OpenType<?> type) {
+		if (SimpleType.BOOLEAN.equals(type)) {
+			return Boolean.FALSE;
+		} else if (SimpleType.INTEGER.equals(type)) {
+			return 0;
+		} else if (SimpleType.LONG.equals(type)) {
+			return 0L;
+		} else if (type instanceof ArrayType) {
+			return new CompositeData[0];
+		}
+		return null;
+	}
+
+	private static CompositeType itemType(CompositeType type, String key) {
+		return (CompositeType) type.getType(key);
+	}
+
+	private static CompositeType elementType(CompositeType type, String key) {
+		return (CompositeType) ((ArrayType<?>) type.getType(key)).getElementOpenType();
+	}
+}
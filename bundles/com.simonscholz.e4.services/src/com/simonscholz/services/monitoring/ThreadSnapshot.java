@@ -0,0 +1,414 @@
+package com.simonscholz.services.monitoring;
+
+import java.lang.management.LockInfo;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+
+/**
+ * Slim, immutable snapshot of a {@link ThreadInfo}. The stack trace is stored
+ * as frame ids of a {@link FrameDictionary} that is shared by all snapshots of
+ * a {@link UiFreezeEvent}.
+ * <p>
+ * The stack trace of a deep stack may be truncated. A truncated stack trace
+ * keeps the frames at the top and at the bottom of the stack, the frames in
+ * between are elided and only counted, see {@link #getElidedFrameCount()}. If
+ * the virtual machine stopped walking the stack before reaching its bottom,
+ * only the top frames are kept and the number of elided frames is
+ * {@link #UNKNOWN_FRAME_COUNT unknown}.
+ * </p>
+ *
+ * @noextend This class is not intended to be subclassed by clients.
+ * @since 1.0
+ */
+public class ThreadSnapshot {
+	/**
+	 * The {@link #getElidedFrameCount() elided frame count} of a stack trace whose
+	 * bottom was not captured.
+	 *
+	 * @since 1.0
+	 */
+	public static final int UNKNOWN_FRAME_COUNT = -1;
+	private static final LockInfo[] NO_LOCKS = new LockInfo[0];
+	private static final int[] NO_DEPTHS = new int[0];
+
+	private final long threadId;
+	private final String threadName;
+	private final Thread.State threadState;
+	private final LockInfo lockInfo;
+	private final long lockOwnerId;
+	private final String lockOwnerName;
+	private final boolean inNative;
+	private final boolean suspended;
+	private final long blockedCount;
+	private final long blockedTime;
+	private final long waitedCount;
+	private final long waitedTime;
+	private final FrameDictionary dictionary;
+	private final int[] frameIds;
+	private final LockInfo[] lockedMonitors;
+	private final int[] lockedMonitorDepths;
+	private final LockInfo[] lockedSynchronizers;
+	private final int elidedFrameIndex;
+	private final int elidedFrameCount;
+
+	/**
+	 * Creates a snapshot. Used by
+	 * {@link #of(ThreadInfo, FrameDictionary, int, int, int)} and the readers of
+	 * the serialized freeze events.
+	 *
+	 * @param threadId            the id of the thread
+	 * @param threadName          the name of the thread
+	 * @param threadState         the state of the thread
+	 * @param lockInfo            the lock the thread is blocked on or waiting for,
+	 *                            or {@code null}
+	 * @param lockOwnerId         the id of the thread owning {@code lockInfo}, or
+	 *                            -1
+	 * @param lockOwnerName       the name of the thread owning {@code lockInfo}, or
+	 *                            {@code null}
+	 * @param inNative            whether the thread is executing native code
+	 * @param suspended           whether the thread is suspended
+	 * @param blockedCount        see {@link ThreadInfo#getBlockedCount()}
+	 * @param blockedTime         see {@link ThreadInfo#getBlockedTime()}
+	 * @param waitedCount         see {@link ThreadInfo#getWaitedCount()}
+	 * @param waitedTime          see {@link ThreadInfo#getWaitedTime()}
+	 * @param dictionary          the dictionary of the frame ids
+	 * @param frameIds            the kept frames of the stack trace of the thread,
+	 *                            top frame first
+	 * @param lockedMonitors      the object monitors held by the thread
+	 * @param lockedMonitorDepths the depth in {@code frameIds} at which each of
+	 *                            the {@code lockedMonitors} was locked, or -1 if
+	 *                            the frame was elided
+	 * @param lockedSynchronizers the ownable synchronizers held by the thread
+	 * @param elidedFrameIndex    the index in {@code frameIds} of the first frame
+	 *                            following the elided frames
+	 * @param elidedFrameCount    the number of elided frames, 0 if the stack
+	 *                            trace is complete, or
+	 *                            {@link #UNKNOWN_FRAME_COUNT}
+	 * @noreference This constructor is not intended to be referenced by clients,
+	 *              use {@link #of(ThreadInfo, FrameDictionary)} instead.
+	 */
+	public ThreadSnapshot(long threadId, String threadName, Thread.State threadState, LockInfo lockInfo,
+			long lockOwnerId, String lockOwnerName, boolean inNative, boolean suspended, long blockedCount,
+			long blockedTime, long waitedCount, long waitedTime, FrameDictionary dictionary, int[] frameIds,
+			LockInfo[] lockedMonitors, int[] lockedMonitorDepths, LockInfo[] lockedSynchronizers,
+			int elidedFrameIndex, int elidedFrameCount) {
+		if (elidedFrameCount < UNKNOWN_FRAME_COUNT || elidedFrameIndex < 0 || elidedFrameIndex > frameIds.length) {
+			throw new IllegalArgumentException(
+					"Invalid elided frames " + elidedFrameCount + " at " + elidedFrameIndex); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		this.threadId = threadId;
+		this.threadName = threadName;
+		this.threadState = threadState;
+		this.lockInfo = lockInfo;
+		this.lockOwnerId = lockOwnerId;
+		this.lockOwnerName = lockOwnerName;
+		this.inNative = inNative;
+		this.suspended = suspended;
+		this.blockedCount = blockedCount;
+		this.blockedTime = blockedTime;
+		this.waitedCount = waitedCount;
+		this.waitedTime = waitedTime;
+		this.dictionary = dictionary;
+		this.frameIds = frameIds;
+		this.lockedMonitors = lockedMonitors;
+		this.lockedMonitorDepths = lockedMonitorDepths;
+		this.lockedSynchronizers = lockedSynchronizers;
+		this.elidedFrameIndex = elidedFrameCount == 0 ? 0 : elidedFrameIndex;
+		this.elidedFrameCount = elidedFrameCount;
+	}
+
+	/**
+	 * Creates a snapshot of the given {@link ThreadInfo}, interning its stack
+	 * frames into the given dictionary. Must be called by the writer thread of the
+	 * dictionary.
+	 */
+	public static ThreadSnapshot of(ThreadInfo info, FrameDictionary dictionary) {
+		return of(info, dictionary, Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+	}
+
+	/**
+	 * Creates a snapshot of the given {@link ThreadInfo} keeping at most
+	 * {@code maxDepth} frames, interning them into the given dictionary. A deeper
+	 * stack trace keeps its {@code bottomFrames} bottom frames and fills the rest
+	 * with the top frames, the frames in between are elided. Must be called by the
+	 * writer thread of the dictionary.
+	 * <p>
+	 * A stack trace of exactly {@code requestedDepth} frames is taken to be cut by
+	 * the virtual machine. Its last frame is not the bottom of the stack, so only
+	 * the top frames are kept and the number of elided frames is
+	 * {@link #UNKNOWN_FRAME_COUNT unknown}.
+	 * </p>
+	 *
+	 * @param info           the thread
+	 * @param dictionary     the dictionary to intern the frames into
+	 * @param requestedDepth the maximum depth the stack trace was requested with,
+	 *                       {@link Integer#MAX_VALUE} if unlimited
+	 * @param maxDepth       the maximum number of kept frames, greater than
+	 *                       {@code bottomFrames}
+	 * @param bottomFrames   the number of frames kept at the bottom of a truncated
+	 *                       stack trace
+	 * @since 1.0
+	 */
+	public static ThreadSnapshot of(ThreadInfo info, FrameDictionary dictionary, int requestedDepth, int maxDepth,
+			int bottomFrames) {
+		StackTraceElement[] stackTrace = info.getStackTrace();
+		int depth = stackTrace.length;
+		int topFrames = depth;
+		int elidedFrameCount = 0;
+		int[] frameIds;
+		if (depth >= requestedDepth) {
+			// The bottom of the stack was not captured, keep the top only.
+			topFrames = Math.min(depth, maxDepth);
+			elidedFrameCount = UNKNOWN_FRAME_COUNT;
+			frameIds = new int[topFrames];
+			for (int i = 0; i < topFrames; i++) {
+				frameIds[i] = dictionary.intern(stackTrace[i]);
+			}
+		} else if (depth <= maxDepth) {
+			frameIds = dictionary.intern(stackTrace);
+		} else {
+			topFrames = maxDepth - bottomFrames;
+			elidedFrameCount = depth - maxDepth;
+			frameIds = new int[maxDepth];
+			for (int i = 0; i < topFrames; i++) {
+				frameIds[i] = dictionary.intern(stackTrace[i]);
+			}
+			for (int i = topFrames; i < maxDepth; i++) {
+				frameIds[i] = dictionary.intern(stackTrace[i + elidedFrameCount]);
+			}
+		}
+
+		// MonitorInfo refers to a non-interned stack frame, keep only the lock and the depth.
+		MonitorInfo[] monitors = info.getLockedMonitors();
+		LockInfo[] lockedMonitors = monitors.length == 0 ? NO_LOCKS : new LockInfo[monitors.length];
+		int[] lockedMonitorDepths = monitors.length == 0 ? NO_DEPTHS : new int[monitors.length];
+		for (int i = 0; i < monitors.length; i++) {
+			lockedMonitors[i] = new LockInfo(monitors[i].getClassName(), monitors[i].getIdentityHashCode());
+			int lockedDepth = monitors[i].getLockedStackDepth();
+			if (elidedFrameCount == UNKNOWN_FRAME_COUNT) {
+				if (lockedDepth >= topFrames) {
+					lockedDepth = -1; // Locked by a frame that was not kept.
+				}
+			} else if (lockedDepth >= topFrames + elidedFrameCount) {
+				lockedDepth -= elidedFrameCount;
+			} else if (lockedDepth >= topFrames) {
+				lockedDepth = -1; // Locked by an elided frame.
+			}
+			lockedMonitorDepths[i] = lockedDepth;
+		}
+
+		LockInfo[] lockedSynchronizers = info.getLockedSynchronizers();
+		return new ThreadSnapshot(info.getThreadId(), info.getThreadName(), info.getThreadState(),
+				info.getLockInfo(), info.getLockOwnerId(), info.getLockOwnerName(), info.isInNative(),
+				info.isSuspended(), info.getBlockedCount(), info.getBlockedTime(), info.getWaitedCount(),
+				info.getWaitedTime(), dictionary, frameIds, lockedMonitors, lockedMonitorDepths,
+				lockedSynchronizers.length == 0 ? NO_LOCKS : lockedSynchronizers, topFrames, elidedFrameCount);
+	}
+
+	/**
+	 * Returns the id of the thread.
+	 */
+	public final long getThreadId() {
+		return threadId;
+	}
+
+	/**
+	 * Returns the name of the thread.
+	 */
+	public final String getThreadName() {
+		return threadName;
+	}
+
+	/**
+	 * Returns the state of the thread at the time of the snapshot.
+	 */
+	public final Thread.State getThreadState() {
+		return threadState;
+	}
+
+	/**
+	 * Returns the lock the thread is blocked on or waiting for, or {@code null}.
+	 */
+	public final LockInfo getLockInfo() {
+		return lockInfo;
+	}
+
+	/**
+	 * Returns the string representation of {@link #getLockInfo()}, or {@code null}.
+	 */
+	public final String getLockName() {
+		return lockInfo == null ? null : lockInfo.toString();
+	}
+
+	/**
+	 * Returns the id of the thread owning the lock the thread is blocked on, or -1.
+	 */
+	public final long getLockOwnerId() {
+		return lockOwnerId;
+	}
+
+	/**
+	 * Returns the name of the thread owning the lock the thread is blocked on, or
+	 * {@code null}.
+	 */
+	public final String getLockOwnerName() {
+		return lockOwnerName;
+	}
+
+	/**
+	 * Returns {@code true} if the thread was executing native code.
+	 */
+	public final boolean isInNative() {
+		return inNative;
+	}
+
+	/**
+	 * Returns {@code true} if the thread was suspended.
+	 */
+	public final boolean isSuspended() {
+		return suspended;
+	}
+
+	/**
+	 * @see ThreadInfo#getBlockedCount()
+	 */
+	public final long getBlockedCount() {
+		return blockedCount;
+	}
+
+	/**
+	 * @see ThreadInfo#getBlockedTime()
+	 */
+	public final long getBlockedTime() {
+		return blockedTime;
+	}
+
+	/**
+	 * @see ThreadInfo#getWaitedCount()
+	 */
+	public final long getWaitedCount() {
+		return waitedCount;
+	}
+
+	/**
+	 * @see ThreadInfo#getWaitedTime()
+	 */
+	public final long getWaitedTime() {
+		return waitedTime;
+	}
+
+	/**
+	 * Returns the dictionary the {@link #getFrameIds() frame ids} refer to.
+	 */
+	public final FrameDictionary getFrameDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Returns the ids of the stack frames, top frame first. The returned array must
+	 * not be modified.
+	 */
+	public final int[] getFrameIds() {
+		return frameIds;
+	}
+
+	/**
+	 * Returns the number of kept stack frames, which excludes the
+	 * {@link #getElidedFrameCount() elided frames}.
+	 */
+	public final int getStackDepth() {
+		return frameIds.length;
+	}
+
+	/**
+	 * Returns the number of frames elided from the middle of a truncated stack
+	 * trace, 0 if the stack trace is complete, or {@link #UNKNOWN_FRAME_COUNT} if
+	 * the bottom of the stack was not captured. In the latter case the elided
+	 * frames follow the last kept frame.
+	 *
+	 * @since 1.0
+	 */
+	public final int getElidedFrameCount() {
+		return elidedFrameCount;
+	}
+
+	/**
+	 * Returns the depth of the first kept frame following the
+	 * {@link #getElidedFrameCount() elided frames}. The frames above it are the top
+	 * of the stack, the frames from it on are the bottom. 0 if the stack trace is
+	 * complete.
+	 *
+	 * @since 1.0
+	 */
+	public final int getElidedFrameIndex() {
+		return elidedFrameIndex;
+	}
+
+	/**
+	 * Returns the stack frame at the given depth, zero being the top frame.
+	 */
+	public final StackTraceElement getFrame(int depth) {
+		return dictionary.getFrame(frameIds[depth]);
+	}
+
+	/**
+	 * Returns a newly allocated stack trace, top frame first.
+	 */
+	public final StackTraceElement[] getStackTrace() {
+		return dictionary.toStackTrace(frameIds);
+	}
+
+	/**
+	 * Returns the object monitors held by the thread.
+	 */
+	public final LockInfo[] getLockedMonitors() {
+		return lockedMonitors;
+	}
+
+	/**
+	 * Returns the stack depth at which the monitor with the same index in
+	 * {@link #getLockedMonitors()} was locked, or -1 if unknown.
+	 */
+	public final int getLockedMonitorDepth(int index) {
+		return lockedMonitorDepths[index];
+	}
+
+	/**
+	 * Returns the ownable synchronizers held by the thread.
+	 */
+	public final LockInfo[] getLockedSynchronizers() {
+		return lockedSynchronizers;
+	}
+
+	/**
+	 * Recreates a {@link ThreadInfo} from this snapshot. This is expensive and only
+	 * meant for clients relying on {@link StackSample#getStackTraces()}.
+	 */
+	public ThreadInfo toThreadInfo() {
+		return ThreadInfoFactory.create(this);
+	}
+
+	/** For debugging only. */
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		buf.append('"').append(threadName).append("\" Id=").append(threadId).append(' ').append(threadState); //$NON-NLS-1$
+		if (lockInfo != null) {
+			buf.append(" on ").append(lockInfo); //$NON-NLS-1$
+		}
+		if (lockOwnerName != null) {
+			buf.append(" owned by \"").append(lockOwnerName).append("\" Id=").append(lockOwnerId); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		buf.append('\n');
+		for (int i = 0; i < frameIds.length; i++) {
+			if (elidedFrameCount > 0 && i == elidedFrameIndex) {
+				buf.append("\t... ").append(elidedFrameCount).append(" frames elided\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			buf.append("\tat ").append(getFrame(i)).append('\n'); //$NON-NLS-1$
+		}
+		if (elidedFrameCount == UNKNOWN_FRAME_COUNT) {
+			buf.append("\t... more frames elided\n"); //$NON-NLS-1$
+		}
+		return buf.toString();
+	}
+}
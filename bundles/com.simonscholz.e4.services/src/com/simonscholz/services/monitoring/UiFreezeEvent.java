@@ -14,6 +14,8 @@
  *******************************************************************************/
 package com.simonscholz.services.monitoring;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Responsible for holding the stack traces for a UI event.
  *
@@ -22,11 +24,15 @@ package com.simonscholz.services.monitoring;
  */
 public class UiFreezeEvent {
 	private final long startTimestamp;
-	private final long totalDuration;
+	private final long startNanoTime;
+	private final long totalDurationNanos;
 	private final StackSample[] stackTraceSamples;
 	private final boolean isStillRunning;
 	private final boolean isStarvedAwake;
 	private final boolean isStarvedAsleep;
+	private final BlockingChain blockingChain;
+	private final MonitorOverhead monitorOverhead;
+	private final GcActivity gcActivity;
 
 	/**
 	 * Creates a UiFreezeEvent.
@@ -40,12 +46,40 @@ public class UiFreezeEvent {
 	 */
 	public UiFreezeEvent(long startTime, long duration, StackSample[] samples,
 			boolean stillRunning, boolean starvedAwake, boolean starvedAsleep) {
+		this(startTime, TimeUnit.MILLISECONDS.toNanos(startTime), TimeUnit.MILLISECONDS.toNanos(duration),
+				samples, stillRunning, starvedAwake, starvedAsleep, null, null, null);
+	}
+
+	/**
+	 * Creates a UiFreezeEvent with high resolution timing, the resolved blocking chain, the
+	 * overhead of the monitor and the garbage collection pauses during the freeze.
+	 *
+	 * @param startTime initial dispatch time for the event in milliseconds since January 1,
+	 *     1970 UTC
+	 * @param startNanoTime initial dispatch time for the event in nanoseconds on the clock of the
+	 *     monitoring thread, which is also used for {@link StackSample#getNanoTime()}
+	 * @param durationNanos duration of the event in nanoseconds
+	 * @param samples array of {@link StackSample}s containing thread information
+	 * @param stillRunning whether or not the event was still running when this UiFreezeEvent
+	 *     was created. If {@code true}, this UiFreezeEvent may indicate a deadlock.
+	 * @param blockingChain the threads the UI thread was waiting for, or {@code null}
+	 * @param monitorOverhead the cost of monitoring the freeze, or {@code null} if not measured
+	 * @param gcActivity the garbage collection pauses during the freeze, or {@code null} if not
+	 *     recorded
+	 */
+	public UiFreezeEvent(long startTime, long startNanoTime, long durationNanos, StackSample[] samples,
+			boolean stillRunning, boolean starvedAwake, boolean starvedAsleep, BlockingChain blockingChain,
+			MonitorOverhead monitorOverhead, GcActivity gcActivity) {
 		this.startTimestamp = startTime;
+		this.startNanoTime = startNanoTime;
 		this.stackTraceSamples = samples;
-		this.totalDuration = duration;
+		this.totalDurationNanos = durationNanos;
 		this.isStillRunning = stillRunning;
 		this.isStarvedAwake = starvedAwake;
 		this.isStarvedAsleep = starvedAsleep;
+		this.blockingChain = blockingChain;
+		this.monitorOverhead = monitorOverhead;
+		this.gcActivity = gcActivity;
 	}
 
 	/**
@@ -55,11 +89,28 @@ public class UiFreezeEvent {
 		return startTimestamp;
 	}
 
+	/**
+	 * Returns the time when the UI thread froze, in nanoseconds on the clock of the monitoring
+	 * thread. Only differences to {@link StackSample#getNanoTime()} of the samples of this event
+	 * are meaningful.
+	 */
+	public final long getStartNanoTime() {
+		return startNanoTime;
+	}
+
 	/**
 	 * Returns the total amount of time in milliseconds that the UI thread remained frozen.
 	 */
 	public final long getTotalDuration() {
-		return totalDuration;
+		return TimeUnit.NANOSECONDS.toMillis(totalDurationNanos);
+	}
+
+	/**
+	 * Returns the total amount of time in nanoseconds that the UI thread remained frozen. The
+	 * resolution depends on the clock used by the monitoring thread.
+	 */
+	public final long getTotalDurationNanos() {
+		return totalDurationNanos;
 	}
 
 	/**
@@ -69,6 +120,15 @@ public class UiFreezeEvent {
 		return stackTraceSamples;
 	}
 
+	/**
+	 * Returns the dictionary of the stack frames of all {@link #getStackTraceSamples() samples},
+	 * or {@code null} if there are no samples. The freeze monitor interns the frames of all samples
+	 * of a freeze into a single dictionary.
+	 */
+	public final FrameDictionary getFrameDictionary() {
+		return stackTraceSamples.length == 0 ? null : stackTraceSamples[0].getFrameDictionary();
+	}
+
 	/**
 	 * Returns {@code true} if this event was still ongoing at the time the event was logged,
 	 * which can happen for deadlocks.
@@ -91,6 +151,40 @@ public class UiFreezeEvent {
 		return isStarvedAsleep;
 	}
 
+	/**
+	 * Returns the chain of threads the UI thread was waiting for at the time of the last stack
+	 * sample, or {@code null} if the UI thread was not waiting for a lock owned by another thread.
+	 */
+	public final BlockingChain getBlockingChain() {
+		return blockingChain;
+	}
+
+	/**
+	 * Returns the cost of the freeze monitor while it observed this freeze, or {@code null} if it
+	 * was not measured.
+	 */
+	public final MonitorOverhead getMonitorOverhead() {
+		return monitorOverhead;
+	}
+
+	/**
+	 * Returns the garbage collection pauses that overlapped this freeze, or {@code null} if they
+	 * were not recorded.
+	 */
+	public final GcActivity getGcActivity() {
+		return gcActivity;
+	}
+
+	/**
+	 * Returns {@code true} if garbage collection pauses took at least half of the duration of
+	 * this freeze. Such a freeze is caused by the memory pressure of the application rather than
+	 * by the work done on the UI thread. A pause whose notification arrived well after the end of
+	 * the freeze is not included in {@link #getGcActivity()}, so this may under-report.
+	 */
+	public final boolean isMostlyGcPause() {
+		return gcActivity != null && gcActivity.getPauseNanos() * 2 >= totalDurationNanos;
+	}
+
 	/** For debugging only. */
 	@Override
 	public String toString() {
@@ -102,14 +196,26 @@ public class UiFreezeEvent {
 		} else {
 			buf.append(" lasted "); //$NON-NLS-1$
 		}
-		buf.append(totalDuration);
-		buf.append("ms"); //$NON-NLS-1$
+		buf.append(totalDurationNanos / 1000);
+		buf.append("us"); //$NON-NLS-1$
 		if (isStarvedAwake || isStarvedAsleep) {
 			String when =
 					isStarvedAwake && isStarvedAsleep ?	"awake and asleep" : //$NON-NLS-1$
 					isStarvedAwake ? "awake" : "asleep"; //$NON-NLS-1$ //$NON-NLS-2$
 			buf.append(", monitoring thread starved for CPU while " + when); //$NON-NLS-1$
 		}
+		if (blockingChain != null) {
+			buf.append("\nBlocking chain: "); //$NON-NLS-1$
+			buf.append(blockingChain);
+		}
+		if (monitorOverhead != null) {
+			buf.append("\nMonitor overhead: "); //$NON-NLS-1$
+			buf.append(monitorOverhead);
+		}
+		if (gcActivity != null) {
+			buf.append("\nGC activity: "); //$NON-NLS-1$
+			buf.append(gcActivity);
+		}
 		if (stackTraceSamples.length != 0) {
 			buf.append("\nStack trace samples:"); //$NON-NLS-1$
 			for (StackSample stackTraceSample : stackTraceSamples) {
@@ -0,0 +1,338 @@
+package com.simonscholz.services.monitoring;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.LockInfo;
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes {@link UiFreezeEvent}s as plain text into a caller supplied
+ * {@link Appendable} or {@link CharBuffer}, for consumers that log freezes as
+ * text.
+ * <p>
+ * The renderer is meant to run on a virtual machine that is already
+ * struggling: it writes the event piece by piece without building intermediate
+ * strings, formats numbers and times of day into a reused buffer instead of
+ * using {@code String.format} or {@code SimpleDateFormat}, and writes stack
+ * traces frame by frame from the {@link FrameDictionary} instead of wrapping
+ * them in a {@link Throwable}. Rendering into a {@link StringBuilder} or a
+ * {@link CharBuffer} of sufficient capacity does not allocate.
+ * </p>
+ * <p>
+ * The text is English and not localized. An instance is not thread safe, a
+ * consumer delivering events on a single thread keeps one instance for all
+ * events.
+ * </p>
+ *
+ * @noextend This class is not intended to be subclassed by clients.
+ * @since 1.0
+ */
+public class UiFreezeRenderer {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+	private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+
+	// The default time zone is cloned by every call of TimeZone.getDefault().
+	private final TimeZone timeZone = TimeZone.getDefault();
+	private final char[] digits = new char[20];
+
+	/**
+	 * Writes the event with all its stack samples.
+	 *
+	 * @param event the event
+	 * @param out   receives the text
+	 * @throws IOException if {@code out} throws it
+	 */
+	public void render(UiFreezeEvent event, Appendable out) throws IOException {
+		renderHeader(event, out);
+		long previousNanoTime = event.getStartNanoTime();
+		for (StackSample sample : event.getStackTraceSamples()) {
+			out.append('\n');
+			renderSampleHeader(sample, previousNanoTime, out);
+			for (ThreadSnapshot thread : sample.getThreadSnapshots()) {
+				out.append('\n');
+				renderThread(thread, out);
+				out.append('\n');
+				renderStackTrace(thread, out);
+			}
+			previousNanoTime = sample.getNanoTime();
+		}
+	}
+
+	/**
+	 * Writes the event with all its stack samples into a buffer.
+	 *
+	 * @param event the event
+	 * @param out   receives the text starting at its position
+	 * @throws BufferOverflowException if the remaining capacity of the buffer is
+	 *                                 insufficient
+	 */
+	public void render(UiFreezeEvent event, CharBuffer out) throws BufferOverflowException {
+		try {
+			render(event, (Appendable) out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // Not thrown by CharBuffer.
+		}
+	}
+
+	/**
+	 * Writes the summary of the event: its duration and start, and if known the
+	 * blocking chain of the UI thread, the overhead of the monitor and the garbage
+	 * collection pauses during the freeze.
+	 */
+	public void renderHeader(UiFreezeEvent event, Appendable out) throws IOException {
+		if (event.isStillRunning()) {
+			out.append("UI freeze that started at "); //$NON-NLS-1$
+			appendTimeOfDay(event.getStartTimestamp(), out);
+			out.append(" is still ongoing after "); //$NON-NLS-1$
+			appendSeconds(event.getTotalDurationNanos(), out);
+		} else {
+			out.append("UI freeze of "); //$NON-NLS-1$
+			appendSeconds(event.getTotalDurationNanos(), out);
+			out.append(" at "); //$NON-NLS-1$
+			appendTimeOfDay(event.getStartTimestamp(), out);
+		}
+
+		if (event.getStackTraceSamples().length == 0 && (event.isStarvedAwake() || event.isStarvedAsleep())) {
+			out.append("\n(no stack samples were collected because the monitoring thread starved for CPU"); //$NON-NLS-1$
+			if (!event.isStarvedAwake()) {
+				out.append(" while asleep"); //$NON-NLS-1$
+			} else if (!event.isStarvedAsleep()) {
+				out.append(" while awake"); //$NON-NLS-1$
+			}
+			out.append(')');
+		}
+
+		BlockingChain chain = event.getBlockingChain();
+		if (chain != null) {
+			out.append(chain.isDeadlock() ? "\nDeadlock: " : "\nBlocking chain: "); //$NON-NLS-1$ //$NON-NLS-2$
+			for (BlockingChain.Link link : chain.getLinks()) {
+				out.append('\'').append(link.getThreadName()).append("' tid="); //$NON-NLS-1$
+				appendLong(link.getThreadId(), out);
+				if (link.getWaitingFor() != null) {
+					out.append(" waiting for "); //$NON-NLS-1$
+					appendLock(link.getWaitingFor(), out);
+					out.append(" held by "); //$NON-NLS-1$
+				}
+			}
+		}
+
+		MonitorOverhead overhead = event.getMonitorOverhead();
+		if (overhead != null) {
+			out.append("\nMonitor overhead: "); //$NON-NLS-1$
+			appendDecimal(overhead.getCpuTimeNanos(), TimeUnit.MILLISECONDS.toNanos(1), 1, out);
+			out.append("ms CPU time"); //$NON-NLS-1$
+			if (overhead.getThrottle() != MonitorOverhead.Throttle.NONE) {
+				out.append(", stack sampling throttled ("); //$NON-NLS-1$
+				out.append(overhead.getThrottle().name()).append(')');
+			}
+		}
+
+		GcActivity gcActivity = event.getGcActivity();
+		if (gcActivity != null && gcActivity.getPauseCount() != 0) {
+			out.append("\nGC pauses: "); //$NON-NLS-1$
+			appendLong(gcActivity.getPauseCount(), out);
+			out.append(", "); //$NON-NLS-1$
+			appendDecimal(gcActivity.getPauseNanos(), TimeUnit.MILLISECONDS.toNanos(1), 1, out);
+			out.append("ms"); //$NON-NLS-1$
+			if (event.isMostlyGcPause()) {
+				out.append(" (mostly GC)"); //$NON-NLS-1$
+			}
+			out.append(", heap "); //$NON-NLS-1$
+			appendLong(gcActivity.getHeapUsedBefore() >> 20, out);
+			out.append("MB -> "); //$NON-NLS-1$
+			appendLong(gcActivity.getHeapUsedAfter() >> 20, out);
+			out.append("MB"); //$NON-NLS-1$
+			if (gcActivity.getHeapMax() >= 0) {
+				out.append(" of "); //$NON-NLS-1$
+				appendLong(gcActivity.getHeapMax() >> 20, out);
+				out.append("MB"); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/**
+	 * Writes the time of the sample and the time elapsed since the previous
+	 * sample.
+	 *
+	 * @param sample           the sample
+	 * @param previousNanoTime the {@link StackSample#getNanoTime()} of the previous
+	 *                         sample, or {@link UiFreezeEvent#getStartNanoTime()}
+	 *                         for the first sample
+	 * @param out              receives the text
+	 */
+	public void renderSampleHeader(StackSample sample, long previousNanoTime, Appendable out) throws IOException {
+		out.append("Sample at "); //$NON-NLS-1$
+		appendTimeOfDay(sample.getTimestamp(), out);
+		out.append(" (+"); //$NON-NLS-1$
+		appendSeconds(sample.getNanoTime() - previousNanoTime, out);
+		out.append(')');
+	}
+
+	/**
+	 * Writes the name, id and state of the thread and the locks it waits for and
+	 * holds, without its stack trace.
+	 */
+	public void renderThread(ThreadSnapshot thread, Appendable out) throws IOException {
+		out.append("Thread '").append(thread.getThreadName()).append("' tid="); //$NON-NLS-1$ //$NON-NLS-2$
+		appendLong(thread.getThreadId(), out);
+		out.append(" (").append(thread.getThreadState().name()).append(')'); //$NON-NLS-1$
+		LockInfo lock = thread.getLockInfo();
+		if (lock != null) {
+			out.append("\nWaiting for: "); //$NON-NLS-1$
+			appendLock(lock, out);
+			if (thread.getLockOwnerName() != null) {
+				out.append(" lock owner='").append(thread.getLockOwnerName()).append("' tid="); //$NON-NLS-1$ //$NON-NLS-2$
+				appendLong(thread.getLockOwnerId(), out);
+			}
+		}
+		for (LockInfo synchronizer : thread.getLockedSynchronizers()) {
+			out.append("\nHolding: "); //$NON-NLS-1$
+			appendLock(synchronizer, out);
+		}
+	}
+
+	/**
+	 * Writes the stack trace of the thread in the format of
+	 * {@link Throwable#printStackTrace()}, one line per frame, followed by the
+	 * monitors locked by the frame. The elided frames of a truncated stack trace
+	 * are replaced by a single line with their number, if known. The last line is
+	 * not terminated.
+	 */
+	public void renderStackTrace(ThreadSnapshot thread, Appendable out) throws IOException {
+		LockInfo[] lockedMonitors = thread.getLockedMonitors();
+		int elidedFrameCount = thread.getElidedFrameCount();
+		for (int depth = 0, n = thread.getStackDepth(); depth < n; depth++) {
+			if (depth != 0) {
+				out.append('\n');
+			}
+			if (elidedFrameCount > 0 && depth == thread.getElidedFrameIndex()) {
+				out.append("\t... "); //$NON-NLS-1$
+				appendLong(elidedFrameCount, out);
+				out.append(" frames elided\n"); //$NON-NLS-1$
+			}
+			out.append("\tat "); //$NON-NLS-1$
+			appendFrame(thread.getFrame(depth), out);
+			for (int i = 0; i < lockedMonitors.length; i++) {
+				if (thread.getLockedMonitorDepth(i) == depth) {
+					out.append("\n\t- locked "); //$NON-NLS-1$
+					appendLock(lockedMonitors[i], out);
+				}
+			}
+		}
+		if (elidedFrameCount == ThreadSnapshot.UNKNOWN_FRAME_COUNT) {
+			out.append(thread.getStackDepth() != 0 ? "\n\t... more frames elided" : "\t... more frames elided"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/**
+	 * Writes a wall clock time as hours, minutes, seconds and milliseconds of the
+	 * day in the default time zone, for example {@code 13:04:59.042}.
+	 *
+	 * @param millis the time in milliseconds since January 1, 1970 UTC
+	 * @param out    receives the text
+	 */
+	public void appendTimeOfDay(long millis, Appendable out) throws IOException {
+		long local = Math.floorMod(millis + timeZone.getOffset(millis), MILLIS_PER_DAY);
+		appendPadded(local / 3600000, 2, out);
+		out.append(':');
+		appendPadded(local / 60000 % 60, 2, out);
+		out.append(':');
+		appendPadded(local / 1000 % 60, 2, out);
+		out.append('.');
+		appendPadded(local % 1000, 3, out);
+	}
+
+	/**
+	 * Writes a duration in seconds with millisecond precision, for example
+	 * {@code 2.305s}.
+	 *
+	 * @param nanos the duration in nanoseconds
+	 * @param out   receives the text
+	 */
+	public void appendSeconds(long nanos, Appendable out) throws IOException {
+		appendDecimal(nanos, TimeUnit.SECONDS.toNanos(1), 3, out);
+		out.append('s');
+	}
+
+	/**
+	 * Writes {@code value / unit} rounded half up to the given number of fraction
+	 * digits, for example {@code 2.305} for a value of 2305 milliseconds in
+	 * seconds with 3 fraction digits.
+	 *
+	 * @param value          the value
+	 * @param unit           the value of one unit
+	 * @param fractionDigits the number of digits after the decimal point, at least
+	 *                       1
+	 * @param out            receives the text
+	 */
+	public void appendDecimal(long value, long unit, int fractionDigits, Appendable out) throws IOException {
+		if (value < 0) {
+			out.append('-');
+			value = -value;
+		}
+		long scale = 1;
+		for (int i = 0; i < fractionDigits; i++) {
+			scale *= 10;
+		}
+		long scaled = (value / unit) * scale + ((value % unit) * scale + unit / 2) / unit;
+		appendLong(scaled / scale, out);
+		out.append('.');
+		appendPadded(scaled % scale, fractionDigits, out);
+	}
+
+	private void appendFrame(StackTraceElement frame, Appendable out) throws IOException {
+		out.append(frame.getClassName()).append('.').append(frame.getMethodName()).append('(');
+		if (frame.isNativeMethod()) {
+			out.append("Native Method"); //$NON-NLS-1$
+		} else if (frame.getFileName() == null) {
+			out.append("Unknown Source"); //$NON-NLS-1$
+		} else {
+			out.append(frame.getFileName());
+			if (frame.getLineNumber() >= 0) {
+				out.append(':');
+				appendLong(frame.getLineNumber(), out);
+			}
+		}
+		out.append(')');
+	}
+
+	private static void appendLock(LockInfo lock, Appendable out) throws IOException {
+		out.append(lock.getClassName()).append('@');
+		int hash = lock.getIdentityHashCode();
+		for (int shift = 28; shift >= 0; shift -= 4) {
+			out.append(HEX_DIGITS[(hash >>> shift) & 0xF]);
+		}
+	}
+
+	private void appendLong(long value, Appendable out) throws IOException {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				out.append("-9223372036854775808"); //$NON-NLS-1$
+				return;
+			}
+			out.append('-');
+			value = -value;
+		}
+		appendPadded(value, 1, out);
+	}
+
+	/**
+	 * Writes a non-negative value with at least the given number of digits.
+	 */
+	private void appendPadded(long value, int minDigits, Appendable out) throws IOException {
+		int start = digits.length;
+		do {
+			digits[--start] = (char) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		while (digits.length - start < minDigits) {
+			digits[--start] = '0';
+		}
+		for (int i = start; i < digits.length; i++) {
+			out.append(digits[i]);
+		}
+	}
+}
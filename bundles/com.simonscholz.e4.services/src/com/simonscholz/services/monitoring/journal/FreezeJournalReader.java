@@ -0,0 +1,126 @@
+package com.simonscholz.services.monitoring.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Streams the {@link UiFreezeEvent}s back from the journal files written by a
+ * {@link FreezeJournalWriter}, oldest first.
+ * <p>
+ * The reader may run while the journal is written, also in another process.
+ * It stops at the last complete record of each file. Records torn by a crash
+ * end their file and are counted as {@link #getCorruptRecordCount() corrupt}.
+ * </p>
+ *
+ * @since 1.0
+ */
+public class FreezeJournalReader implements Closeable {
+	private final File[] files;
+	private final CRC32 crc = new CRC32();
+	private int fileIndex;
+	private ByteBuffer buffer;
+	private long corruptRecordCount;
+
+	/**
+	 * Creates a reader of the journal files currently present in the given
+	 * directory.
+	 */
+	public FreezeJournalReader(File directory) {
+		files = JournalFormat.listFiles(directory);
+	}
+
+	/**
+	 * Returns the next event of the journal.
+	 *
+	 * @return the next event, or {@code null} if all records have been read
+	 * @throws IOException if a journal file cannot be read
+	 */
+	public UiFreezeEvent next() throws IOException {
+		while (true) {
+			if (buffer == null && !openNextFile()) {
+				return null;
+			}
+			byte[] payload = nextRecord();
+			if (payload == null) {
+				buffer = null;
+				continue;
+			}
+			try {
+				return JournalFormat.readEvent(new DataInputStream(new ByteArrayInputStream(payload)));
+			} catch (IOException | IllegalArgumentException e) {
+				// The checksum matches, but the record cannot be decoded. Skip it.
+				corruptRecordCount++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of records skipped because they were torn or could not be
+	 * decoded.
+	 */
+	public long getCorruptRecordCount() {
+		return corruptRecordCount;
+	}
+
+	@Override
+	public void close() {
+		buffer = null;
+		fileIndex = files.length;
+	}
+
+	private boolean openNextFile() throws IOException {
+		while (fileIndex < files.length) {
+			File file = files[fileIndex++];
+			ByteBuffer mapped;
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				if (channel.size() < JournalFormat.HEADER_SIZE) {
+					continue;
+				}
+				mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			if (mapped.getInt() == JournalFormat.MAGIC && mapped.getInt() == JournalFormat.VERSION) {
+				mapped.position(JournalFormat.HEADER_SIZE);
+				buffer = mapped;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the payload of the next complete record of the current file, or
+	 * {@code null} at the end of the file.
+	 */
+	private byte[] nextRecord() {
+		if (buffer.remaining() < JournalFormat.RECORD_HEADER_SIZE) {
+			return null;
+		}
+		int length = buffer.getInt();
+		if (length == 0) {
+			return null; // End of the written records.
+		}
+		int checksum = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			corruptRecordCount++;
+			return null;
+		}
+		byte[] payload = new byte[length];
+		buffer.get(payload);
+		crc.reset();
+		crc.update(payload, 0, length);
+		if ((int) crc.getValue() != checksum) {
+			corruptRecordCount++;
+			return null;
+		}
+		return payload;
+	}
+}
@@ -0,0 +1,156 @@
+package com.simonscholz.services.monitoring.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Appends {@link UiFreezeEvent}s to memory-mapped journal files in a directory.
+ * <p>
+ * Each journal file is created with a fixed size and mapped into memory once,
+ * so appending a record is a memory copy without a system call. When a record
+ * does not fit into the current file, the file is forced to disk and a new file
+ * is started. Only the newest files are kept. Records written before a crash of
+ * the application are preserved by the operating system; records torn by a
+ * crash of the operating system are detected by their checksum.
+ * </p>
+ * <p>
+ * Instances are not thread safe. A new writer always starts a new file.
+ * </p>
+ *
+ * @see FreezeJournalReader
+ * @since 1.0
+ */
+public class FreezeJournalWriter implements Closeable {
+	private final File directory;
+	private final int fileSize;
+	private final int maxFiles;
+	private final RecordBuffer recordBuffer = new RecordBuffer();
+	private final DataOutputStream recordOutput = new DataOutputStream(recordBuffer);
+	private final CRC32 crc = new CRC32();
+	private long sequence;
+	private MappedByteBuffer buffer;
+
+	/**
+	 * Creates a writer. The first file is created when the first event is
+	 * appended.
+	 *
+	 * @param directory the directory of the journal files, created if necessary
+	 * @param fileSize  the size of each journal file in bytes, which also limits
+	 *                  the size of a single record
+	 * @param maxFiles  the number of journal files to keep
+	 */
+	public FreezeJournalWriter(File directory, int fileSize, int maxFiles) {
+		if (fileSize <= JournalFormat.HEADER_SIZE + JournalFormat.RECORD_HEADER_SIZE) {
+			throw new IllegalArgumentException("File size too small: " + fileSize); //$NON-NLS-1$
+		}
+		if (maxFiles <= 0) {
+			throw new IllegalArgumentException("Invalid number of files: " + maxFiles); //$NON-NLS-1$
+		}
+		this.directory = directory;
+		this.fileSize = fileSize;
+		this.maxFiles = maxFiles;
+	}
+
+	/**
+	 * Appends an event to the journal.
+	 *
+	 * @throws IOException if the event cannot be written or is larger than a
+	 *                     journal file
+	 */
+	public void append(UiFreezeEvent event) throws IOException {
+		recordBuffer.reset();
+		JournalFormat.writeEvent(event, recordOutput);
+		recordOutput.flush();
+		int length = recordBuffer.size();
+		if (length > fileSize - JournalFormat.HEADER_SIZE - JournalFormat.RECORD_HEADER_SIZE - Integer.BYTES) {
+			throw new IOException("Freeze record of " + length + " bytes exceeds the journal file size"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		// Keep room for the zero length that terminates the records.
+		if (buffer == null || buffer.remaining() < JournalFormat.RECORD_HEADER_SIZE + length + Integer.BYTES) {
+			startNewFile();
+		}
+
+		crc.reset();
+		crc.update(recordBuffer.array(), 0, length);
+		int position = buffer.position();
+		buffer.position(position + Integer.BYTES);
+		buffer.putInt((int) crc.getValue());
+		buffer.put(recordBuffer.array(), 0, length);
+		// The length commits the record.
+		buffer.putInt(position, length);
+	}
+
+	/**
+	 * Forces the written records to the storage device.
+	 */
+	public void force() {
+		if (buffer != null) {
+			buffer.force();
+		}
+	}
+
+	/**
+	 * Forces the written records to the storage device and releases the current
+	 * file.
+	 */
+	@Override
+	public void close() {
+		force();
+		buffer = null;
+	}
+
+	private void startNewFile() throws IOException {
+		if (buffer == null) {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Cannot create " + directory); //$NON-NLS-1$
+			}
+			File[] files = JournalFormat.listFiles(directory);
+			sequence = files.length == 0 ? 0 : JournalFormat.sequenceOf(files[files.length - 1]);
+		} else {
+			buffer.force();
+			buffer = null;
+		}
+
+		File file = new File(directory, JournalFormat.fileName(++sequence));
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// The mapping stays valid after the channel is closed.
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+		}
+		buffer.putInt(JournalFormat.MAGIC);
+		buffer.putInt(JournalFormat.VERSION);
+		buffer.position(JournalFormat.HEADER_SIZE);
+		deleteOldFiles();
+	}
+
+	private void deleteOldFiles() {
+		File[] files = JournalFormat.listFiles(directory);
+		for (int i = 0; i < files.length - maxFiles; i++) {
+			// Fails while a mapping of the file is still alive on some platforms, retried on the next rotation.
+			files[i].delete();
+		}
+	}
+
+	/**
+	 * Gives access to the internal array to avoid copying the record.
+	 */
+	private static class RecordBuffer extends ByteArrayOutputStream {
+		RecordBuffer() {
+			super(4096);
+		}
+
+		byte[] array() {
+			return buf;
+		}
+	}
+}
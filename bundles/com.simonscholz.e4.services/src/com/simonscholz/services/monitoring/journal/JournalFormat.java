@@ -0,0 +1,424 @@
+package com.simonscholz.services.monitoring.journal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.LockInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.simonscholz.services.monitoring.BlockingChain;
+import com.simonscholz.services.monitoring.FrameDictionary;
+import com.simonscholz.services.monitoring.GcActivity;
+import com.simonscholz.services.monitoring.MonitorOverhead;
+import com.simonscholz.services.monitoring.StackSample;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Layout of the journal files.
+ * <p>
+ * A journal file starts with a header of {@link #HEADER_SIZE} bytes holding
+ * {@link #MAGIC} and {@link #VERSION}. It is followed by records, each made of
+ * the payload length, the CRC-32 of the payload and the payload. The length is
+ * written last, so a record becomes visible only after it is complete, and a
+ * zero length marks the end of the written records. A record whose checksum
+ * does not match was torn by a crash and ends the file as well.
+ * </p>
+ * <p>
+ * The payload of a record holds a single {@link UiFreezeEvent}: its timing and
+ * flags, a table of the distinct stack frames and the samples, whose stack
+ * traces refer to the frame table by index. A truncated stack trace is
+ * followed by the position and the number of its elided frames, -1 if
+ * unknown. The event flags announce the optional sections following the
+ * samples: the blocking chain, the overhead of the monitor and the garbage
+ * collection activity.
+ * </p>
+ * <p>
+ * The snapshot of a blocking chain link refers to the sample holding it, or
+ * follows inline if it was captured outside of the samples.
+ * </p>
+ */
+final class JournalFormat {
+	static final int MAGIC = 0x55494A31; // "UIJ1"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 16;
+	/** Length and checksum in front of each payload. */
+	static final int RECORD_HEADER_SIZE = 8;
+	static final String FILE_PREFIX = "freezes-"; //$NON-NLS-1$
+	static final String FILE_SUFFIX = ".journal"; //$NON-NLS-1$
+
+	private static final Thread.State[] THREAD_STATES = Thread.State.values();
+	private static final MonitorOverhead.Throttle[] THROTTLES = MonitorOverhead.Throttle.values();
+	private static final int STILL_RUNNING = 1;
+	private static final int STARVED_AWAKE = 2;
+	private static final int STARVED_ASLEEP = 4;
+	private static final int HAS_BLOCKING_CHAIN = 8;
+	private static final int HAS_MONITOR_OVERHEAD = 16;
+	private static final int HAS_GC_ACTIVITY = 32;
+	private static final int IN_NATIVE = 1;
+	private static final int SUSPENDED = 2;
+	private static final int TRUNCATED = 4;
+	private static final int CYCLIC = 1;
+	private static final int NO_SNAPSHOT = 0;
+	private static final int SAMPLED_SNAPSHOT = 1;
+	private static final int INLINE_SNAPSHOT = 2;
+
+	private JournalFormat() {
+		// Do not instantiate.
+	}
+
+	/**
+	 * Returns the name of the journal file with the given sequence number.
+	 */
+	static String fileName(long sequence) {
+		return String.format("%s%010d%s", FILE_PREFIX, sequence, FILE_SUFFIX); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the sequence number of the journal file, or -1 if the file is not a
+	 * journal file.
+	 */
+	static long sequenceOf(File file) {
+		String name = file.getName();
+		if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the journal files in the given directory, oldest first.
+	 */
+	static File[] listFiles(File directory) {
+		File[] files = directory.listFiles(file -> sequenceOf(file) >= 0);
+		if (files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files, (a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)));
+		return files;
+	}
+
+	static void writeEvent(UiFreezeEvent event, DataOutput out) throws IOException {
+		StackSample[] samples = event.getStackTraceSamples();
+		BlockingChain chain = event.getBlockingChain();
+		MonitorOverhead overhead = event.getMonitorOverhead();
+		GcActivity gcActivity = event.getGcActivity();
+		out.writeLong(event.getStartTimestamp());
+		out.writeLong(event.getStartNanoTime());
+		out.writeLong(event.getTotalDurationNanos());
+		out.writeByte((event.isStillRunning() ? STILL_RUNNING : 0) | (event.isStarvedAwake() ? STARVED_AWAKE : 0)
+				| (event.isStarvedAsleep() ? STARVED_ASLEEP : 0) | (chain != null ? HAS_BLOCKING_CHAIN : 0)
+				| (overhead != null ? HAS_MONITOR_OVERHEAD : 0) | (gcActivity != null ? HAS_GC_ACTIVITY : 0));
+
+		// The samples may refer to different dictionaries, renumber the frames.
+		Map<StackTraceElement, Integer> frameIds = new HashMap<>();
+		List<StackTraceElement> frames = new ArrayList<>();
+		for (StackSample sample : samples) {
+			for (ThreadSnapshot thread : sample.getThreadSnapshots()) {
+				addFrames(thread, frameIds, frames);
+			}
+		}
+		if (chain != null) {
+			for (BlockingChain.Link link : chain.getLinks()) {
+				if (link.getThread() != null) {
+					addFrames(link.getThread(), frameIds, frames);
+				}
+			}
+		}
+
+		out.writeInt(frames.size());
+		for (StackTraceElement frame : frames) {
+			out.writeUTF(frame.getClassName());
+			out.writeUTF(frame.getMethodName());
+			writeNullableString(frame.getFileName(), out);
+			out.writeInt(frame.getLineNumber());
+		}
+
+		out.writeInt(samples.length);
+		for (StackSample sample : samples) {
+			out.writeLong(sample.getTimestamp());
+			out.writeLong(sample.getNanoTime());
+			ThreadSnapshot[] threads = sample.getThreadSnapshots();
+			out.writeInt(threads.length);
+			for (ThreadSnapshot thread : threads) {
+				writeThread(thread, frameIds, out);
+			}
+		}
+
+		if (chain != null) {
+			out.writeByte(chain.isCyclic() ? CYCLIC : 0);
+			long[] deadlockedThreadIds = chain.getDeadlockedThreadIds();
+			out.writeInt(deadlockedThreadIds.length);
+			for (long threadId : deadlockedThreadIds) {
+				out.writeLong(threadId);
+			}
+			BlockingChain.Link[] links = chain.getLinks();
+			out.writeInt(links.length);
+			for (BlockingChain.Link link : links) {
+				out.writeLong(link.getThreadId());
+				writeNullableString(link.getThreadName(), out);
+				writeLock(link.getWaitingFor(), out);
+				writeLinkSnapshot(link.getThread(), samples, frameIds, out);
+			}
+		}
+
+		if (overhead != null) {
+			out.writeLong(overhead.getCpuTimeNanos());
+			out.writeByte(overhead.getThrottle().ordinal());
+		}
+
+		if (gcActivity != null) {
+			out.writeInt(gcActivity.getPauseCount());
+			out.writeLong(gcActivity.getPauseNanos());
+			out.writeLong(gcActivity.getHeapUsedBefore());
+			out.writeLong(gcActivity.getHeapUsedAfter());
+			out.writeLong(gcActivity.getHeapMax());
+		}
+	}
+
+	private static void addFrames(ThreadSnapshot thread, Map<StackTraceElement, Integer> frameIds,
+			List<StackTraceElement> frames) {
+		for (int depth = 0; depth < thread.getStackDepth(); depth++) {
+			StackTraceElement frame = thread.getFrame(depth);
+			if (!frameIds.containsKey(frame)) {
+				frameIds.put(frame, frames.size());
+				frames.add(frame);
+			}
+		}
+	}
+
+	private static void writeLinkSnapshot(ThreadSnapshot thread, StackSample[] samples,
+			Map<StackTraceElement, Integer> frameIds, DataOutput out) throws IOException {
+		if (thread == null) {
+			out.writeByte(NO_SNAPSHOT);
+			return;
+		}
+		for (int i = samples.length; --i >= 0;) {
+			ThreadSnapshot[] threads = samples[i].getThreadSnapshots();
+			for (int j = 0; j < threads.length; j++) {
+				if (threads[j] == thread) {
+					out.writeByte(SAMPLED_SNAPSHOT);
+					out.writeInt(i);
+					out.writeInt(j);
+					return;
+				}
+			}
+		}
+		out.writeByte(INLINE_SNAPSHOT);
+		writeThread(thread, frameIds, out);
+	}
+
+	private static void writeThread(ThreadSnapshot thread, Map<StackTraceElement, Integer> frameIds,
+			DataOutput out) throws IOException {
+		out.writeLong(thread.getThreadId());
+		writeNullableString(thread.getThreadName(), out);
+		out.writeByte(thread.getThreadState().ordinal());
+		writeLock(thread.getLockInfo(), out);
+		out.writeLong(thread.getLockOwnerId());
+		writeNullableString(thread.getLockOwnerName(), out);
+		out.writeByte((thread.isInNative() ? IN_NATIVE : 0) | (thread.isSuspended() ? SUSPENDED : 0)
+				| (thread.getElidedFrameCount() != 0 ? TRUNCATED : 0));
+		out.writeLong(thread.getBlockedCount());
+		out.writeLong(thread.getBlockedTime());
+		out.writeLong(thread.getWaitedCount());
+		out.writeLong(thread.getWaitedTime());
+
+		out.writeInt(thread.getStackDepth());
+		for (int depth = 0; depth < thread.getStackDepth(); depth++) {
+			out.writeInt(frameIds.get(thread.getFrame(depth)));
+		}
+		if (thread.getElidedFrameCount() != 0) {
+			out.writeInt(thread.getElidedFrameIndex());
+			out.writeInt(thread.getElidedFrameCount());
+		}
+
+		LockInfo[] monitors = thread.getLockedMonitors();
+		out.writeInt(monitors.length);
+		for (int i = 0; i < monitors.length; i++) {
+			writeLock(monitors[i], out);
+			out.writeInt(thread.getLockedMonitorDepth(i));
+		}
+		LockInfo[] synchronizers = thread.getLockedSynchronizers();
+		out.writeInt(synchronizers.length);
+		for (LockInfo synchronizer : synchronizers) {
+			writeLock(synchronizer, out);
+		}
+	}
+
+	static UiFreezeEvent readEvent(DataInput in) throws IOException {
+		long startTimestamp = in.readLong();
+		long startNanoTime = in.readLong();
+		long durationNanos = in.readLong();
+		int flags = in.readByte();
+
+		FrameDictionary dictionary = new FrameDictionary();
+		int frameCount = in.readInt();
+		for (int i = 0; i < frameCount; i++) {
+			String className = in.readUTF();
+			String methodName = in.readUTF();
+			String fileName = readNullableString(in);
+			int lineNumber = in.readInt();
+			// A fresh dictionary assigns the ids in the order of the frame table.
+			dictionary.intern(new StackTraceElement(className, methodName, fileName, lineNumber));
+		}
+
+		StackSample[] samples = new StackSample[in.readInt()];
+		for (int i = 0; i < samples.length; i++) {
+			long timestamp = in.readLong();
+			long nanoTime = in.readLong();
+			ThreadSnapshot[] threads = new ThreadSnapshot[in.readInt()];
+			for (int j = 0; j < threads.length; j++) {
+				threads[j] = readThread(dictionary, in);
+			}
+			samples[i] = new StackSample(timestamp, nanoTime, threads);
+		}
+
+		BlockingChain chain = null;
+		if ((flags & HAS_BLOCKING_CHAIN) != 0) {
+			boolean cyclic = (in.readByte() & CYCLIC) != 0;
+			long[] deadlockedThreadIds = new long[in.readInt()];
+			for (int i = 0; i < deadlockedThreadIds.length; i++) {
+				deadlockedThreadIds[i] = in.readLong();
+			}
+			BlockingChain.Link[] links = new BlockingChain.Link[in.readInt()];
+			for (int i = 0; i < links.length; i++) {
+				long threadId = in.readLong();
+				String threadName = readNullableString(in);
+				LockInfo waitingFor = readLock(in);
+				links[i] = new BlockingChain.Link(threadId, threadName, readLinkSnapshot(samples, dictionary, in),
+						waitingFor);
+			}
+			chain = new BlockingChain(links, cyclic, deadlockedThreadIds);
+		}
+
+		MonitorOverhead overhead = null;
+		if ((flags & HAS_MONITOR_OVERHEAD) != 0) {
+			long cpuTimeNanos = in.readLong();
+			int throttle = in.readByte();
+			if (throttle < 0 || throttle >= THROTTLES.length) {
+				throw new IOException("Invalid throttle " + throttle); //$NON-NLS-1$
+			}
+			overhead = new MonitorOverhead(cpuTimeNanos, THROTTLES[throttle]);
+		}
+
+		GcActivity gcActivity = null;
+		if ((flags & HAS_GC_ACTIVITY) != 0) {
+			int pauseCount = in.readInt();
+			if (pauseCount < 0) {
+				throw new IOException("Invalid pause count " + pauseCount); //$NON-NLS-1$
+			}
+			gcActivity = new GcActivity(pauseCount, in.readLong(), in.readLong(), in.readLong(), in.readLong());
+		}
+
+		return new UiFreezeEvent(startTimestamp, startNanoTime, durationNanos, samples, (flags & STILL_RUNNING) != 0,
+				(flags & STARVED_AWAKE) != 0, (flags & STARVED_ASLEEP) != 0, chain, overhead, gcActivity);
+	}
+
+	private static ThreadSnapshot readLinkSnapshot(StackSample[] samples, FrameDictionary dictionary, DataInput in)
+			throws IOException {
+		int kind = in.readByte();
+		switch (kind) {
+		case NO_SNAPSHOT:
+			return null;
+		case INLINE_SNAPSHOT:
+			return readThread(dictionary, in);
+		case SAMPLED_SNAPSHOT:
+			int sampleIndex = in.readInt();
+			int threadIndex = in.readInt();
+			if (sampleIndex < 0 || sampleIndex >= samples.length || threadIndex < 0
+					|| threadIndex >= samples[sampleIndex].getThreadSnapshots().length) {
+				throw new IOException("Invalid snapshot reference " + sampleIndex + '/' + threadIndex); //$NON-NLS-1$
+			}
+			return samples[sampleIndex].getThreadSnapshots()[threadIndex];
+		default:
+			throw new IOException("Invalid snapshot kind " + kind); //$NON-NLS-1$
+		}
+	}
+
+	private static ThreadSnapshot readThread(FrameDictionary dictionary, DataInput in) throws IOException {
+		long threadId = in.readLong();
+		String threadName = readNullableString(in);
+		int state = in.readByte();
+		if (state < 0 || state >= THREAD_STATES.length) {
+			throw new IOException("Invalid thread state " + state); //$NON-NLS-1$
+		}
+		LockInfo lockInfo = readLock(in);
+		long lockOwnerId = in.readLong();
+		String lockOwnerName = readNullableString(in);
+		int flags = in.readByte();
+		long blockedCount = in.readLong();
+		long blockedTime = in.readLong();
+		long waitedCount = in.readLong();
+		long waitedTime = in.readLong();
+
+		int[] frameIds = new int[in.readInt()];
+		for (int i = 0; i < frameIds.length; i++) {
+			frameIds[i] = in.readInt();
+			if (frameIds[i] < 0 || frameIds[i] >= dictionary.size()) {
+				throw new IOException("Invalid frame id " + frameIds[i]); //$NON-NLS-1$
+			}
+		}
+		int elidedFrameIndex = 0;
+		int elidedFrameCount = 0;
+		if ((flags & TRUNCATED) != 0) {
+			elidedFrameIndex = in.readInt();
+			elidedFrameCount = in.readInt();
+			if (elidedFrameIndex < 0 || elidedFrameIndex > frameIds.length
+					|| elidedFrameCount < ThreadSnapshot.UNKNOWN_FRAME_COUNT) {
+				throw new IOException("Invalid elided frames " + elidedFrameCount + " at " + elidedFrameIndex); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+
+		LockInfo[] monitors = new LockInfo[in.readInt()];
+		int[] monitorDepths = new int[monitors.length];
+		for (int i = 0; i < monitors.length; i++) {
+			monitors[i] = readLock(in);
+			monitorDepths[i] = in.readInt();
+		}
+		LockInfo[] synchronizers = new LockInfo[in.readInt()];
+		for (int i = 0; i < synchronizers.length; i++) {
+			synchronizers[i] = readLock(in);
+		}
+
+		return new ThreadSnapshot(threadId, threadName, THREAD_STATES[state], lockInfo, lockOwnerId, lockOwnerName,
+				(flags & IN_NATIVE) != 0, (flags & SUSPENDED) != 0, blockedCount, blockedTime, waitedCount,
+				waitedTime, dictionary, frameIds, monitors, monitorDepths, synchronizers, elidedFrameIndex,
+				elidedFrameCount);
+	}
+
+	private static void writeLock(LockInfo lock, DataOutput out) throws IOException {
+		out.writeBoolean(lock != null);
+		if (lock != null) {
+			out.writeUTF(lock.getClassName());
+			out.writeInt(lock.getIdentityHashCode());
+		}
+	}
+
+	private static LockInfo readLock(DataInput in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		String className = in.readUTF();
+		return new LockInfo(className, in.readInt());
+	}
+
+	private static void writeNullableString(String value, DataOutput out) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readNullableString(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
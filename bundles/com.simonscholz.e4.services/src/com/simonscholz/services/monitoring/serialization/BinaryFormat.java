@@ -0,0 +1,52 @@
+package com.simonscholz.services.monitoring.serialization;
+
+/**
+ * Layout of the binary freeze event streams.
+ * <p>
+ * A stream starts with {@link #MAGIC} and {@link #VERSION}, followed by records
+ * made of the payload length as a variable-length integer and the payload. An
+ * empty stream holds no events.
+ * </p>
+ * <p>
+ * The payload of a record holds a single event: its timing and flags, a table
+ * of the distinct strings, a table of the distinct stack frames whose names
+ * refer to the string table, the samples, whose stack traces refer to the frame
+ * table, and the optional blocking chain, monitor overhead and GC activity,
+ * each announced by an event flag. A truncated stack trace is followed by the
+ * position and the zigzag encoded number of its elided frames, -1 if unknown.
+ * Integers are written in 7-bit groups, and values that may be negative are
+ * zigzag encoded first, so small values take a single byte. Optional strings
+ * and locks are written as their index plus one, with zero standing for
+ * {@code null}.
+ * </p>
+ */
+final class BinaryFormat {
+	static final byte[] MAGIC = { 'U', 'I', 'B', '1' };
+	static final int VERSION = 1;
+	/** Magic and version in front of the first record. */
+	static final int HEADER_SIZE = 5;
+
+	static final int STILL_RUNNING = 1;
+	static final int STARVED_AWAKE = 2;
+	static final int STARVED_ASLEEP = 4;
+	static final int HAS_BLOCKING_CHAIN = 8;
+	static final int HAS_MONITOR_OVERHEAD = 16;
+	static final int HAS_GC_ACTIVITY = 32;
+
+	static final int IN_NATIVE = 1;
+	static final int SUSPENDED = 2;
+	static final int TRUNCATED = 4;
+
+	static final int CYCLIC = 1;
+
+	/** A blocking chain link without snapshot. */
+	static final int NO_SNAPSHOT = 0;
+	/** A blocking chain link whose snapshot is part of a sample. */
+	static final int SAMPLED_SNAPSHOT = 1;
+	/** A blocking chain link whose snapshot follows inline. */
+	static final int INLINE_SNAPSHOT = 2;
+
+	private BinaryFormat() {
+		// Do not instantiate.
+	}
+}
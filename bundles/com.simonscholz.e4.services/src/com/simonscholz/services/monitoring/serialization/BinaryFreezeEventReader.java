@@ -0,0 +1,339 @@
+package com.simonscholz.services.monitoring.serialization;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.LockInfo;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.simonscholz.services.monitoring.BlockingChain;
+import com.simonscholz.services.monitoring.FrameDictionary;
+import com.simonscholz.services.monitoring.GcActivity;
+import com.simonscholz.services.monitoring.MonitorOverhead;
+import com.simonscholz.services.monitoring.StackSample;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Reads the {@link UiFreezeEvent}s written by a {@link BinaryFreezeEventWriter}.
+ * <p>
+ * The frames of each event are interned into a {@link FrameDictionary} of the
+ * event.
+ * </p>
+ *
+ * @since 1.0
+ */
+public class BinaryFreezeEventReader implements FreezeEventReader {
+	private static final Thread.State[] THREAD_STATES = Thread.State.values();
+	private static final MonitorOverhead.Throttle[] THROTTLES = MonitorOverhead.Throttle.values();
+
+	private final InputStream in;
+	private boolean headerRead;
+	private byte[] payload = new byte[8192];
+	private int position;
+	private int limit;
+	private String[] strings;
+	private FrameDictionary dictionary;
+
+	/**
+	 * Creates a reader of the given stream.
+	 */
+	public BinaryFreezeEventReader(InputStream in) {
+		this.in = new BufferedInputStream(in);
+	}
+
+	/**
+	 * Creates a reader of the given channel.
+	 */
+	public BinaryFreezeEventReader(ReadableByteChannel in) {
+		this(Channels.newInputStream(in));
+	}
+
+	@Override
+	public UiFreezeEvent next() throws IOException {
+		if (!headerRead) {
+			int first = in.read();
+			if (first < 0) {
+				return null; // An empty stream holds no events.
+			}
+			byte[] header = new byte[BinaryFormat.HEADER_SIZE];
+			header[0] = (byte) first;
+			readFully(header, 1, header.length - 1);
+			for (int i = 0; i < BinaryFormat.MAGIC.length; i++) {
+				if (header[i] != BinaryFormat.MAGIC[i]) {
+					throw new IOException("Not a binary freeze event stream"); //$NON-NLS-1$
+				}
+			}
+			if (header[BinaryFormat.MAGIC.length] != BinaryFormat.VERSION) {
+				throw new IOException("Unsupported version " + header[BinaryFormat.MAGIC.length]); //$NON-NLS-1$
+			}
+			headerRead = true;
+		}
+
+		long length = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				if (shift == 0) {
+					return null;
+				}
+				throw new EOFException();
+			}
+			if (shift > 28) {
+				throw new IOException("Invalid record length"); //$NON-NLS-1$
+			}
+			length |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+		if (length > Integer.MAX_VALUE - 8) {
+			throw new IOException("Invalid record length " + length); //$NON-NLS-1$
+		}
+		if (payload.length < length) {
+			payload = new byte[(int) length];
+		}
+		readFully(payload, 0, (int) length);
+		position = 0;
+		limit = (int) length;
+		try {
+			UiFreezeEvent event = readEvent();
+			if (position != limit) {
+				throw new IOException("Unexpected data at the end of the record"); //$NON-NLS-1$
+			}
+			return event;
+		} finally {
+			strings = null;
+			dictionary = null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private UiFreezeEvent readEvent() throws IOException {
+		long startTimestamp = readSignedVarLong();
+		long startNanoTime = readSignedVarLong();
+		long durationNanos = readSignedVarLong();
+		int flags = readByte();
+
+		strings = new String[readCount()];
+		for (int i = 0; i < strings.length; i++) {
+			int length = readCount();
+			if (length > limit - position) {
+				throw new EOFException();
+			}
+			strings[i] = new String(payload, position, length, StandardCharsets.UTF_8);
+			position += length;
+		}
+
+		dictionary = new FrameDictionary();
+		int frameCount = readCount();
+		for (int i = 0; i < frameCount; i++) {
+			String className = readString();
+			String methodName = readString();
+			String fileName = readNullableString();
+			int lineNumber = (int) readSignedVarLong();
+			// A fresh dictionary assigns the ids in the order of the frame table.
+			dictionary.intern(new StackTraceElement(className, methodName, fileName, lineNumber));
+		}
+
+		StackSample[] samples = new StackSample[readCount()];
+		for (int i = 0; i < samples.length; i++) {
+			long timestamp = readSignedVarLong();
+			long nanoTime = readSignedVarLong();
+			ThreadSnapshot[] threads = new ThreadSnapshot[readCount()];
+			for (int j = 0; j < threads.length; j++) {
+				threads[j] = readThread();
+			}
+			samples[i] = new StackSample(timestamp, nanoTime, threads);
+		}
+
+		BlockingChain chain = null;
+		if ((flags & BinaryFormat.HAS_BLOCKING_CHAIN) != 0) {
+			boolean cyclic = (readByte() & BinaryFormat.CYCLIC) != 0;
+			long[] deadlockedThreadIds = new long[readCount()];
+			for (int i = 0; i < deadlockedThreadIds.length; i++) {
+				deadlockedThreadIds[i] = readSignedVarLong();
+			}
+			BlockingChain.Link[] links = new BlockingChain.Link[readCount()];
+			for (int i = 0; i < links.length; i++) {
+				long threadId = readSignedVarLong();
+				String threadName = readNullableString();
+				LockInfo waitingFor = readLock();
+				links[i] = new BlockingChain.Link(threadId, threadName, readLinkSnapshot(samples), waitingFor);
+			}
+			chain = new BlockingChain(links, cyclic, deadlockedThreadIds);
+		}
+
+		MonitorOverhead overhead = null;
+		if ((flags & BinaryFormat.HAS_MONITOR_OVERHEAD) != 0) {
+			long cpuTimeNanos = readSignedVarLong();
+			int throttle = readCount();
+			if (throttle >= THROTTLES.length) {
+				throw new IOException("Invalid throttle " + throttle); //$NON-NLS-1$
+			}
+			overhead = new MonitorOverhead(cpuTimeNanos, THROTTLES[throttle]);
+		}
+
+		GcActivity gcActivity = null;
+		if ((flags & BinaryFormat.HAS_GC_ACTIVITY) != 0) {
+			long pauseCount = readVarLong();
+			if (pauseCount < 0 || pauseCount > Integer.MAX_VALUE) {
+				throw new IOException("Invalid pause count " + pauseCount); //$NON-NLS-1$
+			}
+			gcActivity = new GcActivity((int) pauseCount, readSignedVarLong(), readSignedVarLong(),
+					readSignedVarLong(), readSignedVarLong());
+		}
+
+		return new UiFreezeEvent(startTimestamp, startNanoTime, durationNanos, samples,
+				(flags & BinaryFormat.STILL_RUNNING) != 0, (flags & BinaryFormat.STARVED_AWAKE) != 0,
+				(flags & BinaryFormat.STARVED_ASLEEP) != 0, chain, overhead, gcActivity);
+	}
+
+	private ThreadSnapshot readThread() throws IOException {
+		long threadId = readSignedVarLong();
+		String threadName = readNullableString();
+		int state = readByte();
+		if (state >= THREAD_STATES.length) {
+			throw new IOException("Invalid thread state " + state); //$NON-NLS-1$
+		}
+		LockInfo lockInfo = readLock();
+		long lockOwnerId = readSignedVarLong();
+		String lockOwnerName = readNullableString();
+		int flags = readByte();
+		long blockedCount = readSignedVarLong();
+		long blockedTime = readSignedVarLong();
+		long waitedCount = readSignedVarLong();
+		long waitedTime = readSignedVarLong();
+
+		int[] frameIds = new int[readCount()];
+		for (int i = 0; i < frameIds.length; i++) {
+			frameIds[i] = readCount();
+			if (frameIds[i] >= dictionary.size()) {
+				throw new IOException("Invalid frame id " + frameIds[i]); //$NON-NLS-1$
+			}
+		}
+		int elidedFrameIndex = 0;
+		int elidedFrameCount = 0;
+		if ((flags & BinaryFormat.TRUNCATED) != 0) {
+			elidedFrameIndex = readCount();
+			long count = readSignedVarLong();
+			if (elidedFrameIndex > frameIds.length || count < ThreadSnapshot.UNKNOWN_FRAME_COUNT || count == 0
+					|| count > Integer.MAX_VALUE) {
+				throw new IOException("Invalid elided frames " + count + " at " + elidedFrameIndex); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			elidedFrameCount = (int) count;
+		}
+
+		LockInfo[] monitors = new LockInfo[readCount()];
+		int[] monitorDepths = new int[monitors.length];
+		for (int i = 0; i < monitors.length; i++) {
+			monitors[i] = readLock();
+			monitorDepths[i] = (int) readSignedVarLong();
+		}
+		LockInfo[] synchronizers = new LockInfo[readCount()];
+		for (int i = 0; i < synchronizers.length; i++) {
+			synchronizers[i] = readLock();
+		}
+
+		return new ThreadSnapshot(threadId, threadName, THREAD_STATES[state], lockInfo, lockOwnerId, lockOwnerName,
+				(flags & BinaryFormat.IN_NATIVE) != 0, (flags & BinaryFormat.SUSPENDED) != 0, blockedCount,
+				blockedTime, waitedCount, waitedTime, dictionary, frameIds, monitors, monitorDepths, synchronizers,
+				elidedFrameIndex, elidedFrameCount);
+	}
+
+	private ThreadSnapshot readLinkSnapshot(StackSample[] samples) throws IOException {
+		int kind = readByte();
+		switch (kind) {
+		case BinaryFormat.NO_SNAPSHOT:
+			return null;
+		case BinaryFormat.INLINE_SNAPSHOT:
+			return readThread();
+		case BinaryFormat.SAMPLED_SNAPSHOT:
+			int sampleIndex = readCount();
+			int threadIndex = readCount();
+			if (sampleIndex >= samples.length || threadIndex >= samples[sampleIndex].getThreadSnapshots().length) {
+				throw new IOException("Invalid snapshot reference " + sampleIndex + '/' + threadIndex); //$NON-NLS-1$
+			}
+			return samples[sampleIndex].getThreadSnapshots()[threadIndex];
+		default:
+			throw new IOException("Invalid snapshot kind " + kind); //$NON-NLS-1$
+		}
+	}
+
+	private LockInfo readLock() throws IOException {
+		int className = readCount();
+		if (className == 0) {
+			return null;
+		}
+		return new LockInfo(string(className - 1), (int) readVarLong());
+	}
+
+	private String readString() throws IOException {
+		return string(readCount());
+	}
+
+	private String readNullableString() throws IOException {
+		int id = readCount();
+		return id == 0 ? null : string(id - 1);
+	}
+
+	private String string(int id) throws IOException {
+		if (id >= strings.length) {
+			throw new IOException("Invalid string id " + id); //$NON-NLS-1$
+		}
+		return strings[id];
+	}
+
+	private int readByte() throws IOException {
+		if (position >= limit) {
+			throw new EOFException();
+		}
+		return payload[position++] & 0xFF;
+	}
+
+	/**
+	 * Reads a count or an index, which cannot be larger than the record.
+	 */
+	private int readCount() throws IOException {
+		long value = readVarLong();
+		if (value > limit) {
+			throw new IOException("Invalid count " + value); //$NON-NLS-1$
+		}
+		return (int) value;
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Invalid variable-length integer"); //$NON-NLS-1$
+	}
+
+	private long readSignedVarLong() throws IOException {
+		long value = readVarLong();
+		return value >>> 1 ^ -(value & 1);
+	}
+
+	private void readFully(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			int n = in.read(bytes, offset, length);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			offset += n;
+			length -= n;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package com.simonscholz.services.monitoring.serialization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.LockInfo;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import com.simonscholz.services.monitoring.BlockingChain;
+import com.simonscholz.services.monitoring.GcActivity;
+import com.simonscholz.services.monitoring.MonitorOverhead;
+import com.simonscholz.services.monitoring.StackSample;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Writes {@link UiFreezeEvent}s in a compact binary format, meant for shipping
+ * freeze data off many machines. Each event is a length-prefixed record holding
+ * tables of its distinct strings and stack frames, so a class or method name
+ * occurring in many samples is written once per event. Read the stream with a
+ * {@link BinaryFreezeEventReader}.
+ * <p>
+ * Events are encoded into a reused buffer and written with a single call to the
+ * underlying stream or channel, which should therefore not be buffered. No
+ * intermediate strings or byte arrays are created.
+ * </p>
+ *
+ * @since 1.0
+ */
+public class BinaryFreezeEventWriter implements FreezeEventWriter {
+	/** The largest encoding of a record length. */
+	private static final int MAX_LENGTH_SIZE = 5;
+
+	private final OutputBuffer buffer;
+	private final EventTables tables = new EventTables(true);
+	private boolean headerWritten;
+
+	/**
+	 * Creates a writer appending to the given stream.
+	 */
+	public BinaryFreezeEventWriter(OutputStream out) {
+		buffer = new OutputBuffer(out);
+	}
+
+	/**
+	 * Creates a writer appending to the given channel.
+	 */
+	public BinaryFreezeEventWriter(WritableByteChannel out) {
+		buffer = new OutputBuffer(out);
+	}
+
+	@Override
+	public void write(UiFreezeEvent event) throws IOException {
+		// Leave room for the header and the length, which is known once the
+		// payload is written, and fill it from the end.
+		int payloadStart = BinaryFormat.HEADER_SIZE + MAX_LENGTH_SIZE;
+		buffer.setSize(payloadStart);
+		writePayload(event);
+		int length = buffer.size() - payloadStart;
+		int lengthSize = 1;
+		for (int l = length >>> 7; l != 0; l >>>= 7) {
+			lengthSize++;
+		}
+		int position = payloadStart - lengthSize;
+		for (int i = 0; i < lengthSize; i++) {
+			int group = length >>> 7 * i & 0x7F;
+			buffer.setByte(position + i, i < lengthSize - 1 ? group | 0x80 : group);
+		}
+		if (!headerWritten) {
+			position -= BinaryFormat.HEADER_SIZE;
+			for (int i = 0; i < BinaryFormat.MAGIC.length; i++) {
+				buffer.setByte(position + i, BinaryFormat.MAGIC[i]);
+			}
+			buffer.setByte(position + BinaryFormat.MAGIC.length, BinaryFormat.VERSION);
+			headerWritten = true;
+		}
+		buffer.drain(position);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		buffer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		buffer.close();
+	}
+
+	private void writePayload(UiFreezeEvent event) {
+		StackSample[] samples = event.getStackTraceSamples();
+		BlockingChain chain = event.getBlockingChain();
+		MonitorOverhead overhead = event.getMonitorOverhead();
+		GcActivity gcActivity = event.getGcActivity();
+		buffer.writeSignedVarLong(event.getStartTimestamp());
+		buffer.writeSignedVarLong(event.getStartNanoTime());
+		buffer.writeSignedVarLong(event.getTotalDurationNanos());
+		buffer.writeByte((event.isStillRunning() ? BinaryFormat.STILL_RUNNING : 0)
+				| (event.isStarvedAwake() ? BinaryFormat.STARVED_AWAKE : 0)
+				| (event.isStarvedAsleep() ? BinaryFormat.STARVED_ASLEEP : 0)
+				| (chain != null ? BinaryFormat.HAS_BLOCKING_CHAIN : 0)
+				| (overhead != null ? BinaryFormat.HAS_MONITOR_OVERHEAD : 0)
+				| (gcActivity != null ? BinaryFormat.HAS_GC_ACTIVITY : 0));
+
+		tables.collect(event);
+		List<String> strings = tables.getStrings();
+		buffer.writeVarLong(strings.size());
+		for (int i = 0, n = strings.size(); i < n; i++) {
+			String string = strings.get(i);
+			buffer.writeVarLong(OutputBuffer.utf8Length(string));
+			buffer.writeUtf8(string);
+		}
+		List<StackTraceElement> frames = tables.getFrames();
+		buffer.writeVarLong(frames.size());
+		for (int i = 0, n = frames.size(); i < n; i++) {
+			StackTraceElement frame = frames.get(i);
+			buffer.writeVarLong(tables.stringId(frame.getClassName()));
+			buffer.writeVarLong(tables.stringId(frame.getMethodName()));
+			writeNullableString(frame.getFileName());
+			buffer.writeSignedVarLong(frame.getLineNumber());
+		}
+
+		buffer.writeVarLong(samples.length);
+		for (StackSample sample : samples) {
+			buffer.writeSignedVarLong(sample.getTimestamp());
+			buffer.writeSignedVarLong(sample.getNanoTime());
+			ThreadSnapshot[] threads = sample.getThreadSnapshots();
+			buffer.writeVarLong(threads.length);
+			for (ThreadSnapshot thread : threads) {
+				writeThread(thread);
+			}
+		}
+
+		if (chain != null) {
+			buffer.writeByte(chain.isCyclic() ? BinaryFormat.CYCLIC : 0);
+			long[] deadlockedThreadIds = chain.getDeadlockedThreadIds();
+			buffer.writeVarLong(deadlockedThreadIds.length);
+			for (long threadId : deadlockedThreadIds) {
+				buffer.writeSignedVarLong(threadId);
+			}
+			BlockingChain.Link[] links = chain.getLinks();
+			buffer.writeVarLong(links.length);
+			for (BlockingChain.Link link : links) {
+				buffer.writeSignedVarLong(link.getThreadId());
+				writeNullableString(link.getThreadName());
+				writeLock(link.getWaitingFor());
+				writeLinkSnapshot(link.getThread(), samples);
+			}
+		}
+
+		if (overhead != null) {
+			buffer.writeSignedVarLong(overhead.getCpuTimeNanos());
+			buffer.writeVarLong(overhead.getThrottle().ordinal());
+		}
+
+		if (gcActivity != null) {
+			buffer.writeVarLong(gcActivity.getPauseCount());
+			buffer.writeSignedVarLong(gcActivity.getPauseNanos());
+			buffer.writeSignedVarLong(gcActivity.getHeapUsedBefore());
+			buffer.writeSignedVarLong(gcActivity.getHeapUsedAfter());
+			buffer.writeSignedVarLong(gcActivity.getHeapMax());
+		}
+	}
+
+	private void writeThread(ThreadSnapshot thread) {
+		buffer.writeSignedVarLong(thread.getThreadId());
+		writeNullableString(thread.getThreadName());
+		buffer.writeByte(thread.getThreadState().ordinal());
+		writeLock(thread.getLockInfo());
+		buffer.writeSignedVarLong(thread.getLockOwnerId());
+		writeNullableString(thread.getLockOwnerName());
+		buffer.writeByte((thread.isInNative() ? BinaryFormat.IN_NATIVE : 0)
+				| (thread.isSuspended() ? BinaryFormat.SUSPENDED : 0)
+				| (thread.getElidedFrameCount() != 0 ? BinaryFormat.TRUNCATED : 0));
+		buffer.writeSignedVarLong(thread.getBlockedCount());
+		buffer.writeSignedVarLong(thread.getBlockedTime());
+		buffer.writeSignedVarLong(thread.getWaitedCount());
+		buffer.writeSignedVarLong(thread.getWaitedTime());
+
+		int depth = thread.getStackDepth();
+		buffer.writeVarLong(depth);
+		for (int i = 0; i < depth; i++) {
+			buffer.writeVarLong(tables.frameId(thread.getFrame(i)));
+		}
+		if (thread.getElidedFrameCount() != 0) {
+			buffer.writeVarLong(thread.getElidedFrameIndex());
+			buffer.writeSignedVarLong(thread.getElidedFrameCount());
+		}
+
+		LockInfo[] monitors = thread.getLockedMonitors();
+		buffer.writeVarLong(monitors.length);
+		for (int i = 0; i < monitors.length; i++) {
+			writeLock(monitors[i]);
+			buffer.writeSignedVarLong(thread.getLockedMonitorDepth(i));
+		}
+		LockInfo[] synchronizers = thread.getLockedSynchronizers();
+		buffer.writeVarLong(synchronizers.length);
+		for (LockInfo synchronizer : synchronizers) {
+			writeLock(synchronizer);
+		}
+	}
+
+	private void writeLinkSnapshot(ThreadSnapshot thread, StackSample[] samples) {
+		if (thread == null) {
+			buffer.writeByte(BinaryFormat.NO_SNAPSHOT);
+			return;
+		}
+		int sampleIndex = EventTables.sampleIndexOf(samples, thread);
+		if (sampleIndex < 0) {
+			buffer.writeByte(BinaryFormat.INLINE_SNAPSHOT);
+			writeThread(thread);
+		} else {
+			buffer.writeByte(BinaryFormat.SAMPLED_SNAPSHOT);
+			buffer.writeVarLong(sampleIndex);
+			buffer.writeVarLong(EventTables.threadIndexOf(samples[sampleIndex], thread));
+		}
+	}
+
+	private void writeLock(LockInfo lock) {
+		if (lock == null) {
+			buffer.writeVarLong(0);
+		} else {
+			buffer.writeVarLong(tables.stringId(lock.getClassName()) + 1);
+			buffer.writeVarLong(lock.getIdentityHashCode() & 0xFFFFFFFFL);
+		}
+	}
+
+	private void writeNullableString(String string) {
+		buffer.writeVarLong(tables.stringId(string) + 1);
+	}
+}
@@ -0,0 +1,147 @@
+package com.simonscholz.services.monitoring.serialization;
+
+import java.lang.management.LockInfo;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.simonscholz.services.monitoring.BlockingChain;
+import com.simonscholz.services.monitoring.StackSample;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Tables of the distinct stack frames and, optionally, the distinct strings of
+ * a {@link UiFreezeEvent}. The samples of an event may refer to different
+ * {@link com.simonscholz.services.monitoring.FrameDictionary dictionaries}, so
+ * the frames are renumbered per event. The tables are reused for all events
+ * written by a writer.
+ * <p>
+ * <strong>This class is not thread safe.</strong>
+ * </p>
+ */
+final class EventTables {
+	private final boolean collectStrings;
+	private final Map<StackTraceElement, Integer> frameIds = new HashMap<>();
+	private final List<StackTraceElement> frames = new ArrayList<>();
+	private final Map<String, Integer> stringIds = new HashMap<>();
+	private final List<String> strings = new ArrayList<>();
+
+	/**
+	 * @param collectStrings whether to collect the table of strings as well
+	 */
+	EventTables(boolean collectStrings) {
+		this.collectStrings = collectStrings;
+	}
+
+	/**
+	 * Replaces the content of the tables by the frames and strings of the event.
+	 */
+	void collect(UiFreezeEvent event) {
+		frameIds.clear();
+		frames.clear();
+		stringIds.clear();
+		strings.clear();
+		for (StackSample sample : event.getStackTraceSamples()) {
+			for (ThreadSnapshot thread : sample.getThreadSnapshots()) {
+				collect(thread);
+			}
+		}
+		BlockingChain chain = event.getBlockingChain();
+		if (chain != null) {
+			for (BlockingChain.Link link : chain.getLinks()) {
+				addString(link.getThreadName());
+				addLock(link.getWaitingFor());
+				if (link.getThread() != null) {
+					collect(link.getThread());
+				}
+			}
+		}
+	}
+
+	List<StackTraceElement> getFrames() {
+		return frames;
+	}
+
+	List<String> getStrings() {
+		return strings;
+	}
+
+	/**
+	 * Returns the index of the frame in {@link #getFrames()}.
+	 */
+	int frameId(StackTraceElement frame) {
+		return frameIds.get(frame);
+	}
+
+	/**
+	 * Returns the index of the string in {@link #getStrings()}, or -1 for
+	 * {@code null}.
+	 */
+	int stringId(String string) {
+		return string == null ? -1 : stringIds.get(string);
+	}
+
+	/**
+	 * Returns the index of the sample holding the given snapshot, or -1 if the
+	 * snapshot is not part of any sample. Later samples are searched first.
+	 */
+	static int sampleIndexOf(StackSample[] samples, ThreadSnapshot thread) {
+		for (int i = samples.length; --i >= 0;) {
+			if (threadIndexOf(samples[i], thread) >= 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the snapshot in the sample, or -1 if the sample does
+	 * not hold the snapshot.
+	 */
+	static int threadIndexOf(StackSample sample, ThreadSnapshot thread) {
+		ThreadSnapshot[] threads = sample.getThreadSnapshots();
+		for (int i = 0; i < threads.length; i++) {
+			if (threads[i] == thread) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void collect(ThreadSnapshot thread) {
+		addString(thread.getThreadName());
+		addLock(thread.getLockInfo());
+		addString(thread.getLockOwnerName());
+		for (int depth = 0, n = thread.getStackDepth(); depth < n; depth++) {
+			StackTraceElement frame = thread.getFrame(depth);
+			if (!frameIds.containsKey(frame)) {
+				frameIds.put(frame, frames.size());
+				frames.add(frame);
+				addString(frame.getClassName());
+				addString(frame.getMethodName());
+				addString(frame.getFileName());
+			}
+		}
+		for (LockInfo monitor : thread.getLockedMonitors()) {
+			addLock(monitor);
+		}
+		for (LockInfo synchronizer : thread.getLockedSynchronizers()) {
+			addLock(synchronizer);
+		}
+	}
+
+	private void addLock(LockInfo lock) {
+		if (lock != null) {
+			addString(lock.getClassName());
+		}
+	}
+
+	private void addString(String string) {
+		if (collectStrings && string != null && !stringIds.containsKey(string)) {
+			stringIds.put(string, strings.size());
+			strings.add(string);
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.simonscholz.services.monitoring.serialization;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Reads back the {@link UiFreezeEvent}s written by the matching
+ * {@link FreezeEventWriter}. Instances are not thread safe.
+ *
+ * @since 1.0
+ */
+public interface FreezeEventReader extends Closeable {
+
+	/**
+	 * Returns the next event of the stream.
+	 *
+	 * @return the next event, or {@code null} at the end of the stream
+	 * @throws IOException if the stream cannot be read or is malformed
+	 */
+	UiFreezeEvent next() throws IOException;
+}
@@ -0,0 +1,28 @@
+package com.simonscholz.services.monitoring.serialization;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Writes {@link UiFreezeEvent}s to a stream, one record per event.
+ * <p>
+ * Writers encode each event into a reused buffer and hand it to the underlying
+ * stream or channel in a single write. Instances are not thread safe.
+ * </p>
+ *
+ * @see FreezeEventReader
+ * @since 1.0
+ */
+public interface FreezeEventWriter extends Closeable, Flushable {
+
+	/**
+	 * Writes the event.
+	 *
+	 * @param event the event
+	 * @throws IOException if the underlying stream or channel throws it
+	 */
+	void write(UiFreezeEvent event) throws IOException;
+}
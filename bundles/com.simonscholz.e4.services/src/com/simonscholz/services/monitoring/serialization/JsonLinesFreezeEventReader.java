@@ -0,0 +1,246 @@
+package com.simonscholz.services.monitoring.serialization;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.LockInfo;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import com.simonscholz.services.monitoring.BlockingChain;
+import com.simonscholz.services.monitoring.FrameDictionary;
+import com.simonscholz.services.monitoring.GcActivity;
+import com.simonscholz.services.monitoring.MonitorOverhead;
+import com.simonscholz.services.monitoring.StackSample;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Reads the {@link UiFreezeEvent}s written by a
+ * {@link JsonLinesFreezeEventWriter}. Empty lines are skipped.
+ * <p>
+ * The frames of each event are interned into a {@link FrameDictionary} of the
+ * event.
+ * </p>
+ *
+ * @since 1.0
+ */
+public class JsonLinesFreezeEventReader implements FreezeEventReader {
+	private final BufferedReader in;
+	private long lineNumber;
+
+	/**
+	 * Creates a reader of the given UTF-8 encoded stream.
+	 */
+	public JsonLinesFreezeEventReader(InputStream in) {
+		this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Creates a reader of the given UTF-8 encoded channel.
+	 */
+	public JsonLinesFreezeEventReader(ReadableByteChannel in) {
+		this(Channels.newInputStream(in));
+	}
+
+	@Override
+	public UiFreezeEvent next() throws IOException {
+		String line;
+		do {
+			line = in.readLine();
+			if (line == null) {
+				return null;
+			}
+			lineNumber++;
+		} while (line.trim().isEmpty());
+		try {
+			return readEvent(asObject(JsonParser.parse(line)));
+		} catch (IOException | RuntimeException e) {
+			throw new IOException("Invalid freeze event in line " + lineNumber + ": " + e.getMessage(), e); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private static UiFreezeEvent readEvent(Map<String, Object> event) throws IOException {
+		FrameDictionary dictionary = new FrameDictionary();
+		for (Object element : array(event, "frames")) { //$NON-NLS-1$
+			Map<String, Object> frame = asObject(element);
+			// A fresh dictionary assigns the ids in the order of the frame table.
+			dictionary.intern(new StackTraceElement(string(frame, "class"), string(frame, "method"), //$NON-NLS-1$ //$NON-NLS-2$
+					nullableString(frame, "file"), (int) number(frame, "line"))); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		List<Object> sampleArray = array(event, "samples"); //$NON-NLS-1$
+		StackSample[] samples = new StackSample[sampleArray.size()];
+		for (int i = 0; i < samples.length; i++) {
+			Map<String, Object> sample = asObject(sampleArray.get(i));
+			List<Object> threadArray = array(sample, "threads"); //$NON-NLS-1$
+			ThreadSnapshot[] threads = new ThreadSnapshot[threadArray.size()];
+			for (int j = 0; j < threads.length; j++) {
+				threads[j] = readThread(asObject(threadArray.get(j)), dictionary);
+			}
+			samples[i] = new StackSample(number(sample, "timestamp"), number(sample, "nanoTime"), threads); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		BlockingChain chain = null;
+		Map<String, Object> chainObject = nullableObject(event, "blockingChain"); //$NON-NLS-1$
+		if (chainObject != null) {
+			List<Object> idArray = array(chainObject, "deadlockedThreadIds"); //$NON-NLS-1$
+			long[] deadlockedThreadIds = new long[idArray.size()];
+			for (int i = 0; i < deadlockedThreadIds.length; i++) {
+				deadlockedThreadIds[i] = (Long) idArray.get(i);
+			}
+			List<Object> linkArray = array(chainObject, "links"); //$NON-NLS-1$
+			BlockingChain.Link[] links = new BlockingChain.Link[linkArray.size()];
+			for (int i = 0; i < links.length; i++) {
+				Map<String, Object> link = asObject(linkArray.get(i));
+				links[i] = new BlockingChain.Link(number(link, "id"), nullableString(link, "name"), //$NON-NLS-1$ //$NON-NLS-2$
+						readLinkSnapshot(nullableObject(link, "snapshot"), samples, dictionary), //$NON-NLS-1$
+						readLock(nullableObject(link, "waitingFor"))); //$NON-NLS-1$
+			}
+			chain = new BlockingChain(links, bool(chainObject, "cyclic"), deadlockedThreadIds); //$NON-NLS-1$
+		}
+
+		MonitorOverhead overhead = null;
+		Map<String, Object> overheadObject = nullableObject(event, "monitorOverhead"); //$NON-NLS-1$
+		if (overheadObject != null) {
+			overhead = new MonitorOverhead(number(overheadObject, "cpuTimeNanos"), //$NON-NLS-1$
+					MonitorOverhead.Throttle.valueOf(string(overheadObject, "throttle"))); //$NON-NLS-1$
+		}
+
+		GcActivity gcActivity = null;
+		Map<String, Object> gcObject = nullableObject(event, "gcActivity"); //$NON-NLS-1$
+		if (gcObject != null) {
+			gcActivity = new GcActivity((int) number(gcObject, "pauseCount"), number(gcObject, "pauseNanos"), //$NON-NLS-1$ //$NON-NLS-2$
+					number(gcObject, "heapUsedBefore"), number(gcObject, "heapUsedAfter"), //$NON-NLS-1$ //$NON-NLS-2$
+					number(gcObject, "heapMax")); //$NON-NLS-1$
+		}
+
+		return new UiFreezeEvent(number(event, "startTimestamp"), number(event, "startNanoTime"), //$NON-NLS-1$ //$NON-NLS-2$
+				number(event, "durationNanos"), samples, bool(event, "stillRunning"), bool(event, "starvedAwake"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				bool(event, "starvedAsleep"), chain, overhead, gcActivity); //$NON-NLS-1$
+	}
+
+	private static ThreadSnapshot readThread(Map<String, Object> thread, FrameDictionary dictionary)
+			throws IOException {
+		List<Object> stack = array(thread, "stack"); //$NON-NLS-1$
+		int[] frameIds = new int[stack.size()];
+		for (int i = 0; i < frameIds.length; i++) {
+			long frameId = (Long) stack.get(i);
+			if (frameId < 0 || frameId >= dictionary.size()) {
+				throw new IOException("Invalid frame id " + frameId); //$NON-NLS-1$
+			}
+			frameIds[i] = (int) frameId;
+		}
+		int elidedFrameIndex = 0;
+		int elidedFrameCount = 0;
+		if (thread.containsKey("elidedFrameCount")) { //$NON-NLS-1$
+			long index = number(thread, "elidedFrameIndex"); //$NON-NLS-1$
+			long count = number(thread, "elidedFrameCount"); //$NON-NLS-1$
+			if (index < 0 || index > frameIds.length || count < ThreadSnapshot.UNKNOWN_FRAME_COUNT
+					|| count > Integer.MAX_VALUE) {
+				throw new IOException("Invalid elided frames " + count + " at " + index); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			elidedFrameIndex = (int) index;
+			elidedFrameCount = (int) count;
+		}
+
+		List<Object> monitorArray = array(thread, "lockedMonitors"); //$NON-NLS-1$
+		LockInfo[] monitors = new LockInfo[monitorArray.size()];
+		int[] monitorDepths = new int[monitors.length];
+		for (int i = 0; i < monitors.length; i++) {
+			Map<String, Object> monitor = asObject(monitorArray.get(i));
+			monitors[i] = readLock(monitor);
+			monitorDepths[i] = (int) number(monitor, "depth"); //$NON-NLS-1$
+		}
+		List<Object> synchronizerArray = array(thread, "lockedSynchronizers"); //$NON-NLS-1$
+		LockInfo[] synchronizers = new LockInfo[synchronizerArray.size()];
+		for (int i = 0; i < synchronizers.length; i++) {
+			synchronizers[i] = readLock(asObject(synchronizerArray.get(i)));
+		}
+
+		return new ThreadSnapshot(number(thread, "id"), nullableString(thread, "name"), //$NON-NLS-1$ //$NON-NLS-2$
+				Thread.State.valueOf(string(thread, "state")), readLock(nullableObject(thread, "lock")), //$NON-NLS-1$ //$NON-NLS-2$
+				number(thread, "lockOwnerId"), nullableString(thread, "lockOwnerName"), bool(thread, "inNative"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				bool(thread, "suspended"), number(thread, "blockedCount"), number(thread, "blockedTime"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				number(thread, "waitedCount"), number(thread, "waitedTime"), dictionary, frameIds, monitors, //$NON-NLS-1$ //$NON-NLS-2$
+				monitorDepths, synchronizers, elidedFrameIndex, elidedFrameCount);
+	}
+
+	private static ThreadSnapshot readLinkSnapshot(Map<String, Object> snapshot, StackSample[] samples,
+			FrameDictionary dictionary) throws IOException {
+		if (snapshot == null) {
+			return null;
+		}
+		if (!snapshot.containsKey("sample")) { //$NON-NLS-1$
+			return readThread(snapshot, dictionary);
+		}
+		return samples[(int) number(snapshot, "sample")].getThreadSnapshots()[(int) number(snapshot, "thread")]; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static LockInfo readLock(Map<String, Object> lock) throws IOException {
+		return lock == null ? null : new LockInfo(string(lock, "class"), (int) number(lock, "hash")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> asObject(Object value) throws IOException {
+		if (!(value instanceof Map)) {
+			throw new IOException("Expected an object"); //$NON-NLS-1$
+		}
+		return (Map<String, Object>) value;
+	}
+
+	private static Map<String, Object> nullableObject(Map<String, Object> object, String name) throws IOException {
+		Object value = object.get(name);
+		return value == null ? null : asObject(value);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Object> array(Map<String, Object> object, String name) throws IOException {
+		Object value = object.get(name);
+		if (!(value instanceof List)) {
+			throw new IOException("Expected an array: " + name); //$NON-NLS-1$
+		}
+		return (List<Object>) value;
+	}
+
+	private static String string(Map<String, Object> object, String name) throws IOException {
+		String value = nullableString(object, name);
+		if (value == null) {
+			throw new IOException("Expected a string: " + name); //$NON-NLS-1$
+		}
+		return value;
+	}
+
+	private static String nullableString(Map<String, Object> object, String name) throws IOException {
+		Object value = object.get(name);
+		if (value != null && !(value instanceof String)) {
+			throw new IOException("Expected a string: " + name); //$NON-NLS-1$
+		}
+		return (String) value;
+	}
+
+	private static long number(Map<String, Object> object, String name) throws IOException {
+		Object value = object.get(name);
+		if (!(value instanceof Long)) {
+			throw new IOException("Expected an integer: " + name); //$NON-NLS-1$
+		}
+		return (Long) value;
+	}
+
+	private static boolean bool(Map<String, Object> object, String name) throws IOException {
+		Object value = object.get(name);
+		if (!(value instanceof Boolean)) {
+			throw new IOException("Expected a boolean: " + name); //$NON-NLS-1$
+		}
+		return (Boolean) value;
+	}
+}
@@ -0,0 +1,338 @@
+package com.simonscholz.services.monitoring.serialization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.LockInfo;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import com.simonscholz.services.monitoring.BlockingChain;
+import com.simonscholz.services.monitoring.GcActivity;
+import com.simonscholz.services.monitoring.MonitorOverhead;
+import com.simonscholz.services.monitoring.StackSample;
+import com.simonscholz.services.monitoring.ThreadSnapshot;
+import com.simonscholz.services.monitoring.UiFreezeEvent;
+
+/**
+ * Writes {@link UiFreezeEvent}s in the JSON Lines format, one JSON object per
+ * line in UTF-8, for tools like {@code jq} and log shippers. Read the stream
+ * with a {@link JsonLinesFreezeEventReader}.
+ * <p>
+ * An event object has the members {@code startTimestamp},
+ * {@code startNanoTime}, {@code durationNanos}, {@code stillRunning},
+ * {@code starvedAwake}, {@code starvedAsleep}, {@code frames}, {@code samples},
+ * {@code blockingChain}, {@code monitorOverhead} and {@code gcActivity}. The
+ * stack traces of the threads in the samples are arrays of indices into
+ * {@code frames}, so each distinct frame is written once per event. A truncated
+ * stack trace is followed by the members {@code elidedFrameIndex} and
+ * {@code elidedFrameCount}, which is -1 if the bottom of the stack was not
+ * captured. Times are integers in the units of the corresponding getters,
+ * absent values are {@code null}.
+ * </p>
+ * <p>
+ * Events are encoded into a reused buffer and written with a single call to the
+ * underlying stream or channel, which should therefore not be buffered. No
+ * intermediate strings are created.
+ * </p>
+ *
+ * @since 1.0
+ */
+public class JsonLinesFreezeEventWriter implements FreezeEventWriter {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+	private final OutputBuffer buffer;
+	private final EventTables tables = new EventTables(false);
+
+	/**
+	 * Creates a writer appending to the given stream.
+	 */
+	public JsonLinesFreezeEventWriter(OutputStream out) {
+		buffer = new OutputBuffer(out);
+	}
+
+	/**
+	 * Creates a writer appending to the given channel.
+	 */
+	public JsonLinesFreezeEventWriter(WritableByteChannel out) {
+		buffer = new OutputBuffer(out);
+	}
+
+	@Override
+	public void write(UiFreezeEvent event) throws IOException {
+		StackSample[] samples = event.getStackTraceSamples();
+		tables.collect(event);
+
+		buffer.writeByte('{');
+		name("startTimestamp").writeDecimal(event.getStartTimestamp()); //$NON-NLS-1$
+		nextName("startNanoTime").writeDecimal(event.getStartNanoTime()); //$NON-NLS-1$
+		nextName("durationNanos").writeDecimal(event.getTotalDurationNanos()); //$NON-NLS-1$
+		nextName("stillRunning"); //$NON-NLS-1$
+		writeBoolean(event.isStillRunning());
+		nextName("starvedAwake"); //$NON-NLS-1$
+		writeBoolean(event.isStarvedAwake());
+		nextName("starvedAsleep"); //$NON-NLS-1$
+		writeBoolean(event.isStarvedAsleep());
+
+		nextName("frames").writeByte('['); //$NON-NLS-1$
+		List<StackTraceElement> frames = tables.getFrames();
+		for (int i = 0, n = frames.size(); i < n; i++) {
+			StackTraceElement frame = frames.get(i);
+			if (i != 0) {
+				buffer.writeByte(',');
+			}
+			buffer.writeByte('{');
+			name("class"); //$NON-NLS-1$
+			writeString(frame.getClassName());
+			nextName("method"); //$NON-NLS-1$
+			writeString(frame.getMethodName());
+			nextName("file"); //$NON-NLS-1$
+			writeString(frame.getFileName());
+			nextName("line").writeDecimal(frame.getLineNumber()); //$NON-NLS-1$
+			buffer.writeByte('}');
+		}
+		buffer.writeByte(']');
+
+		nextName("samples").writeByte('['); //$NON-NLS-1$
+		for (int i = 0; i < samples.length; i++) {
+			if (i != 0) {
+				buffer.writeByte(',');
+			}
+			buffer.writeByte('{');
+			name("timestamp").writeDecimal(samples[i].getTimestamp()); //$NON-NLS-1$
+			nextName("nanoTime").writeDecimal(samples[i].getNanoTime()); //$NON-NLS-1$
+			nextName("threads").writeByte('['); //$NON-NLS-1$
+			ThreadSnapshot[] threads = samples[i].getThreadSnapshots();
+			for (int j = 0; j < threads.length; j++) {
+				if (j != 0) {
+					buffer.writeByte(',');
+				}
+				writeThread(threads[j]);
+			}
+			buffer.writeByte(']').writeByte('}');
+		}
+		buffer.writeByte(']');
+
+		nextName("blockingChain"); //$NON-NLS-1$
+		writeBlockingChain(event.getBlockingChain(), samples);
+
+		nextName("monitorOverhead"); //$NON-NLS-1$
+		MonitorOverhead overhead = event.getMonitorOverhead();
+		if (overhead == null) {
+			buffer.writeUtf8("null"); //$NON-NLS-1$
+		} else {
+			buffer.writeByte('{');
+			name("cpuTimeNanos").writeDecimal(overhead.getCpuTimeNanos()); //$NON-NLS-1$
+			nextName("throttle"); //$NON-NLS-1$
+			writeString(overhead.getThrottle().name());
+			buffer.writeByte('}');
+		}
+
+		nextName("gcActivity"); //$NON-NLS-1$
+		GcActivity gcActivity = event.getGcActivity();
+		if (gcActivity == null) {
+			buffer.writeUtf8("null"); //$NON-NLS-1$
+		} else {
+			buffer.writeByte('{');
+			name("pauseCount").writeDecimal(gcActivity.getPauseCount()); //$NON-NLS-1$
+			nextName("pauseNanos").writeDecimal(gcActivity.getPauseNanos()); //$NON-NLS-1$
+			nextName("heapUsedBefore").writeDecimal(gcActivity.getHeapUsedBefore()); //$NON-NLS-1$
+			nextName("heapUsedAfter").writeDecimal(gcActivity.getHeapUsedAfter()); //$NON-NLS-1$
+			nextName("heapMax").writeDecimal(gcActivity.getHeapMax()); //$NON-NLS-1$
+			buffer.writeByte('}');
+		}
+		buffer.writeByte('}').writeByte('\n');
+		buffer.drain(0);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		buffer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		buffer.close();
+	}
+
+	private void writeThread(ThreadSnapshot thread) {
+		buffer.writeByte('{');
+		name("id").writeDecimal(thread.getThreadId()); //$NON-NLS-1$
+		nextName("name"); //$NON-NLS-1$
+		writeString(thread.getThreadName());
+		nextName("state"); //$NON-NLS-1$
+		writeString(thread.getThreadState().name());
+		nextName("lock"); //$NON-NLS-1$
+		writeLock(thread.getLockInfo());
+		nextName("lockOwnerId").writeDecimal(thread.getLockOwnerId()); //$NON-NLS-1$
+		nextName("lockOwnerName"); //$NON-NLS-1$
+		writeString(thread.getLockOwnerName());
+		nextName("inNative"); //$NON-NLS-1$
+		writeBoolean(thread.isInNative());
+		nextName("suspended"); //$NON-NLS-1$
+		writeBoolean(thread.isSuspended());
+		nextName("blockedCount").writeDecimal(thread.getBlockedCount()); //$NON-NLS-1$
+		nextName("blockedTime").writeDecimal(thread.getBlockedTime()); //$NON-NLS-1$
+		nextName("waitedCount").writeDecimal(thread.getWaitedCount()); //$NON-NLS-1$
+		nextName("waitedTime").writeDecimal(thread.getWaitedTime()); //$NON-NLS-1$
+
+		nextName("stack").writeByte('['); //$NON-NLS-1$
+		for (int depth = 0, n = thread.getStackDepth(); depth < n; depth++) {
+			if (depth != 0) {
+				buffer.writeByte(',');
+			}
+			buffer.writeDecimal(tables.frameId(thread.getFrame(depth)));
+		}
+		buffer.writeByte(']');
+		if (thread.getElidedFrameCount() != 0) {
+			nextName("elidedFrameIndex").writeDecimal(thread.getElidedFrameIndex()); //$NON-NLS-1$
+			nextName("elidedFrameCount").writeDecimal(thread.getElidedFrameCount()); //$NON-NLS-1$
+		}
+
+		nextName("lockedMonitors").writeByte('['); //$NON-NLS-1$
+		LockInfo[] monitors = thread.getLockedMonitors();
+		for (int i = 0; i < monitors.length; i++) {
+			if (i != 0) {
+				buffer.writeByte(',');
+			}
+			writeLockMembers(monitors[i]);
+			nextName("depth").writeDecimal(thread.getLockedMonitorDepth(i)); //$NON-NLS-1$
+			buffer.writeByte('}');
+		}
+		buffer.writeByte(']');
+
+		nextName("lockedSynchronizers").writeByte('['); //$NON-NLS-1$
+		LockInfo[] synchronizers = thread.getLockedSynchronizers();
+		for (int i = 0; i < synchronizers.length; i++) {
+			if (i != 0) {
+				buffer.writeByte(',');
+			}
+			writeLock(synchronizers[i]);
+		}
+		buffer.writeByte(']').writeByte('}');
+	}
+
+	private void writeBlockingChain(BlockingChain chain, StackSample[] samples) {
+		if (chain == null) {
+			buffer.writeUtf8("null"); //$NON-NLS-1$
+			return;
+		}
+		buffer.writeByte('{');
+		name("cyclic"); //$NON-NLS-1$
+		writeBoolean(chain.isCyclic());
+		nextName("deadlockedThreadIds").writeByte('['); //$NON-NLS-1$
+		long[] deadlockedThreadIds = chain.getDeadlockedThreadIds();
+		for (int i = 0; i < deadlockedThreadIds.length; i++) {
+			if (i != 0) {
+				buffer.writeByte(',');
+			}
+			buffer.writeDecimal(deadlockedThreadIds[i]);
+		}
+		buffer.writeByte(']');
+
+		nextName("links").writeByte('['); //$NON-NLS-1$
+		BlockingChain.Link[] links = chain.getLinks();
+		for (int i = 0; i < links.length; i++) {
+			if (i != 0) {
+				buffer.writeByte(',');
+			}
+			BlockingChain.Link link = links[i];
+			buffer.writeByte('{');
+			name("id").writeDecimal(link.getThreadId()); //$NON-NLS-1$
+			nextName("name"); //$NON-NLS-1$
+			writeString(link.getThreadName());
+			nextName("waitingFor"); //$NON-NLS-1$
+			writeLock(link.getWaitingFor());
+			// A snapshot taken from a sample refers to it instead of repeating it.
+			nextName("snapshot"); //$NON-NLS-1$
+			ThreadSnapshot thread = link.getThread();
+			int sampleIndex = thread == null ? -1 : EventTables.sampleIndexOf(samples, thread);
+			if (thread == null) {
+				buffer.writeUtf8("null"); //$NON-NLS-1$
+			} else if (sampleIndex < 0) {
+				writeThread(thread);
+			} else {
+				buffer.writeByte('{');
+				name("sample").writeDecimal(sampleIndex); //$NON-NLS-1$
+				nextName("thread").writeDecimal(EventTables.threadIndexOf(samples[sampleIndex], thread)); //$NON-NLS-1$
+				buffer.writeByte('}');
+			}
+			buffer.writeByte('}');
+		}
+		buffer.writeByte(']').writeByte('}');
+	}
+
+	private void writeLock(LockInfo lock) {
+		if (lock == null) {
+			buffer.writeUtf8("null"); //$NON-NLS-1$
+		} else {
+			writeLockMembers(lock);
+			buffer.writeByte('}');
+		}
+	}
+
+	/**
+	 * Writes an unterminated lock object, so that further members can follow.
+	 */
+	private void writeLockMembers(LockInfo lock) {
+		buffer.writeByte('{');
+		name("class"); //$NON-NLS-1$
+		writeString(lock.getClassName());
+		nextName("hash").writeDecimal(lock.getIdentityHashCode()); //$NON-NLS-1$
+	}
+
+	private void writeBoolean(boolean value) {
+		buffer.writeUtf8(value ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Writes a string literal, escaping quotes, backslashes and control
+	 * characters.
+	 */
+	private void writeString(String string) {
+		if (string == null) {
+			buffer.writeUtf8("null"); //$NON-NLS-1$
+			return;
+		}
+		buffer.writeByte('"');
+		int start = 0;
+		for (int i = 0, n = string.length(); i < n; i++) {
+			char c = string.charAt(i);
+			if (c < 0x20 || c == '"' || c == '\\') {
+				buffer.writeUtf8(string, start, i);
+				buffer.writeByte('\\');
+				switch (c) {
+				case '"':
+				case '\\':
+					buffer.writeByte(c);
+					break;
+				case '\n':
+					buffer.writeByte('n');
+					break;
+				case '\r':
+					buffer.writeByte('r');
+					break;
+				case '\t':
+					buffer.writeByte('t');
+					break;
+				default:
+					buffer.writeByte('u').writeByte('0').writeByte('0');
+					buffer.writeByte(HEX_DIGITS[c >> 4]).writeByte(HEX_DIGITS[c & 0xF]);
+				}
+				start = i + 1;
+			}
+		}
+		buffer.writeUtf8(string, start, string.length());
+		buffer.writeByte('"');
+	}
+
+	private OutputBuffer name(String name) {
+		buffer.writeByte('"');
+		buffer.writeUtf8(name);
+		return buffer.writeByte('"').writeByte(':');
+	}
+
+	private OutputBuffer nextName(String name) {
+		buffer.writeByte(',');
+		return name(name);
+	}
+}
@@ -0,0 +1,224 @@
+package com.simonscholz.services.monitoring.serialization;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal parser of the JSON written by {@link JsonLinesFreezeEventWriter}.
+ * Objects become {@link Map}s, arrays {@link List}s, numbers {@link Long}s,
+ * and strings, booleans and {@code null} their Java counterparts. Numbers with
+ * a fraction or an exponent are rejected, since the writer does not produce
+ * them.
+ */
+final class JsonParser {
+	private final String text;
+	private int position;
+
+	private JsonParser(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * Parses a single JSON value spanning the whole text.
+	 *
+	 * @throws IOException if the text is not valid JSON
+	 */
+	static Object parse(String text) throws IOException {
+		JsonParser parser = new JsonParser(text);
+		Object value = parser.readValue();
+		parser.skipWhitespace();
+		if (parser.position != text.length()) {
+			throw parser.error("Unexpected data after the value"); //$NON-NLS-1$
+		}
+		return value;
+	}
+
+	private Object readValue() throws IOException {
+		skipWhitespace();
+		if (position >= text.length()) {
+			throw error("Unexpected end of the text"); //$NON-NLS-1$
+		}
+		char c = text.charAt(position);
+		switch (c) {
+		case '{':
+			return readObject();
+		case '[':
+			return readArray();
+		case '"':
+			return readString();
+		case 't':
+			expect("true"); //$NON-NLS-1$
+			return Boolean.TRUE;
+		case 'f':
+			expect("false"); //$NON-NLS-1$
+			return Boolean.FALSE;
+		case 'n':
+			expect("null"); //$NON-NLS-1$
+			return null;
+		default:
+			if (c == '-' || c >= '0' && c <= '9') {
+				return readNumber();
+			}
+			throw error("Unexpected character '" + c + '\''); //$NON-NLS-1$
+		}
+	}
+
+	private Map<String, Object> readObject() throws IOException {
+		Map<String, Object> object = new HashMap<>();
+		position++;
+		skipWhitespace();
+		if (peek() == '}') {
+			position++;
+			return object;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"') {
+				throw error("Expected a member name"); //$NON-NLS-1$
+			}
+			String name = readString();
+			skipWhitespace();
+			expect(":"); //$NON-NLS-1$
+			object.put(name, readValue());
+			skipWhitespace();
+			char c = next();
+			if (c == '}') {
+				return object;
+			}
+			if (c != ',') {
+				throw error("Expected ',' or '}'"); //$NON-NLS-1$
+			}
+		}
+	}
+
+	private List<Object> readArray() throws IOException {
+		List<Object> array = new ArrayList<>();
+		position++;
+		skipWhitespace();
+		if (peek() == ']') {
+			position++;
+			return array;
+		}
+		while (true) {
+			array.add(readValue());
+			skipWhitespace();
+			char c = next();
+			if (c == ']') {
+				return array;
+			}
+			if (c != ',') {
+				throw error("Expected ',' or ']'"); //$NON-NLS-1$
+			}
+		}
+	}
+
+	private String readString() throws IOException {
+		position++;
+		StringBuilder builder = null;
+		int start = position;
+		while (true) {
+			char c = next();
+			if (c == '"') {
+				return builder == null ? text.substring(start, position - 1)
+						: builder.append(text, start, position - 1).toString();
+			}
+			if (c == '\\') {
+				if (builder == null) {
+					builder = new StringBuilder();
+				}
+				builder.append(text, start, position - 1);
+				char escaped = next();
+				switch (escaped) {
+				case '"':
+				case '\\':
+				case '/':
+					builder.append(escaped);
+					break;
+				case 'b':
+					builder.append('\b');
+					break;
+				case 'f':
+					builder.append('\f');
+					break;
+				case 'n':
+					builder.append('\n');
+					break;
+				case 'r':
+					builder.append('\r');
+					break;
+				case 't':
+					builder.append('\t');
+					break;
+				case 'u':
+					if (position + 4 > text.length()) {
+						throw error("Unexpected end of the text"); //$NON-NLS-1$
+					}
+					try {
+						builder.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+					} catch (NumberFormatException e) {
+						throw error("Invalid unicode escape"); //$NON-NLS-1$
+					}
+					position += 4;
+					break;
+				default:
+					throw error("Invalid escape '" + escaped + '\''); //$NON-NLS-1$
+				}
+				start = position;
+			} else if (c < 0x20) {
+				throw error("Control character in a string"); //$NON-NLS-1$
+			}
+		}
+	}
+
+	private Long readNumber() throws IOException {
+		int start = position;
+		if (peek() == '-') {
+			position++;
+		}
+		while (position < text.length() && text.charAt(position) >= '0' && text.charAt(position) <= '9') {
+			position++;
+		}
+		try {
+			return Long.valueOf(text.substring(start, position));
+		} catch (NumberFormatException e) {
+			throw error("Invalid integer"); //$NON-NLS-1$
+		}
+	}
+
+	private void expect(String literal) throws IOException {
+		if (!text.startsWith(literal, position)) {
+			throw error("Expected " + literal); //$NON-NLS-1$
+		}
+		position += literal.length();
+	}
+
+	private char peek() throws IOException {
+		if (position >= text.length()) {
+			throw error("Unexpected end of the text"); //$NON-NLS-1$
+		}
+		return text.charAt(position);
+	}
+
+	private char next() throws IOException {
+		char c = peek();
+		position++;
+		return c;
+	}
+
+	private void skipWhitespace() {
+		while (position < text.length()) {
+			char c = text.charAt(position);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return;
+			}
+			position++;
+		}
+	}
+
+	private IOException error(String message) {
+		return new IOException(message + " at column " + (position + 1)); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,197 @@
+package com.simonscholz.services.monitoring.serialization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that encodes values directly into its bytes and drains
+ * them to an {@link OutputStream} or a {@link WritableByteChannel}. The buffer
+ * is reused for all records, so once it has grown to the size of the largest
+ * record, encoding does not allocate.
+ */
+final class OutputBuffer {
+	private final OutputStream stream;
+	private final WritableByteChannel channel;
+	private byte[] bytes = new byte[8192];
+	private ByteBuffer wrapped;
+	private int size;
+
+	OutputBuffer(OutputStream stream) {
+		this.stream = stream;
+		this.channel = null;
+	}
+
+	OutputBuffer(WritableByteChannel channel) {
+		this.stream = null;
+		this.channel = channel;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Discards the content and continues writing at the given position.
+	 */
+	void setSize(int size) {
+		this.size = size;
+	}
+
+	OutputBuffer writeByte(int b) {
+		ensureCapacity(1);
+		bytes[size++] = (byte) b;
+		return this;
+	}
+
+	void setByte(int position, int b) {
+		bytes[position] = (byte) b;
+	}
+
+	/**
+	 * Writes the characters in UTF-8 without the intermediate byte array of
+	 * {@link String#getBytes(java.nio.charset.Charset)}. Unpaired surrogates are
+	 * written as '?'.
+	 */
+	void writeUtf8(CharSequence chars) {
+		writeUtf8(chars, 0, chars.length());
+	}
+
+	/**
+	 * Writes the characters from {@code start} to {@code end}, exclusive, in
+	 * UTF-8.
+	 */
+	void writeUtf8(CharSequence chars, int start, int end) {
+		ensureCapacity((end - start) * 3);
+		byte[] b = bytes;
+		int n = size;
+		for (int i = start; i < end; i++) {
+			char c = chars.charAt(i);
+			if (c < 0x80) {
+				b[n++] = (byte) c;
+			} else if (c < 0x800) {
+				b[n++] = (byte) (0xC0 | c >> 6);
+				b[n++] = (byte) (0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+				b[n++] = (byte) (0xF0 | codePoint >> 18);
+				b[n++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+				b[n++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+				b[n++] = (byte) (0x80 | codePoint & 0x3F);
+			} else if (Character.isSurrogate(c)) {
+				b[n++] = '?';
+			} else {
+				b[n++] = (byte) (0xE0 | c >> 12);
+				b[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+				b[n++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		size = n;
+	}
+
+	/**
+	 * Returns the number of bytes written by {@link #writeUtf8(CharSequence)}.
+	 */
+	static int utf8Length(CharSequence chars) {
+		int length = chars.length();
+		int bytes = length;
+		for (int i = 0; i < length; i++) {
+			char c = chars.charAt(i);
+			if (c >= 0x800) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+					i++;
+					bytes += 2; // Four bytes for two characters.
+				} else if (!Character.isSurrogate(c)) {
+					bytes += 2;
+				}
+			} else if (c >= 0x80) {
+				bytes++;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes a non-negative value in 7-bit groups, least significant group first.
+	 */
+	void writeVarLong(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			bytes[size++] = (byte) (value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		bytes[size++] = (byte) value;
+	}
+
+	/**
+	 * Writes a value that may be negative. Small absolute values take few bytes.
+	 */
+	void writeSignedVarLong(long value) {
+		writeVarLong(value << 1 ^ value >> 63);
+	}
+
+	/**
+	 * Writes the decimal digits of the value.
+	 */
+	void writeDecimal(long value) {
+		if (value == Long.MIN_VALUE) {
+			writeUtf8("-9223372036854775808"); //$NON-NLS-1$
+			return;
+		}
+		ensureCapacity(20);
+		if (value < 0) {
+			bytes[size++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		size += digits;
+		for (int i = size - 1; i >= size - digits; i--) {
+			bytes[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	/**
+	 * Writes the content from the given position on to the stream or channel and
+	 * empties the buffer.
+	 */
+	void drain(int from) throws IOException {
+		if (stream != null) {
+			stream.write(bytes, from, size - from);
+		} else {
+			if (wrapped == null || wrapped.array() != bytes) {
+				wrapped = ByteBuffer.wrap(bytes);
+			}
+			wrapped.limit(size).position(from);
+			while (wrapped.hasRemaining()) {
+				channel.write(wrapped);
+			}
+		}
+		size = 0;
+	}
+
+	void flush() throws IOException {
+		if (stream != null) {
+			stream.flush();
+		}
+	}
+
+	void close() throws IOException {
+		if (stream != null) {
+			stream.close();
+		} else {
+			channel.close();
+		}
+	}
+
+	private void ensureCapacity(int additional) {
+		if (size + additional > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+		}
+	}
+}